@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.codec.json;
+
+import com.continuuity.loom.Entities;
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.layout.BenchmarkFixtures;
+import com.continuuity.loom.scheduler.ClusterAction;
+import com.continuuity.loom.scheduler.task.ClusterJob;
+import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskId;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for serializing and deserializing clusters and cluster jobs, which are read and written by the
+ * schedulers many times over the life of a cluster. The size of both grows with the number of nodes in the cluster.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class JsonSerdeBenchmarks {
+  private static final List<ProvisionerAction> HARDWARE_ACTIONS =
+    ImmutableList.of(ProvisionerAction.CREATE, ProvisionerAction.CONFIRM, ProvisionerAction.BOOTSTRAP);
+  private static final List<ProvisionerAction> SERVICE_ACTIONS =
+    ImmutableList.of(ProvisionerAction.INSTALL, ProvisionerAction.CONFIGURE,
+                     ProvisionerAction.INITIALIZE, ProvisionerAction.START);
+
+  @Param({ "hdfs", "hadoop-distributed", "reactor" })
+  public String templateName;
+
+  @Param({ "10", "100", "1000" })
+  public int numMachines;
+
+  private final JsonSerde codec = new JsonSerde();
+  private Cluster cluster;
+  private ClusterJob clusterJob;
+  private byte[] serializedCluster;
+  private byte[] serializedClusterJob;
+
+  @Setup
+  public void setup() throws Exception {
+    ClusterTemplate template = BenchmarkFixtures.getTemplate(templateName);
+    Map<String, Node> nodes = BenchmarkFixtures.solveNodes(template, numMachines);
+
+    cluster = new Cluster(BenchmarkFixtures.CLUSTER_ID, "user", "benchmark", System.currentTimeMillis(),
+                          "benchmark cluster", Entities.ProviderExample.JOYENT, template, nodes.keySet(),
+                          template.getClusterDefaults().getServices(), template.getClusterDefaults().getConfig());
+    cluster.setStatus(Cluster.Status.ACTIVE);
+
+    // a create job with a stage for each hardware action on all nodes, and a stage for each service action on all
+    // services of all nodes, with every task complete.
+    JobId jobId = new JobId(BenchmarkFixtures.CLUSTER_ID, 1);
+    clusterJob = new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE);
+    long taskNum = 1;
+    for (ProvisionerAction action : HARDWARE_ACTIONS) {
+      Set<String> stage = Sets.newHashSet();
+      for (int i = 0; i < nodes.size(); i++) {
+        stage.add(new TaskId(jobId, taskNum++).getId());
+      }
+      clusterJob.addStage(stage);
+    }
+    for (ProvisionerAction action : SERVICE_ACTIONS) {
+      Set<String> stage = Sets.newHashSet();
+      for (Node node : nodes.values()) {
+        for (Service service : node.getServices()) {
+          stage.add(new TaskId(jobId, taskNum++).getId());
+        }
+      }
+      clusterJob.addStage(stage);
+    }
+    for (long i = 1; i < taskNum; i++) {
+      clusterJob.setTaskStatus(new TaskId(jobId, i).getId(), ClusterTask.Status.COMPLETE);
+    }
+    clusterJob.setJobStatus(ClusterJob.Status.COMPLETE);
+
+    serializedCluster = codec.serialize(cluster, Cluster.class);
+    serializedClusterJob = codec.serialize(clusterJob, ClusterJob.class);
+  }
+
+  @Benchmark
+  public byte[] serializeCluster() {
+    return codec.serialize(cluster, Cluster.class);
+  }
+
+  @Benchmark
+  public Cluster deserializeCluster() {
+    return codec.deserialize(serializedCluster, Cluster.class);
+  }
+
+  @Benchmark
+  public Cluster roundTripCluster() {
+    return codec.deserialize(codec.serialize(cluster, Cluster.class), Cluster.class);
+  }
+
+  @Benchmark
+  public byte[] serializeClusterJob() {
+    return codec.serialize(clusterJob, ClusterJob.class);
+  }
+
+  @Benchmark
+  public ClusterJob deserializeClusterJob() {
+    return codec.deserialize(serializedClusterJob, ClusterJob.class);
+  }
+
+  @Benchmark
+  public ClusterJob roundTripClusterJob() {
+    return codec.deserialize(codec.serialize(clusterJob, ClusterJob.class), ClusterJob.class);
+  }
+}
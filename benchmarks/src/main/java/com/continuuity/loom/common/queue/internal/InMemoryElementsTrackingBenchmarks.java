@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.common.queue.internal;
+
+import com.continuuity.loom.common.queue.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks for the throughput of {@link InMemoryElementsTracking} with different numbers of concurrent consumers.
+ * Each consumer takes an element, records progress on it, and either finishes it and adds a new element, or fails it
+ * so that it gets added back to the queue, which is the path provisioners take through the task queue.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class InMemoryElementsTrackingBenchmarks {
+  private static final int QUEUE_SIZE = 1000;
+  private static final AtomicLong CONSUMER_IDS = new AtomicLong();
+
+  /**
+   * Queue shared by all consumers, filled with elements before each run.
+   */
+  @State(Scope.Benchmark)
+  public static class Queue {
+    private ElementsTracking tracking;
+    private AtomicLong ids;
+
+    @Setup
+    public void setup() {
+      tracking = new InMemoryElementsTracking();
+      ids = new AtomicLong();
+      for (int i = 0; i < QUEUE_SIZE; i++) {
+        tracking.addToQueue(new Element(String.valueOf(ids.incrementAndGet()), "data"));
+      }
+    }
+  }
+
+  /**
+   * A consumer of the queue, one per benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Consumer {
+    private String consumerId;
+    private long count;
+
+    @Setup
+    public void setup() {
+      consumerId = "consumer" + CONSUMER_IDS.incrementAndGet();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Element consumers1(Queue queue, Consumer consumer) {
+    return consume(queue, consumer);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Element consumers8(Queue queue, Consumer consumer) {
+    return consume(queue, consumer);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Element consumers64(Queue queue, Consumer consumer) {
+    return consume(queue, consumer);
+  }
+
+  private static Element consume(Queue queue, Consumer consumer) {
+    Element element = queue.tracking.startConsuming(consumer.consumerId);
+    if (element == null) {
+      return null;
+    }
+    queue.tracking.recordProgress(element.getId(), consumer.consumerId);
+    if (consumer.count++ % 10 == 0) {
+      queue.tracking.stopConsumingAndAddBackToQueue(element.getId(), consumer.consumerId);
+    } else {
+      queue.tracking.finishConsuming(element.getId(), consumer.consumerId);
+      queue.tracking.addToQueue(new Element(String.valueOf(queue.ids.incrementAndGet()), "data"));
+    }
+    return element;
+  }
+}
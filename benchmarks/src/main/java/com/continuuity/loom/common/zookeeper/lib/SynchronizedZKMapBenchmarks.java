@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.common.zookeeper.lib;
+
+import com.google.common.io.Files;
+import org.apache.twill.internal.zookeeper.InMemoryZKServer;
+import org.apache.twill.zookeeper.ZKClientService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the throughput of reads of a {@link SynchronizedZKMap} against an in-memory zookeeper, on their own
+ * and while another zookeeper session, as another process would have, keeps writing to the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SynchronizedZKMapBenchmarks {
+  private static final String PATH = "/map";
+  private static final int NUM_KEYS = 20;
+
+  private InMemoryZKServer zkServer;
+  private ZKClientService readerZKClient;
+  private ZKClientService writerZKClient;
+  private SynchronizedZKMap<String> readerMap;
+  private SynchronizedZKMap<String> writerMap;
+
+  /**
+   * Random keys for a benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Keys {
+    private final Random random = new Random();
+    private long writes;
+
+    private String next() {
+      return "key" + random.nextInt(NUM_KEYS);
+    }
+  }
+
+  @Setup
+  public void setup() {
+    zkServer = InMemoryZKServer.builder().setDataDir(Files.createTempDir()).build();
+    zkServer.startAndWait();
+    readerZKClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    readerZKClient.startAndWait();
+    writerZKClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    writerZKClient.startAndWait();
+
+    readerMap = new SynchronizedZKMap<String>(readerZKClient, PATH, Serializers.stringSerializer());
+    writerMap = new SynchronizedZKMap<String>(writerZKClient, PATH, Serializers.stringSerializer());
+    for (int i = 0; i < NUM_KEYS; i++) {
+      writerMap.put("key" + i, "value");
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    writerZKClient.stopAndWait();
+    readerZKClient.stopAndWait();
+    zkServer.stopAndWait();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String get(Keys keys) {
+    return readerMap.get(keys.next());
+  }
+
+  @Benchmark
+  @Group("getWithWriter")
+  @GroupThreads(4)
+  public String getWhileWriting(Keys keys) {
+    return readerMap.get(keys.next());
+  }
+
+  @Benchmark
+  @Group("getWithWriter")
+  @GroupThreads(1)
+  public String put(Keys keys) {
+    return writerMap.put(keys.next(), "value" + keys.writes++);
+  }
+}
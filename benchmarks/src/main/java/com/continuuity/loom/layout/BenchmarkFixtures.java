@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.Entities;
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.admin.ServiceAction;
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.codec.json.JsonSerde;
+import com.continuuity.loom.management.LoomStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixtures shared by the benchmarks, built from the cluster templates in the server test {@link Entities}. Templates
+ * are referred to by name so that they can be used as benchmark parameters, and are listed here in order of
+ * increasing complexity:
+ * <ul>
+ *   <li>hdfs: 3 services, with a single service constraint and a single layout constraint.</li>
+ *   <li>hadoop-distributed: 6 services, with several service and layout constraints.</li>
+ *   <li>reactor: 10 services, with constraints on most services and both must and cant coexist constraints.</li>
+ * </ul>
+ */
+public final class BenchmarkFixtures {
+  public static final String CLUSTER_ID = "123";
+  private static final JsonSerde CODEC = new JsonSerde();
+  private static final Set<String> HARDWARE_TYPES = ImmutableSet.of("small", "medium", "large");
+  private static final Set<String> IMAGE_TYPES = ImmutableSet.of("centos6", "ubuntu12");
+  private static final Map<String, String> TEMPLATES = ImmutableMap.of(
+    "hdfs", Entities.ClusterTemplateExample.HDFS_STRING,
+    "hadoop-distributed", Entities.ClusterTemplateExample.HADOOP_DISTRIBUTED_STRING,
+    "reactor", Entities.ClusterTemplateExample.REACTOR2_STRING
+  );
+  // direct dependencies between the services used in the templates, for both the short and the full service names.
+  private static final ImmutableSetMultimap<String, String> SERVICE_DEPENDENCIES =
+    ImmutableSetMultimap.<String, String>builder()
+      .putAll("namenode", "hosts")
+      .putAll("datanode", "namenode")
+      .putAll("resourcemanager", "datanode")
+      .putAll("nodemanager", "resourcemanager")
+      .putAll("hadoop-hdfs-namenode", "hosts", "firewall")
+      .putAll("hadoop-hdfs-datanode", "hadoop-hdfs-namenode")
+      .putAll("hadoop-yarn-resourcemanager", "hadoop-hdfs-datanode")
+      .putAll("hadoop-yarn-nodemanager", "hadoop-yarn-resourcemanager")
+      .putAll("zookeeper-server", "hosts", "firewall")
+      .putAll("hbase-master", "zookeeper-server", "hadoop-hdfs-datanode")
+      .putAll("hbase-regionserver", "hbase-master")
+      .putAll("reactor", "zookeeper-server", "hbase-regionserver", "hadoop-yarn-nodemanager")
+      .build();
+
+  private BenchmarkFixtures() {
+  }
+
+  /**
+   * Get one of the test cluster templates by name.
+   *
+   * @param name Name of the template, one of hdfs, hadoop-distributed, or reactor.
+   * @return Cluster template with the given name.
+   */
+  public static ClusterTemplate getTemplate(String name) {
+    String templateJson = TEMPLATES.get(name);
+    if (templateJson == null) {
+      throw new IllegalArgumentException("unknown template " + name + ", expected one of " + TEMPLATES.keySet());
+    }
+    return CODEC.getGson().fromJson(templateJson, ClusterTemplate.class);
+  }
+
+  /**
+   * Get a mapping of hardware type to flavor for all hardware types that can be used with the given template.
+   *
+   * @param template Template to get hardware types for.
+   * @return Mapping of hardware type name to flavor.
+   */
+  public static Map<String, String> getHardwareTypeMap(ClusterTemplate template) {
+    return toMap(compatible(HARDWARE_TYPES, template.getCompatibilities().getHardwaretypes()), "-flavor");
+  }
+
+  /**
+   * Get a mapping of image type to image for all image types that can be used with the given template.
+   *
+   * @param template Template to get image types for.
+   * @return Mapping of image type name to image.
+   */
+  public static Map<String, String> getImageTypeMap(ClusterTemplate template) {
+    return toMap(compatible(IMAGE_TYPES, template.getCompatibilities().getImagetypes()), "-image");
+  }
+
+  /**
+   * Create services with install, configure, initialize, and start actions, and dependencies that mirror the usual
+   * hadoop stack.
+   *
+   * @param serviceNames Names of services to create.
+   * @return Mapping of service name to service.
+   */
+  public static Map<String, Service> createServiceMap(Set<String> serviceNames) {
+    Map<String, Service> serviceMap = Maps.newHashMap();
+    for (String serviceName : serviceNames) {
+      Map<ProvisionerAction, ServiceAction> actions = Maps.newHashMap();
+      for (ProvisionerAction action : ImmutableSet.of(ProvisionerAction.INSTALL, ProvisionerAction.CONFIGURE,
+                                                      ProvisionerAction.INITIALIZE, ProvisionerAction.START)) {
+        String script = "recipe[" + serviceName + "::" + action.name().toLowerCase() + "]";
+        actions.put(action, new ServiceAction("chef", script, null));
+      }
+      Set<String> dependsOn = Sets.intersection(SERVICE_DEPENDENCIES.get(serviceName), serviceNames);
+      serviceMap.put(serviceName, new Service(serviceName, serviceName, ImmutableSet.copyOf(dependsOn), actions));
+    }
+    return serviceMap;
+  }
+
+  /**
+   * Create a solver that uses the default search engine and does not cache node layouts.
+   *
+   * @return Solver for benchmarks.
+   */
+  static Solver createSolver() {
+    return new Solver(null, new SearchLayoutSolverEngine(Integer.MAX_VALUE, 1),
+                      new NodeLayoutCache(0, new LoomStats()), TimeUnit.HOURS.toSeconds(1));
+  }
+
+  /**
+   * Solve the layout of a cluster with the default services of the given template.
+   *
+   * @param template Template to solve a cluster for.
+   * @param numMachines Number of machines in the cluster.
+   * @return Mapping of node id to node for all nodes in the cluster.
+   * @throws Exception if the cluster could not be solved.
+   */
+  public static Map<String, Node> solveNodes(ClusterTemplate template, int numMachines) throws Exception {
+    Set<String> services = template.getClusterDefaults().getServices();
+    Map<String, Node> nodes = createSolver().solveConstraints(
+      CLUSTER_ID, template, "benchmark", numMachines, getHardwareTypeMap(template), getImageTypeMap(template),
+      services, createServiceMap(services));
+    if (nodes == null) {
+      throw new IllegalStateException("could not solve template " + template.getName() + " for "
+                                        + numMachines + " machines");
+    }
+    return nodes;
+  }
+
+  // null or empty allowed types means all types are allowed
+  private static Set<String> compatible(Set<String> types, Set<String> allowedTypes) {
+    return allowedTypes == null || allowedTypes.isEmpty() ? types : Sets.intersection(types, allowedTypes);
+  }
+
+  private static Map<String, String> toMap(Set<String> names, String suffix) {
+    Map<String, String> map = Maps.newHashMap();
+    for (String name : names) {
+      map.put(name, name + suffix);
+    }
+    return map;
+  }
+}
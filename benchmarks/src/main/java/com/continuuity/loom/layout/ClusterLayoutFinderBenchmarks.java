@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.Administration;
+import com.continuuity.loom.admin.ClusterDefaults;
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.Compatibilities;
+import com.continuuity.loom.admin.Constraints;
+import com.continuuity.loom.admin.LayoutConstraint;
+import com.continuuity.loom.admin.ServiceConstraint;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for finding node counts with the pruned search in {@link ClusterLayoutFinder}, sequentially and in
+ * parallel, and with the plain enumeration of every cluster layout, over a grid of machine and node layout counts.
+ * <p/>
+ * The fixture has one worker service per node layout, and a master service that must be on at least half the
+ * machines but is only in the least preferred node layout. This is a bad case for the enumeration, since it has to
+ * walk through every layout that places too few machines in the last node layout before finding a valid one. The
+ * enumeration takes minutes on the larger grid points, so it only runs on the smaller ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ClusterLayoutFinderBenchmarks {
+  private static final int PARALLEL_THREADS = 4;
+
+  /**
+   * Fixture for the searches.
+   */
+  @State(Scope.Benchmark)
+  public static class SearchState {
+    @Param({ "3", "5", "10", "30" })
+    public int numLayouts;
+
+    @Param({ "10", "50", "100", "200" })
+    public int numMachines;
+
+    private ClusterTemplate template;
+    private List<NodeLayout> nodePreferences;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+      template = createTemplate(numLayouts, numMachines);
+      nodePreferences = createNodePreferences(numLayouts);
+      executor = Executors.newFixedThreadPool(PARALLEL_THREADS);
+    }
+
+    @TearDown
+    public void teardown() {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Fixture for the enumeration, limited to the grid points it finishes on in reasonable time.
+   */
+  @State(Scope.Benchmark)
+  public static class EnumerationState {
+    @Param({ "3", "5" })
+    public int numLayouts;
+
+    @Param({ "10", "50" })
+    public int numMachines;
+
+    private ClusterTemplate template;
+    private List<NodeLayout> nodePreferences;
+
+    @Setup
+    public void setup() {
+      template = createTemplate(numLayouts, numMachines);
+      nodePreferences = createNodePreferences(numLayouts);
+    }
+  }
+
+  @Benchmark
+  public int[] search(SearchState state) {
+    return new ClusterLayoutFinder(state.nodePreferences, state.template,
+                                   state.template.getClusterDefaults().getServices(), state.numMachines)
+      .findValidNodeCounts();
+  }
+
+  @Benchmark
+  public int[] parallelSearch(SearchState state) {
+    return new ClusterLayoutFinder(state.nodePreferences, state.template,
+                                   state.template.getClusterDefaults().getServices(), state.numMachines)
+      .findValidNodeCounts(state.executor, PARALLEL_THREADS * 4);
+  }
+
+  @Benchmark
+  public int[] enumerate(EnumerationState state) {
+    return new ClusterLayoutFinder(state.nodePreferences, state.template,
+                                   state.template.getClusterDefaults().getServices(), state.numMachines)
+      .findValidNodeCountsByEnumeration();
+  }
+
+  private static ClusterTemplate createTemplate(int numLayouts, int numMachines) {
+    Set<String> services = Sets.newHashSet("master");
+    Map<String, ServiceConstraint> constraints = Maps.newHashMap();
+    constraints.put("master", new ServiceConstraint(null, null, numMachines / 2, null, 1, null));
+    for (int i = 0; i < numLayouts; i++) {
+      services.add("worker" + i);
+      constraints.put("worker" + i, new ServiceConstraint(null, null, 0, numMachines, 1, null));
+    }
+    return new ClusterTemplate(
+      "benchmark", "benchmark template",
+      new ClusterDefaults(services, "joyent", null, null, new JsonObject()),
+      new Compatibilities(null, null, services),
+      new Constraints(constraints, new LayoutConstraint(ImmutableSet.<Set<String>>of(),
+                                                        ImmutableSet.<Set<String>>of())),
+      Administration.EMPTY_ADMINISTRATION
+    );
+  }
+
+  private static List<NodeLayout> createNodePreferences(int numLayouts) {
+    List<NodeLayout> nodePreferences = Lists.newArrayListWithCapacity(numLayouts);
+    for (int i = 0; i < numLayouts - 1; i++) {
+      nodePreferences.add(new NodeLayout("medium", "centos6", ImmutableSet.of("worker" + i)));
+    }
+    nodePreferences.add(new NodeLayout("medium", "centos6", ImmutableSet.of("master", "worker" + (numLayouts - 1))));
+    return nodePreferences;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for generating the node layouts that can be used in a cluster, which only depends on the template and
+ * not on the cluster size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class NodeLayoutGeneratorBenchmarks {
+
+  @Param({ "hdfs", "hadoop-distributed", "reactor" })
+  public String templateName;
+
+  private ClusterTemplate template;
+  private Set<String> services;
+  private Set<String> hardwareTypes;
+  private Set<String> imageTypes;
+
+  @Setup
+  public void setup() {
+    template = BenchmarkFixtures.getTemplate(templateName);
+    services = template.getClusterDefaults().getServices();
+    hardwareTypes = BenchmarkFixtures.getHardwareTypeMap(template).keySet();
+    imageTypes = BenchmarkFixtures.getImageTypeMap(template).keySet();
+  }
+
+  @Benchmark
+  public List<NodeLayout> generateNodeLayoutPreferences() {
+    return new NodeLayoutGenerator(template, services, hardwareTypes, imageTypes).generateNodeLayoutPreferences();
+  }
+}
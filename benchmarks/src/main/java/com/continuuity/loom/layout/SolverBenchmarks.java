@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.cluster.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for solving cluster layouts, both end to end through {@link Solver#solveConstraints} and for just the
+ * step that decides how many of each node layout to use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SolverBenchmarks {
+
+  @Param({ "hdfs", "hadoop-distributed", "reactor" })
+  public String templateName;
+
+  @Param({ "10", "100", "1000" })
+  public int numMachines;
+
+  private Solver solver;
+  private ClusterTemplate template;
+  private Map<String, String> hardwareTypeMap;
+  private Map<String, String> imageTypeMap;
+  private Set<String> services;
+  private Map<String, Service> serviceMap;
+  private List<NodeLayout> nodePreferences;
+
+  @Setup
+  public void setup() {
+    solver = BenchmarkFixtures.createSolver();
+    template = BenchmarkFixtures.getTemplate(templateName);
+    hardwareTypeMap = BenchmarkFixtures.getHardwareTypeMap(template);
+    imageTypeMap = BenchmarkFixtures.getImageTypeMap(template);
+    services = template.getClusterDefaults().getServices();
+    serviceMap = BenchmarkFixtures.createServiceMap(services);
+    nodePreferences = new NodeLayoutGenerator(template, services, hardwareTypeMap.keySet(), imageTypeMap.keySet())
+      .generateNodeLayoutPreferences();
+  }
+
+  @Benchmark
+  public Map<String, Node> solveConstraints() throws Exception {
+    return solver.solveConstraints(BenchmarkFixtures.CLUSTER_ID, template, "benchmark", numMachines,
+                                   hardwareTypeMap, imageTypeMap, services, serviceMap);
+  }
+
+  @Benchmark
+  public int[] findValidNodeCounts() {
+    return new ClusterLayoutFinder(nodePreferences, template, services, numMachines).findValidNodeCounts();
+  }
+}
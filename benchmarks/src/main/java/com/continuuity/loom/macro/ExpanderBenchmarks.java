@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.macro;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.layout.BenchmarkFixtures;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for expanding the macros in the config of a cluster template for a single node, which is done for every
+ * task sent to a provisioner. Macros like the list of zookeeper hosts look at every node in the cluster, so the cost
+ * grows with the cluster size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ExpanderBenchmarks {
+
+  @Param({ "hdfs", "hadoop-distributed", "reactor" })
+  public String templateName;
+
+  @Param({ "10", "100", "1000" })
+  public int numMachines;
+
+  private JsonObject config;
+  private Set<Node> clusterNodes;
+  private ServiceNodes serviceNodes;
+  private Node node;
+
+  @Setup
+  public void setup() throws Exception {
+    ClusterTemplate template = BenchmarkFixtures.getTemplate(templateName);
+    config = template.getClusterDefaults().getConfig();
+    clusterNodes = ImmutableSet.copyOf(BenchmarkFixtures.solveNodes(template, numMachines).values());
+    serviceNodes = new ServiceNodes(clusterNodes);
+    node = clusterNodes.iterator().next();
+  }
+
+  @Benchmark
+  public JsonElement expand() throws Exception {
+    return Expander.expand(config, null, clusterNodes, node);
+  }
+
+  /**
+   * Expands with the nodes already indexed by service, as the job scheduler does for all tasks of a job.
+   */
+  @Benchmark
+  public JsonElement expandIndexed() throws Exception {
+    return Expander.expand(config, null, serviceNodes, node);
+  }
+}
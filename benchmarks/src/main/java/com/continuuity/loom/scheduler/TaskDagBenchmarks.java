@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.layout.BenchmarkFixtures;
+import com.continuuity.loom.scheduler.dag.TaskDag;
+import com.continuuity.loom.scheduler.dag.TaskNode;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for planning the tasks needed to create a cluster, which builds a {@link TaskDag} from the services on
+ * each node and then linearizes it into stages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TaskDagBenchmarks {
+
+  @Param({ "hdfs", "hadoop-distributed", "reactor" })
+  public String templateName;
+
+  @Param({ "10", "100", "1000" })
+  public int numMachines;
+
+  private final Actions actions = new Actions();
+  private Set<Node> clusterNodes;
+  private Multimap<String, Node> serviceNodeMap;
+  private Map<String, Service> serviceMap;
+  private TaskDag taskDag;
+
+  @Setup
+  public void setup() throws Exception {
+    ClusterTemplate template = BenchmarkFixtures.getTemplate(templateName);
+    clusterNodes = ImmutableSet.copyOf(BenchmarkFixtures.solveNodes(template, numMachines).values());
+
+    // same as what the cluster scheduler does before creating the dag
+    serviceNodeMap = ArrayListMultimap.create();
+    serviceMap = Maps.newHashMap();
+    for (Node node : clusterNodes) {
+      for (Service service : node.getServices()) {
+        serviceNodeMap.put(service.getName(), node);
+        serviceMap.put(service.getName(), service);
+      }
+    }
+    taskDag = createTaskDag();
+  }
+
+  @Benchmark
+  public TaskDag createTaskDag() {
+    return ClusterScheduler.createTaskDag(ClusterAction.CLUSTER_CREATE, actions, clusterNodes,
+                                          serviceNodeMap, serviceMap);
+  }
+
+  @Benchmark
+  public List<Set<TaskNode>> linearize() {
+    return taskDag.linearize();
+  }
+}
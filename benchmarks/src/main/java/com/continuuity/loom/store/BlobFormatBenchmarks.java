@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.Entities;
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.scheduler.ClusterAction;
+import com.continuuity.loom.scheduler.task.ClusterJob;
+import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskId;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for writing and reading cluster, job, task and node blobs in each {@link BlobSerde.Format}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BlobFormatBenchmarks {
+  private static final int NUM_NODES = 50;
+
+  @Param({ "json", "binary", "binary-deflate" })
+  public String format;
+
+  private BlobSerde serde;
+  private Cluster cluster;
+  private ClusterJob job;
+  private ClusterTask task;
+  private Node node;
+  private byte[] clusterBytes;
+  private byte[] jobBytes;
+  private byte[] taskBytes;
+  private byte[] nodeBytes;
+
+  @Setup
+  public void setup() {
+    serde = new BlobSerde(BlobSerde.Format.fromName(format));
+
+    String clusterId = "00000042";
+    JobId jobId = new JobId(clusterId, 3);
+    Set<String> nodeIds = Sets.newHashSet();
+    for (int i = 0; i < NUM_NODES; i++) {
+      nodeIds.add(clusterId + "-node" + i);
+    }
+    cluster = new Cluster(clusterId, "user1", "reactor-cluster", System.currentTimeMillis(),
+                          "benchmark cluster", Entities.ProviderExample.RACKSPACE,
+                          Entities.ClusterTemplateExample.REACTOR, nodeIds,
+                          ImmutableSet.of("namenode", "datanode", "reactor"));
+    cluster.addJob(jobId.getId());
+
+    job = new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE);
+    int taskNum = 0;
+    for (ProvisionerAction action : ImmutableSet.of(ProvisionerAction.CREATE, ProvisionerAction.INSTALL,
+                                                    ProvisionerAction.CONFIGURE, ProvisionerAction.START)) {
+      Set<String> stage = Sets.newHashSet();
+      for (int i = 0; i < NUM_NODES; i++) {
+        stage.add(new TaskId(jobId, taskNum++).getId());
+      }
+      job.addStage(stage);
+    }
+    job.setJobStatus(ClusterJob.Status.RUNNING);
+
+    node = new Node(clusterId + "-node0", clusterId,
+                    ImmutableSet.<Service>of(Entities.ServiceExample.HOSTS, Entities.ServiceExample.NAMENODE,
+                                             Entities.ServiceExample.DATANODE),
+                    ImmutableMap.of("ipaddress", "10.20.30.40", "hostname", "node0.benchmark.example.com",
+                                    "flavor", "5", "image", "f70ed7c7-b42e-4d77-83d8-40fa29825b85"));
+
+    JsonObject config = new JsonObject();
+    config.add("cluster", Entities.ClusterTemplateExample.REACTOR_JSON.get("defaults"));
+    config.addProperty("hostname", "node0.benchmark.example.com");
+    config.addProperty("ipaddress", "10.20.30.40");
+    task = new ClusterTask(ProvisionerAction.CONFIGURE, new TaskId(jobId, 1), node.getId(), "namenode",
+                           ClusterAction.CLUSTER_CREATE, config);
+
+    clusterBytes = serde.serialize(cluster, Cluster.class);
+    jobBytes = serde.serialize(job, ClusterJob.class);
+    taskBytes = serde.serialize(task, ClusterTask.class);
+    nodeBytes = serde.serialize(node, Node.class);
+  }
+
+  @Benchmark
+  public byte[] serializeCluster() {
+    return serde.serialize(cluster, Cluster.class);
+  }
+
+  @Benchmark
+  public Cluster deserializeCluster() {
+    return serde.deserialize(clusterBytes, Cluster.class);
+  }
+
+  @Benchmark
+  public byte[] serializeJob() {
+    return serde.serialize(job, ClusterJob.class);
+  }
+
+  @Benchmark
+  public ClusterJob deserializeJob() {
+    return serde.deserialize(jobBytes, ClusterJob.class);
+  }
+
+  @Benchmark
+  public byte[] serializeTask() {
+    return serde.serialize(task, ClusterTask.class);
+  }
+
+  @Benchmark
+  public ClusterTask deserializeTask() {
+    return serde.deserialize(taskBytes, ClusterTask.class);
+  }
+
+  @Benchmark
+  public byte[] serializeNode() {
+    return serde.serialize(node, Node.class);
+  }
+
+  @Benchmark
+  public Node deserializeNode() {
+    return serde.deserialize(nodeBytes, Node.class);
+  }
+}
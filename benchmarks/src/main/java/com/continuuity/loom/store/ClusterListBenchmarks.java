@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.Entities;
+import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
+import com.continuuity.loom.conf.Constants;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for listing every cluster by reading the full clusters against reading only their summaries, against an
+ * in-memory Derby database. Run with {@code -prof gc} to also compare the bytes allocated by each listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ClusterListBenchmarks {
+  private static final int NODES_PER_CLUSTER = 10;
+
+  @Param({ "1000", "10000" })
+  public int numClusters;
+
+  private StoreFixture fixture;
+  private SQLClusterStore store;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = new StoreFixture("list" + numClusters, Constants.DEFAULT_DB_STATEMENT_CACHE_SIZE);
+    store = new SQLClusterStore(fixture.getZKClient(), fixture.getDBConnectionPool(), 1, 1);
+    store.initialize();
+    for (int i = 0; i < numClusters; i++) {
+      store.writeCluster(createCluster(store.getNewClusterId(), i));
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    fixture.stop();
+  }
+
+  @Benchmark
+  public List<Cluster> getAllClusters() throws Exception {
+    return store.getAllClusters();
+  }
+
+  @Benchmark
+  public List<ClusterSummary> getAllClusterSummaries() throws Exception {
+    return store.getAllClusterSummaries();
+  }
+
+  private static Cluster createCluster(String id, int num) {
+    Set<String> nodes = Sets.newHashSet();
+    for (int i = 0; i < NODES_PER_CLUSTER; i++) {
+      nodes.add(id + "-node" + i);
+    }
+    Cluster cluster = new Cluster(id, "user" + (num % 10), "cluster" + num, System.currentTimeMillis(),
+                                  "benchmark cluster", Entities.ProviderExample.RACKSPACE,
+                                  Entities.ClusterTemplateExample.REACTOR, nodes,
+                                  ImmutableSet.of("namenode", "datanode", "reactor"));
+    cluster.addJob(id + "-1");
+    return cluster;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.conf.Constants;
+import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for handing out task ids with different id block sizes, against an in-memory zookeeper. A block size of
+ * 1 reserves every id in zookeeper, larger blocks reserve ids in zookeeper once per block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class IdAllocationBenchmarks {
+  @Param({ "1", "100", "1000" })
+  public int blockSize;
+
+  private final JobId jobId = new JobId("00000001", 1);
+  private StoreFixture fixture;
+  private SQLClusterStore store;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = new StoreFixture("ids" + blockSize, Constants.DEFAULT_DB_STATEMENT_CACHE_SIZE);
+    store = new SQLClusterStore(fixture.getZKClient(), fixture.getDBConnectionPool(), 1, 1);
+    store.setIdBlockSize(blockSize);
+    store.initialize();
+  }
+
+  @TearDown
+  public void teardown() {
+    fixture.stop();
+  }
+
+  @Benchmark
+  public TaskId getNewTaskId() {
+    return store.getNewTaskId(jobId);
+  }
+}
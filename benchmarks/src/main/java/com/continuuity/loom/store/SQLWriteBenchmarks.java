@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.codec.json.JsonSerde;
+import com.continuuity.loom.scheduler.ClusterAction;
+import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskId;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for writing single tasks to an in-memory Derby database, for the store's upsert path and for the select
+ * then insert or update path it replaced, with and without the statement cache. Inserts write a new task on every
+ * invocation, updates cycle through tasks written during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SQLWriteBenchmarks {
+  private static final JsonSerde codec = new JsonSerde();
+  private static final int NUM_TASKS = 2000;
+
+  // no cache, and the default cache size
+  @Param({ "0", "1000" })
+  public int statementCacheSize;
+
+  private StoreFixture fixture;
+  private SQLClusterStore store;
+  private List<ClusterTask> upsertTasks;
+  private List<ClusterTask> selectThenWriteTasks;
+  private long nextTaskNum;
+  private int nextUpdate;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = new StoreFixture("writes" + statementCacheSize, statementCacheSize);
+    store = new SQLClusterStore(fixture.getZKClient(), fixture.getDBConnectionPool(), 1, 1);
+    store.initialize();
+    store.initDerbyDB();
+
+    // inserts go to their own jobs, so that they never collide with the tasks that are updated
+    upsertTasks = createTasks(1);
+    selectThenWriteTasks = createTasks(2);
+    for (int i = 0; i < NUM_TASKS; i++) {
+      store.writeClusterTask(upsertTasks.get(i));
+      selectThenWrite(fixture.getDBConnectionPool(), selectThenWriteTasks.get(i));
+    }
+    nextTaskNum = 0;
+    nextUpdate = 0;
+  }
+
+  @TearDown
+  public void teardown() {
+    fixture.stop();
+  }
+
+  @Benchmark
+  public ClusterTask upsertInsert() throws Exception {
+    ClusterTask task = createTask(3, nextTaskNum++);
+    store.writeClusterTask(task);
+    return task;
+  }
+
+  @Benchmark
+  public ClusterTask upsertUpdate() throws Exception {
+    ClusterTask task = nextUpdate(upsertTasks);
+    store.writeClusterTask(task);
+    return task;
+  }
+
+  @Benchmark
+  public ClusterTask selectThenWriteInsert() throws Exception {
+    ClusterTask task = createTask(4, nextTaskNum++);
+    selectThenWrite(fixture.getDBConnectionPool(), task);
+    return task;
+  }
+
+  @Benchmark
+  public ClusterTask selectThenWriteUpdate() throws Exception {
+    ClusterTask task = nextUpdate(selectThenWriteTasks);
+    selectThenWrite(fixture.getDBConnectionPool(), task);
+    return task;
+  }
+
+  private ClusterTask nextUpdate(List<ClusterTask> tasks) {
+    ClusterTask task = tasks.get(nextUpdate++ % tasks.size());
+    task.setStatusTime(System.currentTimeMillis());
+    return task;
+  }
+
+  private static List<ClusterTask> createTasks(long jobNum) {
+    List<ClusterTask> tasks = Lists.newArrayListWithCapacity(NUM_TASKS);
+    for (int i = 0; i < NUM_TASKS; i++) {
+      tasks.add(createTask(jobNum, i));
+    }
+    return tasks;
+  }
+
+  private static ClusterTask createTask(long jobNum, long taskNum) {
+    return new ClusterTask(ProvisionerAction.INSTALL, new TaskId(new JobId("1", jobNum), taskNum), "node" + taskNum,
+                           "service", ClusterAction.CLUSTER_CREATE, new JsonObject());
+  }
+
+  // how tasks were written before the store used upserts.
+  private static void selectThenWrite(DBConnectionPool dbConnectionPool, ClusterTask task) throws SQLException {
+    TaskId taskId = TaskId.fromString(task.getTaskId());
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      PreparedStatement checkStatement =
+        conn.prepareStatement("SELECT task_num FROM tasks WHERE task_num=? AND job_num=? AND cluster_id=?");
+      checkStatement.setLong(1, taskId.getTaskNum());
+      checkStatement.setLong(2, taskId.getJobNum());
+      checkStatement.setLong(3, Long.valueOf(taskId.getClusterId()));
+      PreparedStatement writeStatement;
+      try {
+        ResultSet rs = checkStatement.executeQuery();
+        try {
+          if (rs.next()) {
+            writeStatement = conn.prepareStatement(
+              "UPDATE tasks SET task=?, status=?, submit_time=?, status_time=?" +
+                " WHERE task_num=? AND job_num=? AND cluster_id=?");
+            writeStatement.setBlob(1, new ByteArrayInputStream(codec.serialize(task, ClusterTask.class)));
+            writeStatement.setString(2, task.getStatus().name());
+            writeStatement.setTimestamp(3, null);
+            writeStatement.setTimestamp(4, new Timestamp(task.getStatusTime()));
+            writeStatement.setLong(5, taskId.getTaskNum());
+            writeStatement.setLong(6, taskId.getJobNum());
+            writeStatement.setLong(7, Long.valueOf(taskId.getClusterId()));
+          } else {
+            writeStatement = conn.prepareStatement(
+              "INSERT INTO tasks (task_num, job_num, cluster_id, status, submit_time, task)" +
+                " VALUES (?, ?, ?, ?, ?, ?)");
+            writeStatement.setLong(1, taskId.getTaskNum());
+            writeStatement.setLong(2, taskId.getJobNum());
+            writeStatement.setLong(3, Long.valueOf(taskId.getClusterId()));
+            writeStatement.setString(4, task.getStatus().name());
+            writeStatement.setTimestamp(5, null);
+            writeStatement.setBlob(6, new ByteArrayInputStream(codec.serialize(task, ClusterTask.class)));
+          }
+        } finally {
+          rs.close();
+        }
+        try {
+          writeStatement.executeUpdate();
+        } finally {
+          writeStatement.close();
+        }
+      } finally {
+        checkStatement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+}
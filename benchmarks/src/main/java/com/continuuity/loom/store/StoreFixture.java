@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.conf.Configuration;
+import com.continuuity.loom.conf.Constants;
+import com.google.common.io.Files;
+import org.apache.twill.internal.zookeeper.InMemoryZKServer;
+import org.apache.twill.zookeeper.ZKClient;
+import org.apache.twill.zookeeper.ZKClientService;
+
+/**
+ * An in-memory zookeeper and an in-memory Derby database for the store benchmarks to create stores against. Every
+ * fixture uses its own database, so that benchmarks running in the same JVM do not see each other's data.
+ */
+final class StoreFixture {
+  private final InMemoryZKServer zkServer;
+  private final ZKClientService zkClient;
+  private final DBConnectionPool dbConnectionPool;
+
+  StoreFixture(String dbName, int statementCacheSize) throws Exception {
+    zkServer = InMemoryZKServer.builder().setDataDir(Files.createTempDir()).build();
+    zkServer.startAndWait();
+    zkClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    zkClient.startAndWait();
+
+    Configuration conf = new Configuration();
+    conf.set(Constants.JDBC_DRIVER, Constants.DEFAULT_JDBC_DRIVER);
+    conf.set(Constants.JDBC_CONNECTION_STRING, "jdbc:derby:memory:" + dbName + ";create=true");
+    conf.setInt(Constants.DB_STATEMENT_CACHE_SIZE, statementCacheSize);
+    dbConnectionPool = new DBConnectionPool(conf);
+  }
+
+  ZKClient getZKClient() {
+    return zkClient;
+  }
+
+  DBConnectionPool getDBConnectionPool() {
+    return dbConnectionPool;
+  }
+
+  void stop() {
+    zkClient.stopAndWait();
+    zkServer.stopAndWait();
+  }
+}
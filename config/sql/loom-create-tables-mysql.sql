@@ -24,10 +24,13 @@ CREATE TABLE IF NOT EXISTS clusters (
     expire_time TIMESTAMP NULL,
     status VARCHAR(32),
     cluster MEDIUMBLOB,
+    template_name VARCHAR(255),
+    num_nodes INT,
+    latest_job_id VARCHAR(255),
     PRIMARY KEY (id),
-    INDEX cluster_user_index (owner_id, id),
+    INDEX cluster_user_index (owner_id, create_time),
     INDEX ctime_index (create_time),
-    INDEX status_index (status)
+    INDEX status_index (status, expire_time)
 ) ENGINE = InnoDB;
 
 CREATE TABLE IF NOT EXISTS jobs ( 
@@ -36,6 +39,9 @@ CREATE TABLE IF NOT EXISTS jobs (
     status VARCHAR(32),
     create_time TIMESTAMP DEFAULT '0000-00-00 00:00:00',
     job MEDIUMBLOB,
+    tasks_in_progress INT NOT NULL DEFAULT 0,
+    tasks_completed INT NOT NULL DEFAULT 0,
+    tasks_failed INT NOT NULL DEFAULT 0,
     PRIMARY KEY (job_num, cluster_id),
     FOREIGN KEY (cluster_id) REFERENCES clusters(id),
     INDEX ctime_index (create_time),
@@ -54,7 +60,7 @@ CREATE TABLE IF NOT EXISTS tasks (
     FOREIGN KEY (job_num, cluster_id) REFERENCES jobs(job_num, cluster_id),
     INDEX status_time_index (status_time),
     INDEX submit_time_index (submit_time),
-    INDEX status_index (status)
+    INDEX status_index (status, submit_time)
 ) ENGINE = InnoDB;
 
 CREATE TABLE IF NOT EXISTS nodes (
@@ -0,0 +1,36 @@
+#
+# Copyright 2012-2014, Continuuity, Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# upgrades tables created by an older version of loom-create-tables-mysql.sql to the current columns and indexes.
+# to use, run:
+# mysql -u $user -p -h $hostname $dbname < loom-upgrade-tables-mysql.sql
+
+ALTER TABLE clusters
+    ADD COLUMN template_name VARCHAR(255),
+    ADD COLUMN num_nodes INT,
+    ADD COLUMN latest_job_id VARCHAR(255),
+    DROP INDEX cluster_user_index,
+    ADD INDEX cluster_user_index (owner_id, create_time),
+    DROP INDEX status_index,
+    ADD INDEX status_index (status, expire_time);
+
+ALTER TABLE jobs
+    ADD COLUMN tasks_in_progress INT NOT NULL DEFAULT 0,
+    ADD COLUMN tasks_completed INT NOT NULL DEFAULT 0,
+    ADD COLUMN tasks_failed INT NOT NULL DEFAULT 0;
+
+ALTER TABLE tasks
+    DROP INDEX status_index,
+    ADD INDEX status_index (status, submit_time);
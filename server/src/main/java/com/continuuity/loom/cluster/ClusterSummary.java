@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.cluster;
+
+import com.google.common.base.Objects;
+
+/**
+ * The fields of a {@link Cluster} that are shown when listing clusters. Summaries can be read without reading the
+ * full cluster, which includes its template, provider and config.
+ */
+public final class ClusterSummary {
+  private final String id;
+  private final String ownerId;
+  private final String name;
+  private final long createTime;
+  private final long expireTime;
+  private final String clusterTemplate;
+  private final int numNodes;
+  private final String latestJobId;
+  private final Cluster.Status status;
+
+  public ClusterSummary(String id, String ownerId, String name, long createTime, long expireTime,
+                        String clusterTemplate, int numNodes, String latestJobId, Cluster.Status status) {
+    this.id = id;
+    this.ownerId = ownerId;
+    this.name = name;
+    this.createTime = createTime;
+    this.expireTime = expireTime;
+    this.clusterTemplate = clusterTemplate;
+    this.numNodes = numNodes;
+    this.latestJobId = latestJobId;
+    this.status = status;
+  }
+
+  /**
+   * Get the summary of a cluster.
+   *
+   * @param cluster Cluster to summarize.
+   * @return Summary of the cluster.
+   */
+  public static ClusterSummary fromCluster(Cluster cluster) {
+    return new ClusterSummary(cluster.getId(), cluster.getOwnerId(), cluster.getName(), cluster.getCreateTime(),
+                              cluster.getExpireTime(),
+                              cluster.getClusterTemplate() == null ? null : cluster.getClusterTemplate().getName(),
+                              cluster.getNodes().size(), cluster.getLatestJobId(), cluster.getStatus());
+  }
+
+  /**
+   * Get the id of the cluster.
+   *
+   * @return Id of the cluster.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Get the id of the owner of the cluster.
+   *
+   * @return Id of the owner of the cluster.
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * Get the name of the cluster.
+   *
+   * @return Name of the cluster.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the timestamp in milliseconds of when the cluster was created.
+   *
+   * @return Timestamp in milliseconds of when the cluster was created.
+   */
+  public long getCreateTime() {
+    return createTime;
+  }
+
+  /**
+   * Get the timestamp in milliseconds of when the cluster expires, with 0 meaning no expiration.
+   *
+   * @return Timestamp in milliseconds of when the cluster expires, with 0 meaning no expiration.
+   */
+  public long getExpireTime() {
+    return expireTime;
+  }
+
+  /**
+   * Get the name of the template the cluster was created from, or null if it has none.
+   *
+   * @return Name of the template the cluster was created from, or null if it has none.
+   */
+  public String getClusterTemplate() {
+    return clusterTemplate;
+  }
+
+  /**
+   * Get the number of nodes in the cluster.
+   *
+   * @return Number of nodes in the cluster.
+   */
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  /**
+   * Get the id of the most recent job performed, or being performed, on the cluster.
+   *
+   * @return Id of the most recent job performed, or being performed, on the cluster.
+   */
+  public String getLatestJobId() {
+    return latestJobId;
+  }
+
+  /**
+   * Get the {@link Cluster.Status} of the cluster.
+   *
+   * @return Status of the cluster.
+   */
+  public Cluster.Status getStatus() {
+    return status;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("id", id)
+      .add("ownerId", ownerId)
+      .add("name", name)
+      .add("createTime", createTime)
+      .add("expireTime", expireTime)
+      .add("clusterTemplate", clusterTemplate)
+      .add("numNodes", numNodes)
+      .add("latestJobId", latestJobId)
+      .add("status", status)
+      .toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ClusterSummary)) {
+      return false;
+    }
+    ClusterSummary other = (ClusterSummary) o;
+    return Objects.equal(id, other.id) &&
+      Objects.equal(ownerId, other.ownerId) &&
+      Objects.equal(name, other.name) &&
+      createTime == other.createTime &&
+      expireTime == other.expireTime &&
+      Objects.equal(clusterTemplate, other.clusterTemplate) &&
+      numNodes == other.numNodes &&
+      Objects.equal(latestJobId, other.latestJobId) &&
+      Objects.equal(status, other.status);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(id, ownerId, name, createTime, expireTime, clusterTemplate, numNodes, latestJobId, status);
+  }
+}
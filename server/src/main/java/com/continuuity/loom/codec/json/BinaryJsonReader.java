@@ -0,0 +1,372 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.codec.json;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link JsonReader} that reads json written by a {@link BinaryJsonWriter}. Gson reads maps written as json objects
+ * through internals of {@link JsonReader} that this reader cannot support, so it must be used with a gson that has a
+ * {@link BinaryMapTypeAdapterFactory} registered.
+ */
+public final class BinaryJsonReader extends JsonReader {
+  // JsonReader requires a reader, but nothing is ever read from it.
+  private static final Reader UNUSED = new StringReader("");
+
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int ARRAY = 2;
+  private static final int OBJECT_NAME = 3;
+  private static final int OBJECT_VALUE = 4;
+
+  private static final int NUMBER_INTEGER = 0;
+  private static final int NUMBER_DOUBLE = 1;
+  private static final int NUMBER_TEXT = 2;
+
+  private final List<String> strings = Lists.newArrayList();
+  private final byte[] bytes;
+  private int pos;
+  private int[] stack = new int[32];
+  private int stackSize = 1;
+
+  private JsonToken peeked;
+  private String peekedString;
+  private long peekedLong;
+  private double peekedDouble;
+  private int peekedNumberKind;
+
+  /**
+   * Create a reader for json encoded in the given bytes.
+   *
+   * @param bytes Bytes containing the encoded json.
+   * @param offset Offset in the bytes where the encoded json starts.
+   */
+  public BinaryJsonReader(byte[] bytes, int offset) {
+    super(UNUSED);
+    this.bytes = bytes;
+    this.pos = offset;
+    stack[0] = EMPTY_DOCUMENT;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    expect(JsonToken.BEGIN_ARRAY);
+    push(ARRAY);
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    expect(JsonToken.END_ARRAY);
+    stackSize--;
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    expect(JsonToken.BEGIN_OBJECT);
+    push(OBJECT_NAME);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    expect(JsonToken.END_OBJECT);
+    stackSize--;
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    JsonToken token = peek();
+    return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY;
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    if (peeked == null) {
+      peeked = doPeek();
+    }
+    return peeked;
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    expect(JsonToken.NAME);
+    stack[stackSize - 1] = OBJECT_VALUE;
+    return peekedString;
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    JsonToken token = peek();
+    if (token == JsonToken.STRING) {
+      peeked = null;
+      return peekedString;
+    } else if (token == JsonToken.NUMBER) {
+      peeked = null;
+      switch (peekedNumberKind) {
+        case NUMBER_INTEGER:
+          return Long.toString(peekedLong);
+        case NUMBER_DOUBLE:
+          return Double.toString(peekedDouble);
+        default:
+          return peekedString;
+      }
+    }
+    throw new IllegalStateException("Expected a string but was " + token + " at " + this);
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    expect(JsonToken.BOOLEAN);
+    return peekedLong != 0;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    expect(JsonToken.NULL);
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    double value;
+    JsonToken token = peek();
+    if (token == JsonToken.NUMBER && peekedNumberKind == NUMBER_INTEGER) {
+      value = peekedLong;
+    } else if (token == JsonToken.NUMBER && peekedNumberKind == NUMBER_DOUBLE) {
+      value = peekedDouble;
+    } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+      // like json, numbers can also be read from strings.
+      value = Double.parseDouble(peekedString);
+    } else {
+      throw new IllegalStateException("Expected a double but was " + token + " at " + this);
+    }
+    peeked = null;
+    return value;
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    long value;
+    JsonToken token = peek();
+    if (token == JsonToken.NUMBER && peekedNumberKind == NUMBER_INTEGER) {
+      value = peekedLong;
+    } else if (token == JsonToken.NUMBER && peekedNumberKind == NUMBER_DOUBLE) {
+      value = toLong(peekedDouble);
+    } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+      try {
+        value = Long.parseLong(peekedString);
+      } catch (NumberFormatException e) {
+        value = toLong(new BigDecimal(peekedString).doubleValue());
+      }
+    } else {
+      throw new IllegalStateException("Expected a long but was " + token + " at " + this);
+    }
+    peeked = null;
+    return value;
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    JsonToken token = peek();
+    if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+      throw new IllegalStateException("Expected an int but was " + token + " at " + this);
+    }
+    long value = nextLong();
+    if ((int) value != value) {
+      throw new NumberFormatException("Expected an int but was " + value + " at " + this);
+    }
+    return (int) value;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    int depth = 0;
+    do {
+      JsonToken token = peek();
+      if (token == JsonToken.BEGIN_ARRAY) {
+        beginArray();
+        depth++;
+      } else if (token == JsonToken.BEGIN_OBJECT) {
+        beginObject();
+        depth++;
+      } else if (token == JsonToken.END_ARRAY) {
+        endArray();
+        depth--;
+      } else if (token == JsonToken.END_OBJECT) {
+        endObject();
+        depth--;
+      } else if (token == JsonToken.NAME) {
+        nextName();
+      } else if (token == JsonToken.END_DOCUMENT) {
+        throw new MalformedJsonException("Unexpected end of document at " + this);
+      } else {
+        peeked = null;
+      }
+    } while (depth != 0);
+  }
+
+  @Override
+  public void close() {
+    peeked = null;
+    stackSize = 0;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + " at position " + pos;
+  }
+
+  private JsonToken doPeek() throws IOException {
+    if (stackSize == 0) {
+      throw new IllegalStateException("Reader is closed");
+    }
+    int scope = stack[stackSize - 1];
+    switch (scope) {
+      case EMPTY_DOCUMENT:
+        stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+        return readValue(false);
+      case NONEMPTY_DOCUMENT:
+        if (pos != bytes.length) {
+          throw new MalformedJsonException("Unexpected bytes after the document at " + this);
+        }
+        return JsonToken.END_DOCUMENT;
+      case OBJECT_NAME:
+        long code = readVarint();
+        if (code == BinaryJsonWriter.END) {
+          return JsonToken.END_OBJECT;
+        }
+        peekedString = readString(code);
+        return JsonToken.NAME;
+      case OBJECT_VALUE:
+        stack[stackSize - 1] = OBJECT_NAME;
+        return readValue(false);
+      default:
+        return readValue(true);
+    }
+  }
+
+  private JsonToken readValue(boolean inArray) throws IOException {
+    byte tag = readByte();
+    switch (tag) {
+      case BinaryJsonWriter.END:
+        if (!inArray) {
+          throw new MalformedJsonException("Unexpected end of array at " + this);
+        }
+        return JsonToken.END_ARRAY;
+      case BinaryJsonWriter.NULL:
+        return JsonToken.NULL;
+      case BinaryJsonWriter.TRUE:
+      case BinaryJsonWriter.FALSE:
+        peekedLong = tag == BinaryJsonWriter.TRUE ? 1 : 0;
+        return JsonToken.BOOLEAN;
+      case BinaryJsonWriter.INTEGER:
+        long zigzag = readVarint();
+        peekedLong = (zigzag >>> 1) ^ -(zigzag & 1);
+        peekedNumberKind = NUMBER_INTEGER;
+        return JsonToken.NUMBER;
+      case BinaryJsonWriter.DOUBLE:
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+          bits = (bits << 8) | (readByte() & 0xFF);
+        }
+        peekedDouble = Double.longBitsToDouble(bits);
+        peekedNumberKind = NUMBER_DOUBLE;
+        return JsonToken.NUMBER;
+      case BinaryJsonWriter.NUMBER:
+        peekedString = readString(readVarint());
+        peekedNumberKind = NUMBER_TEXT;
+        return JsonToken.NUMBER;
+      case BinaryJsonWriter.STRING:
+        peekedString = readString(readVarint());
+        return JsonToken.STRING;
+      case BinaryJsonWriter.BEGIN_ARRAY:
+        return JsonToken.BEGIN_ARRAY;
+      case BinaryJsonWriter.BEGIN_OBJECT:
+        return JsonToken.BEGIN_OBJECT;
+      default:
+        throw new MalformedJsonException("Unknown tag " + tag + " at " + this);
+    }
+  }
+
+  private String readString(long code) throws IOException {
+    if ((code & 1) == 1) {
+      long index = code >>> 1;
+      if (index >= strings.size()) {
+        throw new MalformedJsonException("Unknown string reference " + index + " at " + this);
+      }
+      return strings.get((int) index);
+    }
+    long length = (code >>> 1) - 1;
+    if (length < 0 || length > bytes.length - pos) {
+      throw new MalformedJsonException("String of length " + length + " is truncated at " + this);
+    }
+    String str = new String(bytes, pos, (int) length, Charsets.UTF_8);
+    pos += (int) length;
+    strings.add(str);
+    return str;
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new MalformedJsonException("Malformed varint at " + this);
+  }
+
+  private byte readByte() throws IOException {
+    if (pos >= bytes.length) {
+      throw new MalformedJsonException("Unexpected end of input at " + this);
+    }
+    return bytes[pos++];
+  }
+
+  private void expect(JsonToken expected) throws IOException {
+    JsonToken token = peek();
+    if (token != expected) {
+      throw new IllegalStateException("Expected " + expected + " but was " + token + " at " + this);
+    }
+    peeked = null;
+  }
+
+  private void push(int scope) {
+    if (stackSize == stack.length) {
+      stack = Arrays.copyOf(stack, stackSize * 2);
+    }
+    stack[stackSize++] = scope;
+  }
+
+  private static long toLong(double value) {
+    long result = (long) value;
+    if (result != value) {
+      throw new NumberFormatException("Expected a long but was " + value);
+    }
+    return result;
+  }
+}
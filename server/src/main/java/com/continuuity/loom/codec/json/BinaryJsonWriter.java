@@ -0,0 +1,292 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.codec.json;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * {@link JsonWriter} that writes a compact binary encoding of json instead of json text, to be read back with a
+ * {@link BinaryJsonReader}. Every value starts with a one byte tag. Integers are written as zigzag varints, doubles
+ * as their 8 byte representation, and arrays and objects are closed with an end marker. Each distinct string,
+ * whether an object key or a value, is written once as utf-8 and referred to by its index afterwards.
+ */
+public final class BinaryJsonWriter extends JsonWriter {
+  static final byte END = 0;
+  static final byte NULL = 1;
+  static final byte TRUE = 2;
+  static final byte FALSE = 3;
+  static final byte INTEGER = 4;
+  static final byte DOUBLE = 5;
+  static final byte NUMBER = 6;
+  static final byte STRING = 7;
+  static final byte BEGIN_ARRAY = 8;
+  static final byte BEGIN_OBJECT = 9;
+
+  private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+  private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+  // JsonWriter requires a writer, but nothing is ever written to it.
+  private static final Writer UNUSED = new Writer() {
+    @Override
+    public void write(char[] chars, int offset, int length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private final Map<String, Integer> strings = Maps.newHashMap();
+  private byte[] buf = new byte[512];
+  private int size;
+  private String deferredName;
+
+  /**
+   * Create a writer that starts with the given header bytes.
+   *
+   * @param header Bytes to write before the encoded json.
+   */
+  public BinaryJsonWriter(byte... header) {
+    super(UNUSED);
+    writeBytes(header, 0, header.length);
+  }
+
+  /**
+   * Get the header followed by everything written so far.
+   *
+   * @return Header followed by everything written so far.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, size);
+  }
+
+  @Override
+  public JsonWriter beginArray() {
+    writeDeferredName();
+    writeByte(BEGIN_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() {
+    writeByte(END);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() {
+    writeDeferredName();
+    writeByte(BEGIN_OBJECT);
+    return this;
+  }
+
+  // a name is never encoded as 0, so a 0 in place of a name ends the object.
+  @Override
+  public JsonWriter endObject() {
+    Preconditions.checkState(deferredName == null, "Dangling name: %s", deferredName);
+    writeByte(END);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) {
+    Preconditions.checkNotNull(name, "name == null");
+    Preconditions.checkState(deferredName == null, "Name %s follows name %s", name, deferredName);
+    deferredName = name;
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    writeByte(STRING);
+    writeString(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter nullValue() {
+    if (deferredName != null) {
+      if (!getSerializeNulls()) {
+        // same as json, where the name of a null value is left out unless nulls are serialized.
+        deferredName = null;
+        return this;
+      }
+      writeDeferredName();
+    }
+    writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) {
+    writeDeferredName();
+    writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(double value) {
+    if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    writeDeferredName();
+    writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) {
+    writeDeferredName();
+    writeInteger(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      writeInteger(value.longValue());
+    } else if (value instanceof Double) {
+      if (!isLenient() && (((Double) value).isNaN() || ((Double) value).isInfinite())) {
+        throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+      }
+      writeDouble(value.doubleValue());
+    } else if (value instanceof BigInteger && ((BigInteger) value).compareTo(MIN_LONG) >= 0 &&
+      ((BigInteger) value).compareTo(MAX_LONG) <= 0) {
+      writeInteger(value.longValue());
+    } else {
+      // anything else, including numbers parsed from json, keeps its exact text unless it is a plain integer.
+      String text = value.toString();
+      Long integer = parseCanonicalLong(text);
+      if (integer != null) {
+        writeInteger(integer);
+      } else {
+        writeByte(NUMBER);
+        writeString(text);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private void writeDeferredName() {
+    if (deferredName != null) {
+      writeString(deferredName);
+      deferredName = null;
+    }
+  }
+
+  private void writeInteger(long value) {
+    writeByte(INTEGER);
+    writeVarint((value << 1) ^ (value >> 63));
+  }
+
+  private void writeDouble(double value) {
+    writeByte(DOUBLE);
+    ensureCapacity(8);
+    long bits = Double.doubleToLongBits(value);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      buf[size++] = (byte) (bits >>> shift);
+    }
+  }
+
+  // strings seen before are written as their index with the low bit set, new strings as their length plus one
+  // without it, followed by their utf-8 bytes.
+  private void writeString(String str) {
+    Integer index = strings.get(str);
+    if (index != null) {
+      writeVarint(((long) index << 1) | 1);
+      return;
+    }
+    strings.put(str, strings.size());
+    byte[] utf8 = str.getBytes(Charsets.UTF_8);
+    writeVarint(((long) utf8.length + 1) << 1);
+    writeBytes(utf8, 0, utf8.length);
+  }
+
+  private void writeVarint(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buf[size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buf[size++] = (byte) value;
+  }
+
+  private void writeByte(byte b) {
+    ensureCapacity(1);
+    buf[size++] = b;
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(bytes, offset, buf, size, length);
+    size += length;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+    }
+  }
+
+  // returns the value if the text is exactly how the value would be printed, so that reading it back as a string
+  // gives the same text.
+  private static Long parseCanonicalLong(String text) {
+    int length = text.length();
+    if (length == 0 || length > 20) {
+      return null;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if ((c < '0' || c > '9') && !(i == 0 && c == '-')) {
+        return null;
+      }
+    }
+    try {
+      long value = Long.parseLong(text);
+      return Long.toString(value).equals(text) ? value : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.codec.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Adapter for reading maps written as json objects from a {@link BinaryJsonReader}. Gson's own map adapter reads the
+ * keys of such maps through internals of {@link JsonReader}, which only work for json text and json trees. Everything
+ * else, including all writes, is left to gson's own map adapter.
+ */
+public class BinaryMapTypeAdapterFactory implements TypeAdapterFactory {
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    if (!Map.class.isAssignableFrom(type.getRawType())) {
+      return null;
+    }
+
+    // keys and values of maps not declared with both type arguments are read as whatever they look like.
+    Type[] keyAndValueTypes = { Object.class, Object.class };
+    if (type.getType() instanceof ParameterizedType) {
+      Type[] typeArguments = ((ParameterizedType) type.getType()).getActualTypeArguments();
+      if (typeArguments.length == 2) {
+        keyAndValueTypes = typeArguments;
+      }
+    }
+
+    final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+    final boolean stringKeys = keyAndValueTypes[0] == String.class;
+    final TypeAdapter<?> keyAdapter = gson.getAdapter(TypeToken.get(keyAndValueTypes[0]));
+    final TypeAdapter<?> valueAdapter = gson.getAdapter(TypeToken.get(keyAndValueTypes[1]));
+
+    return new TypeAdapter<T>() {
+      @Override
+      public void write(JsonWriter writer, T value) throws IOException {
+        delegate.write(writer, value);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T read(JsonReader reader) throws IOException {
+        if (!(reader instanceof BinaryJsonReader) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+          return delegate.read(reader);
+        }
+        // gson's adapter creates the same kind of map it would have read.
+        Map<Object, Object> map = (Map<Object, Object>) delegate.fromJsonTree(new JsonObject());
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          Object key = stringKeys ? name : keyAdapter.fromJsonTree(new JsonPrimitive(name));
+          if (map.put(key, valueAdapter.read(reader)) != null) {
+            throw new JsonSyntaxException("duplicate key: " + key);
+          }
+        }
+        reader.endObject();
+        return (T) map;
+      }
+    };
+  }
+}
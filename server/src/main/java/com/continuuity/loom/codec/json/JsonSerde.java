@@ -35,7 +35,8 @@ import java.io.Reader;
 import java.lang.reflect.Type;
 
 /**
- * Class for serializing and deserializing objects to/from json, using gson.
+ * Class for serializing and deserializing objects to/from json, using gson. The gson can also write and read the
+ * binary encoding of json with a {@link BinaryJsonWriter} and {@link BinaryJsonReader}.
  */
 public class JsonSerde {
   private final Gson gson;
@@ -52,6 +53,7 @@ public class JsonSerde {
       .registerTypeAdapter(LayoutConstraint.class, new LayoutConstraintCodec())
       .registerTypeAdapter(Constraints.class, new ConstraintsCodec())
       .registerTypeAdapterFactory(new LowercaseEnumTypeAdapterFactory())
+      .registerTypeAdapterFactory(new BinaryMapTypeAdapterFactory())
       .registerTypeAdapter(ClusterDefaults.class, new ClusterDefaultsCodec())
       .registerTypeAdapter(Administration.class, new AdministrationCodec())
       .registerTypeAdapter(LeaseDuration.class, new LeaseDurationCodec())
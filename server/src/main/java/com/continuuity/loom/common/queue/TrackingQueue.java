@@ -16,8 +16,10 @@
 package com.continuuity.loom.common.queue;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.twill.common.Cancellable;
 
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Queue that tracks consuming of the elements and may re-add elements that were attempted to be consumed.
@@ -123,6 +125,26 @@ public interface TrackingQueue {
    */
   int size();
 
+  /**
+   * Get the number of elements each consumer finished successfully through this queue instance, by consumer id.
+   * Sampling the counts twice gives the throughput of every consumer between the samples. Elements finished through
+   * other instances of the same queue, such as on other servers, are not counted. Implementations may drop the counts
+   * of consumers that have not finished anything for a while, so that consumers that are gone are not kept forever.
+   *
+   * @return Number of elements finished by each consumer.
+   */
+  Map<String, Long> getFinishedCounts();
+
+  /**
+   * Add a listener that is called when elements may have been put in the queue, so that consumers can take them right
+   * away instead of polling for them. Elements put in the queue by other servers sharing the queue are included. The
+   * listener may be called when nothing was put in the queue, and must return quickly.
+   *
+   * @param listener Listener to call when elements may have been put in the queue.
+   * @return Cancellable that removes the listener.
+   */
+  Cancellable addListener(Runnable listener);
+
   /**
    * Defines Tracking Queue Consuming Status.
    */
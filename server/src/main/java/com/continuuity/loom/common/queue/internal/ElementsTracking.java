@@ -17,6 +17,7 @@ package com.continuuity.loom.common.queue.internal;
 
 import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.QueuedElement;
+import org.apache.twill.common.Cancellable;
 
 import java.util.List;
 
@@ -125,6 +126,17 @@ public interface ElementsTracking {
    */
   int size();
 
+  /**
+   * Watch for elements that are put in the queue, either by adding them or by putting them back. Implementations that
+   * can be shared between processes also call the listener for elements put in the queue by other processes. The
+   * listener may be called when nothing was put in the queue, and is called on the thread that put the element in the
+   * queue or on a watch thread, so it must return quickly.
+   *
+   * @param listener Listener to call when elements may have been put in the queue.
+   * @return Cancellable that stops calling the listener.
+   */
+  Cancellable watchQueued(Runnable listener);
+
   /**
    * Walker interface to process Queue Element.
    */
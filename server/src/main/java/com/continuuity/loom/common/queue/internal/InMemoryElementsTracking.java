@@ -19,141 +19,190 @@ import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.QueuedElement;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import org.apache.twill.common.Cancellable;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * In-memory implementation of {@link ElementsTracking}.
+ * In-memory implementation of {@link ElementsTracking}. Does not take any locks, so that consumers taking and finishing
+ * elements do not serialize on a single monitor.
+ *
+ * Every element in the queue has an entry whose state is atomically swapped between queued, being consumed, and
+ * removed. Queued states are kept in a skip list ordered by priority, and are also the keys in the skip list, so a
+ * consumer owns an element only if it manages to swap the exact queued state it polled from the skip list to a being
+ * consumed state. Any operation that changes the state of a queued element leaves the old key in the skip list at
+ * worst, which is skipped over when it is polled.
  */
 public class InMemoryElementsTracking implements ElementsTracking {
-  private PriorityQueue<PrioritizedElement> notStarted = new PriorityQueue<PrioritizedElement>();
-  // elementId->elemBeingConsumed
-  private Map<String, ElementBeingConsumed> inProgress = Maps.newHashMap();
-
   // Moves to the top of the queue. Since we reset priority when we start consuming, it is safe to use 0L here
   // See {@link #getCurrentHighestPriority()} for more info.
   private static final long HIGHEST_PRIORITY = 0L;
+  private static final Object REMOVED = new Object();
+
+  private final ConcurrentSkipListSet<PrioritizedElement> notStarted = new ConcurrentSkipListSet<PrioritizedElement>();
+  // elementId->entry, for both queued elements and elements being consumed
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  // breaks ties between elements of the same priority so that they are consumed in the order they were queued
+  private final AtomicLong sequence = new AtomicLong();
+  private final QueuedListeners listeners = new QueuedListeners();
 
   @Override
-  public synchronized boolean addToQueue(Element element) {
-    return notStarted.add(new PrioritizedElement(element, getCurrentHighestPriority()));
+  public boolean addToQueue(Element element) {
+    Entry entry = new Entry(element);
+    PrioritizedElement queued = new PrioritizedElement(entry, getCurrentHighestPriority(), sequence.incrementAndGet());
+    entry.state.set(queued);
+    Entry replaced = entries.put(element.getId(), entry);
+    if (replaced != null) {
+      retire(replaced);
+    }
+    notStarted.add(queued);
+    listeners.notifyQueued();
+    return true;
   }
 
   @Override
-  public synchronized Element startConsuming(String consumerId) {
-    PrioritizedElement element = notStarted.poll();
-    if (element == null) {
-      return null;
+  public Element startConsuming(String consumerId) {
+    PrioritizedElement queued;
+    while ((queued = notStarted.pollFirst()) != null) {
+      ElementBeingConsumed consumed = new ElementBeingConsumed(queued.entry.element, consumerId, queued.priority,
+                                                               System.currentTimeMillis());
+      // fails if the element was removed, rescheduled, or promoted after the key was added, in which case the key is
+      // stale and can be dropped.
+      if (queued.entry.state.compareAndSet(queued, consumed)) {
+        return queued.entry.element;
+      }
     }
-    inProgress.put(element.element.getId(), new ElementBeingConsumed(element.element, consumerId, element.priority));
-    return element.element;
+    return null;
   }
 
   @Override
-  public synchronized boolean stopConsumingAndAddBackToQueue(String elementId, String consumerId) {
-    ElementBeingConsumed element = inProgress.get(elementId);
-    if (element == null || !consumerId.equals(element.consumerId)) {
+  public boolean stopConsumingAndAddBackToQueue(String elementId, String consumerId) {
+    Entry entry = entries.get(elementId);
+    if (entry == null) {
       return false;
     }
-    stopAndReschedule(element);
-    return true;
-  }
-
-  private synchronized void stopAndReschedule(ElementBeingConsumed element) {
-    inProgress.remove(element.element.getId());
-    notStarted.add(new PrioritizedElement(element.element, element.priority));
+    while (true) {
+      ElementBeingConsumed consumed = getConsumedBy(entry, consumerId);
+      if (consumed == null) {
+        return false;
+      }
+      if (stopAndReschedule(entry, consumed)) {
+        return true;
+      }
+    }
   }
 
-  @Override
-  public synchronized boolean finishConsuming(String elementId, String consumerId) {
-    ElementBeingConsumed element = inProgress.get(elementId);
-    if (element == null || !consumerId.equals(element.consumerId)) {
+  private boolean stopAndReschedule(Entry entry, ElementBeingConsumed consumed) {
+    PrioritizedElement queued = new PrioritizedElement(entry, consumed.priority, sequence.incrementAndGet());
+    if (!entry.state.compareAndSet(consumed, queued)) {
       return false;
     }
-    inProgress.remove(elementId);
+    notStarted.add(queued);
+    listeners.notifyQueued();
     return true;
   }
 
   @Override
-  public synchronized boolean recordProgress(String elementId, String consumerId) {
-    ElementBeingConsumed element = inProgress.get(elementId);
-    if (element == null || !consumerId.equals(element.consumerId)) {
+  public boolean finishConsuming(String elementId, String consumerId) {
+    Entry entry = entries.get(elementId);
+    if (entry == null) {
       return false;
     }
-    element.lastProgressReportTs = System.currentTimeMillis();
-    return true;
+    while (true) {
+      ElementBeingConsumed consumed = getConsumedBy(entry, consumerId);
+      if (consumed == null) {
+        return false;
+      }
+      if (entry.state.compareAndSet(consumed, REMOVED)) {
+        entries.remove(elementId, entry);
+        return true;
+      }
+    }
   }
 
   @Override
-  public synchronized void walkThruElementsBeingConsumed(Walker walker) {
-    List<ElementBeingConsumed> toBeStoppedAndRescheduled = Lists.newArrayList();
-    for (ElementBeingConsumed element : inProgress.values()) {
-      boolean stopAndReschedule = walker.process(element.element, element.consumerId, element.lastProgressReportTs);
-      if (stopAndReschedule) {
-        toBeStoppedAndRescheduled.add(element);
-      }
+  public boolean recordProgress(String elementId, String consumerId) {
+    Entry entry = entries.get(elementId);
+    if (entry == null) {
+      return false;
     }
-
-    for (ElementBeingConsumed element : toBeStoppedAndRescheduled) {
-      stopAndReschedule(element);
+    while (true) {
+      ElementBeingConsumed consumed = getConsumedBy(entry, consumerId);
+      if (consumed == null) {
+        return false;
+      }
+      ElementBeingConsumed progressed = new ElementBeingConsumed(consumed.element, consumerId, consumed.priority,
+                                                                 System.currentTimeMillis());
+      if (entry.state.compareAndSet(consumed, progressed)) {
+        return true;
+      }
     }
   }
 
   @Override
-  public synchronized boolean remove(String elementId) {
-    PrioritizedElement toRemove = null;
-    for (PrioritizedElement elem : notStarted) {
-      if (elementId.equals(elem.element.getId())) {
-        toRemove = elem;
-        break;
+  public void walkThruElementsBeingConsumed(Walker walker) {
+    for (Entry entry : entries.values()) {
+      Object state = entry.state.get();
+      if (state instanceof ElementBeingConsumed) {
+        ElementBeingConsumed consumed = (ElementBeingConsumed) state;
+        // only reschedules if nothing happened to the element since the walker looked at it
+        if (walker.process(consumed.element, consumed.consumerId, consumed.lastProgressReportTs)) {
+          stopAndReschedule(entry, consumed);
+        }
       }
     }
-    if (toRemove != null) {
-      notStarted.remove(toRemove);
+  }
+
+  @Override
+  public boolean remove(String elementId) {
+    Entry entry = entries.remove(elementId);
+    if (entry != null) {
+      retire(entry);
     }
-    inProgress.remove(elementId);
     return true;
   }
 
   @Override
-  public synchronized boolean removeAll() {
-    notStarted.clear();
-    inProgress.clear();
+  public boolean removeAll() {
+    for (String elementId : entries.keySet()) {
+      remove(elementId);
+    }
     return true;
   }
 
   @Override
-  public synchronized boolean toHighestPriority(String elementId) {
+  public boolean toHighestPriority(String elementId) {
     // we adjust priority only in those not being consumed. If consuming fails for the element it will be promoted to
     // highest priority anyways
-    PrioritizedElement toChange = null;
-    for (PrioritizedElement elem : notStarted) {
-      if (elementId.equals(elem.element.getId())) {
-        toChange = elem;
+    Entry entry = entries.get(elementId);
+    if (entry == null) {
+      return true;
+    }
+    Object state = entry.state.get();
+    while (state instanceof PrioritizedElement) {
+      PrioritizedElement promoted = new PrioritizedElement(entry, HIGHEST_PRIORITY, sequence.incrementAndGet());
+      if (entry.state.compareAndSet(state, promoted)) {
+        notStarted.add(promoted);
+        notStarted.remove(state);
         break;
       }
+      state = entry.state.get();
     }
-    if (toChange != null) {
-      notStarted.remove(toChange);
-      toChange.priority = HIGHEST_PRIORITY;
-      notStarted.add(toChange);
-    }
-
     return true;
   }
 
   @Override
   public List<QueuedElement> getQueued() {
     List<QueuedElement> result = Lists.newArrayList();
-    List<PrioritizedElement> list = new ArrayList<PrioritizedElement>(notStarted);
-    Collections.sort(list);
-    for (PrioritizedElement elem : list) {
-      result.add(elem);
+    for (PrioritizedElement queued : notStarted) {
+      if (queued.entry.state.get() == queued) {
+        result.add(queued);
+      }
     }
     return result;
   }
@@ -161,10 +210,41 @@ public class InMemoryElementsTracking implements ElementsTracking {
   @Override
   public List<QueuedElement> getBeingConsumed() {
     ImmutableList.Builder<QueuedElement> listBuilder = new ImmutableList.Builder<QueuedElement>();
-    listBuilder.addAll(inProgress.values());
+    for (Entry entry : entries.values()) {
+      Object state = entry.state.get();
+      if (state instanceof ElementBeingConsumed) {
+        listBuilder.add((ElementBeingConsumed) state);
+      }
+    }
     return listBuilder.build();
   }
 
+  @Override
+  public Cancellable watchQueued(Runnable listener) {
+    return listeners.add(listener);
+  }
+
+  @Override
+  public int size() {
+    return entries.size();
+  }
+
+  private ElementBeingConsumed getConsumedBy(Entry entry, String consumerId) {
+    Object state = entry.state.get();
+    if (state instanceof ElementBeingConsumed && consumerId.equals(((ElementBeingConsumed) state).consumerId)) {
+      return (ElementBeingConsumed) state;
+    }
+    return null;
+  }
+
+  // marks the entry as removed so that no consumer can take or report on it anymore.
+  private void retire(Entry entry) {
+    Object state = entry.state.getAndSet(REMOVED);
+    if (state instanceof PrioritizedElement) {
+      notStarted.remove(state);
+    }
+  }
+
   /**
    * @return the highest priority an element which is currently in the queue can have
    */
@@ -179,18 +259,33 @@ public class InMemoryElementsTracking implements ElementsTracking {
     return System.currentTimeMillis();
   }
 
-  private static class PrioritizedElement implements QueuedElement, Comparable<PrioritizedElement> {
-    private Element element;
-    private long priority;
+  /**
+   * An element in the queue. Its state is either a {@link PrioritizedElement} if it is queued, an
+   * {@link ElementBeingConsumed} if it is being consumed, or {@link #REMOVED} once it is finished or removed.
+   */
+  private static final class Entry {
+    private final Element element;
+    private final AtomicReference<Object> state = new AtomicReference<Object>();
 
-    private PrioritizedElement(Element element, long priority) {
+    private Entry(Element element) {
       this.element = element;
+    }
+  }
+
+  private static final class PrioritizedElement implements QueuedElement, Comparable<PrioritizedElement> {
+    private final Entry entry;
+    private final long priority;
+    private final long sequenceNum;
+
+    private PrioritizedElement(Entry entry, long priority, long sequenceNum) {
+      this.entry = entry;
       this.priority = priority;
+      this.sequenceNum = sequenceNum;
     }
 
     @Override
     public Element getElement() {
-      return element;
+      return entry.element;
     }
 
     @Override
@@ -205,30 +300,26 @@ public class InMemoryElementsTracking implements ElementsTracking {
 
     @Override
     public int compareTo(PrioritizedElement o) {
-      if (o.priority == priority) {
-        return 0;
-      } else {
+      if (o.priority != priority) {
         return priority > o.priority ? 1 : -1;
+      } else if (o.sequenceNum != sequenceNum) {
+        return sequenceNum > o.sequenceNum ? 1 : -1;
       }
+      return 0;
     }
   }
 
-  @Override
-  public int size() {
-    return notStarted.size() + inProgress.size();
-  }
-
-  private static class ElementBeingConsumed implements QueuedElement {
-    private Element element;
-    private String consumerId;
-    private long priority;
-    private long lastProgressReportTs;
+  private static final class ElementBeingConsumed implements QueuedElement {
+    private final Element element;
+    private final String consumerId;
+    private final long priority;
+    private final long lastProgressReportTs;
 
-    private ElementBeingConsumed(Element element, String consumerId, long priority) {
+    private ElementBeingConsumed(Element element, String consumerId, long priority, long lastProgressReportTs) {
       this.element = element;
       this.consumerId = consumerId;
       this.priority = priority;
-      this.lastProgressReportTs = System.currentTimeMillis();
+      this.lastProgressReportTs = lastProgressReportTs;
     }
 
     @Override
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.common.queue.internal;
+
+import org.apache.twill.common.Cancellable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Listeners to call when elements may have been put in a queue, see {@link ElementsTracking#watchQueued(Runnable)}.
+ */
+final class QueuedListeners {
+  private static final Logger LOG = LoggerFactory.getLogger(QueuedListeners.class);
+
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+  Cancellable add(final Runnable listener) {
+    listeners.add(listener);
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        listeners.remove(listener);
+      }
+    };
+  }
+
+  boolean isEmpty() {
+    return listeners.isEmpty();
+  }
+
+  void notifyQueued() {
+    for (Runnable listener : listeners) {
+      try {
+        listener.run();
+      } catch (Throwable t) {
+        // a failing listener must not fail the operation that put the element in the queue
+        LOG.error("Exception while notifying queue listener {}", listener, t);
+      }
+    }
+  }
+}
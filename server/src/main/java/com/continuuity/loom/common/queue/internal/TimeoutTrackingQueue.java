@@ -19,15 +19,22 @@ import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.QueuedElement;
 import com.continuuity.loom.common.queue.TrackingQueue;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import org.apache.twill.common.Cancellable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tracks elements being consumed and puts them back to queue if there's a certain time passed after last consumer's
@@ -35,9 +42,24 @@ import java.util.Map;
  */
 public class TimeoutTrackingQueue implements TrackingQueue {
   private static final Logger LOG = LoggerFactory.getLogger(TimeoutTrackingQueue.class);
+  // consumers come and go, for example every provisioner has its own consumer id, so finished counts are only kept
+  // for consumers that finished something recently, and for at most this many of them.
+  static final int MAX_FINISHED_COUNTS = 1000;
+  private static final long FINISHED_COUNT_EXPIRE_MINUTES = 60;
+
   private final ElementsTracking elementsTracking;
 
   private final Map<String, SettableFuture<String>> consumingResults;
+  // consumer id -> number of elements it finished
+  private final LoadingCache<String, AtomicLong> finishedCounts = CacheBuilder.newBuilder()
+    .maximumSize(MAX_FINISHED_COUNTS)
+    .expireAfterAccess(FINISHED_COUNT_EXPIRE_MINUTES, TimeUnit.MINUTES)
+    .build(new CacheLoader<String, AtomicLong>() {
+      @Override
+      public AtomicLong load(String consumerId) {
+        return new AtomicLong(0);
+      }
+    });
 
   private long rescheduleAfterTimeout;
   private long intervalBetweenChecks;
@@ -100,6 +122,7 @@ public class TimeoutTrackingQueue implements TrackingQueue {
     if (status == ConsumingStatus.FINISHED_SUCCESSFULLY) {
       if (elementsTracking.finishConsuming(elementId, consumerId)) {
         setConsumingResult(elementId, result);
+        incrementFinishedCount(consumerId);
         return PossessionState.POSSESSES;
       } else {
         LOG.warn("Attempted to report consuming progress for element that doesn't belong to the consumer, " +
@@ -229,6 +252,25 @@ public class TimeoutTrackingQueue implements TrackingQueue {
     }
   }
 
+  @Override
+  public Map<String, Long> getFinishedCounts() {
+    ImmutableMap.Builder<String, Long> counts = ImmutableMap.builder();
+    for (Map.Entry<String, AtomicLong> entry : finishedCounts.asMap().entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts.build();
+  }
+
+  private void incrementFinishedCount(String consumerId) {
+    finishedCounts.getUnchecked(consumerId).incrementAndGet();
+  }
+
+  @Override
+  public Cancellable addListener(Runnable listener) {
+    Preconditions.checkArgument(listener != null, "listener to add must not be null");
+    return elementsTracking.watchQueued(listener);
+  }
+
   @Override
   public int size() {
     return elementsTracking.size();
@@ -19,13 +19,22 @@ import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.QueuedElement;
 import com.continuuity.loom.common.zookeeper.ZKClientExt;
 import com.continuuity.loom.common.zookeeper.lib.Serializer;
-import com.continuuity.loom.common.zookeeper.lib.SynchronizedZKMap;
-import com.continuuity.loom.common.zookeeper.lib.ZKInterProcessReentrantLock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.Gson;
+import org.apache.twill.common.Cancellable;
+import org.apache.twill.zookeeper.NodeChildren;
+import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.ZKClient;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,15 +42,32 @@ import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * Simple implementation that uses ZK to store element data.
+ * Implementation that uses ZK to store element data, without any global lock.
  * <p/>
- * Given that queue is not going to be big, at max will contain hundreds or thousands of elements *for simplicity* we
- * use {@link Map} backed by ZK - underneath:
+ * Every element is stored in its own node under {@code elements}, whose data holds the priority of the element and the
+ * consumer it is being consumed by, if any. All changes to an element are conditional updates on the version of its
+ * node, so that only one consumer can take an element, and only the consumer of an element can report progress on it,
+ * finish it or put it back.
  * <p/>
- * Again, for simplicity we use *single* lock and wrap all methods with it.
+ * Elements that are not being consumed are indexed by nodes under {@code pending}, named by the priority of the
+ * element followed by a unique token and the element id, so that listing the children gives the queue in priority
+ * order. The token starts with a counter, so elements with the same priority added by one process stay in order.
+ * The element records the name of its current pending node, and is always written before the pending node is created.
+ * If creating the pending node fails, the element is still in the queue, and the pending node is restored the next
+ * time the elements are walked through.
+ * Taking an element lists the pending nodes once and then claims the first element that still records the pending
+ * node, which takes a constant number of round trips unless other consumers claim the same elements concurrently.
+ * Pending nodes that an element no longer records are left behind by concurrent changes, and since names are never
+ * reused, they can safely be deleted whenever they are found.
+ * <p/>
+ * While there are listeners watching for queued elements, a watch is kept on the children of {@code pending}, so that
+ * listeners also hear about elements put in the queue by other processes.
  */
 public class ZKElementsTracking implements ElementsTracking {
   private static final Logger LOG = LoggerFactory.getLogger(ZKElementsTracking.class);
@@ -50,36 +76,45 @@ public class ZKElementsTracking implements ElementsTracking {
   private static final long HIGHEST_PRIORITY = 0L;
   private static final String NO_CONSUMER_ASSIGNED = "";
   private static final EntrySerializer ENTRY_SERIALIZER = new EntrySerializer();
-
-  private final ThreadLocal<ZKInterProcessReentrantLock> globalLock;
-  private final Map<String, Entry> queueElements;
+  // number of digits in the priority part of pending node names, enough for any non negative long
+  private static final int PRIORITY_DIGITS = 19;
+  // length of the unique token in pending node names
+  private static final int TOKEN_LENGTH = 32;
+  private static final AtomicLong TOKEN_SEQUENCE = new AtomicLong(System.currentTimeMillis());
+
+  private final ZKClient zkClient;
+  private final String elementsPath;
+  private final String pendingPath;
+  private final QueuedListeners listeners = new QueuedListeners();
+  private final Watcher pendingWatcher = new PendingWatcher();
+  // whether a watch is set on the pending nodes, guarded by this
+  private boolean watchingPending;
 
   public ZKElementsTracking(final ZKClient zkClient, final String basePath)  {
     String queuePath = basePath + "/queue";
-    Futures.getUnchecked(ZKClientExt.ensureExists(zkClient, queuePath));
-    this.queueElements = new SynchronizedZKMap<Entry>(zkClient, queuePath + "/map", ENTRY_SERIALIZER);
-
-    this.globalLock = new ThreadLocal<ZKInterProcessReentrantLock>() {
-      @Override
-      protected ZKInterProcessReentrantLock initialValue() {
-        return new ZKInterProcessReentrantLock(zkClient, basePath);
-      }
-    };
+    this.zkClient = zkClient;
+    this.elementsPath = queuePath + "/elements";
+    this.pendingPath = queuePath + "/pending";
+    Futures.getUnchecked(ZKClientExt.ensureExists(zkClient, elementsPath));
+    Futures.getUnchecked(ZKClientExt.ensureExists(zkClient, pendingPath));
+    migrateMapEntries(queuePath + "/map/entries");
   }
 
   @Override
   public boolean addToQueue(Element element) {
     try {
-      // we actually may need no lock here: we just adding new element (it is assumed that test adds unique
-      // elems into queue)
-      globalLock.get().acquire();
+      Entry entry = new Entry(element, getCurrentHighestPriority());
+      entry.pendingNode = createPendingNodeName(entry);
+      Futures.getUnchecked(ZKClientExt.createOrSet(zkClient, getElementPath(element.getId()),
+                                                   ENTRY_SERIALIZER.serialize(entry), CreateMode.PERSISTENT));
       try {
-        Entry entry = new Entry(element, getCurrentHighestPriority());
-        queueElements.put(entry.element.getId(), entry);
-        return true;
-      } finally {
-        globalLock.get().release();
+        addPending(entry);
+      } catch (Exception e) {
+        // the element is in the queue, its pending node is restored by the next walk
+        LOG.warn("Failed to create pending node for queue element {}, it will be restored later", element.getId(), e);
       }
+      listeners.notifyQueued();
+      return true;
     } catch (Exception e) {
       LOG.error("error during adding to queue", e);
       return false;
@@ -88,137 +123,149 @@ public class ZKElementsTracking implements ElementsTracking {
 
   @Override
   public Element startConsuming(String consumerId) {
+    // sets the watch again if setting it failed before
+    watchPending();
     try {
-      globalLock.get().acquire();
-      try {
-        Entry entry = getNotStartedWithHighestPriority();
-        if (entry == null) {
-          return null;
+      for (String pendingNode : getPendingNodes()) {
+        String elementId = getElementId(pendingNode);
+        VersionedEntry current = getEntry(elementId);
+        if (current == null || !pendingNode.equals(current.entry.pendingNode)) {
+          deletePending(pendingNode);
+          continue;
         }
+        Entry entry = current.entry;
+        entry.pendingNode = null;
         entry.consumerId = consumerId;
         entry.lastProgressReportTs = System.currentTimeMillis();
         entry.priority = getCurrentHighestPriority();
-        queueElements.put(entry.element.getId(), entry);
-        return entry.element;
-      } finally {
-        globalLock.get().release();
+        // fails if another consumer took the element, or it was changed in some other way, since we read it.
+        if (update(elementId, entry, current.version)) {
+          deletePending(pendingNode);
+          return entry.element;
+        }
       }
+      return null;
     } catch (Exception e) {
       LOG.error("error during start consuming", e);
       return null;
     }
   }
 
-  private Entry getNotStartedWithHighestPriority() throws Exception {
-    Entry result = null;
-    for (Entry entry : queueElements.values()) {
-      // we are walking thru *all* element items, hence need to skip those that are in progress
-      if (!NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
-        continue;
-      }
-      // choosing entry with highest priority
-      if (result == null || result.priority > entry.priority) {
-        result = entry;
-      }
-    }
-    return result;
-  }
-
   @Override
   public boolean stopConsumingAndAddBackToQueue(String elementId, String consumerId) {
     try {
-      globalLock.get().acquire();
-      try {
-        Entry entry = queueElements.get(elementId);
-
-        if (entry == null || !consumerId.equals(entry.consumerId)) {
+      while (true) {
+        VersionedEntry current = getEntry(elementId);
+        if (current == null || !consumerId.equals(current.entry.consumerId)) {
           return false;
         }
-        stopAndReschedule(entry);
-
-      } finally {
-        globalLock.get().release();
+        if (stopAndReschedule(current)) {
+          return true;
+        }
       }
     } catch (Exception e) {
       LOG.error("error during stop & reschedule", e);
       // it is OK to leave it now in "in-progress" list - we'll attempt to reschedule it by timeout
+      return false;
     }
-    // TODO: what if we failed?
-    return true;
   }
 
-  private void stopAndReschedule(Entry entry) throws Exception {
-    entry.consumerId = NO_CONSUMER_ASSIGNED;
-    entry.lastProgressReportTs = 0;
-    queueElements.put(entry.element.getId(), entry);
+  private boolean stopAndReschedule(VersionedEntry current) {
+    return stopAndRescheduleAll(ImmutableList.of(current)) == 1;
+  }
+
+  /**
+   * Puts all given elements back in the queue, unless they changed since they were read. Updates for all elements are
+   * issued at once, and then pending nodes are created for all elements that were updated, so rescheduling takes two
+   * round trips no matter how many elements there are.
+   *
+   * @return number of elements that were rescheduled.
+   */
+  private int stopAndRescheduleAll(List<VersionedEntry> toReschedule) {
+    List<ListenableFuture<Stat>> updates = Lists.newArrayListWithCapacity(toReschedule.size());
+    for (VersionedEntry current : toReschedule) {
+      Entry entry = current.entry;
+      entry.consumerId = NO_CONSUMER_ASSIGNED;
+      entry.lastProgressReportTs = 0;
+      entry.pendingNode = createPendingNodeName(entry);
+      updates.add(ZKClientExt.setDataIfVersion(zkClient, getElementPath(entry.element.getId()),
+                                               ENTRY_SERIALIZER.serialize(entry), current.version));
+    }
+    List<ListenableFuture<String>> creates = Lists.newArrayListWithCapacity(toReschedule.size());
+    for (int i = 0; i < toReschedule.size(); i++) {
+      // null if the element changed since it was read
+      if (Futures.getUnchecked(updates.get(i)) != null) {
+        creates.add(ZKClientExt.createIfAbsent(zkClient, getPendingPath(toReschedule.get(i).entry.pendingNode),
+                                               null, CreateMode.PERSISTENT));
+      }
+    }
+    Futures.getUnchecked(Futures.allAsList(creates));
+    if (!creates.isEmpty()) {
+      listeners.notifyQueued();
+    }
+    return creates.size();
   }
 
   @Override
   public boolean finishConsuming(String elementId, String consumerId) {
     try {
-      globalLock.get().acquire();
-      try {
-        Entry entry = queueElements.get(elementId);
-        if (entry == null || !consumerId.equals(entry.consumerId)) {
+      while (true) {
+        VersionedEntry current = getEntry(elementId);
+        if (current == null || !consumerId.equals(current.entry.consumerId)) {
           return false;
         }
-        queueElements.remove(elementId);
-
-      } finally {
-        globalLock.get().release();
+        if (Futures.getUnchecked(ZKClientExt.deleteIfVersion(zkClient, getElementPath(elementId),
+                                                             current.version)) != null) {
+          return true;
+        }
       }
     } catch (Exception e) {
       LOG.error("error during marking finishConsuming", e);
       // TODO: this is actually bad: we will try to do element again, even though it was done already :(
+      return false;
     }
-    // TODO: what if we failed?
-    return true;
   }
 
   @Override
   public boolean recordProgress(String elementId, String consumerId) {
     try {
-      globalLock.get().acquire();
-      try {
-        Entry entry = queueElements.get(elementId);
-        if (entry == null || !consumerId.equals(entry.consumerId)) {
+      while (true) {
+        VersionedEntry current = getEntry(elementId);
+        if (current == null || !consumerId.equals(current.entry.consumerId)) {
           return false;
         }
-        entry.lastProgressReportTs = System.currentTimeMillis();
-        queueElements.put(entry.element.getId(), entry);
-
-      } finally {
-        globalLock.get().release();
+        current.entry.lastProgressReportTs = System.currentTimeMillis();
+        if (update(elementId, current.entry, current.version)) {
+          return true;
+        }
       }
     } catch (Exception e) {
       LOG.error("error during checking state", e);
       // should be OK not do anything: we are just reporting a progress...
+      return false;
     }
-    // TODO: what if we failed?
-    return true;
   }
 
   @Override
   public void walkThruElementsBeingConsumed(Walker walker) {
     try {
-      globalLock.get().acquire();
-      try {
-        for (Entry entry : queueElements.values()) {
-          // we are walking thru *all* element items, hence need to skip those not in progress
-          if (NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
-            continue;
-          }
-          boolean stopAndReschedule = walker.process(entry.element,
-                                                     entry.consumerId,
-                                                     entry.lastProgressReportTs);
-          if (stopAndReschedule) {
-            stopAndReschedule(entry);
-          }
+      List<VersionedEntry> toReschedule = Lists.newArrayList();
+      List<Entry> queued = Lists.newArrayList();
+      for (VersionedEntry current : getAllEntries()) {
+        Entry entry = current.entry;
+        // we are walking thru *all* element items, hence need to skip those not in progress
+        if (NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
+          queued.add(entry);
+          continue;
+        }
+        boolean stopAndReschedule = walker.process(entry.element, entry.consumerId, entry.lastProgressReportTs);
+        if (stopAndReschedule) {
+          toReschedule.add(current);
         }
-
-      } finally {
-        globalLock.get().release();
       }
+      // skips elements whose consumer reported progress or finished after we read them
+      stopAndRescheduleAll(toReschedule);
+      restorePending(queued);
     } catch (Exception e) {
       LOG.error("error during walking", e);
       // should be OK not do anything: we'll walk thru next time :)
@@ -228,11 +275,11 @@ public class ZKElementsTracking implements ElementsTracking {
   @Override
   public boolean remove(String elementId) {
     try {
-      globalLock.get().acquire();
-      try {
-        queueElements.remove(elementId);
-      } finally {
-        globalLock.get().release();
+      Futures.getUnchecked(ZKClientExt.delete(zkClient, getElementPath(elementId), true));
+      for (String pendingNode : getPendingNodes()) {
+        if (elementId.equals(getElementId(pendingNode))) {
+          deletePending(pendingNode);
+        }
       }
     } catch (Exception e) {
       LOG.error("error during removing element", e);
@@ -244,12 +291,14 @@ public class ZKElementsTracking implements ElementsTracking {
   @Override
   public boolean removeAll() {
     try {
-      globalLock.get().acquire();
-      try {
-        queueElements.clear();
-      } finally {
-        globalLock.get().release();
+      List<ListenableFuture<String>> deleteFutures = Lists.newArrayList();
+      for (String elementId : getChildren(elementsPath)) {
+        deleteFutures.add(ZKClientExt.delete(zkClient, getElementPath(elementId), true));
+      }
+      for (String pendingNode : getChildren(pendingPath)) {
+        deleteFutures.add(ZKClientExt.delete(zkClient, getPendingPath(pendingNode), true));
       }
+      Futures.getUnchecked(Futures.allAsList(deleteFutures));
     } catch (Exception e) {
       LOG.error("error during cleanup of the queue", e);
       return false;
@@ -261,15 +310,21 @@ public class ZKElementsTracking implements ElementsTracking {
   @Override
   public boolean toHighestPriority(String elementId) {
     try {
-      globalLock.get().acquire();
-      try {
-        Entry entry = queueElements.get(elementId);
-        if (NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
-          entry.priority = HIGHEST_PRIORITY;
-          queueElements.put(entry.element.getId(), entry);
+      while (true) {
+        VersionedEntry current = getEntry(elementId);
+        if (current == null || !NO_CONSUMER_ASSIGNED.equals(current.entry.consumerId)) {
+          return true;
+        }
+        String oldPendingNode = current.entry.pendingNode;
+        current.entry.priority = HIGHEST_PRIORITY;
+        current.entry.pendingNode = createPendingNodeName(current.entry);
+        if (update(elementId, current.entry, current.version)) {
+          addPending(current.entry);
+          if (oldPendingNode != null) {
+            deletePending(oldPendingNode);
+          }
+          return true;
         }
-      } finally {
-        globalLock.get().release();
       }
     } catch (Exception e) {
       LOG.error("error during promoting element to highest priority", e);
@@ -283,19 +338,15 @@ public class ZKElementsTracking implements ElementsTracking {
   public List<QueuedElement> getQueued() {
     List<QueuedElement> list = Lists.newArrayList();
     try {
-      globalLock.get().acquire();
-      try {
-        List<Entry> all = Lists.newArrayList(queueElements.values());
-        // we want to return the list ordered by priority
-        Collections.sort(all);
-        for (Entry entry : all) {
-          if (NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
-            list.add(entry);
-          }
+      List<Entry> all = Lists.newArrayList();
+      for (VersionedEntry current : getAllEntries()) {
+        if (NO_CONSUMER_ASSIGNED.equals(current.entry.consumerId)) {
+          all.add(current.entry);
         }
-      } finally {
-        globalLock.get().release();
       }
+      // we want to return the list ordered by priority
+      Collections.sort(all);
+      list.addAll(all);
     } catch (Exception e) {
       LOG.error("error during getting queued elements", e);
     }
@@ -307,15 +358,10 @@ public class ZKElementsTracking implements ElementsTracking {
   public List<QueuedElement> getBeingConsumed() {
     ImmutableList.Builder<QueuedElement> listBuilder = new ImmutableList.Builder<QueuedElement>();
     try {
-      globalLock.get().acquire();
-      try {
-        for (Entry entry : queueElements.values()) {
-          if (!NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
-            listBuilder.add(entry);
-          }
+      for (VersionedEntry current : getAllEntries()) {
+        if (!NO_CONSUMER_ASSIGNED.equals(current.entry.consumerId)) {
+          listBuilder.add(current.entry);
         }
-      } finally {
-        globalLock.get().release();
       }
     } catch (Exception e) {
       LOG.error("error during getting queued elements", e);
@@ -324,6 +370,19 @@ public class ZKElementsTracking implements ElementsTracking {
     return listBuilder.build();
   }
 
+  @Override
+  public Cancellable watchQueued(Runnable listener) {
+    Cancellable cancellable = listeners.add(listener);
+    watchPending();
+    return cancellable;
+  }
+
+  @Override
+  public int size() {
+    Stat stat = Futures.getUnchecked(zkClient.exists(elementsPath));
+    return stat == null ? 0 : stat.getNumChildren();
+  }
+
   /**
    * @return the highest priority an element which is currently in the queue can have
    */
@@ -338,12 +397,162 @@ public class ZKElementsTracking implements ElementsTracking {
     return System.currentTimeMillis();
   }
 
+  // sets a watch on the pending nodes if there are listeners and none is set yet. The watch fires for any change to
+  // the pending nodes, so listeners are only notified if there are pending nodes when it is set again.
+  private synchronized void watchPending() {
+    if (watchingPending || listeners.isEmpty()) {
+      return;
+    }
+    watchingPending = true;
+    Futures.addCallback(zkClient.getChildren(pendingPath, pendingWatcher), new FutureCallback<NodeChildren>() {
+      @Override
+      public void onSuccess(NodeChildren result) {
+        if (!result.getChildren().isEmpty()) {
+          listeners.notifyQueued();
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        LOG.warn("Failed to watch pending elements under {}, will try again on the next take", pendingPath, t);
+        synchronized (ZKElementsTracking.this) {
+          watchingPending = false;
+        }
+        // there may be elements that were put in the queue while there was no watch
+        listeners.notifyQueued();
+      }
+    });
+  }
+
+  // pending nodes in priority order
+  private List<String> getPendingNodes() {
+    List<String> pendingNodes = getChildren(pendingPath);
+    Collections.sort(pendingNodes);
+    return pendingNodes;
+  }
+
+  private void addPending(Entry entry) {
+    Futures.getUnchecked(ZKClientExt.createIfAbsent(zkClient, getPendingPath(entry.pendingNode),
+                                                    null, CreateMode.PERSISTENT));
+  }
+
+  /**
+   * Creates the pending nodes of queued elements that are missing them. The element and its pending node are written
+   * one after the other, since there are no multi operations on the client, so a process that dies or loses its
+   * connection in between leaves the element in the queue without a pending node, and consumers would never see it.
+   * Restoring the pending node of an element that was taken after it was read leaves a stale pending node behind,
+   * which is deleted once it is found like any other.
+   *
+   * @return number of pending nodes that were restored.
+   */
+  private int restorePending(List<Entry> queued) {
+    // listed after the elements were read, so that elements added concurrently are not seen without their pending node
+    Set<String> pendingNodes = Sets.newHashSet(getChildren(pendingPath));
+    List<ListenableFuture<String>> creates = Lists.newArrayList();
+    for (Entry entry : queued) {
+      if (entry.pendingNode != null && !pendingNodes.contains(entry.pendingNode)) {
+        LOG.warn("Restoring missing pending node of queue element {}", entry.element.getId());
+        creates.add(ZKClientExt.createIfAbsent(zkClient, getPendingPath(entry.pendingNode),
+                                               null, CreateMode.PERSISTENT));
+      }
+    }
+    Futures.getUnchecked(Futures.allAsList(creates));
+    if (!creates.isEmpty()) {
+      listeners.notifyQueued();
+    }
+    return creates.size();
+  }
+
+  private void deletePending(String pendingNode) {
+    Futures.getUnchecked(ZKClientExt.delete(zkClient, getPendingPath(pendingNode), true));
+  }
+
+  // a new pending node name for the element, unique so that a stale pending node can never become valid again
+  private String createPendingNodeName(Entry entry) {
+    // the token starts with a counter, so that elements with the same priority keep the order they were added in
+    String token = String.format("%016x%016x", TOKEN_SEQUENCE.incrementAndGet(),
+                                 UUID.randomUUID().getLeastSignificantBits());
+    return String.format("%0" + PRIORITY_DIGITS + "d-%s-%s", entry.priority, token, entry.element.getId());
+  }
+
+  private String getElementId(String pendingNode) {
+    return pendingNode.substring(PRIORITY_DIGITS + TOKEN_LENGTH + 2);
+  }
+
+  private boolean update(String elementId, Entry entry, int version) {
+    return Futures.getUnchecked(ZKClientExt.setDataIfVersion(zkClient, getElementPath(elementId),
+                                                             ENTRY_SERIALIZER.serialize(entry), version)) != null;
+  }
+
+  @Nullable
+  private VersionedEntry getEntry(String elementId) {
+    NodeData nodeData = Futures.getUnchecked(ZKClientExt.getDataOrNull(zkClient, getElementPath(elementId)));
+    if (nodeData == null) {
+      return null;
+    }
+    return new VersionedEntry(ENTRY_SERIALIZER.deserialize(nodeData.getData()), nodeData.getStat().getVersion());
+  }
+
+  private List<VersionedEntry> getAllEntries() {
+    Map<String, ListenableFuture<NodeData>> dataFutures = Maps.newHashMap();
+    for (String elementId : getChildren(elementsPath)) {
+      dataFutures.put(elementId, ZKClientExt.getDataOrNull(zkClient, getElementPath(elementId)));
+    }
+    List<VersionedEntry> entries = Lists.newArrayListWithCapacity(dataFutures.size());
+    for (ListenableFuture<NodeData> dataFuture : dataFutures.values()) {
+      NodeData nodeData = Futures.getUnchecked(dataFuture);
+      // null if the element was removed after listing
+      if (nodeData != null) {
+        entries.add(new VersionedEntry(ENTRY_SERIALIZER.deserialize(nodeData.getData()),
+                                       nodeData.getStat().getVersion()));
+      }
+    }
+    return entries;
+  }
+
+  private List<String> getChildren(String path) {
+    NodeChildren children = Futures.getUnchecked(ZKClientExt.getChildrenOrNull(zkClient, path));
+    return children == null ? Lists.<String>newArrayList() : Lists.newArrayList(children.getChildren());
+  }
+
+  private String getElementPath(String elementId) {
+    return elementsPath + "/" + elementId;
+  }
+
+  private String getPendingPath(String pendingNode) {
+    return pendingPath + "/" + pendingNode;
+  }
+
+  // moves elements stored by an older version, which kept all elements in a SynchronizedZKMap, to the new layout.
+  private void migrateMapEntries(String mapEntriesPath) {
+    for (String elementId : getChildren(mapEntriesPath)) {
+      String oldPath = mapEntriesPath + "/" + elementId;
+      NodeData nodeData = Futures.getUnchecked(ZKClientExt.getDataOrNull(zkClient, oldPath));
+      if (nodeData != null) {
+        Entry entry = ENTRY_SERIALIZER.deserialize(nodeData.getData());
+        if (NO_CONSUMER_ASSIGNED.equals(entry.consumerId)) {
+          entry.pendingNode = createPendingNodeName(entry);
+        }
+        String created = Futures.getUnchecked(ZKClientExt.createIfAbsent(zkClient, getElementPath(elementId),
+                                                                         ENTRY_SERIALIZER.serialize(entry),
+                                                                         CreateMode.PERSISTENT));
+        if (created != null && entry.pendingNode != null) {
+          addPending(entry);
+        }
+        LOG.info("Migrated queue element {} to {}", elementId, getElementPath(elementId));
+      }
+      Futures.getUnchecked(ZKClientExt.delete(zkClient, oldPath, true));
+    }
+  }
+
   static class Entry implements QueuedElement, Comparable<Entry> {
     Element element;
     long priority;
     // will be empty if it is not in progress
     String consumerId;
     long lastProgressReportTs;
+    // name of the pending node for the element, null if it is in progress
+    String pendingNode;
 
     public Entry(Element element, long priority) {
       this(element, priority, 0L, NO_CONSUMER_ASSIGNED);
@@ -374,13 +583,46 @@ public class ZKElementsTracking implements ElementsTracking {
     @Override
     public int compareTo(Entry o) {
       if (o.priority == priority) {
-        return 0;
+        // pending node names order elements with the same priority by the time they were queued
+        return pendingNode == null || o.pendingNode == null ? 0 : pendingNode.compareTo(o.pendingNode);
       } else {
         return priority > o.priority ? 1 : -1;
       }
     }
   }
 
+  /**
+   * Watch on the children of the pending path. ZooKeeper watches fire only once, so when it fires for a change to the
+   * children, or is dropped because the session expired, the watch is set again through {@link #watchPending()}, which
+   * also notifies listeners if there are pending elements. Other connection events leave the watch in place.
+   */
+  private final class PendingWatcher implements Watcher {
+    @Override
+    public void process(WatchedEvent event) {
+      // the watch stays set across disconnects, but is gone once the session expires
+      if (event.getType() == Event.EventType.None && event.getState() != Event.KeeperState.Expired) {
+        return;
+      }
+      synchronized (ZKElementsTracking.this) {
+        watchingPending = false;
+      }
+      watchPending();
+    }
+  }
+
+  /**
+   * An entry along with the version of the node it was read from.
+   */
+  private static final class VersionedEntry {
+    private final Entry entry;
+    private final int version;
+
+    private VersionedEntry(Entry entry, int version) {
+      this.entry = entry;
+      this.version = version;
+    }
+  }
+
   private static final class EntrySerializer implements Serializer<Entry> {
     private static final ThreadLocal<Gson> GSON = new ThreadLocal<Gson>() {
       @Override
@@ -405,9 +647,4 @@ public class ZKElementsTracking implements ElementsTracking {
       return GSON.get().fromJson(new String(bytes), Entry.class);
     }
   }
-
-  @Override
-  public int size() {
-    return queueElements.size();
-  }
 }
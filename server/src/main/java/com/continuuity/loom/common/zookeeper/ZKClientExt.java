@@ -93,6 +93,44 @@ public final class ZKClientExt {
     return resultFuture;
   }
 
+  /**
+   * Acts as {@link ZKClient#setData(String, byte[])} if node exists, otherwise as
+   * {@link #createOrSet(org.apache.twill.zookeeper.ZKClient, String, byte[], org.apache.zookeeper.CreateMode)
+   * createOrSet(zkClient, path, data, createMode)}. Takes a single round trip when the node is expected to exist.
+   */
+  public static ListenableFuture<SetResult> setOrCreate(final ZKClient zkClient, final String path,
+                                                        @Nullable final byte[] data, final CreateMode createMode) {
+    final SettableFuture<SetResult> resultFuture = SettableFuture.create();
+
+    Futures.addCallback(zkClient.setData(path, data), new FutureCallback<Stat>() {
+      @Override
+      public void onSuccess(Stat result) {
+        resultFuture.set(new SetResult(null, result));
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (causedBy(t, KeeperException.NoNodeException.class)) {
+          Futures.addCallback(createOrSet(zkClient, path, data, createMode), new FutureCallback<SetResult>() {
+            @Override
+            public void onSuccess(SetResult result) {
+              resultFuture.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              resultFuture.setException(t);
+            }
+          });
+          return;
+        }
+        resultFuture.setException(t);
+      }
+    });
+
+    return resultFuture;
+  }
+
   /**
    * Result of {@link #createOrSet(ZKClient, String, byte[], org.apache.zookeeper.CreateMode, boolean)} operation.
    * {@link #getPath()}
@@ -172,6 +210,36 @@ public final class ZKClientExt {
     return resultFuture;
   }
 
+  /**
+   * Acts as {@link ZKClient#create(String, byte[], org.apache.zookeeper.CreateMode, boolean)
+   * create(path, data, createMode, true)} if node doesn't exist. Otherwise has no affect.
+   * In latter case sets {@code null} in returned future.
+   */
+  public static ListenableFuture<String> createIfAbsent(final ZKClient zkClient, final String path,
+                                                        @Nullable final byte[] data, final CreateMode createMode) {
+    return ignoreError(zkClient.create(path, data, createMode, true), KeeperException.NodeExistsException.class);
+  }
+
+  /**
+   * Acts as {@link ZKClient#setData(String, byte[], int)} if node exists and has the given version.
+   * Otherwise sets {@code null} in returned future.
+   */
+  public static ListenableFuture<Stat> setDataIfVersion(final ZKClient zkClient, final String path,
+                                                        @Nullable final byte[] data, final int version) {
+    return ignoreError(ignoreError(zkClient.setData(path, data, version), KeeperException.BadVersionException.class),
+                       KeeperException.NoNodeException.class);
+  }
+
+  /**
+   * Acts as {@link ZKClient#delete(String, int)} if node exists and has the given version.
+   * Otherwise sets {@code null} in returned future.
+   */
+  public static ListenableFuture<String> deleteIfVersion(final ZKClient zkClient, final String path,
+                                                         final int version) {
+    return ignoreError(ignoreError(zkClient.delete(path, version), KeeperException.BadVersionException.class),
+                       KeeperException.NoNodeException.class);
+  }
+
   /**
    * Same as calling {@link #getDataOrNull(ZKClient, String, org.apache.zookeeper.Watcher)
    * getDataOrNull(zkClient, path, null)}.
@@ -19,111 +19,124 @@ import com.continuuity.loom.common.zookeeper.ZKClientExt;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
-import org.apache.twill.zookeeper.OperationFuture;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClients;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Synchronized (across threads and different processes) implementation of {@link java.util.Map} backed
  * by Zookeeper.
  * <p/>
+ * Reads are served from an in-memory view of the map that is kept up to date with zookeeper watches: a children watch
+ * on the entries node tells about added and removed keys, and a data watch on every entry tells about changed values,
+ * so only the entries that changed are fetched again. Reads never go to zookeeper or take the lock, which also means
+ * they may not reflect a change made through another instance until its watch fires. Mutations are serialized across
+ * processes with a zookeeper lock and are applied to the in-memory view once they are persisted, so an instance always
+ * sees its own changes.
+ * <p/>
+ * Watches do not survive session expiration, use a client created with {@link ZKClients#reWatchOnExpire(ZKClient)}
+ * to keep the view up to date after one.
+ * <p/>
  * Does not permit null keys or values.
  *
  * @param <T> Type of object to keep in map values.
  */
 public class SynchronizedZKMap<T> implements Map<String, T> {
+  private static final Logger LOG = LoggerFactory.getLogger(SynchronizedZKMap.class);
   private static final String ENTRIES_PATH = "/entries";
   private static final String LOCK_PATH = "/lock";
   private final ZKClient zkClient;
   private final Serializer<T> serializer;
 
   private final ZKInterProcessReentrantLock globalLock;
-  private Map<String, T> currentView;
-  private int currentViewVersion;
+  private final ConcurrentMap<String, T> currentView;
+  private final Map<String, T> readOnlyView;
+  // keys that have a data watch set, or a fetch in progress that will set one
+  private final Set<String> watchedKeys;
+  private final Watcher childrenWatcher;
 
   public SynchronizedZKMap(ZKClient zkClient, String namespace, Serializer<T> serializer) {
-    this(namespace == null ? zkClient : ZKClients.namespace(zkClient, namespace), serializer);
+    this(zkClient, namespace, serializer, 0);
+  }
+
+  /**
+   * Creates a map whose lock is leased for the given time, see {@link ZKInterProcessReentrantLock}. Leasing pays off
+   * when a single process does most of the mutations.
+   */
+  public SynchronizedZKMap(ZKClient zkClient, String namespace, Serializer<T> serializer, long lockLeaseMs) {
+    this(namespace == null ? zkClient : ZKClients.namespace(zkClient, namespace), serializer, lockLeaseMs);
   }
 
   public SynchronizedZKMap(ZKClient zkClient, Serializer<T> serializer) {
+    this(zkClient, serializer, 0);
+  }
+
+  public SynchronizedZKMap(ZKClient zkClient, Serializer<T> serializer, long lockLeaseMs) {
     this.zkClient = zkClient;
     this.serializer = serializer;
-    this.currentView = Maps.newHashMap();
-    this.currentViewVersion = -1;
-    this.globalLock = new ZKInterProcessReentrantLock(zkClient, LOCK_PATH);
+    this.currentView = Maps.newConcurrentMap();
+    this.readOnlyView = Collections.unmodifiableMap(currentView);
+    this.watchedKeys = Sets.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+    this.globalLock = new ZKInterProcessReentrantLock(zkClient, LOCK_PATH, lockLeaseMs);
+    this.childrenWatcher = new Watcher() {
+      @Override
+      public void process(WatchedEvent event) {
+        if (event.getType() == Event.EventType.NodeChildrenChanged) {
+          fetchChildren();
+        }
+      }
+    };
+    Futures.getUnchecked(ZKClientExt.ensureExists(zkClient, ENTRIES_PATH));
+    Futures.getUnchecked(fetchChildren());
   }
 
   @Override
-  public synchronized int size() {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.size();
-    } finally {
-      globalLock.release();
-    }
+  public int size() {
+    return currentView.size();
   }
 
   @Override
-  public synchronized boolean isEmpty() {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.isEmpty();
-    } finally {
-      globalLock.release();
-    }
+  public boolean isEmpty() {
+    return currentView.isEmpty();
   }
 
   @Override
-  public synchronized boolean containsKey(Object key) {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.containsKey(key);
-    } finally {
-      globalLock.release();
-    }
+  public boolean containsKey(Object key) {
+    return key != null && currentView.containsKey(key);
   }
 
   @Override
-  public synchronized boolean containsValue(Object value) {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.containsValue(value);
-    } finally {
-      globalLock.release();
-    }
+  public boolean containsValue(Object value) {
+    return value != null && currentView.containsValue(value);
   }
 
   @Override
-  public synchronized T get(Object key) {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.get(key);
-    } finally {
-      globalLock.release();
-    }
+  public T get(Object key) {
+    return key == null ? null : currentView.get(key);
   }
 
-  // note: may not return value and still delete smth from ZK if in-memory view is stale
+  // note: may not return value and still overwrite smth in ZK if in-memory view is stale
   public synchronized T put(String key, T value) {
     globalLock.acquire();
     try {
-      reloadCacheIfNeeded();
       return putInternal(key, value);
     } finally {
       globalLock.release();
@@ -135,7 +148,6 @@ public class SynchronizedZKMap<T> implements Map<String, T> {
   public synchronized T remove(Object key) {
     globalLock.acquire();
     try {
-      reloadCacheIfNeeded();
       return removeInternal(key);
     } finally {
       globalLock.release();
@@ -144,141 +156,174 @@ public class SynchronizedZKMap<T> implements Map<String, T> {
 
   @Override
   public synchronized void putAll(Map<? extends String, ? extends T> m) {
-    // todo: implement efficiently
-    throw new UnsupportedOperationException();
-  }
-
-  public synchronized void clear() {
+    if (m.isEmpty()) {
+      return;
+    }
     globalLock.acquire();
     try {
-      reloadCacheIfNeeded();
-      clearInternal();
+      putAllInternal(m);
     } finally {
       globalLock.release();
     }
   }
 
-  @Override
-  public synchronized Set<String> keySet() {
+  public synchronized void clear() {
     globalLock.acquire();
     try {
-      reloadCacheIfNeeded();
-      return currentView.keySet();
+      clearInternal();
     } finally {
       globalLock.release();
     }
   }
 
   @Override
-  public synchronized Collection<T> values() {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.values();
-    } finally {
-      globalLock.release();
-    }
+  public Set<String> keySet() {
+    return readOnlyView.keySet();
   }
 
   @Override
-  public synchronized Set<Entry<String, T>> entrySet() {
-    globalLock.acquire();
-    try {
-      reloadCacheIfNeeded();
-      return currentView.entrySet();
-    } finally {
-      globalLock.release();
-    }
+  public Collection<T> values() {
+    return readOnlyView.values();
+  }
+
+  @Override
+  public Set<Entry<String, T>> entrySet() {
+    return readOnlyView.entrySet();
   }
 
   private T putInternal(String key, T value) {
-    Map<String, T> current = Maps.newHashMap(currentView);
-    T result = current.put(key, value);
-    currentView = ImmutableMap.<String, T>builder().putAll(current).build();
-    String itemNodePath = getItemNodePath(key);
-    // Note: we do delete and add new node with new data VS createOrSet() so that cversion of children change (we depend
-    //       on it when checking if the current in-memory view is stale)
-    Futures.getUnchecked(ZKClientExt.delete(zkClient, itemNodePath, true));
-    Futures.getUnchecked(zkClient.create(itemNodePath, serializer.serialize(value), CreateMode.PERSISTENT, true));
+    T result = currentView.get(key);
+    putAllInternal(ImmutableMap.of(key, value));
     return result;
   }
 
+  private void putAllInternal(Map<? extends String, ? extends T> m) {
+    // Operations of a zk session are executed in the order they are submitted, so we issue all of them without
+    // waiting and then wait for all results. This makes a batch cost a single round trip rather than one per key.
+    // The map lock is held during the whole batch, so no other map instance changes it concurrently.
+    List<ListenableFuture<ZKClientExt.SetResult>> futures = Lists.newArrayListWithCapacity(m.size());
+    for (Map.Entry<? extends String, ? extends T> entry : m.entrySet()) {
+      String itemNodePath = getItemNodePath(entry.getKey());
+      byte[] data = serializer.serialize(entry.getValue());
+      if (currentView.containsKey(entry.getKey())) {
+        futures.add(ZKClientExt.setOrCreate(zkClient, itemNodePath, data, CreateMode.PERSISTENT));
+      } else {
+        futures.add(ZKClientExt.createOrSet(zkClient, itemNodePath, data, CreateMode.PERSISTENT));
+      }
+    }
+    Futures.getUnchecked(Futures.allAsList(futures));
+    // updating the view only after the change is persisted, so that a fetch issued before it cannot override it
+    currentView.putAll(m);
+  }
+
   private T removeInternal(Object key) {
     if (!(key instanceof String)) {
       throw new IllegalArgumentException("Expected key of type java.lang.String but was " +
                                            (key == null ? null : key.getClass()));
     }
 
-    if (!currentView.containsKey(key)) {
-      return null;
-    }
-
-    Map<String, T> current = Maps.newHashMap(currentView);
-    T removed = current.remove(key);
-    currentView = ImmutableMap.<String, T>builder().putAll(current).build();
-    // note: we cannot only issue remove from zk if removed != null because even if removed == null this could mean
-    //       the element was removed (and for other race-condition reasons)
-    Futures.getUnchecked(ZKClientExt.delete(zkClient, getItemNodePath((String) key), true));
+    // note: the value is taken before the delete, as the watch may drop the key from the view before it completes.
+    //       We always issue remove to zk as the element may be there even if our view doesn't have it yet.
+    T removed = currentView.get(key);
+    String deleted = Futures.getUnchecked(ZKClientExt.delete(zkClient, getItemNodePath((String) key), true));
+    currentView.remove(key);
 
-    return removed;
+    return deleted == null ? null : removed;
   }
 
   private void clearInternal() {
-    if (currentView.size() > 0) {
-      currentView = Collections.emptyMap();
-      NodeChildren nodeChildren = Futures.getUnchecked(zkClient.getChildren(ENTRIES_PATH));
-      List<ListenableFuture<String>> deleteFutures = Lists.newArrayList();
-      for (String node : nodeChildren.getChildren()) {
-        deleteFutures.add(ZKClientExt.delete(zkClient, getNodePath(node), true));
-      }
-      Futures.getUnchecked(Futures.allAsList(deleteFutures));
+    NodeChildren nodeChildren = Futures.getUnchecked(zkClient.getChildren(ENTRIES_PATH));
+    List<ListenableFuture<String>> deleteFutures = Lists.newArrayList();
+    for (String node : nodeChildren.getChildren()) {
+      deleteFutures.add(ZKClientExt.delete(zkClient, getNodePath(node), true));
     }
+    Futures.getUnchecked(Futures.allAsList(deleteFutures));
+    currentView.keySet().removeAll(nodeChildren.getChildren());
   }
 
-  private void reloadCacheIfNeeded() {
-    NodeChildren nodeChildren = Futures.getUnchecked(ZKClientExt.getChildrenOrNull(zkClient, ENTRIES_PATH));
-    if (nodeChildren == null) {
-      if (currentView.size() > 0) {
-        currentView = Collections.emptyMap();
+  /**
+   * Fetches the keys of the map and sets a watch to fetch them again when they change. Keys that are gone are removed
+   * from the view, and the values of keys that are not watched yet are fetched.
+   */
+  private ListenableFuture<List<NodeData>> fetchChildren() {
+    AsyncFunction<NodeChildren, List<NodeData>> fetchNewKeys = new AsyncFunction<NodeChildren, List<NodeData>>() {
+      @Override
+      public ListenableFuture<List<NodeData>> apply(NodeChildren nodeChildren) {
+        Set<String> keys = Sets.newHashSet(nodeChildren.getChildren());
+        currentView.keySet().retainAll(keys);
+        List<ListenableFuture<NodeData>> fetches = Lists.newArrayList();
+        for (String key : keys) {
+          if (watchedKeys.add(key)) {
+            fetches.add(fetchData(key));
+          }
+        }
+        return Futures.successfulAsList(fetches);
+      }
+    };
+
+    ListenableFuture<List<NodeData>> result =
+      Futures.transform(zkClient.getChildren(ENTRIES_PATH, childrenWatcher), fetchNewKeys);
+    Futures.addCallback(result, new FutureCallback<List<NodeData>>() {
+      @Override
+      public void onSuccess(List<NodeData> result) {
+        // nothing to do
       }
 
-      return;
-    }
-
-    // we use children version to detect if we need to update local view
-    int trueVersion = nodeChildren.getStat().getCversion();
-
-    if (currentViewVersion == trueVersion) {
-      return;
-    }
-
-    List<String> nodes = nodeChildren.getChildren();
-    final Map<String, ListenableFuture<NodeData>> nodeAndDataFutures = Maps.newHashMap();
-    List<OperationFuture<NodeData>> dataFutures = Lists.newArrayList();
-    for (String node : nodes) {
-      OperationFuture<NodeData> dataFuture = zkClient.getData(getNodePath(node));
-      dataFutures.add(dataFuture);
-      nodeAndDataFutures.put(node, dataFuture);
-    }
-
-    Futures.getUnchecked(Futures.successfulAsList(dataFutures));
+      @Override
+      public void onFailure(Throwable t) {
+        LOG.error("Failed to fetch keys of the map.", t);
+      }
+    });
+    return result;
+  }
 
-    ImmutableMap.Builder<String, T> builder = ImmutableMap.builder();
-    for (Entry<String, ListenableFuture<NodeData>> nodeAndData : nodeAndDataFutures.entrySet()) {
-      T value = serializer.deserialize(Futures.getUnchecked(nodeAndData.getValue()).getData());
-      builder.put(nodeAndData.getKey(), value);
-    }
+  /**
+   * Fetches the value of the given key and sets a watch to fetch it again when it changes. All updates of the view
+   * triggered by watches happen in responses to zk operations, which are handled in the order the operations were
+   * submitted, so the view cannot go back to an older state once a newer one was seen.
+   */
+  private ListenableFuture<NodeData> fetchData(final String key) {
+    Watcher dataWatcher = new Watcher() {
+      @Override
+      public void process(WatchedEvent event) {
+        if (event.getType() == Event.EventType.None) {
+          return;
+        }
+        // the node may be deleted and created again at any point, so we fetch it to learn what happened
+        watchedKeys.remove(key);
+        if (watchedKeys.add(key)) {
+          fetchData(key);
+        }
+      }
+    };
+
+    ListenableFuture<NodeData> fetch = ZKClientExt.getDataOrNull(zkClient, getItemNodePath(key), dataWatcher);
+    Futures.addCallback(fetch, new FutureCallback<NodeData>() {
+      @Override
+      public void onSuccess(NodeData result) {
+        if (result == null) {
+          // no watch is set on a node that does not exist, it will be fetched again if the key is added back
+          watchedKeys.remove(key);
+          currentView.remove(key);
+        } else {
+          currentView.put(key, serializer.deserialize(result.getData()));
+        }
+      }
 
-    currentView = builder.build();
-    currentViewVersion = trueVersion;
+      @Override
+      public void onFailure(Throwable t) {
+        watchedKeys.remove(key);
+        LOG.error("Failed to fetch value of key {}.", key, t);
+      }
+    });
+    return fetch;
   }
 
-
-  private synchronized String getItemNodePath(String key) {
+  private String getItemNodePath(String key) {
     return getNodePath(key);
   }
 
-  private synchronized String getNodePath(String nodeName) {
+  private String getNodePath(String nodeName) {
     return ENTRIES_PATH + "/" + nodeName;
   }
 }
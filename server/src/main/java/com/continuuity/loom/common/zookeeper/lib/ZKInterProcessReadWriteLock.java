@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.common.zookeeper.lib;
+
+import org.apache.twill.zookeeper.ZKClient;
+
+/**
+ * A read/write lock backed up by Zookeeper. Any number of processes can hold the read lock at the same time, while
+ * the write lock excludes readers and other writers. Locks are granted in the order they were asked for, so a writer
+ * is not starved by a stream of readers. The write lock is also exclusive with a {@link ZKInterProcessReentrantLock}
+ * on the same path.
+ * <b/>
+ * Note: the read and write locks of the same instance are independent of each other, so upgrading a read lock to a
+ * write lock is not supported. Same as {@link ZKInterProcessReentrantLock}, this class is not thread-safe.
+ */
+public class ZKInterProcessReadWriteLock {
+  private final ZKInterProcessReentrantLock readLock;
+  private final ZKInterProcessReentrantLock writeLock;
+
+  public ZKInterProcessReadWriteLock(ZKClient zkClient, String path) {
+    this(zkClient, path, 0);
+  }
+
+  /**
+   * Creates a read/write lock whose locks are leased for the given time, see {@link ZKInterProcessReentrantLock}.
+   */
+  public ZKInterProcessReadWriteLock(ZKClient zkClient, String path, long leaseMs) {
+    this.readLock = new ZKInterProcessReentrantLock(zkClient, path, true, leaseMs);
+    this.writeLock = new ZKInterProcessReentrantLock(zkClient, path, false, leaseMs);
+  }
+
+  public ZKInterProcessReentrantLock readLock() {
+    return readLock;
+  }
+
+  public ZKInterProcessReentrantLock writeLock() {
+    return writeLock;
+  }
+}
@@ -16,6 +16,7 @@
 package com.continuuity.loom.common.zookeeper.lib;
 
 import com.continuuity.loom.common.zookeeper.ZKClientExt;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import org.apache.twill.zookeeper.NodeChildren;
@@ -27,58 +28,95 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Stat;
 
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * A re-entrant mutual exclusion lock backed up by Zookeeper.
+ * <p/>
+ * The lock can optionally be leased. When a leased lock is released, its node is kept so that acquiring the lock
+ * again does not need any zookeeper operation, as long as no other contender is queued for it and the node was
+ * created less than the lease time ago. The node is deleted as soon as a watch tells that another contender is
+ * waiting for it, so leasing only helps when a single process keeps taking the same lock.
  * <b/>
  * Note: this class is not thread-safe. When using within same process every thread should have it's own instance of
  * the lock.
  */
 public class ZKInterProcessReentrantLock {
+  private static final String EXCLUSIVE_NODE_PREFIX = "lock";
+  private static final String SHARED_NODE_PREFIX = "read-";
+  // length of the counter zookeeper appends to sequential nodes
+  private static final int SEQUENCE_LENGTH = 10;
+  private static final Comparator<String> SEQUENCE_COMPARATOR = new Comparator<String>() {
+    @Override
+    public int compare(String node1, String node2) {
+      return getSequence(node1).compareTo(getSequence(node2));
+    }
+  };
+
   private final ZKClient zkClient;
   private final String path;
   private final String lockPath;
-  // node that holds the lock, null if lock is not hold by us
+  private final boolean shared;
+  private final long leaseMs;
+  // node that holds the lock or is leased, null if lock is not hold by us. Guarded by this, as watches change it.
   private String lockNode;
+  private boolean held;
+  private long lockNodeCreateTime;
+  // whether another contender was seen waiting for the current lock node
+  private boolean contended;
 
   // todo: consider implementing Locks class to create different types of locks
   // TODO: Do not expose ZKInterProcessReentrantLock directly, instead create a LockService that has a well
   // defined namespace.
   public ZKInterProcessReentrantLock(ZKClient zkClient, String path) {
+    this(zkClient, path, 0);
+  }
+
+  /**
+   * Creates a lock that keeps its node for up to the given time after it was acquired, to reuse it when acquired again
+   * with no other contender. A lease time of 0 disables leasing.
+   */
+  public ZKInterProcessReentrantLock(ZKClient zkClient, String path, long leaseMs) {
+    this(zkClient, path, false, leaseMs);
+  }
+
+  ZKInterProcessReentrantLock(ZKClient zkClient, String path, boolean shared, long leaseMs) {
     this.zkClient = zkClient;
     this.path = path;
-    this.lockPath = path + "/lock";
+    this.shared = shared;
+    this.lockPath = path + "/" + (shared ? SHARED_NODE_PREFIX : EXCLUSIVE_NODE_PREFIX);
+    this.leaseMs = leaseMs;
     ZKClientExt.ensureExists(zkClient, path);
   }
 
   public void acquire() {
-    if (isOwnerOfLock()) {
+    if (isOwnerOfLock() || reuseLease()) {
       return;
     }
 
     // The algo is the following:
     // 1) we add sequential ephemeral node
-    // 2a) if added node is the first one in the list, we acquired the lock. Finish
-    // 2b) if added node is not the first one, then add watch to the one before it to re-acquire when it is deleted.
-
-    lockNode = Futures.getUnchecked(zkClient.create(lockPath, null, CreateMode.EPHEMERAL_SEQUENTIAL, true));
-    NodeChildren nodeChildren = Futures.getUnchecked(zkClient.getChildren(path));
-    List<String> children = nodeChildren.getChildren();
-    Collections.sort(children);
-    if (lockNode.equals(path + "/" + children.get(0))) {
-      // we are the first to acquire the lock
-      return;
-    }
+    // 2a) if no node added before ours blocks us, we acquired the lock. Finish
+    // 2b) otherwise add watch to the closest blocking node and go back to 2a) when it is deleted.
+    //     An exclusive lock is blocked by any node, a shared lock only by exclusive ones.
+
+    String node = Futures.getUnchecked(zkClient.create(lockPath, null, CreateMode.EPHEMERAL_SEQUENTIAL, true));
+    while (true) {
+      NodeChildren nodeChildren = Futures.getUnchecked(zkClient.getChildren(path));
+      List<String> children = nodeChildren.getChildren();
+      Collections.sort(children, SEQUENCE_COMPARATOR);
+      String nodeName = node.substring(path.length() + 1);
 
-    final SettableFuture<Object> future = SettableFuture.create();
-    boolean setWatcher = false;
-    // add watch to the previous node
-    Collections.reverse(children);
-    for (String child : children) {
-      child = path + "/" + child;
-      if (child.compareTo(lockNode) < 0) {
-        OperationFuture<Stat> exists = zkClient.exists(child, new Watcher() {
+      final SettableFuture<Object> future = SettableFuture.create();
+      boolean setWatcher = false;
+      // add watch to the closest blocking node
+      Collections.reverse(children);
+      for (String child : children) {
+        if (SEQUENCE_COMPARATOR.compare(child, nodeName) >= 0 || (shared && isShared(child))) {
+          continue;
+        }
+        OperationFuture<Stat> exists = zkClient.exists(path + "/" + child, new Watcher() {
           @Override
           public void process(WatchedEvent event) {
             if (event.getType() == Event.EventType.NodeDeleted) {
@@ -93,32 +131,162 @@ public class ZKInterProcessReentrantLock {
           break;
         }
       }
-    }
 
-    if (!setWatcher) {
-      // we are owners of a lock, just return
-      return;
+      if (!setWatcher) {
+        // we are owners of a lock
+        break;
+      }
+
+      // wait for lock to be released by previous owner, then check again as it may not have been the last one
+      Futures.getUnchecked(future);
     }
 
-    // wait for lock to be released by previous owner
-    Futures.getUnchecked(future);
+    synchronized (this) {
+      lockNode = node;
+      held = true;
+      lockNodeCreateTime = System.currentTimeMillis();
+      contended = false;
+    }
+    if (leaseMs > 0) {
+      watchForContenders(node);
+    }
   }
 
   public boolean release() {
-    if (lockNode == null) {
-      return false;
+    String nodeToDelete;
+    synchronized (this) {
+      if (lockNode == null || !held) {
+        return false;
+      }
+      held = false;
+      if (leaseMs > 0 && !contended && !isLeaseExpired()) {
+        // keeping the node, it is deleted when a contender shows up
+        return true;
+      }
+      nodeToDelete = lockNode;
+      lockNode = null;
     }
     // if we hold a lock, we release it by deleting the node
     // todo: check that we still hold the lock?
-    Futures.getUnchecked(zkClient.delete(lockNode));
+    Futures.getUnchecked(ZKClientExt.delete(zkClient, nodeToDelete, true));
     return true;
   }
 
+  /**
+   * Deletes the node kept by a released leased lock, if any. Should be called when the lock is not going to be used
+   * anymore.
+   */
+  public void endLease() {
+    String nodeToDelete;
+    synchronized (this) {
+      if (lockNode == null || held) {
+        return;
+      }
+      nodeToDelete = lockNode;
+      lockNode = null;
+    }
+    Futures.getUnchecked(ZKClientExt.delete(zkClient, nodeToDelete, true));
+  }
+
   private boolean isOwnerOfLock() {
-    if (lockNode == null) {
-      return false;
+    String node;
+    synchronized (this) {
+      if (lockNode == null || !held) {
+        return false;
+      }
+      node = lockNode;
     }
 
-    return Futures.getUnchecked(zkClient.exists(lockNode)) != null;
+    return Futures.getUnchecked(zkClient.exists(node)) != null;
+  }
+
+  // takes the lock again with the node kept since the last release, if there is one and nobody is waiting for it.
+  private boolean reuseLease() {
+    String nodeToDelete;
+    synchronized (this) {
+      if (lockNode == null) {
+        return false;
+      }
+      if (!held && !contended && !isLeaseExpired()) {
+        held = true;
+        return true;
+      }
+      // either the lease is over, or we were holding the lock but lost its node
+      nodeToDelete = lockNode;
+      lockNode = null;
+      held = false;
+    }
+    Futures.getUnchecked(ZKClientExt.delete(zkClient, nodeToDelete, true));
+    return false;
+  }
+
+  private boolean isLeaseExpired() {
+    return System.currentTimeMillis() - lockNodeCreateTime >= leaseMs;
+  }
+
+  // watches the children of the lock path until a contender waiting for the given node shows up.
+  private void watchForContenders(final String node) {
+    Watcher watcher = new Watcher() {
+      @Override
+      public void process(WatchedEvent event) {
+        if (event.getType() == Event.EventType.None) {
+          if (event.getState() != Event.KeeperState.SyncConnected) {
+            // the node may be gone with the session, we cannot rely on it anymore
+            onContended(node);
+          }
+          return;
+        }
+        if (isCurrentNode(node)) {
+          watchForContenders(node);
+        }
+      }
+    };
+
+    Futures.addCallback(zkClient.getChildren(path, watcher), new FutureCallback<NodeChildren>() {
+      @Override
+      public void onSuccess(NodeChildren result) {
+        String nodeName = node.substring(path.length() + 1);
+        for (String child : result.getChildren()) {
+          // a shared lock only blocks exclusive ones
+          if (!child.equals(nodeName) && (!shared || !isShared(child))) {
+            onContended(node);
+            return;
+          }
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        onContended(node);
+      }
+    });
+  }
+
+  private synchronized boolean isCurrentNode(String node) {
+    return node.equals(lockNode);
+  }
+
+  // stops leasing the given node, deleting it right away if the lock is not held.
+  private void onContended(String node) {
+    synchronized (this) {
+      if (!node.equals(lockNode)) {
+        return;
+      }
+      contended = true;
+      if (held) {
+        // it will be deleted on release
+        return;
+      }
+      lockNode = null;
+    }
+    ZKClientExt.delete(zkClient, node, true);
+  }
+
+  private static boolean isShared(String nodeName) {
+    return nodeName.startsWith(SHARED_NODE_PREFIX);
+  }
+
+  private static String getSequence(String nodeName) {
+    return nodeName.substring(Math.max(0, nodeName.length() - SEQUENCE_LENGTH));
   }
 }
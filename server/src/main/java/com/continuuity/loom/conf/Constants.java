@@ -40,7 +40,7 @@ public class Constants {
   public static final String DEFAULT_HOST = "localhost";
 
   public static final String SCHEDULER_INTERVAL_SECS = "scheduler.run.interval.seconds";
-  public static final int DEFAULT_SCHEDULER_INTERVAL_SECS = 1;
+  public static final int DEFAULT_SCHEDULER_INTERVAL_SECS = 10;
 
   public static final String TASK_NAMESPACE = "/tasks";
   public static final String LOCK_NAMESPACE = TASK_NAMESPACE + "/lock";
@@ -55,6 +55,11 @@ public class Constants {
   public static final String DEFAULT_DB_VALIDATION_QUERY = "VALUES 1";
   public static final String DB_MAX_ACTIVE_CONNECTIONS = "loom.jdbc.max.active.connections";
   public static final int DEFAULT_DB_MAX_ACTIVE_CONNECTIONS = 100;
+  public static final String DB_STATEMENT_CACHE_SIZE = "loom.jdbc.statement.cache.size";
+  public static final int DEFAULT_DB_STATEMENT_CACHE_SIZE = 1000;
+  public static final String DB_DIALECT = "loom.jdbc.dialect";
+  public static final String CLUSTER_STORE_BLOB_FORMAT = "loom.cluster.store.blob.format";
+  public static final String DEFAULT_CLUSTER_STORE_BLOB_FORMAT = "json";
 
   public static final String USER_HEADER = "X-Loom-UserID";
   public static final String API_KEY_HEADER = "X-Loom-ApiKey";
@@ -64,6 +69,21 @@ public class Constants {
   public static final String SOLVER_NUM_THREADS = "loom.solver.num.threads";
   public static final int DEFAULT_SOLVER_NUM_THREADS = 20;
 
+  public static final String SOLVER_ENGINE = "loom.solver.engine";
+  public static final String DEFAULT_SOLVER_ENGINE = "search";
+
+  public static final String SOLVER_LAYOUT_CACHE_SIZE = "loom.solver.layout.cache.size";
+  public static final int DEFAULT_SOLVER_LAYOUT_CACHE_SIZE = 1000;
+
+  public static final String SOLVER_PARALLEL_THRESHOLD = "loom.solver.parallel.threshold";
+  public static final int DEFAULT_SOLVER_PARALLEL_THRESHOLD = 500;
+
+  public static final String SOLVER_PARALLEL_NUM_THREADS = "loom.solver.parallel.num.threads";
+  public static final int DEFAULT_SOLVER_PARALLEL_NUM_THREADS = 4;
+
+  public static final String SOLVER_TIMEOUT_SECS = "loom.solver.timeout.seconds";
+  public static final long DEFAULT_SOLVER_TIMEOUT_SECS = 60;
+
   public static final String LOCAL_DATA_DIR = "loom.local.data.dir";
   public static final String DEFAULT_LOCAL_DATA_DIR = "/var/loom/data";
 
@@ -96,4 +116,16 @@ public class Constants {
 
   public static final String ID_INCREMENT_BY = "loom.ids.increment.by";
   public static final long DEFAULT_ID_INCREMENT_BY = 1;
+
+  public static final String ID_BLOCK_SIZE = "loom.ids.block.size";
+  public static final int DEFAULT_ID_BLOCK_SIZE = 1000;
+
+  public static final String LOCK_LEASE_MS = "loom.lock.lease.ms";
+  public static final long DEFAULT_LOCK_LEASE_MS = 0;
+
+  public static final String JOB_SCHEDULER_NUM_WORKERS = "loom.job.scheduler.num.workers";
+  public static final int DEFAULT_JOB_SCHEDULER_NUM_WORKERS = 4;
+
+  public static final String JOB_CONTEXT_CACHE_SIZE = "loom.job.context.cache.size";
+  public static final int DEFAULT_JOB_CONTEXT_CACHE_SIZE = 100;
 }
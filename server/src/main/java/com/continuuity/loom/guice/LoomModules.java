@@ -26,11 +26,17 @@ import com.continuuity.loom.http.LoomClusterHandler;
 import com.continuuity.loom.http.LoomRPCHandler;
 import com.continuuity.loom.http.LoomStatusHandler;
 import com.continuuity.loom.http.LoomTaskHandler;
+import com.continuuity.loom.layout.ConstraintLayoutSolverEngine;
+import com.continuuity.loom.layout.LayoutSolverEngine;
+import com.continuuity.loom.layout.NodeLayoutCache;
+import com.continuuity.loom.layout.SearchLayoutSolverEngine;
 import com.continuuity.loom.management.LoomStats;
 import com.continuuity.loom.scheduler.ClusterScheduler;
 import com.continuuity.loom.scheduler.JobScheduler;
 import com.continuuity.loom.scheduler.Scheduler;
 import com.continuuity.loom.scheduler.SolverScheduler;
+import com.continuuity.loom.scheduler.task.JobContextCache;
+import com.continuuity.loom.store.BlobSerde;
 import com.continuuity.loom.store.ClusterStore;
 import com.continuuity.loom.store.EntityStore;
 import com.continuuity.loom.store.SQLClusterStore;
@@ -96,6 +102,32 @@ public final class LoomModules {
     final long idIncrementBy = conf.getLong(Constants.ID_INCREMENT_BY, Constants.DEFAULT_ID_INCREMENT_BY);
     Preconditions.checkArgument(idStartNum >= 0, Constants.ID_START_NUM + " must not be negative");
     Preconditions.checkArgument(idIncrementBy > 0, Constants.ID_INCREMENT_BY + " must be at least 1");
+    // number of ids reserved at a time
+    final int idBlockSize = conf.getInt(Constants.ID_BLOCK_SIZE, Constants.DEFAULT_ID_BLOCK_SIZE);
+    Preconditions.checkArgument(idBlockSize > 0, Constants.ID_BLOCK_SIZE + " must be at least 1");
+    final long lockLeaseMs = conf.getLong(Constants.LOCK_LEASE_MS, Constants.DEFAULT_LOCK_LEASE_MS);
+    Preconditions.checkArgument(lockLeaseMs >= 0, Constants.LOCK_LEASE_MS + " must not be negative");
+    final int jobSchedulerNumWorkers = conf.getInt(Constants.JOB_SCHEDULER_NUM_WORKERS,
+                                                   Constants.DEFAULT_JOB_SCHEDULER_NUM_WORKERS);
+    Preconditions.checkArgument(jobSchedulerNumWorkers > 0,
+                                Constants.JOB_SCHEDULER_NUM_WORKERS + " must be at least 1");
+    final int jobContextCacheSize = conf.getInt(Constants.JOB_CONTEXT_CACHE_SIZE,
+                                                Constants.DEFAULT_JOB_CONTEXT_CACHE_SIZE);
+    Preconditions.checkArgument(jobContextCacheSize >= 0, Constants.JOB_CONTEXT_CACHE_SIZE + " must not be negative");
+    final Class<? extends LayoutSolverEngine> solverEngineClass =
+      getSolverEngineClass(conf.get(Constants.SOLVER_ENGINE, Constants.DEFAULT_SOLVER_ENGINE));
+    final int layoutCacheSize = conf.getInt(Constants.SOLVER_LAYOUT_CACHE_SIZE,
+                                            Constants.DEFAULT_SOLVER_LAYOUT_CACHE_SIZE);
+    Preconditions.checkArgument(layoutCacheSize >= 0, Constants.SOLVER_LAYOUT_CACHE_SIZE + " must not be negative");
+    final int solverParallelThreshold = conf.getInt(Constants.SOLVER_PARALLEL_THRESHOLD,
+                                                    Constants.DEFAULT_SOLVER_PARALLEL_THRESHOLD);
+    final int solverParallelNumThreads = conf.getInt(Constants.SOLVER_PARALLEL_NUM_THREADS,
+                                                     Constants.DEFAULT_SOLVER_PARALLEL_NUM_THREADS);
+    final long solverTimeoutSecs = conf.getLong(Constants.SOLVER_TIMEOUT_SECS, Constants.DEFAULT_SOLVER_TIMEOUT_SECS);
+    Preconditions.checkArgument(solverTimeoutSecs > 0, Constants.SOLVER_TIMEOUT_SECS + " must be at least 1");
+
+    final BlobSerde.Format clusterStoreBlobFormat =
+      getBlobFormat(conf.get(Constants.CLUSTER_STORE_BLOB_FORMAT, Constants.DEFAULT_CLUSTER_STORE_BLOB_FORMAT));
 
     final ZKClient zkClient = ZKClients.namespace(zkClientService, namespace);
 
@@ -160,6 +192,16 @@ public final class LoomModules {
           bind(ListeningExecutorService.class)
             .annotatedWith(Names.named("solver.executor.service"))
             .toInstance(executorService);
+          bind(LayoutSolverEngine.class).to(solverEngineClass).in(Scopes.SINGLETON);
+          bind(Integer.class)
+            .annotatedWith(Names.named(Constants.SOLVER_LAYOUT_CACHE_SIZE)).toInstance(layoutCacheSize);
+          bind(NodeLayoutCache.class).in(Scopes.SINGLETON);
+          bind(Integer.class)
+            .annotatedWith(Names.named(Constants.SOLVER_PARALLEL_THRESHOLD)).toInstance(solverParallelThreshold);
+          bind(Integer.class)
+            .annotatedWith(Names.named(Constants.SOLVER_PARALLEL_NUM_THREADS)).toInstance(solverParallelNumThreads);
+          bind(Long.class)
+            .annotatedWith(Names.named(Constants.SOLVER_TIMEOUT_SECS)).toInstance(solverTimeoutSecs);
 
           bind(Integer.class)
             .annotatedWith(Names.named(Constants.NETTY_EXEC_NUM_THREADS)).toInstance(nettyExecNumThreads);
@@ -178,12 +220,23 @@ public final class LoomModules {
             .annotatedWith(Names.named(Constants.ID_START_NUM)).toInstance(idStartNum);
           bind(Long.class)
             .annotatedWith(Names.named(Constants.ID_INCREMENT_BY)).toInstance(idIncrementBy);
+          bind(Integer.class)
+            .annotatedWith(Names.named(Constants.ID_BLOCK_SIZE)).toInstance(idBlockSize);
+          bind(Long.class)
+            .annotatedWith(Names.named(Constants.LOCK_LEASE_MS)).toInstance(lockLeaseMs);
+          bind(Integer.class)
+            .annotatedWith(Names.named(Constants.JOB_SCHEDULER_NUM_WORKERS)).toInstance(jobSchedulerNumWorkers);
+          bind(Integer.class)
+            .annotatedWith(Names.named(Constants.JOB_CONTEXT_CACHE_SIZE)).toInstance(jobContextCacheSize);
+          bind(JobContextCache.class).in(Scopes.SINGLETON);
+          bind(BlobSerde.Format.class)
+            .annotatedWith(Names.named(Constants.CLUSTER_STORE_BLOB_FORMAT)).toInstance(clusterStoreBlobFormat);
 
           bind(JobScheduler.class).in(Scopes.SINGLETON);
           bind(ClusterScheduler.class).in(Scopes.SINGLETON);
           bind(SolverScheduler.class).in(Scopes.SINGLETON);
           bind(Scheduler.class).in(Scopes.SINGLETON);
-          bind(LoomStats.class).in(Scopes.SINGLETON);
+          bind(LoomStats.class).toInstance(new LoomStats(jobSchedulerQueue, nodeProvisionTaskQueue));
 
           Multibinder<HttpHandler> handlerBinder = Multibinder.newSetBinder(binder(), HttpHandler.class);
           handlerBinder.addBinding().to(LoomAdminHandler.class);
@@ -194,4 +247,23 @@ public final class LoomModules {
         }
       };
   }
+
+  // get the layout solver engine to use given its name in the configuration.
+  private static Class<? extends LayoutSolverEngine> getSolverEngineClass(String name) {
+    if ("search".equals(name)) {
+      return SearchLayoutSolverEngine.class;
+    } else if ("constraint".equals(name)) {
+      return ConstraintLayoutSolverEngine.class;
+    }
+    throw new IllegalArgumentException(Constants.SOLVER_ENGINE + " must be one of 'search' or 'constraint'");
+  }
+
+  private static BlobSerde.Format getBlobFormat(String name) {
+    try {
+      return BlobSerde.Format.fromName(name);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(Constants.CLUSTER_STORE_BLOB_FORMAT +
+                                           " must be one of 'json', 'binary' or 'binary-deflate'");
+    }
+  }
 }
@@ -15,8 +15,10 @@
  */
 package com.continuuity.loom.http;
 
+import com.continuuity.http.ChunkResponder;
 import com.continuuity.http.HttpResponder;
 import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.cluster.Node;
 import com.continuuity.loom.codec.json.JsonSerde;
 import com.continuuity.loom.common.queue.Element;
@@ -31,9 +33,17 @@ import com.continuuity.loom.scheduler.task.ClusterService;
 import com.continuuity.loom.scheduler.task.ClusterTask;
 import com.continuuity.loom.scheduler.task.JobId;
 import com.continuuity.loom.scheduler.task.TaskId;
+import com.continuuity.loom.store.ClusterCursor;
+import com.continuuity.loom.store.ClusterFilter;
 import com.continuuity.loom.store.ClusterStore;
+import com.continuuity.loom.store.ClusterSummaryConsumer;
 import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -43,9 +53,13 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClients;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,6 +82,8 @@ import java.util.Set;
 public class LoomClusterHandler extends LoomAuthHandler {
   private static final Logger LOG  = LoggerFactory.getLogger(LoomClusterHandler.class);
   private static final Gson GSON = new JsonSerde().getGson();
+  // header holding the cursor for the next page of a paginated cluster listing.
+  public static final String NEXT_CURSOR_HEADER = "X-Loom-Next-Cursor";
 
   private final ClusterStore store;
   private final TrackingQueue jobQueue;
@@ -94,7 +110,16 @@ public class LoomClusterHandler extends LoomAuthHandler {
   }
 
   /**
-   * Get all clusters visible to the user.
+   * Get all clusters visible to the user, most recently created first. Optional query parameters:
+   * <ul>
+   *   <li>status: comma separated list of statuses the clusters must have one of.</li>
+   *   <li>template: name of the template the clusters must be created from.</li>
+   *   <li>limit: maximum number of clusters to return. If there may be more clusters, the cursor to pass as the
+   *   after parameter to get the next page is returned in the {@link #NEXT_CURSOR_HEADER} header.</li>
+   *   <li>after: cursor to start after, as returned by a previous page.</li>
+   *   <li>stream: if true, clusters are written out in chunks as they are read instead of all at once at the end.
+   *   No cursor is returned for streamed responses.</li>
+   * </ul>
    *
    * @param request Request for clusters.
    * @param responder Responder for sending the response.
@@ -107,31 +132,56 @@ public class LoomClusterHandler extends LoomAuthHandler {
       return;
     }
 
-    List<Cluster> clusters;
-    // TODO: revise endpoints so that admin has its own for this
-    if (userId.equals(Constants.ADMIN_USER)) {
-      clusters = store.getAllClusters();
-    } else {
-      clusters = store.getAllClusters(userId);
+    Map<String, List<String>> params = new QueryStringDecoder(request.getUri()).getParameters();
+    ClusterFilter filter;
+    ClusterCursor after;
+    int limit;
+    try {
+      Set<Cluster.Status> statuses = Sets.newHashSet();
+      for (String status : getParams(params, "status")) {
+        statuses.add(Cluster.Status.valueOf(status.toUpperCase()));
+      }
+      String template = getParam(params, "template");
+      // TODO: revise endpoints so that admin has its own for this
+      filter = new ClusterFilter(userId.equals(Constants.ADMIN_USER) ? null : userId, statuses, template);
+      String afterStr = getParam(params, "after");
+      after = afterStr == null ? null : ClusterCursor.fromString(afterStr);
+      String limitStr = getParam(params, "limit");
+      limit = limitStr == null ? 0 : Integer.parseInt(limitStr);
+      if (limit < 0) {
+        throw new IllegalArgumentException("limit must not be negative");
+      }
+    } catch (IllegalArgumentException e) {
+      responder.sendError(HttpResponseStatus.BAD_REQUEST, "invalid parameters: " + e.getMessage());
+      return;
+    }
+
+    if (Boolean.parseBoolean(getParam(params, "stream"))) {
+      ChunkedJsonArrayWriter writer = new ChunkedJsonArrayWriter(responder);
+      try {
+        store.scanClusterSummaries(filter, after, limit, writer);
+        writer.finish();
+      } catch (Exception e) {
+        LOG.error("Exception streaming clusters for user {}.", userId, e);
+        writer.abort();
+      }
+      return;
     }
 
+    List<ClusterSummary> clusters = store.getClusterSummaries(filter, after, limit);
     JsonArray jsonArray = new JsonArray();
-    for (Cluster cluster : clusters) {
-      JsonObject obj = new JsonObject();
-      obj.addProperty("id", cluster.getId());
-      obj.addProperty("name", cluster.getName());
-      obj.addProperty("createTime", cluster.getCreateTime());
-      obj.addProperty("expireTime", cluster.getExpireTime());
-      obj.addProperty("clusterTemplate",
-                      cluster.getClusterTemplate() == null ? "..." : cluster.getClusterTemplate().getName());
-      obj.addProperty("numNodes", cluster.getNodes().size());
-      obj.addProperty("status", cluster.getStatus().name());
-      obj.addProperty("ownerId", cluster.getOwnerId());
-
-      jsonArray.add(obj);
-    }
-
-    responder.sendJson(HttpResponseStatus.OK, jsonArray);
+    for (ClusterSummary cluster : clusters) {
+      jsonArray.add(getClusterSummaryJson(cluster));
+    }
+
+    if (limit > 0 && clusters.size() == limit) {
+      String cursor = ClusterCursor.after(clusters.get(clusters.size() - 1)).toString();
+      responder.sendByteArray(HttpResponseStatus.OK, GSON.toJson(jsonArray).getBytes(Charsets.UTF_8),
+                              ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, "application/json",
+                                                   NEXT_CURSOR_HEADER, cursor));
+    } else {
+      responder.sendJson(HttpResponseStatus.OK, jsonArray);
+    }
   }
 
   /**
@@ -227,10 +277,95 @@ public class LoomClusterHandler extends LoomAuthHandler {
       return;
     }
 
-    responder.sendJson(HttpResponseStatus.OK, getClusterResponseJson(cluster, job));
+    responder.sendJson(HttpResponseStatus.OK, getClusterResponseJson(cluster.getId(), cluster.getStatus(), job));
+  }
+
+  private static JsonObject getClusterSummaryJson(ClusterSummary cluster) {
+    JsonObject obj = new JsonObject();
+    obj.addProperty("id", cluster.getId());
+    obj.addProperty("name", cluster.getName());
+    obj.addProperty("createTime", cluster.getCreateTime());
+    obj.addProperty("expireTime", cluster.getExpireTime());
+    obj.addProperty("clusterTemplate", cluster.getClusterTemplate() == null ? "..." : cluster.getClusterTemplate());
+    obj.addProperty("numNodes", cluster.getNumNodes());
+    obj.addProperty("status", cluster.getStatus().name());
+    obj.addProperty("ownerId", cluster.getOwnerId());
+    return obj;
+  }
+
+  // values of a query parameter, where each value can be a comma separated list.
+  private static List<String> getParams(Map<String, List<String>> params, String name) {
+    List<String> values = Lists.newArrayList();
+    if (params.containsKey(name)) {
+      for (String value : params.get(name)) {
+        Iterables.addAll(values, Splitter.on(',').trimResults().omitEmptyStrings().split(value));
+      }
+    }
+    return values;
+  }
+
+  private static String getParam(Map<String, List<String>> params, String name) {
+    List<String> values = params.get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  /**
+   * Writes cluster summaries out as a json array in a chunked response. The response is only started once the first
+   * chunk is full, so that a failure before then can still be sent as an error.
+   */
+  private static final class ChunkedJsonArrayWriter implements ClusterSummaryConsumer {
+    private static final int CHUNK_SIZE = 8192;
+    private final HttpResponder responder;
+    private ChunkResponder chunkResponder;
+    private ChannelBuffer buffer;
+    private boolean empty;
+
+    private ChunkedJsonArrayWriter(HttpResponder responder) {
+      this.responder = responder;
+      this.buffer = ChannelBuffers.dynamicBuffer(CHUNK_SIZE * 2);
+      this.empty = true;
+      buffer.writeByte('[');
+    }
+
+    @Override
+    public void consume(ClusterSummary summary) throws IOException {
+      if (!empty) {
+        buffer.writeByte(',');
+      }
+      empty = false;
+      buffer.writeBytes(GSON.toJson(getClusterSummaryJson(summary)).getBytes(Charsets.UTF_8));
+      if (buffer.readableBytes() >= CHUNK_SIZE) {
+        flush();
+      }
+    }
+
+    private void finish() throws IOException {
+      buffer.writeByte(']');
+      flush();
+      chunkResponder.close();
+    }
+
+    private void abort() throws IOException {
+      if (chunkResponder == null) {
+        responder.sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Exception getting clusters.");
+      } else {
+        // the status has already been sent, so all that can be done is to cut the response short.
+        chunkResponder.close();
+      }
+    }
+
+    private void flush() throws IOException {
+      if (chunkResponder == null) {
+        chunkResponder = responder.sendChunkStart(
+          HttpResponseStatus.OK, ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, "application/json"));
+      }
+      // the chunk is written asynchronously, so a new buffer is used for the next one.
+      chunkResponder.sendChunk(buffer);
+      buffer = ChannelBuffers.dynamicBuffer(CHUNK_SIZE * 2);
+    }
   }
 
-  protected static JsonObject getClusterResponseJson(Cluster cluster, ClusterJob job) {
+  protected static JsonObject getClusterResponseJson(String clusterId, Cluster.Status status, ClusterJob job) {
     Map<String, ClusterTask.Status> taskStatus = job.getTaskStatus();
 
     int completedTasks = 0;
@@ -241,10 +376,10 @@ public class LoomClusterHandler extends LoomAuthHandler {
     }
 
     JsonObject object = new JsonObject();
-    object.addProperty("clusterid", cluster.getId());
+    object.addProperty("clusterid", clusterId);
     object.addProperty("stepstotal", taskStatus.size());
     object.addProperty("stepscompleted", completedTasks);
-    object.addProperty("status", cluster.getStatus().name());
+    object.addProperty("status", status.name());
     object.addProperty("actionstatus", job.getJobStatus().toString());
     object.addProperty("action", job.getClusterAction().name());
 
@@ -440,7 +575,7 @@ public class LoomClusterHandler extends LoomAuthHandler {
     if (clusterJob.getJobStatus() == ClusterJob.Status.FAILED ||
       clusterJob.getJobStatus() == ClusterJob.Status.COMPLETE) {
       // Reschedule the job.
-      jobQueue.add(new Element(clusterJob.getJobId()));
+      jobQueue.add(new Element(clusterJob.getJobId(), clusterJob.getJobId()));
       responder.sendStatus(HttpResponseStatus.OK);
       return;
     }
@@ -480,7 +615,7 @@ public class LoomClusterHandler extends LoomAuthHandler {
       try {
         store.writeClusterJob(clusterJob);
         // Reschedule the job.
-        jobQueue.add(new Element(clusterJob.getJobId()));
+        jobQueue.add(new Element(clusterJob.getJobId(), clusterJob.getJobId()));
       } catch (Exception e) {
         LOG.error("Exception while trying to write job {} to cluster store", clusterJob.getJobId(), e);
         responder.sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error aborting cluster.");
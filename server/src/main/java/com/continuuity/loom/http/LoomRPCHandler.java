@@ -16,7 +16,7 @@
 package com.continuuity.loom.http;
 
 import com.continuuity.http.HttpResponder;
-import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.ClusterService;
 import com.continuuity.loom.scheduler.task.JobId;
@@ -64,7 +64,7 @@ public class LoomRPCHandler extends LoomAuthHandler {
 
     // TODO: Improve this logic by using a table join instead of separate calls for cluster and jobId
 
-    List<Cluster> clusters = clusterService.getAllUserClusters(userId);
+    List<ClusterSummary> clusters = clusterService.getAllUserClusterSummaries(userId);
     if (clusters.size() == 0) {
       responder.sendError(HttpResponseStatus.NOT_FOUND, String.format("No clusters found"));
       return;
@@ -72,8 +72,8 @@ public class LoomRPCHandler extends LoomAuthHandler {
 
     JsonArray response = new JsonArray();
 
-    Map<JobId, Cluster> clusterMap = Maps.newHashMap();
-    for (Cluster cluster : clusters) {
+    Map<JobId, ClusterSummary> clusterMap = Maps.newHashMap();
+    for (ClusterSummary cluster : clusters) {
       clusterMap.put(JobId.fromString(cluster.getLatestJobId()), cluster);
     }
 
@@ -85,7 +85,8 @@ public class LoomRPCHandler extends LoomAuthHandler {
     }
 
     for (JobId jobId : jobs.keySet()) {
-      response.add(LoomClusterHandler.getClusterResponseJson(clusterMap.get(jobId), jobs.get(jobId)));
+      ClusterSummary cluster = clusterMap.get(jobId);
+      response.add(LoomClusterHandler.getClusterResponseJson(cluster.getId(), cluster.getStatus(), jobs.get(jobId)));
     }
 
     responder.sendJson(HttpResponseStatus.OK, response);
@@ -17,11 +17,22 @@ package com.continuuity.loom.layout;
 
 import com.continuuity.loom.admin.ClusterTemplate;
 import com.continuuity.loom.admin.ServiceConstraint;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class that takes in an ordered list of {@link NodeLayout}s by preference, {@link ClusterTemplate}, number of
@@ -29,36 +40,104 @@ import java.util.Set;
  * be used to satisfy constraints in the template.
  */
 public class ClusterLayoutFinder {
-  private final List<NodeLayout> nodePreferences;
+  private static final Logger LOG = LoggerFactory.getLogger(ClusterLayoutFinder.class);
+  // how many search steps to take between checks of the deadline and for interrupts, so that checking them does not
+  // slow down the search.
+  private static final int DEADLINE_CHECK_INTERVAL = 1024;
   private final int[] nodeCounts;
   private final int numMachines;
-  private Map<String, Integer> serviceCounts;
-  private final Map<String, ServiceConstraint> serviceConstraints;
+  // services on the cluster that have constraints are interned to indexes into the arrays below.
+  private final int[] minCounts;
+  private final int[] maxCounts;
+  private final int[] serviceCounts;
+  // indexes of the constrained services on each node layout.
+  private final int[][] layoutServices;
+  // index of the last node layout in the preference list that contains each constrained service. Once the search
+  // moves past that index, the count of the service can no longer change.
+  private final int[] lastLayoutWithService;
   private boolean doneSearching;
+  // only set when searching part of the layouts in parallel. Index of the earliest subtask that has found a valid
+  // layout, used to stop searching once an earlier subtask has found one.
+  private final AtomicInteger firstFoundTask;
+  private final int taskIndex;
+  private final long deadline;
+  private int iterations;
 
   public ClusterLayoutFinder(List<NodeLayout> nodePreferences, ClusterTemplate template, Set<String> services,
                              int numMachines) {
-    this.nodePreferences = nodePreferences;
+    this(nodePreferences, template, services, numMachines, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a finder that gives up searching by throwing a {@link SolverTimeoutException} once the given deadline has
+   * passed.
+   *
+   * @param nodePreferences Node layouts that can be used in the cluster, ordered by preference.
+   * @param template Cluster template containing the constraints the cluster must satisfy.
+   * @param services Names of services to place on the cluster.
+   * @param numMachines Number of machines in the cluster.
+   * @param deadline Timestamp in milliseconds after which to stop searching.
+   */
+  public ClusterLayoutFinder(List<NodeLayout> nodePreferences, ClusterTemplate template, Set<String> services,
+                             int numMachines, long deadline) {
     this.numMachines = numMachines;
-    serviceConstraints = Maps.newHashMap();
+    this.deadline = deadline;
 
     // we only care about the constraints that apply to services that are on the cluster
     Map<String, ServiceConstraint> allServiceConstraints = template.getConstraints().getServiceConstraints();
+    Map<String, Integer> serviceIndexes = Maps.newHashMap();
+    List<ServiceConstraint> serviceConstraints = Lists.newArrayList();
     for (String service : services) {
-      if (allServiceConstraints.containsKey(service)) {
-        serviceConstraints.put(service, allServiceConstraints.get(service));
+      ServiceConstraint constraint = allServiceConstraints.get(service);
+      if (constraint != null) {
+        serviceIndexes.put(service, serviceConstraints.size());
+        serviceConstraints.add(constraint);
       }
     }
 
     // initialize data structures
+    int numServices = serviceConstraints.size();
+    minCounts = new int[numServices];
+    maxCounts = new int[numServices];
+    for (int i = 0; i < numServices; i++) {
+      minCounts[i] = serviceConstraints.get(i).getMinCount();
+      maxCounts[i] = serviceConstraints.get(i).getMaxCount();
+    }
     nodeCounts = new int[nodePreferences.size()];
+    layoutServices = new int[nodePreferences.size()][];
+    lastLayoutWithService = new int[numServices];
+    Arrays.fill(lastLayoutWithService, -1);
+    for (int i = 0; i < nodePreferences.size(); i++) {
+      List<Integer> indexes = Lists.newArrayList();
+      for (String service : nodePreferences.get(i).getServiceNames()) {
+        Integer index = serviceIndexes.get(service);
+        if (index != null) {
+          indexes.add(index);
+          lastLayoutWithService[index] = i;
+        }
+      }
+      layoutServices[i] = Ints.toArray(indexes);
+    }
 
     // calculate number of each service across the entire cluster
-    serviceCounts = Maps.newHashMap();
-    for (String service : services) {
-      serviceCounts.put(service, 0);
-    }
-    initializeNodeCounts();
+    serviceCounts = new int[numServices];
+    firstFoundTask = null;
+    taskIndex = 0;
+  }
+
+  // creates a finder for a parallel subtask, sharing the read only constraints but with its own node and service
+  // counts.
+  private ClusterLayoutFinder(ClusterLayoutFinder other, AtomicInteger firstFoundTask, int taskIndex) {
+    this.numMachines = other.numMachines;
+    this.minCounts = other.minCounts;
+    this.maxCounts = other.maxCounts;
+    this.layoutServices = other.layoutServices;
+    this.lastLayoutWithService = other.lastLayoutWithService;
+    this.nodeCounts = new int[other.nodeCounts.length];
+    this.serviceCounts = new int[other.serviceCounts.length];
+    this.firstFoundTask = firstFoundTask;
+    this.taskIndex = taskIndex;
+    this.deadline = other.deadline;
   }
 
   /**
@@ -70,6 +149,158 @@ public class ClusterLayoutFinder {
    * @return Array containing how many of each node type to use.
    */
   public int[] findValidNodeCounts() {
+    // set once a search found nothing, so searching again is pointless.
+    if (doneSearching) {
+      return null;
+    }
+    setNodeCount(new int[nodeCounts.length]);
+    if (search(0, numMachines)) {
+      return nodeCounts;
+    }
+    doneSearching = true;
+    return null;
+  }
+
+  /**
+   * Same as {@link #findValidNodeCounts()}, except the search is split into subtasks that run in parallel on the
+   * given executor. Subtasks are made by fixing the counts of the first few node layouts, going deeper until there
+   * are at least the given number of subtasks. The layout found by the earliest subtask in search order is returned,
+   * so the result is the same as the one found by {@link #findValidNodeCounts()}. Subtasks later in search order are
+   * stopped as soon as an earlier one finds a valid layout. If the deadline passes while earlier subtasks are still
+   * searching, the layout found by the earliest subtask that did find one is returned instead, and a
+   * {@link SolverTimeoutException} is only thrown if none did.
+   *
+   * @param executor Executor to run subtasks on. Must not be the executor running this method, unless it has enough
+   *                 threads to spare, since this method blocks until subtasks are done.
+   * @param minTasks Minimum number of subtasks to split the search into, if there are enough node layouts.
+   * @return Array containing how many of each node type to use.
+   */
+  public int[] findValidNodeCounts(ExecutorService executor, int minTasks) {
+    if (doneSearching) {
+      return null;
+    }
+    // the last node layout always takes the remaining machines, so there is nothing to split with fewer than 2.
+    if (nodeCounts.length < 2) {
+      return findValidNodeCounts();
+    }
+
+    setNodeCount(new int[nodeCounts.length]);
+    List<int[]> prefixes = Lists.newArrayList();
+    int depth = 0;
+    while (prefixes.size() < minTasks && depth < nodeCounts.length - 1) {
+      depth++;
+      prefixes.clear();
+      collectPrefixes(0, numMachines, depth, prefixes);
+    }
+
+    AtomicInteger firstFound = new AtomicInteger(Integer.MAX_VALUE);
+    List<Future<int[]>> futures = Lists.newArrayListWithCapacity(prefixes.size());
+    for (int i = 0; i < prefixes.size(); i++) {
+      futures.add(executor.submit(new SubtaskSearch(new ClusterLayoutFinder(this, firstFound, i),
+                                                    prefixes.get(i), depth)));
+    }
+
+    try {
+      int[] result = getFirstFound(futures);
+      if (result == null) {
+        doneSearching = true;
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<int[]> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  // gets the layout found by the earliest subtask in search order. If an earlier subtask ran out of time, the layout of
+  // a later one is still the best layout found before the deadline, so the timeout is only thrown if no subtask found
+  // a valid layout.
+  static int[] getFirstFound(List<? extends Future<int[]>> futures) throws InterruptedException, ExecutionException {
+    SolverTimeoutException timeout = null;
+    for (Future<int[]> future : futures) {
+      try {
+        int[] result = future.get();
+        if (result != null) {
+          if (timeout != null) {
+            LOG.info("Search ran out of time, using the best cluster layout found before the deadline");
+          }
+          return result;
+        }
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof SolverTimeoutException)) {
+          throw e;
+        }
+        if (timeout == null) {
+          timeout = (SolverTimeoutException) e.getCause();
+        }
+      }
+    }
+    if (timeout != null) {
+      throw timeout;
+    }
+    return null;
+  }
+
+  // collects the counts for the first depth node layouts, in the same order and with the same pruning as search
+  // would visit them.
+  private void collectPrefixes(int i, int remaining, int depth, List<int[]> prefixes) {
+    if (!canSatisfyMinCounts(i, remaining) || !canPlaceRemaining(i, remaining)) {
+      return;
+    }
+    if (i == depth) {
+      prefixes.add(Arrays.copyOf(nodeCounts, nodeCounts.length));
+      return;
+    }
+    int max = getMaxForNodelayout(i, remaining);
+    for (int count = max; count >= 0; count--) {
+      nodeCounts[i] = count;
+      updateServiceCounts(i, count);
+      collectPrefixes(i + 1, remaining - count, depth, prefixes);
+      updateServiceCounts(i, -count);
+    }
+    nodeCounts[i] = 0;
+  }
+
+  /**
+   * Searches for a valid cluster layout given fixed counts for the first few node layouts.
+   */
+  private static final class SubtaskSearch implements Callable<int[]> {
+    private final ClusterLayoutFinder finder;
+    private final int[] prefix;
+    private final int depth;
+
+    private SubtaskSearch(ClusterLayoutFinder finder, int[] prefix, int depth) {
+      this.finder = finder;
+      this.prefix = prefix;
+      this.depth = depth;
+    }
+
+    @Override
+    public int[] call() {
+      finder.setNodeCount(prefix);
+      if (!finder.search(depth, finder.numMachines - finder.getTotalCount())) {
+        return null;
+      }
+      // let later subtasks know they can stop
+      int found = finder.firstFoundTask.get();
+      while (finder.taskIndex < found && !finder.firstFoundTask.compareAndSet(found, finder.taskIndex)) {
+        found = finder.firstFoundTask.get();
+      }
+      return finder.nodeCounts;
+    }
+  }
+
+  // for unit testing and benchmarking only. Finds valid node counts by walking through every possible cluster layout
+  // in order, which returns the same layout as findValidNodeCounts() but without any pruning.
+  int[] findValidNodeCountsByEnumeration() {
+    setNodeCount(new int[nodeCounts.length]);
+    initializeNodeCounts();
     while (!doneSearching) {
       if (isValidCluster()) {
         return nodeCounts;
@@ -79,11 +310,81 @@ public class ClusterLayoutFinder {
     return null;
   }
 
+  /**
+   * Depth first search for the count of the i'th node layout given the counts of all layouts before it. Counts are
+   * tried from largest to smallest, which visits cluster layouts in the same order as
+   * {@link #advanceToNextClusterLayout()} and therefore finds the same first valid layout. A partial layout is
+   * abandoned as soon as the remaining machines cannot satisfy the min count of some service, or cannot be placed
+   * without exceeding the max count of some service.
+   *
+   * @param i Index of the node layout to assign a count to.
+   * @param remaining Number of machines that still need to be assigned to the i'th or later node layouts.
+   * @return True if a valid cluster layout was found, false if not.
+   */
+  private boolean search(int i, int remaining) {
+    if (firstFoundTask != null && firstFoundTask.get() < taskIndex) {
+      // an earlier subtask already found a layout, which is preferred over anything this one could find.
+      return false;
+    }
+    if (++iterations % DEADLINE_CHECK_INTERVAL == 0) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new SolverTimeoutException("Gave up searching for a cluster layout after " + iterations + " steps");
+      }
+      // parallel subtasks that are no longer needed are cancelled by interrupting them, and must free their thread.
+      if (Thread.currentThread().isInterrupted()) {
+        throw Throwables.propagate(
+          new InterruptedException("Search for a cluster layout interrupted after " + iterations + " steps"));
+      }
+    }
+    if (i == nodeCounts.length) {
+      return remaining == 0 && isValidCluster();
+    }
+    if (!canSatisfyMinCounts(i, remaining) || !canPlaceRemaining(i, remaining)) {
+      return false;
+    }
+    int max = getMaxForNodelayout(i, remaining);
+    // all remaining machines must go to the last node layout
+    int min = (i == nodeCounts.length - 1) ? remaining : 0;
+    for (int count = max; count >= min; count--) {
+      nodeCounts[i] = count;
+      updateServiceCounts(i, count);
+      if (search(i + 1, remaining - count)) {
+        return true;
+      }
+      updateServiceCounts(i, -count);
+    }
+    nodeCounts[i] = 0;
+    return false;
+  }
+
+  // check that every constrained service below its min count can still reach it using the remaining machines, given
+  // that only node layouts at index i or later can be changed.
+  private boolean canSatisfyMinCounts(int i, int remaining) {
+    for (int service = 0; service < serviceCounts.length; service++) {
+      int deficit = minCounts[service] - serviceCounts[service];
+      if (deficit > 0 && (deficit > remaining || lastLayoutWithService[service] < i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // check that the remaining machines fit into node layouts at index i or later without exceeding max counts.
+  // Each layout is bounded independently, so this can only rule out partial layouts that are truly dead ends.
+  private boolean canPlaceRemaining(int i, int remaining) {
+    int capacity = 0;
+    for (int j = i; j < nodeCounts.length; j++) {
+      capacity += getMaxForNodelayout(j, remaining);
+      if (capacity >= remaining) {
+        return true;
+      }
+    }
+    return capacity >= remaining;
+  }
+
   // for unit testing only
   void setNodeCount(int[] nodeCounts) {
-    for (String service : serviceCounts.keySet()) {
-      serviceCounts.put(service, 0);
-    }
+    Arrays.fill(serviceCounts, 0);
     for (int i = 0; i < nodeCounts.length; i++) {
       int nodeCount = nodeCounts[i];
       this.nodeCounts[i] = nodeCount;
@@ -104,28 +405,36 @@ public class ClusterLayoutFinder {
         updateServiceCounts(i, maxNodeCount);
       }
     }
-    // if the max # of nodes we can place is below the # of nodes in the cluster, there is no possible solution.
+    // placing as many nodes as possible of earlier layouts can use up the max count of a service that later layouts
+    // need, so falling short here does not mean there is no solution. Start from all machines on the first layout
+    // instead, which walks through every layout in order.
     if (getTotalCount() < numMachines) {
-      doneSearching = true;
+      if (nodeCounts.length == 0) {
+        doneSearching = true;
+        return;
+      }
+      int[] allOnFirst = new int[nodeCounts.length];
+      allOnFirst[0] = numMachines;
+      setNodeCount(allOnFirst);
     }
   }
 
   // get the max number of nodes of the i'th node layout, given the service constraints and how many machines are
   // accounted for already.
   int getMaxForNodelayout(int i) {
-    int maxSoFar = numMachines - getTotalCount();
+    return getMaxForNodelayout(i, numMachines - getTotalCount());
+  }
+
+  // get the max number of nodes of the i'th node layout, given the service constraints and the number of machines
+  // that have not been accounted for yet.
+  private int getMaxForNodelayout(int i, int maxSoFar) {
     if (maxSoFar == 0) {
       return 0;
     }
-    NodeLayout nodeLayout = nodePreferences.get(i);
-    for (String service : nodeLayout.getServiceNames()) {
-      ServiceConstraint constraint = serviceConstraints.get(service);
-      if (constraint != null) {
-        int serviceCount = serviceCounts.get(service);
-        int serviceMax = constraint.getMaxCount() - serviceCount;
-        if (serviceMax < maxSoFar) {
-          maxSoFar = serviceMax;
-        }
+    for (int service : layoutServices[i]) {
+      int serviceMax = maxCounts[service] - serviceCounts[service];
+      if (serviceMax < maxSoFar) {
+        maxSoFar = serviceMax;
       }
     }
     return maxSoFar;
@@ -158,7 +467,8 @@ public class ClusterLayoutFinder {
    * 0, 2, 0, 1
    * 0, 1, 2, 0
    * ...
-   * // TODO: perform search in a smarter manner based on min, max service counts
+   * Only used as a reference for {@link #search(int, int)}, which visits layouts in the same order but skips over
+   * layouts that cannot possibly satisfy min and max service counts.
    */
   private void advanceToNextClusterLayout() {
     int end = nodeCounts.length - 1;
@@ -188,8 +498,8 @@ public class ClusterLayoutFinder {
 
   // update service counts from changing nodePreferences[nodeNum] by nodesChanged
   private void updateServiceCounts(int nodeNum, int nodesChanged) {
-    for (String service : nodePreferences.get(nodeNum).getServiceNames()) {
-      serviceCounts.put(service, serviceCounts.get(service) + nodesChanged);
+    for (int service : layoutServices[nodeNum]) {
+      serviceCounts[service] += nodesChanged;
     }
   }
 
@@ -199,13 +509,10 @@ public class ClusterLayoutFinder {
   // y nodes in the cluster.  For example, if clusterlayout[0] = 5, this means there are 5 nodes with nodelayout of
   // nodelayouts.get(0) in the cluster.
   boolean isValidCluster() {
-    for (Map.Entry<String, ServiceConstraint> entry : serviceConstraints.entrySet()) {
-      String service = entry.getKey();
-      ServiceConstraint constraint = entry.getValue();
-      int serviceCount = serviceCounts.get(service);
+    for (int service = 0; service < serviceCounts.length; service++) {
+      int serviceCount = serviceCounts[service];
       // TODO: ratio constraint
-      if (serviceCount < constraint.getMinCount() || serviceCount > constraint.getMaxCount()
-        || serviceCount > numMachines) {
+      if (serviceCount < minCounts[service] || serviceCount > maxCounts[service] || serviceCount > numMachines) {
         return false;
       }
     }
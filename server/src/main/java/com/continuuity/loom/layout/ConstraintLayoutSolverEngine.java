@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.ServiceConstraint;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link LayoutSolverEngine} that models the cluster layout as an integer program. There is an integer variable for
+ * the number of nodes of each node layout, a constraint that the variables sum to the number of machines, and a
+ * constraint for each service that the sum of the variables for node layouts containing the service is between the min
+ * and max counts of the service. Variable bounds are tightened by propagating these linear constraints, and the
+ * lexicographic objective is met by fixing variables in order of preference, trying larger values first. Propagation
+ * rules out most infeasible values without searching below them, which keeps solving fast for large clusters and
+ * templates with many constrained services.
+ */
+public class ConstraintLayoutSolverEngine implements LayoutSolverEngine {
+  // how many branches to try between checks of the deadline.
+  private static final int DEADLINE_CHECK_INTERVAL = 256;
+
+  @Override
+  public int[] findValidNodeCounts(List<NodeLayout> nodePreferences, ClusterTemplate template, Set<String> services,
+                                   int numMachines, long deadline) {
+    int numLayouts = nodePreferences.size();
+    List<LinearConstraint> constraints = Lists.newArrayList();
+
+    // every machine must use one of the node layouts
+    int[] allLayouts = new int[numLayouts];
+    for (int i = 0; i < numLayouts; i++) {
+      allLayouts[i] = i;
+    }
+    constraints.add(new LinearConstraint(allLayouts, numMachines, numMachines));
+
+    // we only care about the constraints that apply to services that are on the cluster
+    Map<String, ServiceConstraint> serviceConstraints = template.getConstraints().getServiceConstraints();
+    for (String service : services) {
+      ServiceConstraint constraint = serviceConstraints.get(service);
+      if (constraint == null) {
+        continue;
+      }
+      List<Integer> layoutsWithService = Lists.newArrayList();
+      for (int i = 0; i < numLayouts; i++) {
+        if (nodePreferences.get(i).getServiceNames().contains(service)) {
+          layoutsWithService.add(i);
+        }
+      }
+      constraints.add(new LinearConstraint(Ints.toArray(layoutsWithService),
+                                           constraint.getMinCount(), constraint.getMaxCount()));
+    }
+
+    int[] lower = new int[numLayouts];
+    int[] upper = new int[numLayouts];
+    Arrays.fill(upper, numMachines);
+    if (!propagate(constraints, lower, upper)) {
+      return null;
+    }
+    return search(constraints, lower, upper, 0, new Budget(deadline));
+  }
+
+  // fix the i'th variable to each value in its domain from largest to smallest, propagating and recursing on the next
+  // variable until every variable is fixed. Since earlier variables are fixed first and larger values are tried
+  // first, the first solution found is the lexicographically largest one.
+  private int[] search(List<LinearConstraint> constraints, int[] lower, int[] upper, int i, Budget budget) {
+    // skip over variables that propagation has already fixed
+    while (i < lower.length && lower[i] == upper[i]) {
+      i++;
+    }
+    // all variables are fixed and propagation succeeded, which means every constraint is satisfied.
+    if (i == lower.length) {
+      return lower;
+    }
+
+    for (int value = upper[i]; value >= lower[i]; value--) {
+      budget.step();
+      int[] branchLower = lower.clone();
+      int[] branchUpper = upper.clone();
+      branchLower[i] = value;
+      branchUpper[i] = value;
+      if (propagate(constraints, branchLower, branchUpper)) {
+        int[] solution = search(constraints, branchLower, branchUpper, i + 1, budget);
+        if (solution != null) {
+          return solution;
+        }
+      }
+    }
+    return null;
+  }
+
+  // tighten variable bounds until none of the constraints can tighten them any further. Returns false if some
+  // constraint can no longer be satisfied, and true otherwise.
+  private static boolean propagate(List<LinearConstraint> constraints, int[] lower, int[] upper) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (LinearConstraint constraint : constraints) {
+        long sumLower = 0;
+        long sumUpper = 0;
+        for (int var : constraint.vars) {
+          sumLower += lower[var];
+          sumUpper += upper[var];
+        }
+        if (sumLower > constraint.max || sumUpper < constraint.min) {
+          return false;
+        }
+
+        for (int var : constraint.vars) {
+          // a variable can be at most the max minus the smallest possible sum of the other variables
+          long newUpper = constraint.max - (sumLower - lower[var]);
+          if (newUpper < upper[var]) {
+            sumUpper -= upper[var] - newUpper;
+            upper[var] = (int) newUpper;
+            changed = true;
+          }
+          // and at least the min minus the largest possible sum of the other variables
+          long newLower = constraint.min - (sumUpper - upper[var]);
+          if (newLower > lower[var]) {
+            sumLower += newLower - lower[var];
+            lower[var] = (int) newLower;
+            changed = true;
+          }
+          if (lower[var] > upper[var]) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Counts branches tried during a search and throws a {@link SolverTimeoutException} once the deadline has passed.
+   */
+  private static final class Budget {
+    private final long deadline;
+    private int branches;
+
+    private Budget(long deadline) {
+      this.deadline = deadline;
+    }
+
+    private void step() {
+      if (++branches % DEADLINE_CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+        throw new SolverTimeoutException("Gave up searching for a cluster layout after " + branches + " branches");
+      }
+    }
+  }
+
+  /**
+   * Constraint that the sum of some variables must be between a min and max, inclusive.
+   */
+  private static final class LinearConstraint {
+    private final int[] vars;
+    private final long min;
+    private final long max;
+
+    private LinearConstraint(int[] vars, long min, long max) {
+      this.vars = vars;
+      this.min = min;
+      this.max = max;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Engine used by the {@link Solver} to figure out how many of each {@link NodeLayout} should be used in a cluster in
+ * order to satisfy the constraints in a {@link ClusterTemplate}. Node layouts are given in order of preference, and
+ * engines go through cluster layouts in a fixed order: as many of the first node layout as possible, then, for each
+ * count of the first, as many of the second as possible, and so on. Engines may skip layouts they can tell are not
+ * valid, but must return the first valid cluster layout in this order, so that all engines return the same layout for
+ * the same input.
+ * Engines must also stop searching once the given deadline passes. If they found valid cluster layouts by then, they
+ * return the earliest one in the order above that they found, which may not be the first valid one in that order.
+ * Otherwise they throw a {@link SolverTimeoutException}.
+ */
+public interface LayoutSolverEngine {
+
+  /**
+   * Get how many of each node layout to use in the cluster, or null if there is no possible cluster layout that
+   * satisfies all cluster constraints. The i'th value in the returned array is the number of nodes to use of the i'th
+   * node layout in the given preference list.
+   *
+   * @param nodePreferences Node layouts that can be used in the cluster, ordered by preference.
+   * @param template Cluster template containing the constraints the cluster must satisfy.
+   * @param services Names of services to place on the cluster.
+   * @param numMachines Number of machines in the cluster.
+   * @param deadline Timestamp in milliseconds after which the engine should give up.
+   * @return Array containing how many of each node layout to use, or null if there is no valid cluster layout.
+   * @throws SolverTimeoutException if the deadline passed before the engine found any valid cluster layout.
+   */
+  int[] findValidNodeCounts(List<NodeLayout> nodePreferences, ClusterTemplate template, Set<String> services,
+                            int numMachines, long deadline);
+}
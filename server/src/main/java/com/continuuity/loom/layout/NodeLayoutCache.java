@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.Constraints;
+import com.continuuity.loom.conf.Constants;
+import com.continuuity.loom.management.LoomStats;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache of node layout preference lists generated by {@link NodeLayoutGenerator}. The list only depends on the
+ * constraints of the cluster template and on the services, hardware types, and image types that can be used in the
+ * cluster, so entries are keyed by those. When the cache is full, the least recently used entry is evicted.
+ * Entries are dropped whenever the cluster template, or one of the services, hardware types, or image types they were
+ * generated from, is written or deleted.
+ */
+public class NodeLayoutCache {
+  private final int maxSize;
+  private final LoomStats loomStats;
+  private final Map<Key, List<NodeLayout>> cache;
+  // incremented on every invalidation so that a list generated from stale entities is not put into the cache.
+  private long generation;
+
+  @Inject
+  NodeLayoutCache(@Named(Constants.SOLVER_LAYOUT_CACHE_SIZE) final int maxSize, LoomStats loomStats) {
+    this.maxSize = maxSize;
+    this.loomStats = loomStats;
+    this.cache = new LinkedHashMap<Key, List<NodeLayout>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, List<NodeLayout>> eldest) {
+        return size() > maxSize;
+      }
+    };
+    this.generation = 0;
+  }
+
+  /**
+   * Get the node layouts that can be used in a cluster in order of preference, generating them if they are not
+   * already cached.
+   *
+   * @param template Cluster template to generate node layouts for.
+   * @param services Services that will be placed on the cluster.
+   * @param hardwareTypes Hardware types that can be used in the cluster.
+   * @param imageTypes Image types that can be used in the cluster.
+   * @return Immutable list of node layouts that can be used in the cluster, in order of preference.
+   */
+  public List<NodeLayout> getNodeLayoutPreferences(ClusterTemplate template, Set<String> services,
+                                                   Set<String> hardwareTypes, Set<String> imageTypes) {
+    Key key = new Key(template.getName(), template.getConstraints(), services, hardwareTypes, imageTypes);
+    long startGeneration;
+    synchronized (this) {
+      List<NodeLayout> cached = cache.get(key);
+      if (cached != null) {
+        loomStats.incrementNodeLayoutCacheHits();
+        return cached;
+      }
+      startGeneration = generation;
+    }
+    loomStats.incrementNodeLayoutCacheMisses();
+
+    // generate outside the lock, it is ok if two threads generate the same list at the same time.
+    List<NodeLayout> nodeLayouts = ImmutableList.copyOf(
+      new NodeLayoutGenerator(template, services, hardwareTypes, imageTypes).generateNodeLayoutPreferences());
+    synchronized (this) {
+      if (maxSize > 0 && generation == startGeneration) {
+        cache.put(key, nodeLayouts);
+      }
+    }
+    return nodeLayouts;
+  }
+
+  /**
+   * Drop all entries generated from the cluster template with the given name.
+   *
+   * @param templateName Name of the cluster template that changed.
+   */
+  public synchronized void invalidateClusterTemplate(String templateName) {
+    generation++;
+    Iterator<Key> iter = cache.keySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().templateName.equals(templateName)) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop all entries generated for a cluster containing the service with the given name.
+   *
+   * @param serviceName Name of the service that changed.
+   */
+  public synchronized void invalidateService(String serviceName) {
+    generation++;
+    Iterator<Key> iter = cache.keySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().services.contains(serviceName)) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop all entries generated for a cluster that could use the hardware type with the given name.
+   *
+   * @param hardwareTypeName Name of the hardware type that changed.
+   */
+  public synchronized void invalidateHardwareType(String hardwareTypeName) {
+    generation++;
+    Iterator<Key> iter = cache.keySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().hardwareTypes.contains(hardwareTypeName)) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop all entries generated for a cluster that could use the image type with the given name.
+   *
+   * @param imageTypeName Name of the image type that changed.
+   */
+  public synchronized void invalidateImageType(String imageTypeName) {
+    generation++;
+    Iterator<Key> iter = cache.keySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().imageTypes.contains(imageTypeName)) {
+        iter.remove();
+      }
+    }
+  }
+
+  // for unit testing only
+  synchronized int size() {
+    return cache.size();
+  }
+
+  /**
+   * Cache key made of the template constraints and the sets of services, hardware types, and image types. The hash
+   * code is computed from their contents once, since it is used on every lookup.
+   */
+  private static final class Key {
+    private final String templateName;
+    private final Constraints constraints;
+    private final Set<String> services;
+    private final Set<String> hardwareTypes;
+    private final Set<String> imageTypes;
+    private final int hashCode;
+
+    private Key(String templateName, Constraints constraints, Set<String> services,
+                Set<String> hardwareTypes, Set<String> imageTypes) {
+      this.templateName = templateName;
+      this.constraints = constraints;
+      this.services = ImmutableSortedSet.copyOf(services);
+      this.hardwareTypes = ImmutableSortedSet.copyOf(hardwareTypes);
+      this.imageTypes = ImmutableSortedSet.copyOf(imageTypes);
+      this.hashCode = Objects.hashCode(templateName, constraints, this.services, this.hardwareTypes, this.imageTypes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hashCode == other.hashCode &&
+        templateName.equals(other.templateName) &&
+        Objects.equal(constraints, other.constraints) &&
+        services.equals(other.services) &&
+        hardwareTypes.equals(other.hardwareTypes) &&
+        imageTypes.equals(other.imageTypes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -18,9 +18,11 @@ package com.continuuity.loom.layout;
 import com.continuuity.loom.admin.ClusterTemplate;
 import com.continuuity.loom.admin.LayoutConstraint;
 import com.continuuity.loom.admin.ServiceConstraint;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,7 +30,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -111,23 +112,47 @@ public class NodeLayoutGenerator {
     return unconstrained;
   }
 
-  // search through all possible service combinations, keeping track of valid service combinations.
+  // search through all possible service combinations, keeping track of valid service combinations. Services are
+  // interned to bit positions so that each combination is a long mask, which lets us visit every non-empty
+  // combination exactly once by counting down from the mask containing all services, and check constraints with a
+  // couple of bitwise operations.
   Set<Set<String>> findValidServiceSets(Set<String> services) {
     Set<Set<String>> validServiceSets = Sets.newHashSet();
     if (!services.isEmpty()) {
-      LayoutConstraint layoutConstraint = clusterTemplate.getConstraints().getLayoutConstraint();
-      Queue<Set<String>> nodes = Lists.newLinkedList();
+      Preconditions.checkArgument(services.size() < Long.SIZE,
+                                  "cannot place more than %s services with layout constraints", Long.SIZE - 1);
+      String[] serviceNames = services.toArray(new String[services.size()]);
+      Map<String, Integer> serviceIndexes = Maps.newHashMap();
+      for (int i = 0; i < serviceNames.length; i++) {
+        serviceIndexes.put(serviceNames[i], i);
+      }
 
-      // starting with the full set of allowed clusterServices, systematically remove clusterServices
-      // until we go through all combinations.
-      nodes.add(services);
-      while (!nodes.isEmpty()) {
-        Set<String> serviceSet = nodes.remove();
-        if (isValidServiceSet(serviceSet, layoutConstraint, clusterServices)) {
-          validServiceSets.add(serviceSet);
+      // precompile constraints to masks.
+      LayoutConstraint layoutConstraint = clusterTemplate.getConstraints().getLayoutConstraint();
+      List<Long> cantCoexistMasks = Lists.newArrayList();
+      for (Set<String> cantCoexist : layoutConstraint.getServicesThatMustNotCoexist()) {
+        // if one of the services is not being placed, no service set can contain all of them.
+        if (serviceIndexes.keySet().containsAll(cantCoexist)) {
+          cantCoexistMasks.add(toMask(cantCoexist, serviceIndexes));
         }
-        if (serviceSet.size() > 1) {
-          nodes.addAll(getOneSmallerSubsets(serviceSet));
+      }
+      List<Long> mustCoexistMasks = Lists.newArrayList();
+      for (Set<String> mustCoexist : layoutConstraint.getServicesThatMustCoexist()) {
+        // ignore services that are not on the cluster. The ones that are have a constraint, so they are being placed.
+        mustCoexistMasks.add(toMask(Sets.intersection(mustCoexist, clusterServices), serviceIndexes));
+      }
+      long[] cantCoexist = Longs.toArray(cantCoexistMasks);
+      long[] mustCoexist = Longs.toArray(mustCoexistMasks);
+
+      for (long serviceSet = (1L << serviceNames.length) - 1; serviceSet > 0; serviceSet--) {
+        if (isValidServiceSet(serviceSet, cantCoexist, mustCoexist)) {
+          Set<String> validServiceSet = Sets.newHashSet();
+          for (int i = 0; i < serviceNames.length; i++) {
+            if ((serviceSet & (1L << i)) != 0) {
+              validServiceSet.add(serviceNames[i]);
+            }
+          }
+          validServiceSets.add(validServiceSet);
         }
       }
     }
@@ -135,6 +160,14 @@ public class NodeLayoutGenerator {
     return validServiceSets;
   }
 
+  private static long toMask(Set<String> services, Map<String, Integer> serviceIndexes) {
+    long mask = 0;
+    for (String service : services) {
+      mask |= 1L << serviceIndexes.get(service);
+    }
+    return mask;
+  }
+
   // given a set of valid service sets, a collection of available hardware types, and a collection of available
   // image types, find the set of all node layouts that are valid given the constraints in the cluster template.
   // a node layout is a service set, hardware type, and image type.
@@ -183,26 +216,18 @@ public class NodeLayoutGenerator {
     return output;
   }
 
-  // returns whether or not the service set is valid given the must coexist and cant coexist rules in the
-  // given layout constraint.
-  // TODO: refactor constraints.
-  // constraints should take a service set and a set of cluster services and return whether or not they satisfy that
-  // constraint.  Then we could just loop through all the constraints and make sure everything is satisfied, and
-  // allow people to add their own types of constraints.
-  static boolean isValidServiceSet(Set<String> serviceSet, LayoutConstraint layoutConstraint,
-                                   Set<String> clusterServices) {
-    // a valid service set must not be a superset of any of the cant coexist constraints
-    for (Set<String> cantCoexist : layoutConstraint.getServicesThatMustNotCoexist()) {
-      if (serviceSet.containsAll(cantCoexist)) {
+  // returns whether or not the service set mask is valid given must coexist and cant coexist rules compiled to masks.
+  // A service set must not contain every service in a cant coexist mask, and must contain either all or none of the
+  // services in a must coexist mask.
+  static boolean isValidServiceSet(long serviceSet, long[] cantCoexistMasks, long[] mustCoexistMasks) {
+    for (long cantCoexist : cantCoexistMasks) {
+      if ((serviceSet & cantCoexist) == cantCoexist) {
         return false;
       }
     }
-
-    // if the service set contains at least one service in a must coexist constraint, but not all clusterServices in the
-    // constraint, then it is invalid.  Ignore clusterServices that are not on the cluster.
-    for (Set<String> mustCoexist : layoutConstraint.getServicesThatMustCoexist()) {
-      Set<String> trueMustCoexist = Sets.intersection(mustCoexist, clusterServices);
-      if (containsOne(serviceSet, trueMustCoexist) && !serviceSet.containsAll(trueMustCoexist)) {
+    for (long mustCoexist : mustCoexistMasks) {
+      long overlap = serviceSet & mustCoexist;
+      if (overlap != 0 && overlap != mustCoexist) {
         return false;
       }
     }
@@ -242,25 +267,4 @@ public class NodeLayoutGenerator {
     return false;
   }
 
-  // return true if the service set contains at least one service in the constraint.  Otherwise return false.
-  static boolean containsOne(Set<String> serviceSet, Set<String> constraint) {
-    for (String service : constraint) {
-      if (serviceSet.contains(service)) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  // given a set like [i1, i2, i3, i4], return all the subsets that are one element smaller:
-  // [i2, i3, i4], [i1, i3, i4], [i1, i2, i4], [i1, i2, i3]
-  static Set<Set<String>> getOneSmallerSubsets(Set<String> set) {
-    Set<Set<String>> subsets = Sets.newHashSet();
-    for (String element : set) {
-      Set<String> subset = Sets.newHashSet(set);
-      subset.remove(element);
-      subsets.add(subset);
-    }
-    return subsets;
-  }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.conf.Constants;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.apache.twill.common.Threads;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Default {@link LayoutSolverEngine}, which uses a {@link ClusterLayoutFinder} to search through possible cluster
+ * layouts in order of preference. Clusters with at least a configurable number of machines are searched in parallel
+ * on a dedicated thread pool, which returns the same layout as the sequential search.
+ */
+public class SearchLayoutSolverEngine implements LayoutSolverEngine {
+  // number of subtasks to split a search into for each search thread, so that threads finishing early pick up more
+  // work instead of sitting idle.
+  private static final int TASKS_PER_THREAD = 4;
+  private final int parallelThreshold;
+  private final int numThreads;
+  private final ExecutorService executor;
+
+  @Inject
+  public SearchLayoutSolverEngine(@Named(Constants.SOLVER_PARALLEL_THRESHOLD) int parallelThreshold,
+                                  @Named(Constants.SOLVER_PARALLEL_NUM_THREADS) int numThreads) {
+    this.parallelThreshold = parallelThreshold;
+    this.numThreads = numThreads;
+    this.executor = numThreads > 1 ?
+      Executors.newFixedThreadPool(numThreads, Threads.createDaemonThreadFactory("solver-search-%d")) : null;
+  }
+
+  @Override
+  public int[] findValidNodeCounts(List<NodeLayout> nodePreferences, ClusterTemplate template, Set<String> services,
+                                   int numMachines, long deadline) {
+    ClusterLayoutFinder finder = new ClusterLayoutFinder(nodePreferences, template, services, numMachines, deadline);
+    if (executor == null || numMachines < parallelThreshold) {
+      return finder.findValidNodeCounts();
+    }
+    return finder.findValidNodeCounts(executor, numThreads * TASKS_PER_THREAD);
+  }
+}
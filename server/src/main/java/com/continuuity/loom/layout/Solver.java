@@ -20,14 +20,17 @@ import com.continuuity.loom.admin.HardwareType;
 import com.continuuity.loom.admin.ImageType;
 import com.continuuity.loom.admin.Provider;
 import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.admin.ServiceConstraint;
 import com.continuuity.loom.cluster.Cluster;
 import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.conf.Constants;
 import com.continuuity.loom.store.EntityStore;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The solver takes a cluster template, a number of machines, and figures out what services to put on what hardware
@@ -47,10 +51,17 @@ import java.util.UUID;
 public class Solver {
   private static final Logger LOG  = LoggerFactory.getLogger(Solver.class);
   private final EntityStore entityStore;
+  private final LayoutSolverEngine engine;
+  private final NodeLayoutCache nodeLayoutCache;
+  private final long timeoutMs;
 
   @Inject
-  Solver(EntityStore entityStore) {
+  Solver(EntityStore entityStore, LayoutSolverEngine engine, NodeLayoutCache nodeLayoutCache,
+         @Named(Constants.SOLVER_TIMEOUT_SECS) long timeoutSecs) {
     this.entityStore = entityStore;
+    this.engine = engine;
+    this.nodeLayoutCache = nodeLayoutCache;
+    this.timeoutMs = TimeUnit.MILLISECONDS.convert(timeoutSecs, TimeUnit.SECONDS);
   }
 
   /**
@@ -61,6 +72,7 @@ public class Solver {
    * @param cluster Cluster to solve a layout for.
    * @param request Request to create a cluster containing cluster settings to use.
    * @return Mapping of node id to node for all nodes in the cluster.
+   * @throws SolverTimeoutException if no layout was found within the solver time budget.
    * @throws Exception
    */
   public Map<String, Node> solveClusterNodes(Cluster cluster, ClusterRequest request) throws Exception {
@@ -261,27 +273,32 @@ public class Solver {
   }
 
   // solves for a valid cluster layout based on the constraints. First finds all possible node layouts that can be
-  // used in the cluster based on the services that need to be on the cluster and constraints. Then searches for a
-  // valid number of each node layout based on the constraints.
-  static Map<String, Node> solveConstraints(String clusterId, ClusterTemplate clusterTemplate, String clusterName,
-                                            int numMachines,
-                                            Map<String, String> hardwareTypeMap,
-                                            Map<String, String> imageTypeMap,
-                                            Set<String> serviceNames,
-                                            Map<String, Service> serviceMap) throws Exception {
-    NodeLayoutGenerator nodeLayoutGenerator =
-      new NodeLayoutGenerator(clusterTemplate, serviceNames, hardwareTypeMap.keySet(), imageTypeMap.keySet());
+  // used in the cluster based on the services that need to be on the cluster and constraints, which are cached since
+  // most clusters are created from the same few templates with the same services and types. Then searches for a
+  // valid number of each node layout based on the constraints using the configured layout solver engine, giving up if
+  // that takes longer than the time budget.
+  Map<String, Node> solveConstraints(String clusterId, ClusterTemplate clusterTemplate, String clusterName,
+                                     int numMachines,
+                                     Map<String, String> hardwareTypeMap,
+                                     Map<String, String> imageTypeMap,
+                                     Set<String> serviceNames,
+                                     Map<String, Service> serviceMap) throws Exception {
+    long start = System.currentTimeMillis();
+    long deadline = timeoutMs > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + timeoutMs;
 
     // We need to deterministically choose the same cluster.  Nodelayouts earlier in the traversal order are
     // preferred.
-    List<NodeLayout> traversalOrder = nodeLayoutGenerator.generateNodeLayoutPreferences();
+    List<NodeLayout> traversalOrder = nodeLayoutCache.getNodeLayoutPreferences(
+      clusterTemplate, serviceNames, hardwareTypeMap.keySet(), imageTypeMap.keySet());
 
-    long start = System.nanoTime();
-    ClusterLayoutFinder layoutFinder =
-      new ClusterLayoutFinder(traversalOrder, clusterTemplate, serviceNames, numMachines);
-    int[] clusterlayout = layoutFinder.findValidNodeCounts();
-    long dur = (System.nanoTime() - start) / 1000000;
-    LOG.debug("took {} ms to find cluster layout", dur);
+    String infeasibleReason = findInfeasibility(traversalOrder, clusterTemplate, serviceNames, numMachines);
+    if (infeasibleReason != null) {
+      throw new IllegalArgumentException(infeasibleReason);
+    }
+
+    int[] clusterlayout =
+      engine.findValidNodeCounts(traversalOrder, clusterTemplate, serviceNames, numMachines, deadline);
+    LOG.debug("took {} ms to find cluster layout", System.currentTimeMillis() - start);
 
     if (clusterlayout == null) {
       return null;
@@ -317,6 +334,61 @@ public class Solver {
     return clusterNodes;
   }
 
+  // cheap checks for constraints that can obviously not be satisfied, so that they fail right away with a clear reason
+  // instead of after searching through every cluster layout. Returns the reason the constraints cannot be satisfied,
+  // or null if no problem was found, which does not mean a valid cluster layout exists.
+  static String findInfeasibility(List<NodeLayout> nodePreferences, ClusterTemplate template, Set<String> services,
+                                  int numMachines) {
+    if (nodePreferences.isEmpty()) {
+      return "no node layouts satisfy the constraints of template " + template.getName();
+    }
+    Map<String, ServiceConstraint> serviceConstraints = template.getConstraints().getServiceConstraints();
+    for (String service : services) {
+      ServiceConstraint constraint = serviceConstraints.get(service);
+      if (constraint == null) {
+        continue;
+      }
+      int minCount = constraint.getMinCount();
+      if (minCount > constraint.getMaxCount()) {
+        return "service " + service + " has a min count of " + minCount
+          + " that is greater than its max count of " + constraint.getMaxCount();
+      }
+      if (minCount > numMachines) {
+        return "service " + service + " must be on at least " + minCount + " nodes, but the cluster only has "
+          + numMachines;
+      }
+      if (minCount > 0 && !isOnAnyNodeLayout(service, nodePreferences)) {
+        return "service " + service + " cannot be placed on any node layout";
+      }
+    }
+
+    // each node layout can be used at most as many times as the smallest max count of its services.
+    long capacity = 0;
+    for (NodeLayout nodeLayout : nodePreferences) {
+      long layoutMax = numMachines;
+      for (String service : nodeLayout.getServiceNames()) {
+        ServiceConstraint constraint = serviceConstraints.get(service);
+        if (constraint != null && services.contains(service)) {
+          layoutMax = Math.min(layoutMax, constraint.getMaxCount());
+        }
+      }
+      capacity += layoutMax;
+      if (capacity >= numMachines) {
+        return null;
+      }
+    }
+    return "service max counts allow at most " + capacity + " nodes, but the cluster has " + numMachines;
+  }
+
+  private static boolean isOnAnyNodeLayout(String service, List<NodeLayout> nodePreferences) {
+    for (NodeLayout nodeLayout : nodePreferences) {
+      if (nodeLayout.getServiceNames().contains(service)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // creates a unique hostname from the cluster name, cluster id, and node number. Hostnames are of the format
   // <clustername><clusterid>-<nodenum>.local, with underscores and dots replaced by dashes, and with whole hostname
   // trimmed to 255 characters if it would otherwise have been too long.
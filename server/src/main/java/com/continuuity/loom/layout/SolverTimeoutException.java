@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+/**
+ * Thrown to indicate that solving for a cluster layout took longer than the solver time budget allows.
+ */
+public class SolverTimeoutException extends RuntimeException {
+
+  /**
+   * New exception with error message.
+   * @param message the error message
+   */
+  public SolverTimeoutException(String message) {
+    super(message);
+  }
+}
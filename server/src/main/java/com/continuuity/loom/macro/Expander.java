@@ -53,7 +53,7 @@ public final class Expander {
    */
   public static void validate(String textWithMacros) throws SyntaxException {
     try {
-      expand(textWithMacros, null, null);
+      expand(textWithMacros, (ServiceNodes) null, null);
     } catch (IncompleteClusterException e) {
       // can never happen because expansion is skipped
     }
@@ -66,6 +66,17 @@ public final class Expander {
    * @throws IncompleteClusterException if a macro cannot be expanded because the cluster lacks the information.
    */
   public static String expand(String textWithMacros, Set<Node> nodes, Node node)
+    throws SyntaxException, IncompleteClusterException {
+    return expand(textWithMacros, nodes == null ? null : new ServiceNodes(nodes), node);
+  }
+
+  /**
+   * Given a text that may contain macros, validate and expand all macros in the context of the given cluster nodes,
+   * indexed by service, and on the specified node. Only validates if no nodes are given.
+   * @throws SyntaxException if a macro is not wellformed.
+   * @throws IncompleteClusterException if a macro cannot be expanded because the cluster lacks the information.
+   */
+  public static String expand(String textWithMacros, @Nullable ServiceNodes nodes, Node node)
     throws SyntaxException, IncompleteClusterException {
     int pos = 0;
     StringBuilder builder = nodes == null ? null : new StringBuilder();
@@ -142,6 +153,23 @@ public final class Expander {
    */
   public static JsonElement expand(JsonElement json, @Nullable java.util.List<String> path, Set<Node> nodes, Node node)
     throws SyntaxException, IncompleteClusterException {
+    return expand(json, path, nodes == null ? null : new ServiceNodes(nodes), node);
+  }
+
+  /**
+   * Same as {@link #expand(JsonElement, java.util.List, Set, Node)}, but with the cluster nodes already indexed by
+   * service, so that the index can be built once and used to expand the configs of many nodes.
+   *
+   * @param json A JSON tree
+   * @param path the path to expand under
+   * @param nodes the cluster nodes to use for expanding macros, indexed by service.
+   * @param node the cluster node to use for expanding macros.
+   * @return a new JSON tree if any expansion took place, and the original JSON tree otherwise.
+   * @throws SyntaxException if a macro expression is ill-formed.
+   * @throws IncompleteClusterException if the cluster does not have the meta data to expand all macros.
+   */
+  public static JsonElement expand(JsonElement json, @Nullable java.util.List<String> path, ServiceNodes nodes,
+                                   Node node) throws SyntaxException, IncompleteClusterException {
 
     // if path is given,
     if (path != null && !path.isEmpty()) {
@@ -203,7 +231,7 @@ public final class Expander {
         if (expanded != entry.getValue()) {
           expansionHappened = true;
         }
-        object1.add(entry.getKey(), expand(entry.getValue(), path, nodes, node));
+        object1.add(entry.getKey(), expanded);
       }
       if (expansionHappened) {
         return object1;
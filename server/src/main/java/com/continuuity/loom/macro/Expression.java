@@ -15,17 +15,13 @@
  */
 package com.continuuity.loom.macro;
 
-import com.continuuity.loom.admin.Service;
 import com.continuuity.loom.cluster.Node;
 import com.continuuity.utils.ImmutablePair;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 import com.google.gson.JsonElement;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -137,16 +133,27 @@ public class Expression {
    * @throws IncompleteClusterException if a node is missing the property that is required for the lookup type.
    */
   public String evaluate(Set<Node> clusterNodes, Node node) throws IncompleteClusterException {
-    List<Node> serviceNodes = nodesForService(clusterNodes, name);
-    if (serviceNodes.isEmpty()) {
+    return evaluate(new ServiceNodes(clusterNodes), node);
+  }
+
+  /**
+   * Evaluate the expression for a given cluster, using nodes of the cluster that were already indexed by service.
+   * @param serviceNodes the nodes of the cluster to evaluate for, indexed by service.
+   * @param node the node of the cluster to evaluate the expression for.
+   * @return the replacement string for the expression, or null if the service required for replacement is not in
+   *         the cluster.
+   * @throws IncompleteClusterException if a node is missing the property that is required for the lookup type.
+   */
+  public String evaluate(ServiceNodes serviceNodes, Node node) throws IncompleteClusterException {
+    if (serviceNodes.getNodes(name).isEmpty()) {
       return null;
     }
     if (instanceNum != null || SINGLE_TYPES.contains(type)) {
-      return evaluateSingle(serviceNodes, node);
+      return evaluateSingle(serviceNodes.getNodesByNodeNum(name), node);
     }
     StringBuilder builder = new StringBuilder();
     boolean first = true;
-    for (Node serviceNode : serviceNodes) {
+    for (Node serviceNode : serviceNodes.getNodes(name)) {
       JsonElement json = serviceNode.getProperties().get(propertyFor(type));
       if (json == null) {
         throw new IncompleteClusterException(
@@ -163,11 +170,10 @@ public class Expression {
   }
 
   private String evaluateSingle(List<Node> serviceNodes, Node node) throws IncompleteClusterException {
-    Collections.sort(serviceNodes, new NodeNumComparator());
     if (type == Type.NUM_OF_SERVICE) {
       return String.valueOf(serviceNodes.size());
     } else if (type == Type.SELF_INSTANCE_OF_SERVICE) {
-      int nodeNum = getNodeNum(node);
+      int nodeNum = ServiceNodes.getNodeNum(node);
       int selfInstance = getServiceInstanceNum(nodeNum, serviceNodes);
       // if this node does not have the service, this macro is not for us and we can leave it unexpanded.
       if (selfInstance < 0) {
@@ -230,44 +236,14 @@ public class Expression {
     return null; // unreachable
   }
 
-  /**
-   * Find all nodes of a cluster that have a given service.
-   */
-  List<Node> nodesForService(Set<Node> nodes, String serviceName) {
-    List<Node> nodesFound = Lists.newArrayList();
-    for (Node node : nodes) {
-      for (Service service : node.getServices()) {
-        if (service.getName().equals(serviceName)) {
-          nodesFound.add(node);
-          break; // done with this node
-        }
-      }
-    }
-    return nodesFound;
-  }
-
   int getServiceInstanceNum(int nodenum, List<Node> sortedNodeList) {
     int index = 1;
     for (Node node : sortedNodeList) {
-      if (getNodeNum(node) == nodenum) {
+      if (ServiceNodes.getNodeNum(node) == nodenum) {
         return index;
       }
       index++;
     }
     return -1;
   }
-
-  private class NodeNumComparator implements Comparator<Node> {
-
-    @Override
-    public int compare(Node node, Node node2) {
-      Integer nodenum1 = getNodeNum(node);
-      Integer nodenum2 = getNodeNum(node2);
-      return nodenum1.compareTo(nodenum2);
-    }
-  }
-
-  private int getNodeNum(Node node) {
-    return node.getProperties().get(Node.Properties.NODENUM.name().toLowerCase()).getAsInt();
-  }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.macro;
+
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.cluster.Node;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Nodes of a cluster indexed by the services placed on them, so that a macro for a service only looks at the nodes
+ * with the service instead of at every node in the cluster. The index is built once for a set of nodes and can be
+ * shared by all expansions over those nodes, including from different threads. It must not be used anymore once any of
+ * the nodes changed.
+ */
+public final class ServiceNodes {
+  private static final String PROPERTY_FOR_NODENUM = Node.Properties.NODENUM.name().toLowerCase();
+
+  // service name -> nodes with the service, in the order of the set of nodes the index was built from
+  private final Map<String, List<Node>> nodes;
+  // service name -> nodes with the service sorted by node number, filled in the first time it is needed since not all
+  // nodes have a node number.
+  private final ConcurrentMap<String, List<Node>> sortedNodes;
+
+  /**
+   * Index the given nodes by service.
+   *
+   * @param clusterNodes Nodes of the cluster to index.
+   */
+  public ServiceNodes(Set<Node> clusterNodes) {
+    Map<String, List<Node>> nodes = Maps.newHashMap();
+    for (Node node : clusterNodes) {
+      for (Service service : node.getServices()) {
+        List<Node> serviceNodes = nodes.get(service.getName());
+        if (serviceNodes == null) {
+          serviceNodes = Lists.newArrayList();
+          nodes.put(service.getName(), serviceNodes);
+        }
+        // a node can only be listed once for a service.
+        if (serviceNodes.isEmpty() || serviceNodes.get(serviceNodes.size() - 1) != node) {
+          serviceNodes.add(node);
+        }
+      }
+    }
+    this.nodes = Maps.newHashMapWithExpectedSize(nodes.size());
+    for (Map.Entry<String, List<Node>> entry : nodes.entrySet()) {
+      this.nodes.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+    }
+    this.sortedNodes = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Get the nodes that have the given service, in the order of the set of nodes the index was built from.
+   *
+   * @param serviceName Name of the service.
+   * @return Immutable list of nodes with the service, empty if no node has the service.
+   */
+  public List<Node> getNodes(String serviceName) {
+    List<Node> serviceNodes = nodes.get(serviceName);
+    return serviceNodes == null ? ImmutableList.<Node>of() : serviceNodes;
+  }
+
+  /**
+   * Get the nodes that have the given service, sorted by their node number. All nodes with the service must have a
+   * node number.
+   *
+   * @param serviceName Name of the service.
+   * @return Immutable list of nodes with the service sorted by node number, empty if no node has the service.
+   */
+  public List<Node> getNodesByNodeNum(String serviceName) {
+    List<Node> sorted = sortedNodes.get(serviceName);
+    if (sorted == null) {
+      // it is ok if two threads sort the same nodes at the same time.
+      List<Node> serviceNodes = Lists.newArrayList(getNodes(serviceName));
+      Collections.sort(serviceNodes, NODE_NUM_COMPARATOR);
+      sorted = ImmutableList.copyOf(serviceNodes);
+      sortedNodes.put(serviceName, sorted);
+    }
+    return sorted;
+  }
+
+  static int getNodeNum(Node node) {
+    return node.getProperties().get(PROPERTY_FOR_NODENUM).getAsInt();
+  }
+
+  private static final Comparator<Node> NODE_NUM_COMPARATOR = new Comparator<Node>() {
+    @Override
+    public int compare(Node node, Node node2) {
+      Integer nodenum1 = getNodeNum(node);
+      Integer nodenum2 = getNodeNum(node2);
+      return nodenum1.compareTo(nodenum2);
+    }
+  };
+}
@@ -15,7 +15,12 @@
  */
 package com.continuuity.loom.management;
 
+import com.continuuity.loom.common.queue.TrackingQueue;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Collects Loom stats for JMX.
@@ -32,7 +37,30 @@ public class LoomStats implements LoomStatsMXBean {
   private final ClusterStats failedClusterStats;
   private final ClusterStats successfulClusterStats;
 
+  private final AtomicLong nodeLayoutCacheHits;
+  private final AtomicLong nodeLayoutCacheMisses;
+
+  private final SolveTimeStats solveTimeStats;
+  private final AtomicLong solverTimeouts;
+
+  private final StageDispatchStats stageDispatchStats;
+
+  // queues to report the finished counts of, null if not tracked
+  private final TrackingQueue jobQueue;
+  private final TrackingQueue taskQueue;
+
   public LoomStats() {
+    this(null, null);
+  }
+
+  /**
+   * Create stats that also report how many jobs each job scheduler worker and how many tasks each provisioner
+   * finished through the given queues.
+   *
+   * @param jobQueue Queue of jobs to schedule, or null to not report job worker counts.
+   * @param taskQueue Queue of tasks for provisioners, or null to not report provisioner counts.
+   */
+  public LoomStats(TrackingQueue jobQueue, TrackingQueue taskQueue) {
     this.queueLength = new AtomicInteger(0);
 
     this.provisionerStats = new ProvisionerStats();
@@ -43,6 +71,17 @@ public class LoomStats implements LoomStatsMXBean {
     this.clusterStats = new ClusterStats();
     this.failedClusterStats = new ClusterStats();
     this.successfulClusterStats = new ClusterStats();
+
+    this.nodeLayoutCacheHits = new AtomicLong(0);
+    this.nodeLayoutCacheMisses = new AtomicLong(0);
+
+    this.solveTimeStats = new SolveTimeStats();
+    this.solverTimeouts = new AtomicLong(0);
+
+    this.stageDispatchStats = new StageDispatchStats();
+
+    this.jobQueue = jobQueue;
+    this.taskQueue = taskQueue;
   }
 
   @Override
@@ -85,7 +124,58 @@ public class LoomStats implements LoomStatsMXBean {
     return successfulClusterStats;
   }
 
+  @Override
+  public long getNodeLayoutCacheHits() {
+    return nodeLayoutCacheHits.get();
+  }
+
+  @Override
+  public long getNodeLayoutCacheMisses() {
+    return nodeLayoutCacheMisses.get();
+  }
+
+  @Override
+  public SolveTimeStats getSolveTimeStats() {
+    return solveTimeStats;
+  }
+
+  @Override
+  public long getSolverTimeouts() {
+    return solverTimeouts.get();
+  }
+
+  @Override
+  public StageDispatchStats getStageDispatchStats() {
+    return stageDispatchStats;
+  }
+
+  @Override
+  public Map<String, Long> getJobWorkerFinishedCounts() {
+    return getFinishedCounts(jobQueue);
+  }
+
+  @Override
+  public Map<String, Long> getProvisionerFinishedCounts() {
+    return getFinishedCounts(taskQueue);
+  }
+
   public void setQueueLength(int queueLength) {
     this.queueLength.set(queueLength);
   }
+
+  public void incrementNodeLayoutCacheHits() {
+    nodeLayoutCacheHits.incrementAndGet();
+  }
+
+  public void incrementNodeLayoutCacheMisses() {
+    nodeLayoutCacheMisses.incrementAndGet();
+  }
+
+  public void incrementSolverTimeouts() {
+    solverTimeouts.incrementAndGet();
+  }
+
+  private static Map<String, Long> getFinishedCounts(TrackingQueue queue) {
+    return queue == null ? ImmutableMap.<String, Long>of() : queue.getFinishedCounts();
+  }
 }
@@ -15,6 +15,8 @@
  */
 package com.continuuity.loom.management;
 
+import java.util.Map;
+
 /**
  * MXBean for Loom Stats.
  */
@@ -34,5 +36,19 @@ public interface LoomStatsMXBean {
   ClusterStats getFailedClusterStats();
 
   ClusterStats getSuccessfulClusterStats();
+
+  long getNodeLayoutCacheHits();
+
+  long getNodeLayoutCacheMisses();
+
+  SolveTimeStats getSolveTimeStats();
+
+  long getSolverTimeouts();
+
+  StageDispatchStats getStageDispatchStats();
+
+  Map<String, Long> getJobWorkerFinishedCounts();
+
+  Map<String, Long> getProvisionerFinishedCounts();
 }
 
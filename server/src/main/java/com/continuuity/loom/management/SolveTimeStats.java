@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.management;
+
+/**
+ * Histogram of how long it took to solve cluster layouts, used for JMX. Each solve is counted in the smallest bucket
+ * its duration fits in.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class SolveTimeStats extends StatCounter<SolveTimeStats.Bucket> {
+
+  /**
+   * Upper bounds of the histogram buckets, exclusive.
+   */
+  enum Bucket {
+    UNDER_10_MS(10),
+    UNDER_100_MS(100),
+    UNDER_1_SEC(1000),
+    UNDER_10_SEC(10000),
+    UNDER_1_MIN(60000),
+    OVER_1_MIN(Long.MAX_VALUE);
+    private final long upperBoundMs;
+
+    Bucket(long upperBoundMs) {
+      this.upperBoundMs = upperBoundMs;
+    }
+  }
+
+  /**
+   * Record how long it took to solve a cluster layout.
+   *
+   * @param durationMs Time in milliseconds it took to solve.
+   */
+  public void recordSolveTime(long durationMs) {
+    for (Bucket bucket : Bucket.values()) {
+      if (durationMs < bucket.upperBoundMs) {
+        incrementStat(bucket);
+        return;
+      }
+    }
+    incrementStat(Bucket.OVER_1_MIN);
+  }
+
+  public long getUnder10Ms() {
+    return getValue(Bucket.UNDER_10_MS);
+  }
+
+  public long getUnder100Ms() {
+    return getValue(Bucket.UNDER_100_MS);
+  }
+
+  public long getUnder1Sec() {
+    return getValue(Bucket.UNDER_1_SEC);
+  }
+
+  public long getUnder10Sec() {
+    return getValue(Bucket.UNDER_10_SEC);
+  }
+
+  public long getUnder1Min() {
+    return getValue(Bucket.UNDER_1_MIN);
+  }
+
+  public long getOver1Min() {
+    return getValue(Bucket.OVER_1_MIN);
+  }
+}
@@ -128,7 +128,7 @@ public class ClusterCleanup implements Runnable {
           nodeService.failAction(node, "", statusMessage);
 
           // Schedule the job
-          jobQueue.add(new Element(task.getJobId()));
+          jobQueue.add(new Element(task.getJobId(), task.getJobId()));
         }
       }
     } catch (Throwable e) {
@@ -155,7 +155,7 @@ public class ClusterScheduler implements Runnable {
           // (like cancel, etc.) to happen in parallel.
           clusterStore.writeClusterJob(job);
 
-          jobQueue.add(new Element(job.getJobId()));
+          jobQueue.add(new Element(job.getJobId(), job.getJobId()));
 
           inputQueue.recordProgress(id, clusterElement.getId(), TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY,
                                     "Scheduled");
@@ -360,6 +360,7 @@ public class ClusterScheduler implements Runnable {
                                             Map<String, Node> nodeMap)
     throws Exception {
     List<Set<ClusterTask>> runnableTasks = Lists.newArrayListWithExpectedSize(tasks.size());
+    List<ClusterTask> allTasks = Lists.newArrayList();
     for (Set<TaskNode> taskNodes : tasks) {
       // Create tasks for a stage
       Set<ClusterTask> stageTasks = Sets.newHashSet();
@@ -378,13 +379,15 @@ public class ClusterScheduler implements Runnable {
         ClusterTask task = new ClusterTask(ProvisionerAction.valueOf(taskNode.getTaskName()), taskId,
                                            taskNode.getHostId(), taskNode.getService(), clusterAction,
                                            taskConfig);
-        clusterStore.writeClusterTask(task);
         stageTasks.add(task);
+        allTasks.add(task);
       }
       if (!stageTasks.isEmpty()) {
         runnableTasks.add(stageTasks);
       }
     }
+    // write all tasks of the job in one batch instead of a round trip per task.
+    clusterStore.writeClusterTasks(allTasks);
     return runnableTasks;
   }
 
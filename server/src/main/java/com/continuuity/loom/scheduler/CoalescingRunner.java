@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task on an executor whenever it is woken up, without ever running it more than once at a time. Wakeups that
+ * happen while the task is running are coalesced into a single run after the current one, so a task that drains a
+ * queue does not miss elements added while it was draining, and a burst of wakeups does not queue up a burst of runs.
+ */
+final class CoalescingRunner {
+  private static final Logger LOG = LoggerFactory.getLogger(CoalescingRunner.class);
+  private static final int IDLE = 0;
+  private static final int RUNNING = 1;
+  private static final int RUNNING_AGAIN = 2;
+
+  private final Runnable task;
+  private final Executor executor;
+  private final AtomicInteger state = new AtomicInteger(IDLE);
+  private final Runnable runLoop = new Runnable() {
+    @Override
+    public void run() {
+      do {
+        try {
+          task.run();
+        } catch (Throwable t) {
+          LOG.error("Exception while running {}", task, t);
+        }
+        // if woken up while running, runs again instead of going idle
+      } while (!state.compareAndSet(RUNNING, IDLE) && state.compareAndSet(RUNNING_AGAIN, RUNNING));
+    }
+  };
+
+  CoalescingRunner(Runnable task, Executor executor) {
+    this.task = task;
+    this.executor = executor;
+  }
+
+  /**
+   * Run the task as soon as possible. If the task is running, it is run once more after the current run finishes.
+   */
+  void wakeup() {
+    while (true) {
+      int current = state.get();
+      if (current == RUNNING_AGAIN) {
+        return;
+      }
+      if (current == RUNNING) {
+        if (state.compareAndSet(RUNNING, RUNNING_AGAIN)) {
+          return;
+        }
+        continue;
+      }
+      if (state.compareAndSet(IDLE, RUNNING)) {
+        try {
+          executor.execute(runLoop);
+        } catch (RejectedExecutionException e) {
+          // the executor is shutting down
+          state.set(IDLE);
+          LOG.debug("Not running {} since the executor is shut down", task);
+        }
+        return;
+      }
+    }
+  }
+}
@@ -26,18 +26,32 @@ import com.continuuity.loom.macro.Expander;
 import com.continuuity.loom.management.LoomStats;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobContext;
+import com.continuuity.loom.scheduler.task.JobContextCache;
 import com.continuuity.loom.scheduler.task.JobId;
 import com.continuuity.loom.scheduler.task.TaskConfig;
+import com.continuuity.loom.scheduler.task.TaskCounts;
 import com.continuuity.loom.scheduler.task.TaskId;
 import com.continuuity.loom.scheduler.task.TaskService;
+import com.continuuity.loom.scheduler.task.TaskStatus;
 import com.continuuity.loom.store.ClusterStore;
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Striped;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import org.apache.twill.common.Cancellable;
+import org.apache.twill.common.Threads;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClients;
 import org.slf4j.Logger;
@@ -46,6 +60,13 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Schedules a cluster job. Polls a queue containing job ids to coordinate. Each time it gets a job id from the queue,
@@ -54,10 +75,25 @@ import java.util.Set;
  * If some task was failed, the appropriate retry and rollback actions are taken for the task. If the job itself fails,
  * unneeded tasks are dropped and cluster and job state is managed. If all tasks for the job have completed, status
  * is updated across the job and cluster.
+ * <p/>
+ * Jobs are scheduled by a number of workers, so that jobs of different clusters are scheduled concurrently. Jobs of the
+ * same cluster are scheduled by one worker at a time, using a local lock for the workers of this server and a
+ * zookeeper lock for other servers.
+ * <p/>
+ * Jobs are queued with their job id as element id, so that a job queued again before it is taken is only in the queue
+ * once. Every task that finishes queues its job, but the tasks of the current stage are only examined if the job has no
+ * tasks in progress, or if a task failed since the job was last examined, which is read from the
+ * {@link TaskCounts} the store keeps for the job. Finishing a stage of n tasks thus examines the stage about once
+ * instead of n times.
  */
 public class JobScheduler implements Runnable {
   private static final Logger LOG = LoggerFactory.getLogger(JobScheduler.class);
   private static final String consumerId = "jobscheduler";
+  // jobs can be scheduled by another server, or never be examined again on this one, so state kept per job is only
+  // kept for jobs examined recently, and for at most this many of them. Losing it only costs an extra examination or
+  // a missing stage dispatch latency.
+  private static final int MAX_JOB_STATES = 10000;
+  private static final long JOB_STATE_EXPIRE_MINUTES = 60;
 
   private final ClusterStore clusterStore;
   private final TrackingQueue provisionerQueue;
@@ -65,163 +101,313 @@ public class JobScheduler implements Runnable {
   private final TrackingQueue jobQueue;
   private final ZKClient zkClient;
   private final TaskService taskService;
+  private final JobContextCache jobContextCache;
   private final int maxTaskRetries;
   private final Actions actions;
   private final LoomStats loomStats;
+  private final int numWorkers;
+  // runs the workers other than the one running on the thread that calls run()
+  private final ExecutorService workerPool;
+  // the zookeeper locks are not thread-safe, and leased ones are shared by the workers, so workers take the local lock
+  // of a cluster before its zookeeper lock. Clusters are hashed to a fixed number of local locks.
+  private final Striped<Lock> localClusterLocks;
+  // job id -> time the last task of the previous stage completed, for jobs whose current stage is not submitted yet
+  private final ConcurrentMap<String, Long> stageCompleteTimes = newJobStateMap();
+  // job id -> number of task failures of the job when its tasks were last examined
+  private final ConcurrentMap<String, Integer> examinedFailures = newJobStateMap();
+  // per cluster locks, only kept when they are leased
+  private LoadingCache<String, ZKInterProcessReentrantLock> clusterLocks;
 
   @Inject
   public JobScheduler(ClusterStore clusterStore, @Named("nodeprovisioner.queue") TrackingQueue provisionerQueue,
                       JsonSerde jsonSerde, @Named("internal.job.queue") TrackingQueue jobQueue, ZKClient zkClient,
-                      TaskService taskService, @Named(Constants.MAX_ACTION_RETRIES) int maxTaskRetries,
-                      LoomStats loomStats) {
+                      TaskService taskService, JobContextCache jobContextCache,
+                      @Named(Constants.MAX_ACTION_RETRIES) int maxTaskRetries, LoomStats loomStats,
+                      @Named(Constants.JOB_SCHEDULER_NUM_WORKERS) int numWorkers) {
+    Preconditions.checkArgument(numWorkers > 0, "number of workers must be at least 1");
     this.clusterStore = clusterStore;
     this.provisionerQueue = provisionerQueue;
     this.jsonSerde = jsonSerde;
     this.jobQueue = jobQueue;
     this.zkClient = ZKClients.namespace(zkClient, Constants.LOCK_NAMESPACE);
     this.taskService = taskService;
+    this.jobContextCache = jobContextCache;
     this.maxTaskRetries = maxTaskRetries;
     this.loomStats = loomStats;
     this.actions = new Actions();
+    this.numWorkers = numWorkers;
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+      Math.max(1, numWorkers - 1), Math.max(1, numWorkers - 1), 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), Threads.createDaemonThreadFactory("job-scheduler-worker-%d"));
+    // threads are only kept while jobs are being scheduled
+    pool.allowCoreThreadTimeOut(true);
+    this.workerPool = pool;
+    this.localClusterLocks = Striped.lock(numWorkers * 16);
   }
 
+  private static <V> ConcurrentMap<String, V> newJobStateMap() {
+    return CacheBuilder.newBuilder()
+      .maximumSize(MAX_JOB_STATES)
+      .expireAfterAccess(JOB_STATE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+      .<String, V>build()
+      .asMap();
+  }
+
+  /**
+   * Sets for how long the per cluster locks are leased, see {@link ZKInterProcessReentrantLock}. When leasing, the
+   * lock of a cluster is kept between jobs so scheduling several jobs of the same cluster in a row does not need to
+   * go to zookeeper for the lock every time. Leasing is disabled by default.
+   *
+   * @param lockLeaseMs Lease time in milliseconds, 0 to disable leasing.
+   */
+  @Inject(optional = true)
+  public void setLockLeaseMs(@Named(Constants.LOCK_LEASE_MS) final long lockLeaseMs) {
+    if (lockLeaseMs <= 0) {
+      clusterLocks = null;
+      return;
+    }
+    clusterLocks = CacheBuilder.newBuilder()
+      .expireAfterAccess(lockLeaseMs, TimeUnit.MILLISECONDS)
+      .removalListener(new RemovalListener<String, ZKInterProcessReentrantLock>() {
+        @Override
+        public void onRemoval(RemovalNotification<String, ZKInterProcessReentrantLock> notification) {
+          notification.getValue().endLease();
+        }
+      })
+      .build(new CacheLoader<String, ZKInterProcessReentrantLock>() {
+        @Override
+        public ZKInterProcessReentrantLock load(String clusterId) {
+          return new ZKInterProcessReentrantLock(zkClient, "/" + clusterId, lockLeaseMs);
+        }
+      });
+  }
+
+  /**
+   * Schedules jobs from the queue with all workers until the queue is empty and no worker is scheduling a job. The
+   * calling thread is one of the workers.
+   */
   @Override
   public void run() {
+    WorkerRound round = new WorkerRound();
+    Cancellable listener = jobQueue.addListener(round);
     try {
-      while (true) {
-        Element element = jobQueue.take(consumerId);
-        if (element == null) {
-          return;
+      List<Future<?>> workers = Lists.newArrayListWithCapacity(numWorkers - 1);
+      for (int i = 1; i < numWorkers; i++) {
+        workers.add(workerPool.submit(new JobWorker(consumerId + "-" + i, round)));
+      }
+      new JobWorker(consumerId + "-0", round).run();
+      for (Future<?> worker : workers) {
+        Futures.getUnchecked(worker);
+      }
+    } finally {
+      listener.cancel();
+    }
+  }
+
+  private void scheduleJob(Element element, String workerId) throws Exception {
+    String jobIdStr = element.getValue();
+
+    LOG.debug("Got job {} to schedule", jobIdStr);
+    JobId jobId = JobId.fromString(jobIdStr);
+    // a task that is still in progress will queue the job again when it finishes, so as long as there are any and no
+    // task failed since the tasks were last examined, there is nothing to do yet.
+    TaskCounts taskCounts = clusterStore.getTaskCounts(jobId);
+    if (taskCounts != null && taskCounts.getInProgress() > 0 &&
+      Integer.valueOf(taskCounts.getFailed()).equals(examinedFailures.get(jobIdStr))) {
+      LOG.debug("Job {} has {} tasks in progress, nothing to schedule", jobIdStr, taskCounts.getInProgress());
+      jobQueue.recordProgress(workerId, element.getId(), TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY, "");
+      return;
+    }
+
+    String clusterId = jobId.getClusterId();
+    boolean requeue = false;
+    boolean jobDone = false;
+    ZKInterProcessReentrantLock lock = getClusterLock(clusterId);
+    Lock localLock = localClusterLocks.get(clusterId);
+    localLock.lock();
+    try {
+      lock.acquire();
+      ClusterJob job = clusterStore.getClusterJob(jobId);
+      LOG.trace("Scheduling job {}", job);
+      Set<String> currentStage = job.getCurrentStage();
+
+      // Check how many tasks are completed/not-submitted
+      int completedTasks = 0;
+      long stageCompleteTime = 0;
+      int inProgressTasks = 0;
+      Set<ClusterTask> notSubmittedTasks = Sets.newHashSet();
+      Set<ClusterTask> retryTasks = Sets.newHashSet();
+      LOG.debug("Verifying task statuses for stage {} for job {}", job.getCurrentStageNumber(), jobIdStr);
+      Set<TaskId> stageTaskIds = Sets.newHashSetWithExpectedSize(currentStage.size());
+      for (String taskId : currentStage) {
+        stageTaskIds.add(TaskId.fromString(taskId));
+      }
+      // only the statuses are read to count the tasks, full tasks are read only if they have to be (re)submitted.
+      Map<TaskId, TaskStatus> taskStatuses = clusterStore.getTaskStatuses(jobId, stageTaskIds);
+      Set<TaskId> toSubmitTaskIds = Sets.newHashSet();
+      for (TaskId taskId : stageTaskIds) {
+        TaskStatus taskStatus = taskStatuses.get(taskId);
+        if (taskStatus == null) {
+          throw new IllegalStateException("Task " + taskId + " of job " + jobIdStr + " does not exist");
         }
-        String jobIdStr = element.getValue();
-
-        LOG.debug("Got job {} to schedule", jobIdStr);
-        JobId jobId = JobId.fromString(jobIdStr);
-        ZKInterProcessReentrantLock lock = new ZKInterProcessReentrantLock(zkClient, "/" + jobId.getClusterId());
-        try {
-          lock.acquire();
-          ClusterJob job = clusterStore.getClusterJob(jobId);
-          LOG.trace("Scheduling job {}", job);
-          Set<String> currentStage = job.getCurrentStage();
-
-          // Check how many tasks are completed/not-submitted
-          int completedTasks = 0;
-          int inProgressTasks = 0;
-          Set<ClusterTask> notSubmittedTasks = Sets.newHashSet();
-          Set<ClusterTask> retryTasks = Sets.newHashSet();
-          LOG.debug("Verifying task statuses for stage {} for job {}", job.getCurrentStageNumber(), jobIdStr);
-          for (String taskId : currentStage) {
-            ClusterTask task = clusterStore.getClusterTask(TaskId.fromString(taskId));
-            job.setTaskStatus(task.getTaskId(), task.getStatus());
-            LOG.debug("Status of task {} is {}", taskId, task.getStatus());
-            if (task.getStatus() == ClusterTask.Status.COMPLETE) {
-              ++completedTasks;
-            } else if (task.getStatus() == ClusterTask.Status.NOT_SUBMITTED) {
-              notSubmittedTasks.add(task);
-            } else if (task.getStatus() == ClusterTask.Status.FAILED) {
-              // If max retries has not reached, retry task. Else, fail job.
-              if (task.getNumAttempts() < maxTaskRetries) {
-                retryTasks.add(task);
-              } else {
-                job.setJobStatus(ClusterJob.Status.FAILED);
-              }
-            } else if (task.getStatus() == ClusterTask.Status.IN_PROGRESS) {
-              ++inProgressTasks;
-            }
+        job.setTaskStatus(taskId.getId(), taskStatus.getStatus());
+        LOG.debug("Status of task {} is {}", taskId, taskStatus.getStatus());
+        if (taskStatus.getStatus() == ClusterTask.Status.COMPLETE) {
+          ++completedTasks;
+          stageCompleteTime = Math.max(stageCompleteTime, taskStatus.getStatusTime());
+        } else if (taskStatus.getStatus() == ClusterTask.Status.NOT_SUBMITTED ||
+          taskStatus.getStatus() == ClusterTask.Status.FAILED) {
+          toSubmitTaskIds.add(taskId);
+        } else if (taskStatus.getStatus() == ClusterTask.Status.IN_PROGRESS) {
+          ++inProgressTasks;
+        }
+      }
+
+      for (ClusterTask task : clusterStore.getClusterTasks(toSubmitTaskIds).values()) {
+        if (task.getStatus() == ClusterTask.Status.NOT_SUBMITTED) {
+          notSubmittedTasks.add(task);
+        } else if (task.getStatus() == ClusterTask.Status.FAILED) {
+          // If max retries has not reached, retry task. Else, fail job.
+          if (task.getNumAttempts() < maxTaskRetries) {
+            retryTasks.add(task);
+          } else {
+            job.setJobStatus(ClusterJob.Status.FAILED);
           }
+        }
+      }
 
-          Cluster cluster = clusterStore.getCluster(job.getClusterId());
+      // If the job has not failed continue with scheduling other tasks.
+      if (job.getJobStatus() != ClusterJob.Status.FAILED) {
+        // nodes are only needed to submit tasks, which most wakeups of a job do not do.
+        JobContext jobContext = null;
+        if (!notSubmittedTasks.isEmpty() || !retryTasks.isEmpty()) {
+          jobContext = jobContextCache.getJobContext(jobId, taskCounts);
+        }
 
-          // If the job has not failed continue with scheduling other tasks.
-          if (job.getJobStatus() != ClusterJob.Status.FAILED) {
-            Set<Node> clusterNodes = clusterStore.getClusterNodes(job.getClusterId());
-            Map<String, Node> nodeMap = Maps.newHashMap();
-            for (Node node : clusterNodes) {
-              nodeMap.put(node.getId(), node);
-            }
+        // Handle retry tasks if any
+        if (!retryTasks.isEmpty()) {
+          Cluster cluster = clusterStore.getCluster(job.getClusterId());
+          for (ClusterTask task : retryTasks) {
+            notSubmittedTasks.add(scheduleRetry(cluster, job, task, jobContext.getNode(task.getNodeId())));
+          }
+        }
 
-            // Handle retry tasks if any
-            if (!retryTasks.isEmpty()) {
-              for (ClusterTask task : retryTasks) {
-                notSubmittedTasks.add(scheduleRetry(cluster, job, task, nodeMap.get(task.getNodeId())));
+        // Submit any tasks not yet submitted
+        if (!notSubmittedTasks.isEmpty()) {
+          Long previousStageCompleteTime = stageCompleteTimes.remove(jobIdStr);
+          if (previousStageCompleteTime != null) {
+            loomStats.getStageDispatchStats()
+              .recordDispatchLatency(System.currentTimeMillis() - previousStageCompleteTime);
+          }
+          for (final ClusterTask task : notSubmittedTasks) {
+            Node taskNode = jobContext.getNode(task.getNodeId());
+            TaskConfig.updateNodeProperties(task.getConfig(), taskNode);
+
+            // macros are expanded before the node list is added, so that they are not searched for in the properties
+            // of every node of the cluster for every task. A retried task still has the node list of its last attempt.
+            task.getConfig().remove("nodes");
+            if (!actions.getHardwareActions().contains(task.getTaskName())) {
+              try {
+                task.setConfig(Expander.expand(task.getConfig(), null, jobContext.getServiceNodes(), taskNode)
+                                 .getAsJsonObject());
+              } catch (Throwable e) {
+                LOG.error("Exception while expanding macros for task {}", task.getTaskId(), e);
+                taskService.failTask(task, -1);
+                job.setStatusMessage("Exception while expanding macros: " + e.getMessage());
+                // no need to schedule more tasks since the job is considered failed even if one task fails.
+                requeue = true;
+                break;
               }
             }
 
-            // Submit any tasks not yet submitted
-            if (!notSubmittedTasks.isEmpty()) {
-              for (final ClusterTask task : notSubmittedTasks) {
-                Node taskNode = nodeMap.get(task.getNodeId());
-                TaskConfig.updateNodeProperties(task.getConfig(), taskNode);
-
-                // Add the node list
-                TaskConfig.addNodeList(task.getConfig(), clusterNodes);
-
-                // TODO: do this only once and save it
-                if (!actions.getHardwareActions().contains(task.getTaskName())) {
-                  try {
-                    task.setConfig(Expander.expand(task.getConfig(), null, clusterNodes, taskNode).getAsJsonObject());
-                  } catch (Throwable e) {
-                    LOG.error("Exception while expanding macros for task {}", task.getTaskId(), e);
-                    taskService.failTask(task, -1);
-                    job.setStatusMessage("Exception while expanding macros: " + e.getMessage());
-                    // no need to schedule more tasks since the job is considered failed even if one task fails.
-                    jobQueue.add(new Element(jobIdStr));
-                    break;
-                  }
-                }
-
-                LOG.debug("Submitting task {}", task.getTaskId());
-                LOG.trace("Task {}", task);
-                SchedulableTask schedulableTask = new SchedulableTask(task);
-                LOG.trace("Schedulable task {}", schedulableTask);
-
-                // Submit task
-                // Note: the job has to be scheduled for processing when the task is complete.
-                provisionerQueue.add(new Element(task.getTaskId(),
-                                                 jsonSerde.getGson().toJson(schedulableTask)));
-
-                job.setTaskStatus(task.getTaskId(), ClusterTask.Status.IN_PROGRESS);
-                taskService.startTask(task);
-              }
-            }
+            // Add the node list, which is shared by all tasks of the job
+            TaskConfig.addNodeList(task.getConfig(), jobContext);
 
-            // Note: before moving cluster out of pending state, make sure that all in progress jobs are done.
-            // If all tasks are completed then move to next stage
-            if (completedTasks == currentStage.size()) {
-              if (job.hasNextStage()) {
-                LOG.debug("Advancing to next stage {} for job {}", job.getCurrentStageNumber(), job.getJobId());
-                job.advanceStage();
-                jobQueue.add(new Element(jobIdStr));
-              } else {
-                job.setJobStatus(ClusterJob.Status.COMPLETE);
-                LOG.debug("Job {} is complete", jobIdStr);
-
-                loomStats.getSuccessfulClusterStats().incrementStat(job.getClusterAction());
-
-                // Update cluster status
-                if (job.getClusterAction() == ClusterAction.CLUSTER_DELETE) {
-                  cluster.setStatus(Cluster.Status.TERMINATED);
-                } else {
-                  cluster.setStatus(Cluster.Status.ACTIVE);
-                }
-                clusterStore.writeCluster(cluster);
-              }
+            LOG.debug("Submitting task {}", task.getTaskId());
+            LOG.trace("Task {}", task);
+            SchedulableTask schedulableTask = new SchedulableTask(task);
+            LOG.trace("Schedulable task {}", schedulableTask);
+            String schedulableTaskJson = jsonSerde.getGson().toJson(schedulableTask);
+
+            // the task is started before it is submitted, so that it is counted as in progress before it can finish.
+            job.setTaskStatus(task.getTaskId(), ClusterTask.Status.IN_PROGRESS);
+            taskService.startTask(task);
+
+            // Submit task
+            // Note: the job has to be scheduled for processing when the task is complete.
+            provisionerQueue.add(new Element(task.getTaskId(), schedulableTaskJson));
+          }
+        }
+
+        // Note: before moving cluster out of pending state, make sure that all in progress jobs are done.
+        // If all tasks are completed then move to next stage
+        if (completedTasks == currentStage.size()) {
+          if (job.hasNextStage()) {
+            LOG.debug("Advancing to next stage {} for job {}", job.getCurrentStageNumber(), job.getJobId());
+            job.advanceStage();
+            stageCompleteTimes.put(jobIdStr, stageCompleteTime);
+            requeue = true;
+          } else {
+            job.setJobStatus(ClusterJob.Status.COMPLETE);
+            stageCompleteTimes.remove(jobIdStr);
+            jobDone = true;
+            LOG.debug("Job {} is complete", jobIdStr);
+
+            loomStats.getSuccessfulClusterStats().incrementStat(job.getClusterAction());
+
+            // Update cluster status
+            Cluster cluster = clusterStore.getCluster(job.getClusterId());
+            if (job.getClusterAction() == ClusterAction.CLUSTER_DELETE) {
+              cluster.setStatus(Cluster.Status.TERMINATED);
+            } else {
+              cluster.setStatus(Cluster.Status.ACTIVE);
             }
-          } else if (inProgressTasks == 0) {
-            // Job failed and no in progress tasks remaining, update cluster status
-            loomStats.getFailedClusterStats().incrementStat(job.getClusterAction());
-            cluster.setStatus(Cluster.Status.INCOMPLETE);
             clusterStore.writeCluster(cluster);
           }
-
-          clusterStore.writeClusterJob(job);
-        } finally {
-          lock.release();
-          jobQueue.recordProgress(consumerId, element.getId(), TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY, "");
         }
+      } else if (inProgressTasks == 0) {
+        // Job failed and no in progress tasks remaining, update cluster status
+        stageCompleteTimes.remove(jobIdStr);
+        jobDone = true;
+        loomStats.getFailedClusterStats().incrementStat(job.getClusterAction());
+        Cluster cluster = clusterStore.getCluster(job.getClusterId());
+        cluster.setStatus(Cluster.Status.INCOMPLETE);
+        clusterStore.writeCluster(cluster);
+      }
+
+      clusterStore.writeClusterJob(job);
+      if (jobDone || taskCounts == null) {
+        examinedFailures.remove(jobIdStr);
+      } else {
+        // failures that happened after the counts were read are examined the next time the job is taken.
+        examinedFailures.put(jobIdStr, taskCounts.getFailed());
+      }
+    } finally {
+      try {
+        releaseClusterLock(clusterId, lock);
+      } finally {
+        localLock.unlock();
+      }
+      jobQueue.recordProgress(workerId, element.getId(), TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY, "");
+      // queued after the job is finished, since queueing it while it is taken replaces the taken element.
+      if (requeue) {
+        jobQueue.add(new Element(jobIdStr, jobIdStr));
       }
-    } catch (Throwable e) {
-      LOG.error("Got exception: ", e);
+    }
+  }
+
+  private ZKInterProcessReentrantLock getClusterLock(String clusterId) {
+    if (clusterLocks == null) {
+      return new ZKInterProcessReentrantLock(zkClient, "/" + clusterId);
+    }
+    return clusterLocks.getUnchecked(clusterId);
+  }
+
+  private void releaseClusterLock(String clusterId, ZKInterProcessReentrantLock lock) {
+    lock.release();
+    // a leased lock that expired from the cache while it was held was not ended on removal, so nobody else will.
+    if (clusterLocks != null && clusterLocks.getIfPresent(clusterId) != lock) {
+      lock.endLease();
     }
   }
 
@@ -238,9 +424,7 @@ public class JobScheduler implements Runnable {
     }
 
     // store all retry tasks
-    for (ClusterTask t : retryTasks) {
-      clusterStore.writeClusterTask(t);
-    }
+    clusterStore.writeClusterTasks(retryTasks);
 
     // Remove self from current stage
     job.getCurrentStage().remove(task.getTaskId());
@@ -273,6 +457,89 @@ public class JobScheduler implements Runnable {
                                      jsonSerde.getGson().toJson(schedulableTask)));
   }
 
+  /**
+   * Takes jobs from the queue and schedules them. A worker that finds the queue empty waits for jobs to be added as
+   * long as other workers are still scheduling, since those may add jobs back to the queue, and stops once no worker
+   * is scheduling anymore.
+   */
+  private final class JobWorker implements Runnable {
+    private final String workerId;
+    private final WorkerRound round;
+
+    private JobWorker(String workerId, WorkerRound round) {
+      this.workerId = workerId;
+      this.round = round;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long signals = round.getSignals();
+          Element element = jobQueue.take(workerId);
+          if (element == null) {
+            if (round.awaitWork(signals)) {
+              continue;
+            }
+            return;
+          }
+          round.startJob();
+          try {
+            scheduleJob(element, workerId);
+          } finally {
+            round.finishJob();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        LOG.error("Got exception: ", e);
+      }
+    }
+  }
+
+  /**
+   * Tracks the workers of one call to {@link #run()}. Signalled whenever a job may have been added to the queue,
+   * either through the queue listener or by a worker finishing a job.
+   */
+  private static final class WorkerRound implements Runnable {
+    private int busyWorkers;
+    private long signals;
+
+    @Override
+    public synchronized void run() {
+      signals++;
+      notifyAll();
+    }
+
+    synchronized long getSignals() {
+      return signals;
+    }
+
+    synchronized void startJob() {
+      busyWorkers++;
+    }
+
+    synchronized void finishJob() {
+      busyWorkers--;
+      signals++;
+      notifyAll();
+    }
+
+    /**
+     * Wait until there may be jobs in the queue again, or until no worker is scheduling a job.
+     *
+     * @param seenSignals Signals seen before the queue was found empty.
+     * @return true if there may be jobs in the queue, false if the worker should stop.
+     */
+    synchronized boolean awaitWork(long seenSignals) throws InterruptedException {
+      while (signals == seenSignals && busyWorkers > 0) {
+        wait();
+      }
+      return signals != seenSignals;
+    }
+  }
+
   private static final Function<ClusterTask, String> CLUSTER_TASK_STRING_FUNCTION =
     new Function<ClusterTask, String>() {
       @Override
@@ -15,6 +15,7 @@
  */
 package com.continuuity.loom.scheduler;
 
+import com.continuuity.loom.common.queue.TrackingQueue;
 import com.continuuity.loom.common.zookeeper.ElectionHandler;
 import com.continuuity.loom.common.zookeeper.LeaderElection;
 import com.google.common.collect.Sets;
@@ -22,6 +23,7 @@ import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
 import org.apache.twill.zookeeper.ZKClient;
 import org.slf4j.Logger;
@@ -38,6 +40,9 @@ import java.util.concurrent.TimeUnit;
  * Runs the different schedulers for solving cluster layouts and planning and coordinating cluster jobs. Leader election
  * is run so that only a single server in a server cluster will be running these schedulers at any given time,
  * where a server cluster is defined as all servers using the same zookeeper quorum.
+ * <p/>
+ * The cluster, solver and job schedulers are run as soon as elements are put in the queues they consume from,
+ * including by other servers. They are also run at a fixed interval, in case a notification is lost.
  */
 public class Scheduler extends AbstractIdleService {
   private static final Logger LOG = LoggerFactory.getLogger(Scheduler.class);
@@ -49,7 +54,11 @@ public class Scheduler extends AbstractIdleService {
   private final SolverScheduler solverScheduler;
   private final ClusterCleanup clusterCleanup;
   private final long clusterCleanupRunInterval;
+  private final TrackingQueue clusterQueue;
+  private final TrackingQueue solverQueue;
+  private final TrackingQueue jobQueue;
   private final Set<ScheduledFuture<?>> scheduledFutures;
+  private final Set<Cancellable> queueListeners;
   private final LeaderElection leaderElection;
 
   @Inject
@@ -59,6 +68,9 @@ public class Scheduler extends AbstractIdleService {
                    ClusterScheduler clusterScheduler,
                    SolverScheduler solverScheduler,
                    ClusterCleanup clusterCleanup,
+                   @Named("cluster.queue") TrackingQueue clusterQueue,
+                   @Named("solver.queue") TrackingQueue solverQueue,
+                   @Named("internal.job.queue") TrackingQueue jobQueue,
                    ZKClient zkClient) {
     this.executorService = Executors.newScheduledThreadPool(4,
                                                             new ThreadFactoryBuilder()
@@ -70,7 +82,11 @@ public class Scheduler extends AbstractIdleService {
     this.clusterScheduler = clusterScheduler;
     this.solverScheduler = solverScheduler;
     this.clusterCleanup = clusterCleanup;
+    this.clusterQueue = clusterQueue;
+    this.solverQueue = solverQueue;
+    this.jobQueue = jobQueue;
     this.scheduledFutures = Sets.newHashSet();
+    this.queueListeners = Sets.newHashSet();
 
     this.leaderElection = new LeaderElection(zkClient, "/server-election", new ElectionHandler() {
       private final ExecutorService executor = Executors.newSingleThreadExecutor(
@@ -114,20 +130,14 @@ public class Scheduler extends AbstractIdleService {
   }
 
   private void schedule() {
-    LOG.info("Scheduling cluster scheduler every {} secs...", schedulerRunInterval);
-    scheduledFutures.add(
-      executorService.scheduleAtFixedRate(clusterScheduler, 1, schedulerRunInterval, TimeUnit.SECONDS)
-    );
+    LOG.info("Scheduling cluster scheduler on new clusters and every {} secs...", schedulerRunInterval);
+    scheduleOnQueue(clusterScheduler, clusterQueue);
 
-    LOG.info("Scheduling job scheduler every {} secs...", schedulerRunInterval);
-    scheduledFutures.add(
-      executorService.scheduleAtFixedRate(jobScheduler, 1, schedulerRunInterval, TimeUnit.SECONDS)
-    );
+    LOG.info("Scheduling job scheduler on new jobs and every {} secs...", schedulerRunInterval);
+    scheduleOnQueue(jobScheduler, jobQueue);
 
-    LOG.info("Scheduling solver scheduler every {} secs...", schedulerRunInterval);
-    scheduledFutures.add(
-      executorService.scheduleAtFixedRate(solverScheduler, 1, schedulerRunInterval, TimeUnit.SECONDS)
-    );
+    LOG.info("Scheduling solver scheduler on new solves and every {} secs...", schedulerRunInterval);
+    scheduleOnQueue(solverScheduler, solverQueue);
 
     LOG.info("Scheduling cluster cleanup every {} secs...", clusterCleanupRunInterval);
     scheduledFutures.add(
@@ -135,7 +145,25 @@ public class Scheduler extends AbstractIdleService {
     );
   }
 
+  // runs the scheduler whenever elements are put in its queue, and at the fixed interval in case a notification
+  // is lost.
+  private void scheduleOnQueue(Runnable scheduler, TrackingQueue queue) {
+    final CoalescingRunner runner = new CoalescingRunner(scheduler, executorService);
+    Runnable wakeup = new Runnable() {
+      @Override
+      public void run() {
+        runner.wakeup();
+      }
+    };
+    queueListeners.add(queue.addListener(wakeup));
+    scheduledFutures.add(executorService.scheduleAtFixedRate(wakeup, 1, schedulerRunInterval, TimeUnit.SECONDS));
+  }
+
   private void unschedule() {
+    for (Cancellable listener : queueListeners) {
+      listener.cancel();
+    }
+    queueListeners.clear();
     for (ScheduledFuture<?> future : scheduledFutures) {
       try {
         future.cancel(false);
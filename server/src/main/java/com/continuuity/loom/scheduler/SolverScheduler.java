@@ -21,6 +21,7 @@ import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.TrackingQueue;
 import com.continuuity.loom.layout.ClusterRequest;
 import com.continuuity.loom.layout.Solver;
+import com.continuuity.loom.layout.SolverTimeoutException;
 import com.continuuity.loom.management.LoomStats;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.JobId;
@@ -136,10 +137,15 @@ public class SolverScheduler implements Runnable {
           } catch (IllegalArgumentException e) {
             LOG.error("Layout solving failed due to impossible constraints.", e);
             errorMessage = errorMessage + ": " + e.getMessage();
+          } catch (SolverTimeoutException e) {
+            LOG.error("Layout solving timed out.", e);
+            loomStats.incrementSolverTimeouts();
+            errorMessage = "Layout solving timed out after " + (System.nanoTime() - start) / 1000000 + " ms";
           }
 
           long duration = (System.nanoTime() - start) / 1000000;
           LOG.debug("took {} ms to solve layout.", duration);
+          loomStats.getSolveTimeStats().recordSolveTime(duration);
 
           // If nodes is empty or null, then solving failed. Fail solving job and return.
           if (clusterNodes == null || clusterNodes.isEmpty()) {
@@ -159,9 +165,7 @@ public class SolverScheduler implements Runnable {
           // TODO: loom status update should happen in TaskService.
           loomStats.getSuccessfulClusterStats().incrementStat(ClusterAction.SOLVE_LAYOUT);
 
-          for (Node node : clusterNodes.values()) {
-            clusterStore.writeNode(node);
-          }
+          clusterStore.writeNodes(clusterNodes.values());
 
           // Create new Job for creating cluster.
           JobId clusterJobId = clusterStore.getNewJobId(clusterId);
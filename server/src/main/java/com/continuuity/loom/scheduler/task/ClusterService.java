@@ -16,6 +16,7 @@
 package com.continuuity.loom.scheduler.task;
 
 import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.TrackingQueue;
 import com.continuuity.loom.common.zookeeper.lib.ZKInterProcessReentrantLock;
@@ -163,4 +164,21 @@ public class ClusterService {
     }
     return clusters;
   }
+
+  /**
+   * Get summaries of all the clusters that the user has permission to get.
+   *
+   * @param userId Id of the user.
+   * @return List of summaries of all clusters owned by the user, or of all clusters if the user is the admin.
+   * @throws Exception
+   */
+  public List<ClusterSummary> getAllUserClusterSummaries(String userId) throws Exception {
+    List<ClusterSummary> clusters;
+    if (userId.equals(Constants.ADMIN_USER) || userId.equals(Constants.SYSTEM_USER)) {
+      clusters = store.getAllClusterSummaries();
+    } else {
+      clusters = store.getAllClusterSummaries(userId);
+    }
+    return clusters;
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler.task;
+
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.macro.ServiceNodes;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything about the nodes of a cluster that is needed to submit the tasks of one of its jobs: the nodes by id, the
+ * node list that is added to the config of every task, and the nodes indexed by service for expanding macros. It is
+ * built once from the nodes of the cluster and shared by all tasks submitted with it, so none of it may be modified.
+ */
+public final class JobContext {
+  private final Set<Node> nodes;
+  private final Map<String, Node> nodeMap;
+  private final JsonObject nodeList;
+  private final ServiceNodes serviceNodes;
+
+  public JobContext(Set<Node> clusterNodes) {
+    this.nodes = ImmutableSet.copyOf(clusterNodes);
+    ImmutableMap.Builder<String, Node> nodeMap = ImmutableMap.builder();
+    for (Node node : nodes) {
+      nodeMap.put(node.getId(), node);
+    }
+    this.nodeMap = nodeMap.build();
+    this.nodeList = TaskConfig.getNodeList(nodes);
+    this.serviceNodes = new ServiceNodes(nodes);
+  }
+
+  /**
+   * Get all nodes of the cluster.
+   *
+   * @return Immutable set of all nodes of the cluster.
+   */
+  public Set<Node> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Get the node with the given id.
+   *
+   * @param nodeId Id of the node to get.
+   * @return Node with the given id, or null if the cluster has no such node.
+   */
+  public Node getNode(String nodeId) {
+    return nodeId == null ? null : nodeMap.get(nodeId);
+  }
+
+  /**
+   * Get the node list to add to the config of a task, see {@link TaskConfig#addNodeList(JsonObject, JobContext)}. It
+   * is shared by all tasks and must not be modified.
+   *
+   * @return Node list to add to the config of a task.
+   */
+  public JsonObject getNodeList() {
+    return nodeList;
+  }
+
+  /**
+   * Get the nodes of the cluster indexed by service, for expanding macros.
+   *
+   * @return Nodes of the cluster indexed by service.
+   */
+  public ServiceNodes getServiceNodes() {
+    return serviceNodes;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler.task;
+
+import com.continuuity.loom.conf.Constants;
+import com.continuuity.loom.store.ClusterStore;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link JobContext}s by job id, so that the nodes of a cluster are read, listed, and indexed once
+ * for all tasks of a job that are submitted, instead of once for every task. When the cache is full, the least
+ * recently used entry is evicted.
+ * <p/>
+ * Node properties only change when a task of the job finishes, and the node is written before the status of the task.
+ * An entry is therefore tagged with the number of finished tasks of the job when it was loaded, and only used as long
+ * as that number did not change, which also holds when the task was finished through another server. Entries of a job
+ * are also dropped whenever a task of the job finished with results for its node on this server.
+ */
+public class JobContextCache {
+  private final int maxSize;
+  private final ClusterStore clusterStore;
+  private final Map<String, Entry> cache;
+  // incremented on every invalidation so that a context loaded from stale nodes is not put into the cache.
+  private long generation;
+
+  @Inject
+  JobContextCache(@Named(Constants.JOB_CONTEXT_CACHE_SIZE) final int maxSize, ClusterStore clusterStore) {
+    this.maxSize = maxSize;
+    this.clusterStore = clusterStore;
+    this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+    this.generation = 0;
+  }
+
+  /**
+   * Get the context of a job, loading it from the nodes of its cluster if it is not cached or if tasks of the job
+   * finished since it was cached.
+   *
+   * @param jobId Id of the job to get the context of.
+   * @param taskCounts Counts of the tasks of the job read before calling this method, or null if they are not known,
+   *                   in which case the context is always loaded and not cached.
+   * @return Context of the job.
+   * @throws Exception if there was a problem reading the nodes of the cluster.
+   */
+  public JobContext getJobContext(JobId jobId, TaskCounts taskCounts) throws Exception {
+    String key = jobId.getId();
+    long version = taskCounts == null ? -1 : (long) taskCounts.getCompleted() + taskCounts.getFailed();
+    long startGeneration;
+    synchronized (this) {
+      Entry cached = cache.get(key);
+      if (cached != null && version >= 0 && cached.version == version) {
+        return cached.jobContext;
+      }
+      startGeneration = generation;
+    }
+
+    // load outside the lock, it is ok if two threads load the same context at the same time.
+    JobContext jobContext = new JobContext(clusterStore.getClusterNodes(jobId.getClusterId()));
+    synchronized (this) {
+      if (maxSize > 0 && version >= 0 && generation == startGeneration) {
+        cache.put(key, new Entry(version, jobContext));
+      }
+    }
+    return jobContext;
+  }
+
+  /**
+   * Drop the context of the job with the given id, because properties of one of the nodes of its cluster changed.
+   *
+   * @param jobId Id of the job whose nodes changed.
+   */
+  public synchronized void invalidateJob(String jobId) {
+    generation++;
+    cache.remove(jobId);
+  }
+
+  // for unit testing only
+  synchronized int size() {
+    return cache.size();
+  }
+
+  /**
+   * A cached context with the number of finished tasks of the job when it was loaded.
+   */
+  private static final class Entry {
+    private final long version;
+    private final JobContext jobContext;
+
+    private Entry(long version, JobContext jobContext) {
+      this.version = version;
+      this.jobContext = jobContext;
+    }
+  }
+}
@@ -106,6 +106,30 @@ public class TaskConfig {
    * @return Updated json object.
    */
   public static JsonObject addNodeList(JsonObject jsonObject, Set<Node> clusterNodes) {
+    jsonObject.add("nodes", getNodeList(clusterNodes));
+    return jsonObject;
+  }
+
+  /**
+   * Add the node list of a job context to a json object configuration. The node list is shared with the context and
+   * all other configurations it was added to, so it must not be modified.
+   *
+   * @param jsonObject Configuration to add node properties to.
+   * @param jobContext Context of the job whose node list needs to be added to the configuration.
+   * @return Updated json object.
+   */
+  public static JsonObject addNodeList(JsonObject jsonObject, JobContext jobContext) {
+    jsonObject.add("nodes", jobContext.getNodeList());
+    return jsonObject;
+  }
+
+  /**
+   * Get the node list that is added to a configuration, containing the properties of all given nodes by node id.
+   *
+   * @param clusterNodes Set of nodes whose properties need to be in the node list.
+   * @return Node list containing the properties of the given nodes.
+   */
+  public static JsonObject getNodeList(Set<Node> clusterNodes) {
     JsonObject nodesJson = new JsonObject();
     for (Node node : clusterNodes) {
       JsonObject nodeJson = new JsonObject();
@@ -119,8 +143,6 @@ public class TaskConfig {
 
       nodesJson.add(node.getId(), nodeJson);
     }
-
-    jsonObject.add("nodes", nodesJson);
-    return jsonObject;
+    return nodesJson;
   }
 }
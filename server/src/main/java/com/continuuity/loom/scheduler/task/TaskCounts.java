@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler.task;
+
+import com.google.common.base.Objects;
+
+/**
+ * Counts of the tasks of a {@link ClusterJob} by status, kept up to date by the store as task statuses change so that
+ * they can be read without reading any of the tasks. Completed and failed counts only ever grow, with a task counted
+ * again each time it completes or fails.
+ */
+public final class TaskCounts {
+  private final int inProgress;
+  private final int completed;
+  private final int failed;
+
+  public TaskCounts(int inProgress, int completed, int failed) {
+    this.inProgress = inProgress;
+    this.completed = completed;
+    this.failed = failed;
+  }
+
+  /**
+   * Get the number of tasks of the job that are in progress.
+   *
+   * @return Number of tasks of the job that are in progress.
+   */
+  public int getInProgress() {
+    return inProgress;
+  }
+
+  /**
+   * Get the number of times a task of the job completed.
+   *
+   * @return Number of times a task of the job completed.
+   */
+  public int getCompleted() {
+    return completed;
+  }
+
+  /**
+   * Get the number of times a task of the job failed.
+   *
+   * @return Number of times a task of the job failed.
+   */
+  public int getFailed() {
+    return failed;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("inProgress", inProgress)
+      .add("completed", completed)
+      .add("failed", failed)
+      .toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TaskCounts)) {
+      return false;
+    }
+    TaskCounts other = (TaskCounts) o;
+    return inProgress == other.inProgress &&
+      completed == other.completed &&
+      failed == other.failed;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(inProgress, completed, failed);
+  }
+}
@@ -40,18 +40,20 @@ public class TaskQueueService {
   private final TrackingQueue jobQueue;
   private final TaskService taskService;
   private final NodeService nodeService;
+  private final JobContextCache jobContextCache;
   private final LoomStats loomStats;
 
   @Inject
   public TaskQueueService(@Named("nodeprovisioner.queue") TrackingQueue taskQueue,
                           @Named("internal.job.queue") TrackingQueue jobQueue,
                           ClusterStore clusterStore, TaskService taskService, NodeService nodeService,
-                          LoomStats loomStats) {
+                          JobContextCache jobContextCache, LoomStats loomStats) {
     this.taskQueue = taskQueue;
     this.clusterStore = clusterStore;
     this.jobQueue = jobQueue;
     this.taskService = taskService;
     this.nodeService = nodeService;
+    this.jobContextCache = jobContextCache;
     this.loomStats = loomStats;
   }
 
@@ -86,7 +88,7 @@ public class TaskQueueService {
           taskQueue.recordProgress(workerId, clusterTask.getTaskId(),
                                    TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY, "Skipped due to job failure.");
           taskService.dropTask(clusterTask);
-          jobQueue.add(new Element(clusterTask.getJobId()));
+          jobQueue.add(new Element(clusterTask.getJobId(), clusterTask.getJobId()));
           clusterTask = null;
         } else {
           taskJson = task.getValue();
@@ -131,6 +133,10 @@ public class TaskQueueService {
     // Queue update was successful, now update the task object
     ClusterTask clusterTask = clusterStore.getClusterTask(TaskId.fromString(taskId));
 
+    // the node is updated before the task, so that the node properties are written by the time the task is counted
+    // as finished. Cached job contexts are only reloaded once the number of finished tasks of the job changed.
+    finishNodeAction(clusterTask, status == 0, result, stdout, stderr);
+
     if (status == 0) {
       LOG.debug("Successful finish of the task reported. Task {} by worker {}", taskId, workerId);
       taskService.completeTask(clusterTask, status);
@@ -139,10 +145,8 @@ public class TaskQueueService {
       taskService.failTask(clusterTask, status);
     }
 
-    finishNodeAction(clusterTask, result, stdout, stderr);
-
     // Schedule the job for processing
-    jobQueue.add(new Element(clusterTask.getJobId()));
+    jobQueue.add(new Element(clusterTask.getJobId(), clusterTask.getJobId()));
   }
 
   void startNodeAction(ClusterTask clusterTask) throws Exception {
@@ -162,7 +166,7 @@ public class TaskQueueService {
     }
   }
 
-  void finishNodeAction(ClusterTask clusterTask, JsonObject result, String stdout,
+  void finishNodeAction(ClusterTask clusterTask, boolean succeeded, JsonObject result, String stdout,
                         String stderr) throws Exception {
     // Update node properties if task is associated with a nodeId.
     // There are cases when we don't associate a nodeId with a task so that the node properties don't get overridden
@@ -180,11 +184,14 @@ public class TaskQueueService {
         }
 
         // Update node action
-        if (clusterTask.getStatus() == ClusterTask.Status.COMPLETE) {
+        if (succeeded) {
           nodeService.completeAction(node);
         } else {
           nodeService.failAction(node, stdout, stderr);
         }
+        if (!result.entrySet().isEmpty()) {
+          jobContextCache.invalidateJob(clusterTask.getJobId());
+        }
 
         LOG.trace("Updated Node = {}", node);
       }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler.task;
+
+import com.google.common.base.Objects;
+
+/**
+ * The status of a {@link ClusterTask} and the time it was last changed. Statuses can be read without reading the
+ * full task, which includes its config and all of its attempts.
+ */
+public final class TaskStatus {
+  private final ClusterTask.Status status;
+  private final long statusTime;
+
+  public TaskStatus(ClusterTask.Status status, long statusTime) {
+    this.status = status;
+    this.statusTime = statusTime;
+  }
+
+  /**
+   * Get the {@link ClusterTask.Status} of the task.
+   *
+   * @return Status of the task.
+   */
+  public ClusterTask.Status getStatus() {
+    return status;
+  }
+
+  /**
+   * Get the timestamp in milliseconds of when the status of the task last changed, with 0 meaning it is not known.
+   *
+   * @return Timestamp in milliseconds of when the status of the task last changed, with 0 meaning it is not known.
+   */
+  public long getStatusTime() {
+    return statusTime;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("status", status)
+      .add("statusTime", statusTime)
+      .toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TaskStatus)) {
+      return false;
+    }
+    TaskStatus other = (TaskStatus) o;
+    return Objects.equal(status, other.status) &&
+      statusTime == other.statusTime;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(status, statusTime);
+  }
+}
@@ -15,18 +15,29 @@
  */
 package com.continuuity.loom.store;
 
-import com.continuuity.loom.common.zookeeper.lib.ZKInterProcessReentrantLock;
+import com.continuuity.loom.common.zookeeper.ZKClientExt;
+import com.continuuity.loom.conf.Constants;
 import com.continuuity.loom.scheduler.task.JobId;
 import com.continuuity.loom.scheduler.task.TaskId;
+import com.google.common.base.Preconditions;
 import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.Futures;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.zookeeper.CreateMode;
-import org.apache.zookeeper.data.Stat;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Store that uses Zookeeper for creating new unique ids.
+ * <p/>
+ * Ids are not reserved one by one in zookeeper. Instead every store reserves a block of ids at a time by moving the
+ * counter in zookeeper forward with a conditional update on its version, and then hands out ids of the block from
+ * memory. Ids of different stores never overlap, and all of them are still {@code startId} plus a multiple of
+ * {@code incrementBy}, but ids are not given out in order across stores, and the unused ids of a block are skipped
+ * when the store is restarted.
  */
 public abstract class BaseClusterStore implements ClusterStore {
   private static final String IDS_BASEPATH = "/ids";
@@ -36,7 +47,10 @@ public abstract class BaseClusterStore implements ClusterStore {
 
   private final long startId;
   private final long incrementBy;
-  private ThreadLocal<ZKInterProcessReentrantLock> idLock;
+  private final IdBlock clusterIds;
+  private final IdBlock jobIds;
+  private final IdBlock taskIds;
+  private int idBlockSize;
 
   private final ZKClient zkClient;
 
@@ -44,63 +58,110 @@ public abstract class BaseClusterStore implements ClusterStore {
     this.zkClient = zkClient;
     this.startId = startId;
     this.incrementBy = incrementBy;
+    this.idBlockSize = Constants.DEFAULT_ID_BLOCK_SIZE;
+    this.clusterIds = new IdBlock(CLUSTER_IDS_PATH);
+    this.jobIds = new IdBlock(JOB_IDS_PATH);
+    this.taskIds = new IdBlock(TASK_IDS_PATH);
+  }
+
+  /**
+   * Sets how many ids are reserved in zookeeper at a time. Defaults to {@link Constants#DEFAULT_ID_BLOCK_SIZE}.
+   *
+   * @param idBlockSize Number of ids to reserve at a time.
+   */
+  @Inject(optional = true)
+  public void setIdBlockSize(@Named(Constants.ID_BLOCK_SIZE) int idBlockSize) {
+    Preconditions.checkArgument(idBlockSize > 0, "id block size must be at least 1");
+    this.idBlockSize = idBlockSize;
   }
 
   @Override
   public void initialize() {
-    this.idLock = new ThreadLocal<ZKInterProcessReentrantLock>() {
-      @Override
-      protected ZKInterProcessReentrantLock initialValue() {
-        return new ZKInterProcessReentrantLock(zkClient, IDS_BASEPATH + "/lock");
-      }
-    };
-    idLock.get().acquire();
-    try {
-      initializeCounter(JOB_IDS_PATH);
-      initializeCounter(TASK_IDS_PATH);
-      initializeCounter(CLUSTER_IDS_PATH);
-    } finally {
-      idLock.get().release();
-    }
+    initializeCounter(JOB_IDS_PATH);
+    initializeCounter(TASK_IDS_PATH);
+    initializeCounter(CLUSTER_IDS_PATH);
   }
 
   @Override
   public String getNewClusterId() {
-    return format(getUniqueIdFromPath(CLUSTER_IDS_PATH));
+    return format(clusterIds.next());
   }
 
   @Override
   public JobId getNewJobId(String clusterId) {
-    return new JobId(clusterId, getUniqueIdFromPath(JOB_IDS_PATH));
+    return new JobId(clusterId, jobIds.next());
   }
 
   @Override
   public TaskId getNewTaskId(JobId jobId) {
-    return new TaskId(jobId, getUniqueIdFromPath(TASK_IDS_PATH));
+    return new TaskId(jobId, taskIds.next());
   }
 
   protected String format(long num) {
     return String.format("%08d", num);
   }
 
-  // this generally is not a noticeable amount of time compared to the time it takes to perform tasks
-  // TODO: try optimistic locking before actual locking to improve performance.
-  private long getUniqueIdFromPath(String path) {
-    idLock.get().acquire();
-    try {
+  // reserves a block of ids and returns the first one. Optimistic, as all servers share the counter.
+  private long reserveIds(String path, int numIds) {
+    while (true) {
       NodeData nodeData = Futures.getUnchecked(zkClient.getData(path));
       long counterVal = Longs.fromByteArray(nodeData.getData());
-      Futures.getUnchecked(zkClient.setData(path, Longs.toByteArray(counterVal + incrementBy)));
-      return counterVal;
-    } finally {
-      idLock.get().release();
+      byte[] newVal = Longs.toByteArray(counterVal + numIds * incrementBy);
+      // null if someone else reserved a block since we read the counter
+      if (Futures.getUnchecked(ZKClientExt.setDataIfVersion(zkClient, path, newVal,
+                                                            nodeData.getStat().getVersion())) != null) {
+        return counterVal;
+      }
     }
   }
 
   private void initializeCounter(String path) {
-    Stat stat = Futures.getUnchecked(zkClient.exists(path));
-    if (stat == null) {
-      Futures.getUnchecked(zkClient.create(path, Longs.toByteArray(startId), CreateMode.PERSISTENT, true));
+    Futures.getUnchecked(ZKClientExt.createIfAbsent(zkClient, path, Longs.toByteArray(startId),
+                                                    CreateMode.PERSISTENT));
+  }
+
+  /**
+   * Ids of one kind that were reserved and not handed out yet.
+   */
+  private final class IdBlock {
+    private final String path;
+    private volatile Range current;
+
+    private IdBlock(String path) {
+      this.path = path;
+    }
+
+    private long next() {
+      while (true) {
+        Range range = current;
+        if (range != null) {
+          long id = range.next.getAndAdd(incrementBy);
+          if (id < range.end) {
+            return id;
+          }
+        }
+        synchronized (this) {
+          // some other thread may have reserved a new block while we were waiting
+          if (current == range) {
+            int numIds = idBlockSize;
+            long first = reserveIds(path, numIds);
+            current = new Range(first, first + numIds * incrementBy);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Range of ids, from next inclusive to end exclusive.
+   */
+  private static final class Range {
+    private final AtomicLong next;
+    private final long end;
+
+    private Range(long next, long end) {
+      this.next = new AtomicLong(next);
+      this.end = end;
     }
   }
 }
@@ -21,7 +21,9 @@ import com.continuuity.loom.admin.ImageType;
 import com.continuuity.loom.admin.Provider;
 import com.continuuity.loom.admin.Service;
 import com.continuuity.loom.codec.json.JsonSerde;
+import com.continuuity.loom.layout.NodeLayoutCache;
 import com.google.common.base.Function;
+import com.google.inject.Inject;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
@@ -72,6 +74,8 @@ public abstract class BaseEntityStore implements EntityStore {
       }
     };
 
+  private NodeLayoutCache nodeLayoutCache;
+
   /**
    * Types of entities.
    */
@@ -92,6 +96,17 @@ public abstract class BaseEntityStore implements EntityStore {
     }
   }
 
+  /**
+   * Set the cache of node layouts generated by the solver, which is invalidated whenever a cluster template, service,
+   * hardware type, or image type is written or deleted through this store.
+   *
+   * @param nodeLayoutCache Cache of node layouts to invalidate on writes and deletes.
+   */
+  @Inject(optional = true)
+  public void setNodeLayoutCache(NodeLayoutCache nodeLayoutCache) {
+    this.nodeLayoutCache = nodeLayoutCache;
+  }
+
   @Override
   public Provider getProvider(String providerName) throws Exception {
     return get(EntityType.PROVIDER, providerName, PROVIDER_TRANSFORM);
@@ -125,11 +140,17 @@ public abstract class BaseEntityStore implements EntityStore {
   @Override
   public void writeHardwareType(HardwareType hardwareType) throws Exception {
     writeEntity(EntityType.HARDWARE_TYPE, hardwareType.getName(), codec.serialize(hardwareType, HardwareType.class));
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateHardwareType(hardwareType.getName());
+    }
   }
 
   @Override
   public void deleteHardwareType(String hardwareTypeName) throws Exception {
     deleteEntity(EntityType.HARDWARE_TYPE, hardwareTypeName);
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateHardwareType(hardwareTypeName);
+    }
   }
 
   @Override
@@ -145,11 +166,17 @@ public abstract class BaseEntityStore implements EntityStore {
   @Override
   public void writeImageType(ImageType imageType) throws Exception {
     writeEntity(EntityType.IMAGE_TYPE, imageType.getName(), codec.serialize(imageType, ImageType.class));
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateImageType(imageType.getName());
+    }
   }
 
   @Override
   public void deleteImageType(String imageTypeName) throws Exception {
     deleteEntity(EntityType.IMAGE_TYPE, imageTypeName);
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateImageType(imageTypeName);
+    }
   }
 
   @Override
@@ -165,11 +192,17 @@ public abstract class BaseEntityStore implements EntityStore {
   @Override
   public void writeService(Service service) throws Exception {
     writeEntity(EntityType.SERVICE, service.getName(), codec.serialize(service, Service.class));
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateService(service.getName());
+    }
   }
 
   @Override
   public void deleteService(String serviceName) throws Exception {
     deleteEntity(EntityType.SERVICE, serviceName);
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateService(serviceName);
+    }
   }
 
   @Override
@@ -186,11 +219,17 @@ public abstract class BaseEntityStore implements EntityStore {
   public void writeClusterTemplate(ClusterTemplate clusterTemplate) throws Exception {
     writeEntity(EntityType.CLUSTER_TEMPLATE, clusterTemplate.getName(),
                 codec.serialize(clusterTemplate, ClusterTemplate.class));
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateClusterTemplate(clusterTemplate.getName());
+    }
   }
 
   @Override
   public void deleteClusterTemplate(String clusterTemplateName) throws Exception {
     deleteEntity(EntityType.CLUSTER_TEMPLATE, clusterTemplateName);
+    if (nodeLayoutCache != null) {
+      nodeLayoutCache.invalidateClusterTemplate(clusterTemplateName);
+    }
   }
 
   private <T> T get(EntityType entityType, String entityName, Function<byte[], T> transform) throws Exception {
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.codec.json.BinaryJsonReader;
+import com.continuuity.loom.codec.json.BinaryJsonWriter;
+import com.continuuity.loom.codec.json.JsonSerde;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Serializes objects stored as blobs in the SQL stores. Blobs written in a binary format start with a format byte
+ * and a version byte, followed by the object as written by a {@link BinaryJsonWriter}, deflated for
+ * {@link Format#BINARY_DEFLATE}. Blobs without a format byte are json, which is how every blob was written before
+ * the binary formats existed. Blobs are read in whatever format they were written in, so the format can be changed
+ * at any time and existing rows are rewritten in the new format the next time they are written.
+ */
+public final class BlobSerde {
+  private static final byte BINARY_MARKER = 1;
+  private static final byte BINARY_DEFLATE_MARKER = 2;
+  private static final byte VERSION = 1;
+  private static final int HEADER_SIZE = 2;
+
+  /**
+   * Format that blobs are written in.
+   */
+  public enum Format {
+    JSON("json"),
+    BINARY("binary"),
+    BINARY_DEFLATE("binary-deflate");
+
+    private final String name;
+
+    private Format(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Get the format with the given configuration name.
+     *
+     * @param name Configuration name of the format.
+     * @return Format with the given name.
+     * @throws IllegalArgumentException if there is no format with the given name.
+     */
+    public static Format fromName(String name) {
+      for (Format format : values()) {
+        if (format.name.equals(name)) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("Unknown blob format " + name);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private final JsonSerde codec = new JsonSerde();
+  private final Gson gson = codec.getGson();
+  private final Format format;
+
+  public BlobSerde(Format format) {
+    this.format = format;
+  }
+
+  /**
+   * Get the format blobs are written in.
+   *
+   * @return Format blobs are written in.
+   */
+  public Format getFormat() {
+    return format;
+  }
+
+  /**
+   * Serialize an object in the configured format.
+   *
+   * @param object Object to serialize.
+   * @param type Type of the object to serialize.
+   * @return Serialized object.
+   */
+  public byte[] serialize(Object object, Type type) {
+    switch (format) {
+      case BINARY:
+        return serializeBinary(object, type, BINARY_MARKER);
+      case BINARY_DEFLATE:
+        return deflate(serializeBinary(object, type, BINARY_DEFLATE_MARKER));
+      default:
+        return codec.serialize(object, type);
+    }
+  }
+
+  /**
+   * Deserialize an object written in any format.
+   *
+   * @param bytes Serialized object.
+   * @param type Type of the object to deserialize.
+   * @param <T> Object class.
+   * @return Deserialized object.
+   * @throws JsonParseException if the serialized object is corrupt or was written in an unsupported version.
+   */
+  public <T> T deserialize(byte[] bytes, Type type) {
+    switch (getFormat(bytes)) {
+      case BINARY:
+        checkVersion(bytes);
+        return deserializeBinary(bytes, HEADER_SIZE, type);
+      case BINARY_DEFLATE:
+        checkVersion(bytes);
+        return deserializeBinary(inflate(bytes), 0, type);
+      default:
+        return codec.deserialize(bytes, type);
+    }
+  }
+
+  /**
+   * Get the format a serialized object was written in.
+   *
+   * @param bytes Serialized object.
+   * @return Format the object was written in.
+   */
+  public static Format getFormat(byte[] bytes) {
+    if (bytes.length > 0 && bytes[0] == BINARY_MARKER) {
+      return Format.BINARY;
+    } else if (bytes.length > 0 && bytes[0] == BINARY_DEFLATE_MARKER) {
+      return Format.BINARY_DEFLATE;
+    }
+    // json always starts with a printable character or whitespace, never with one of the markers.
+    return Format.JSON;
+  }
+
+  private byte[] serializeBinary(Object object, Type type, byte marker) {
+    BinaryJsonWriter writer = new BinaryJsonWriter(marker, VERSION);
+    gson.toJson(object, type, writer);
+    return writer.toByteArray();
+  }
+
+  private <T> T deserializeBinary(byte[] bytes, int offset, Type type) {
+    BinaryJsonReader reader = new BinaryJsonReader(bytes, offset);
+    T object = gson.fromJson(reader, type);
+    try {
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new JsonParseException("Unexpected data after the blob at " + reader);
+      }
+    } catch (IOException e) {
+      throw new JsonParseException(e);
+    }
+    return object;
+  }
+
+  private static void checkVersion(byte[] bytes) {
+    if (bytes.length < HEADER_SIZE || bytes[1] != VERSION) {
+      throw new JsonParseException("Unsupported blob version " + (bytes.length < HEADER_SIZE ? null : bytes[1]));
+    }
+  }
+
+  // keeps the header and the uncompressed length uncompressed, and deflates the rest.
+  private static byte[] deflate(byte[] encoded) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(encoded, HEADER_SIZE, encoded.length - HEADER_SIZE);
+      deflater.finish();
+      byte[] out = new byte[HEADER_SIZE + 4 + encoded.length / 2 + 64];
+      out[0] = encoded[0];
+      out[1] = encoded[1];
+      writeInt(out, HEADER_SIZE, encoded.length - HEADER_SIZE);
+      int size = HEADER_SIZE + 4;
+      while (!deflater.finished()) {
+        if (size == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        size += deflater.deflate(out, size, out.length - size);
+      }
+      return Arrays.copyOf(out, size);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] bytes) {
+    if (bytes.length < HEADER_SIZE + 4 || readInt(bytes, HEADER_SIZE) < 0) {
+      throw new JsonParseException("Deflated blob is truncated");
+    }
+    int length = readInt(bytes, HEADER_SIZE);
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes, HEADER_SIZE + 4, bytes.length - HEADER_SIZE - 4);
+      byte[] out = new byte[length];
+      int size = 0;
+      while (size < length) {
+        int inflated = inflater.inflate(out, size, length - size);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new JsonParseException("Deflated blob is truncated");
+        }
+        size += inflated;
+      }
+      // reading to the end of the stream checks its checksum, and that it did not hold more than the length.
+      if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+        throw new JsonParseException("Deflated blob does not match its length");
+      }
+      return out;
+    } catch (DataFormatException e) {
+      throw new JsonParseException("Deflated blob is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) |
+      ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+}
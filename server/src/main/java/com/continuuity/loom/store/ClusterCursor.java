@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.cluster.ClusterSummary;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Position in a listing of clusters, which are ordered from most to least recently created, with ties broken by
+ * descending id. Reading from a cursor returns the clusters that come after it. Cursors are passed to clients as
+ * strings of the form createtime-clusterid.
+ */
+public final class ClusterCursor {
+  private final long createTime;
+  private final long clusterId;
+
+  public ClusterCursor(long createTime, long clusterId) {
+    this.createTime = createTime;
+    this.clusterId = clusterId;
+  }
+
+  /**
+   * Get the cursor positioned at a cluster, so that reading from it returns the clusters listed after that cluster.
+   *
+   * @param summary Summary of the cluster to position the cursor at.
+   * @return Cursor positioned at the cluster.
+   */
+  public static ClusterCursor after(ClusterSummary summary) {
+    return new ClusterCursor(summary.getCreateTime(), Long.parseLong(summary.getId()));
+  }
+
+  /**
+   * Convert a string representation of a cursor into an object while validating that the string is correctly
+   * formatted. Throws an IllegalArgumentException if the string is invalid.
+   *
+   * @param cursorStr String representation of a cursor.
+   * @return Cursor based on the input string.
+   */
+  public static ClusterCursor fromString(String cursorStr) {
+    int index = cursorStr.indexOf("-");
+    Preconditions.checkArgument(index > 0 && cursorStr.indexOf("-", index + 1) < 0,
+                                "invalid cursor string " + cursorStr);
+    try {
+      return new ClusterCursor(Long.parseLong(cursorStr.substring(0, index)),
+                               Long.parseLong(cursorStr.substring(index + 1)));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid cursor string " + cursorStr, e);
+    }
+  }
+
+  /**
+   * Get the create time in milliseconds of the cluster the cursor is positioned at.
+   *
+   * @return Create time in milliseconds of the cluster the cursor is positioned at.
+   */
+  public long getCreateTime() {
+    return createTime;
+  }
+
+  /**
+   * Get the id of the cluster the cursor is positioned at.
+   *
+   * @return Id of the cluster the cursor is positioned at.
+   */
+  public long getClusterId() {
+    return clusterId;
+  }
+
+  @Override
+  public String toString() {
+    return createTime + "-" + clusterId;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ClusterCursor)) {
+      return false;
+    }
+    ClusterCursor other = (ClusterCursor) o;
+    return createTime == other.createTime && clusterId == other.clusterId;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(createTime, clusterId);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.cluster.Cluster;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+
+/**
+ * Filter on the clusters to read from a {@link ClusterStore}. Every part of the filter is optional, and clusters must
+ * match all the parts that are given.
+ */
+public final class ClusterFilter {
+  public static final ClusterFilter ALL = new ClusterFilter(null, ImmutableSet.<Cluster.Status>of(), null);
+
+  private final String ownerId;
+  private final Set<Cluster.Status> statuses;
+  private final String template;
+
+  /**
+   * Create a filter on clusters.
+   *
+   * @param ownerId Id of the user that must own the clusters, or null for any owner.
+   * @param statuses Statuses the clusters must have one of, or an empty set for any status.
+   * @param template Name of the template the clusters must be created from, or null for any template.
+   */
+  public ClusterFilter(@Nullable String ownerId, Set<Cluster.Status> statuses, @Nullable String template) {
+    this.ownerId = ownerId;
+    this.statuses = ImmutableSet.copyOf(statuses);
+    this.template = template;
+  }
+
+  /**
+   * Get a filter on the clusters owned by a user.
+   *
+   * @param ownerId Id of the user that must own the clusters.
+   * @return Filter on the clusters owned by the user.
+   */
+  public static ClusterFilter ownedBy(String ownerId) {
+    return new ClusterFilter(ownerId, ImmutableSet.<Cluster.Status>of(), null);
+  }
+
+  /**
+   * Get the id of the user that must own the clusters, or null for any owner.
+   *
+   * @return Id of the user that must own the clusters, or null for any owner.
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * Get the statuses the clusters must have one of, or an empty set for any status.
+   *
+   * @return Statuses the clusters must have one of, or an empty set for any status.
+   */
+  public Set<Cluster.Status> getStatuses() {
+    return statuses;
+  }
+
+  /**
+   * Get the name of the template the clusters must be created from, or null for any template.
+   *
+   * @return Name of the template the clusters must be created from, or null for any template.
+   */
+  public String getTemplate() {
+    return template;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("ownerId", ownerId)
+      .add("statuses", statuses)
+      .add("template", template)
+      .toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ClusterFilter)) {
+      return false;
+    }
+    ClusterFilter other = (ClusterFilter) o;
+    return Objects.equal(ownerId, other.ownerId) &&
+      Objects.equal(statuses, other.statuses) &&
+      Objects.equal(template, other.template);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(ownerId, statuses, template);
+  }
+}
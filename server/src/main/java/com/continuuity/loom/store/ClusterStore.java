@@ -16,13 +16,18 @@
 package com.continuuity.loom.store;
 
 import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.cluster.Node;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.ClusterTask;
 import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskCounts;
 import com.continuuity.loom.scheduler.task.TaskException;
 import com.continuuity.loom.scheduler.task.TaskId;
+import com.continuuity.loom.scheduler.task.TaskStatus;
 
+import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,6 +80,45 @@ public interface ClusterStore {
    */
   List<Cluster> getAllClusters(String ownerId) throws Exception;
 
+  /**
+   * Get summaries of all clusters in the store, most recently created first. Only reads the summary of each cluster,
+   * which is much cheaper than reading the full clusters.
+   * @return Summaries of all clusters in the store.
+   * @throws Exception if there was a problem getting the cluster summaries.
+   */
+  List<ClusterSummary> getAllClusterSummaries() throws Exception;
+
+  /**
+   * Get summaries of all clusters owned by the given user, most recently created first.
+   * @param ownerId Id of the user that owns the clusters.
+   * @return Summaries of all clusters owned by the user.
+   * @throws Exception if there was a problem getting the cluster summaries.
+   */
+  List<ClusterSummary> getAllClusterSummaries(String ownerId) throws Exception;
+
+  /**
+   * Get a page of summaries of the clusters that match a filter, most recently created first.
+   * @param filter Filter on the clusters to get.
+   * @param after Cursor to start after, or null to start from the most recently created cluster.
+   * @param limit Maximum number of summaries to get, or 0 for no limit.
+   * @return Summaries of the clusters that match the filter.
+   * @throws Exception if there was a problem getting the cluster summaries.
+   */
+  List<ClusterSummary> getClusterSummaries(ClusterFilter filter, @Nullable ClusterCursor after,
+                                           int limit) throws Exception;
+
+  /**
+   * Pass summaries of the clusters that match a filter to a consumer as they are read, most recently created first.
+   * Unlike {@link #getClusterSummaries(ClusterFilter, ClusterCursor, int)}, the summaries are not collected in memory.
+   * @param filter Filter on the clusters to read.
+   * @param after Cursor to start after, or null to start from the most recently created cluster.
+   * @param limit Maximum number of summaries to read, or 0 for no limit.
+   * @param consumer Consumer to pass the summaries to.
+   * @throws Exception if there was a problem reading the cluster summaries, or if the consumer threw an exception.
+   */
+  void scanClusterSummaries(ClusterFilter filter, @Nullable ClusterCursor after, int limit,
+                            ClusterSummaryConsumer consumer) throws Exception;
+
   /**
    * Get a specific cluster by id.
    * @param clusterId Id of the cluster to find.
@@ -136,6 +180,15 @@ public interface ClusterStore {
    */
   void deleteClusterJob(JobId jobId) throws TaskException;
 
+  /**
+   * Get the counts of the tasks of a job by status. Counts are updated in the same transaction that writes a task
+   * whose status changed, so they are read without reading any of the tasks.
+   * @param jobId Id of the job to get task counts for.
+   * @return Counts of the tasks of the job, or null if the job does not exist.
+   * @throws TaskException if there was a problem getting the task counts.
+   */
+  TaskCounts getTaskCounts(JobId jobId) throws TaskException;
+
   /**
    * Get a cluster task by its id.
    * @param taskId Id of the cluster task to get.
@@ -144,6 +197,24 @@ public interface ClusterStore {
    */
   ClusterTask getClusterTask(TaskId taskId) throws TaskException;
 
+  /**
+   * Get a map of task id to cluster task for that task id.
+   * @param taskIds Set of task ids to get.
+   * @return Map of task id to cluster task. Task ids without a cluster task are not included.
+   * @throws TaskException if there was a problem getting the cluster tasks.
+   */
+  Map<TaskId, ClusterTask> getClusterTasks(Set<TaskId> taskIds) throws TaskException;
+
+  /**
+   * Get a map of task id to the status of the cluster task for that task id, for tasks of a single job. Only reads the
+   * status of each task, which is much cheaper than reading the full tasks.
+   * @param jobId Id of the job the tasks are a part of.
+   * @param taskIds Set of ids of tasks of the job to get the statuses of.
+   * @return Map of task id to task status. Task ids without a cluster task are not included.
+   * @throws TaskException if there was a problem getting the task statuses.
+   */
+  Map<TaskId, TaskStatus> getTaskStatuses(JobId jobId, Set<TaskId> taskIds) throws TaskException;
+
   /**
    * Write a cluster task to the store using its id.
    * @param clusterTask The cluster task to write.
@@ -151,6 +222,13 @@ public interface ClusterStore {
    */
   void writeClusterTask(ClusterTask clusterTask) throws TaskException;
 
+  /**
+   * Write a collection of cluster tasks to the store using their ids. Either all tasks are written or none are.
+   * @param clusterTasks The cluster tasks to write.
+   * @throws TaskException if there was a problem writing the cluster tasks.
+   */
+  void writeClusterTasks(Collection<ClusterTask> clusterTasks) throws TaskException;
+
   /**
    * Deletes the cluster task that has the given id.
    * @param taskId Id of the cluster task to delete.
@@ -173,6 +251,13 @@ public interface ClusterStore {
    */
   void writeNode(Node node) throws Exception;
 
+  /**
+   * Write the given nodes to the store. Either all nodes are written or none are.
+   * @param nodes The nodes to write.
+   * @throws Exception if there was a problem writing the nodes.
+   */
+  void writeNodes(Collection<Node> nodes) throws Exception;
+
   /**
    * Delete the node with the given id.
    * @param nodeId Id of the node to delete.
@@ -191,7 +276,7 @@ public interface ClusterStore {
   /**
    * Get all nodes specified in the input set.
    * @param nodeIds Set of ids of all nodes to fetch.
-   * @return Set of nodes matching the input node ids. Values may include nulls if the node did not exist.
+   * @return Set of nodes matching the input node ids. Node ids without a node are not included.
    * @throws Exception if there was a problem getting the nodes.
    */
   Set<Node> getNodes(Set<String> nodeIds) throws Exception;
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.cluster.ClusterSummary;
+
+/**
+ * Receives cluster summaries one at a time as they are read from a {@link ClusterStore}.
+ */
+public interface ClusterSummaryConsumer {
+
+  /**
+   * Consume the summary of a cluster. Throwing an exception stops the read.
+   *
+   * @param summary Summary of the cluster.
+   * @throws Exception if there was a problem consuming the summary.
+   */
+  void consume(ClusterSummary summary) throws Exception;
+}
@@ -34,6 +34,7 @@ public class DBConnectionPool {
   private static final Logger LOG  = LoggerFactory.getLogger(DBConnectionPool.class);
   private final DataSource datasource;
   private final boolean isEmbeddedDerbyDB;
+  private volatile DBDialect dialect;
 
   @Inject
   DBConnectionPool(Configuration conf) throws SQLException, ClassNotFoundException {
@@ -44,6 +45,8 @@ public class DBConnectionPool {
     String validationQuery = conf.get(Constants.DB_VALIDATION_QUERY);
     int maxConnections = conf.getInt(Constants.DB_MAX_ACTIVE_CONNECTIONS,
                                      Constants.DEFAULT_DB_MAX_ACTIVE_CONNECTIONS);
+    int statementCacheSize = conf.getInt(Constants.DB_STATEMENT_CACHE_SIZE, Constants.DEFAULT_DB_STATEMENT_CACHE_SIZE);
+    String dialectName = conf.get(Constants.DB_DIALECT);
 
     if (driverClass == null || connectionString == null) {
       String localDataDir = conf.get(Constants.LOCAL_DATA_DIR, Constants.DEFAULT_LOCAL_DATA_DIR);
@@ -95,13 +98,22 @@ public class DBConnectionPool {
     poolProperties.setMinIdle(10);
     poolProperties.setLogAbandoned(false);
     poolProperties.setRemoveAbandoned(true);
-    poolProperties.setJdbcInterceptors("org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;" +
-                                         "org.apache.tomcat.jdbc.pool.interceptor.StatementFinalizer");
+    String interceptors = "org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;" +
+      "org.apache.tomcat.jdbc.pool.interceptor.StatementFinalizer";
+    if (statementCacheSize > 0) {
+      // closing a prepared statement returns it to the cache of its connection instead of closing it.
+      interceptors += ";org.apache.tomcat.jdbc.pool.interceptor.StatementCache(prepared=true,callable=false,max=" +
+        statementCacheSize + ")";
+    }
+    poolProperties.setJdbcInterceptors(interceptors);
     poolProperties.setDbProperties(properties);
 
     this.datasource = new DataSource();
     datasource.setPoolProperties(poolProperties);
     this.isEmbeddedDerbyDB = driverClass == Constants.DEFAULT_JDBC_DRIVER;
+    if (dialectName != null) {
+      this.dialect = DBDialect.valueOf(dialectName.toUpperCase());
+    }
   }
 
   /**
@@ -113,6 +125,26 @@ public class DBConnectionPool {
     return isEmbeddedDerbyDB;
   }
 
+  /**
+   * Get the SQL dialect of the database. Detected from the database metadata the first time it is called, unless it
+   * was given in the configuration.
+   *
+   * @return SQL dialect of the database.
+   * @throws SQLException if there was a problem detecting the dialect.
+   */
+  public DBDialect getDialect() throws SQLException {
+    if (dialect == null) {
+      Connection conn = getConnection();
+      try {
+        dialect = DBDialect.fromMetaData(conn.getMetaData());
+      } finally {
+        conn.close();
+      }
+      LOG.info("Using {} SQL dialect.", dialect);
+    }
+    return dialect;
+  }
+
   /**
    * Get a {@link Connection} from the pool.
    *
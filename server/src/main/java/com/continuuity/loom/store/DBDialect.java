@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+/**
+ * Databases whose SQL differs in ways that matter to the stores. Only used to decide whether a database has a native
+ * insert-or-update statement, see {@link Upsert}.
+ */
+public enum DBDialect {
+  /**
+   * MySQL, which supports INSERT ... ON DUPLICATE KEY UPDATE.
+   */
+  MYSQL,
+  /**
+   * PostgreSQL 9.5 or later, which supports INSERT ... ON CONFLICT DO UPDATE.
+   */
+  POSTGRESQL,
+  /**
+   * Any other database, or older versions of the ones above. Only standard SQL is used. Also used for Derby, since
+   * its MERGE statement fails when the same statement runs concurrently in different connections.
+   */
+  GENERIC;
+
+  /**
+   * Get the dialect to use for a database given its metadata.
+   *
+   * @param metaData Metadata of the database.
+   * @return Dialect to use for the database.
+   * @throws SQLException if there was a problem reading the metadata.
+   */
+  public static DBDialect fromMetaData(DatabaseMetaData metaData) throws SQLException {
+    String productName = metaData.getDatabaseProductName();
+    int majorVersion = metaData.getDatabaseMajorVersion();
+    int minorVersion = metaData.getDatabaseMinorVersion();
+    if ("MySQL".equals(productName)) {
+      return MYSQL;
+    } else if ("PostgreSQL".equals(productName)) {
+      return isAtLeast(majorVersion, minorVersion, 9, 5) ? POSTGRESQL : GENERIC;
+    }
+    return GENERIC;
+  }
+
+  private static boolean isAtLeast(int major, int minor, int minMajor, int minMinor) {
+    return major > minMajor || (major == minMajor && minor >= minMinor);
+  }
+}
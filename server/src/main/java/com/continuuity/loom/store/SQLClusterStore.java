@@ -16,29 +16,31 @@
 package com.continuuity.loom.store;
 
 import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.cluster.Node;
-import com.continuuity.loom.codec.json.JsonSerde;
 import com.continuuity.loom.conf.Constants;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.ClusterTask;
 import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskCounts;
 import com.continuuity.loom.scheduler.task.TaskException;
 import com.continuuity.loom.scheduler.task.TaskId;
-import com.google.common.base.Charsets;
+import com.continuuity.loom.scheduler.task.TaskStatus;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.io.Closeables;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.apache.twill.zookeeper.ZKClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import javax.annotation.Nullable;
 import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -46,6 +48,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,9 +59,57 @@ import java.util.Set;
  */
 public class SQLClusterStore extends BaseClusterStore {
   private static final Logger LOG  = LoggerFactory.getLogger(SQLClusterStore.class);
-  private static final JsonSerde codec = new JsonSerde();
+  // maximum number of keys to look up in a single query.
+  private static final int MAX_LOOKUP_SIZE = 256;
+  // columns read to build a ClusterSummary, in the order they are read.
+  private static final String SUMMARY_COLUMNS =
+    "id, owner_id, name, create_time, expire_time, template_name, num_nodes, latest_job_id, status";
+  // statements to upgrade the derby tables to each version of the schema.
+  static final List<List<String>> SCHEMA = ImmutableList.<List<String>>of(
+    ImmutableList.of(
+      "CREATE TABLE clusters ( id BIGINT, owner_id VARCHAR(255), name VARCHAR(255), create_time TIMESTAMP," +
+        " expire_time TIMESTAMP, status VARCHAR(32), cluster BLOB )",
+      "CREATE TABLE jobs ( cluster_id BIGINT, job_num BIGINT, status VARCHAR(32), create_time TIMESTAMP, job BLOB)",
+      "CREATE TABLE tasks ( cluster_id BIGINT, job_num BIGINT, task_num BIGINT, submit_time TIMESTAMP," +
+        " status_time TIMESTAMP, status VARCHAR(32), task BLOB )",
+      "CREATE TABLE nodes ( cluster_id BIGINT, id VARCHAR(64), node BLOB )"
+    ),
+    ImmutableList.of(
+      "ALTER TABLE clusters ALTER COLUMN id NOT NULL",
+      "ALTER TABLE clusters ADD CONSTRAINT clusters_pk PRIMARY KEY (id)",
+      "CREATE INDEX clusters_owner_index ON clusters (owner_id, create_time)",
+      "CREATE INDEX clusters_create_time_index ON clusters (create_time)",
+      "CREATE INDEX clusters_status_index ON clusters (status, expire_time)",
+      "ALTER TABLE jobs ALTER COLUMN cluster_id NOT NULL",
+      "ALTER TABLE jobs ALTER COLUMN job_num NOT NULL",
+      "ALTER TABLE jobs ADD CONSTRAINT jobs_pk PRIMARY KEY (cluster_id, job_num)",
+      "ALTER TABLE tasks ALTER COLUMN cluster_id NOT NULL",
+      "ALTER TABLE tasks ALTER COLUMN job_num NOT NULL",
+      "ALTER TABLE tasks ALTER COLUMN task_num NOT NULL",
+      "ALTER TABLE tasks ADD CONSTRAINT tasks_pk PRIMARY KEY (cluster_id, job_num, task_num)",
+      "CREATE INDEX tasks_status_index ON tasks (status, submit_time)",
+      "ALTER TABLE nodes ALTER COLUMN id NOT NULL",
+      "ALTER TABLE nodes ADD CONSTRAINT nodes_pk PRIMARY KEY (id)",
+      "CREATE INDEX nodes_cluster_index ON nodes (cluster_id)"
+    ),
+    ImmutableList.of(
+      "ALTER TABLE clusters ADD COLUMN template_name VARCHAR(255)",
+      "ALTER TABLE clusters ADD COLUMN num_nodes INTEGER",
+      "ALTER TABLE clusters ADD COLUMN latest_job_id VARCHAR(255)"
+    ),
+    ImmutableList.of(
+      "ALTER TABLE jobs ADD COLUMN tasks_in_progress INTEGER DEFAULT 0",
+      "ALTER TABLE jobs ADD COLUMN tasks_completed INTEGER DEFAULT 0",
+      "ALTER TABLE jobs ADD COLUMN tasks_failed INTEGER DEFAULT 0"
+    )
+  );
 
   private final DBConnectionPool dbConnectionPool;
+  private final BlobSerde blobSerde;
+  private final Upsert clusterUpsert;
+  private final Upsert jobUpsert;
+  private final Upsert taskUpsert;
+  private final Upsert nodeUpsert;
 
   // for unit tests only.  Truncate is not supported in derby.
   public void clearData() throws SQLException {
@@ -80,40 +132,76 @@ public class SQLClusterStore extends BaseClusterStore {
     }
   }
 
+  // writes blobs in the default format.
+  SQLClusterStore(ZKClient zkClient, DBConnectionPool dbConnectionPool, long startId,
+                  long incrementBy) throws SQLException, ClassNotFoundException {
+    this(zkClient, dbConnectionPool, startId, incrementBy,
+         BlobSerde.Format.fromName(Constants.DEFAULT_CLUSTER_STORE_BLOB_FORMAT));
+  }
+
   @Inject
   SQLClusterStore(ZKClient zkClient, DBConnectionPool dbConnectionPool,
                   @Named(Constants.ID_START_NUM) long startId,
-                  @Named(Constants.ID_INCREMENT_BY) long incrementBy) throws SQLException, ClassNotFoundException {
+                  @Named(Constants.ID_INCREMENT_BY) long incrementBy,
+                  @Named(Constants.CLUSTER_STORE_BLOB_FORMAT) BlobSerde.Format blobFormat)
+    throws SQLException, ClassNotFoundException {
     super(zkClient, startId, incrementBy);
     this.dbConnectionPool = dbConnectionPool;
+    this.blobSerde = new BlobSerde(blobFormat);
 
     if (dbConnectionPool.isEmbeddedDerbyDB()) {
       initDerbyDB();
     }
+
+    DBDialect dialect = dbConnectionPool.getDialect();
+    this.clusterUpsert = new Upsert(
+      dialect, "clusters",
+      ImmutableList.of(new Upsert.Column("id", Types.BIGINT)),
+      ImmutableList.of(new Upsert.Column("name", Types.VARCHAR), new Upsert.Column("create_time", Types.TIMESTAMP)),
+      ImmutableList.of(new Upsert.Column("owner_id", Types.VARCHAR), new Upsert.Column("status", Types.VARCHAR),
+                       new Upsert.Column("expire_time", Types.TIMESTAMP), new Upsert.Column("cluster", Types.BLOB),
+                       new Upsert.Column("template_name", Types.VARCHAR), new Upsert.Column("num_nodes", Types.INTEGER),
+                       new Upsert.Column("latest_job_id", Types.VARCHAR)));
+    this.jobUpsert = new Upsert(
+      dialect, "jobs",
+      ImmutableList.of(new Upsert.Column("job_num", Types.BIGINT), new Upsert.Column("cluster_id", Types.BIGINT)),
+      ImmutableList.of(new Upsert.Column("create_time", Types.TIMESTAMP)),
+      ImmutableList.of(new Upsert.Column("status", Types.VARCHAR), new Upsert.Column("job", Types.BLOB)));
+    this.taskUpsert = new Upsert(
+      dialect, "tasks",
+      ImmutableList.of(new Upsert.Column("task_num", Types.BIGINT), new Upsert.Column("job_num", Types.BIGINT),
+                       new Upsert.Column("cluster_id", Types.BIGINT)),
+      ImmutableList.<Upsert.Column>of(),
+      ImmutableList.of(new Upsert.Column("status", Types.VARCHAR), new Upsert.Column("submit_time", Types.TIMESTAMP),
+                       new Upsert.Column("status_time", Types.TIMESTAMP), new Upsert.Column("task", Types.BLOB)));
+    this.nodeUpsert = new Upsert(
+      dialect, "nodes",
+      ImmutableList.of(new Upsert.Column("id", Types.VARCHAR)),
+      ImmutableList.of(new Upsert.Column("cluster_id", Types.BIGINT)),
+      ImmutableList.of(new Upsert.Column("node", Types.BLOB)));
+
+    fillClusterSummaries();
   }
 
   public void initDerbyDB() throws SQLException {
-    LOG.warn("Initializing Derby DB... Tables are not optimized for performance.");
-
-    createDerbyTable("CREATE TABLE clusters ( id BIGINT, owner_id VARCHAR(255), name VARCHAR(255)," +
-                       " create_time TIMESTAMP, expire_time TIMESTAMP, status VARCHAR(32), cluster BLOB )");
-    createDerbyTable("CREATE TABLE jobs ( cluster_id BIGINT, job_num BIGINT, status VARCHAR(32)," +
-                       " create_time TIMESTAMP, job BLOB)");
-    createDerbyTable("CREATE TABLE tasks ( cluster_id BIGINT, job_num BIGINT, task_num BIGINT, submit_time TIMESTAMP,"
-                       + " status_time TIMESTAMP, status VARCHAR(32), task BLOB )");
-    createDerbyTable("CREATE TABLE nodes ( cluster_id BIGINT, id VARCHAR(64), node BLOB )");
+    new SchemaMigrator(dbConnectionPool, "clusters", SCHEMA).migrate();
   }
 
-  private void createDerbyTable(String createString) throws SQLException {
+  @Override
+  public List<Cluster> getAllClusters() throws Exception {
+    List<Cluster> clusters = Lists.newArrayList();
     Connection conn = dbConnectionPool.getConnection();
     try {
       Statement statement = conn.createStatement();
       try {
-        statement.executeUpdate(createString);
-      } catch (SQLException e) {
-        // code for the table already exists in derby.
-        if (!e.getSQLState().equals("X0Y32")) {
-          throw Throwables.propagate(e);
+        ResultSet rs = statement.executeQuery("SELECT cluster FROM clusters ORDER BY create_time DESC");
+        try {
+          while (rs.next()) {
+            Blob blob = rs.getBlob(1);
+            clusters.add(deserializeBlob(blob, Cluster.class));
+          }
+        } finally {
+          rs.close();
         }
       } finally {
         statement.close();
@@ -121,16 +209,19 @@ public class SQLClusterStore extends BaseClusterStore {
     } finally {
       conn.close();
     }
+    return clusters;
   }
 
   @Override
-  public List<Cluster> getAllClusters() throws Exception {
+  public List<Cluster> getAllClusters(String ownerId) throws Exception {
     List<Cluster> clusters = Lists.newArrayList();
     Connection conn = dbConnectionPool.getConnection();
     try {
-      Statement statement = conn.createStatement();
+      PreparedStatement statement =
+        conn.prepareStatement("SELECT cluster FROM clusters WHERE owner_id=? ORDER BY create_time DESC");
+      statement.setString(1, ownerId);
       try {
-        ResultSet rs = statement.executeQuery("SELECT cluster FROM clusters ORDER BY create_time DESC");
+        ResultSet rs = statement.executeQuery();
         try {
           while (rs.next()) {
             Blob blob = rs.getBlob(1);
@@ -149,19 +240,75 @@ public class SQLClusterStore extends BaseClusterStore {
   }
 
   @Override
-  public List<Cluster> getAllClusters(String ownerId) throws Exception {
-    List<Cluster> clusters = Lists.newArrayList();
+  public List<ClusterSummary> getAllClusterSummaries() throws Exception {
+    return getClusterSummaries(ClusterFilter.ALL, null, 0);
+  }
+
+  @Override
+  public List<ClusterSummary> getAllClusterSummaries(String ownerId) throws Exception {
+    return getClusterSummaries(ClusterFilter.ownedBy(ownerId), null, 0);
+  }
+
+  @Override
+  public List<ClusterSummary> getClusterSummaries(ClusterFilter filter, @Nullable ClusterCursor after,
+                                                  int limit) throws Exception {
+    final List<ClusterSummary> summaries = Lists.newArrayList();
+    scanClusterSummaries(filter, after, limit, new ClusterSummaryConsumer() {
+      @Override
+      public void consume(ClusterSummary summary) {
+        summaries.add(summary);
+      }
+    });
+    return summaries;
+  }
+
+  @Override
+  public void scanClusterSummaries(ClusterFilter filter, @Nullable ClusterCursor after, int limit,
+                                   ClusterSummaryConsumer consumer) throws Exception {
+    // the filter is pushed down into the query, only the conditions that are set are added to it.
+    List<String> conditions = Lists.newArrayList();
+    List<Object> params = Lists.newArrayList();
+    if (filter.getOwnerId() != null) {
+      conditions.add("owner_id=?");
+      params.add(filter.getOwnerId());
+    }
+    if (!filter.getStatuses().isEmpty()) {
+      conditions.add("status IN (" + getPlaceholders(filter.getStatuses().size()) + ")");
+      for (Cluster.Status status : filter.getStatuses()) {
+        params.add(status.name());
+      }
+    }
+    if (filter.getTemplate() != null) {
+      conditions.add("template_name=?");
+      params.add(filter.getTemplate());
+    }
+    if (after != null) {
+      // the first condition on its own can be answered from the create time index.
+      conditions.add("create_time<=? AND (create_time<? OR id<?)");
+      params.add(new Timestamp(after.getCreateTime()));
+      params.add(new Timestamp(after.getCreateTime()));
+      params.add(after.getClusterId());
+    }
+    StringBuilder sql = new StringBuilder("SELECT ").append(SUMMARY_COLUMNS).append(" FROM clusters");
+    if (!conditions.isEmpty()) {
+      sql.append(" WHERE ").append(Joiner.on(" AND ").join(conditions));
+    }
+    sql.append(" ORDER BY create_time DESC, id DESC");
+
     Connection conn = dbConnectionPool.getConnection();
     try {
-      PreparedStatement statement =
-        conn.prepareStatement("SELECT cluster FROM clusters WHERE owner_id=? ORDER BY create_time DESC");
-      statement.setString(1, ownerId);
+      PreparedStatement statement = conn.prepareStatement(sql.toString());
       try {
+        for (int i = 0; i < params.size(); i++) {
+          statement.setObject(i + 1, params.get(i));
+        }
+        if (limit > 0) {
+          statement.setMaxRows(limit);
+        }
         ResultSet rs = statement.executeQuery();
         try {
           while (rs.next()) {
-            Blob blob = rs.getBlob(1);
-            clusters.add(deserializeBlob(blob, Cluster.class));
+            consumer.consume(getClusterSummary(rs));
           }
         } finally {
           rs.close();
@@ -172,7 +319,6 @@ public class SQLClusterStore extends BaseClusterStore {
     } finally {
       conn.close();
     }
-    return clusters;
   }
 
   @Override
@@ -232,51 +378,13 @@ public class SQLClusterStore extends BaseClusterStore {
 
   @Override
   public void writeCluster(Cluster cluster) throws Exception {
-    // sticking with standard sql... this could be done in one step with replace, or with
-    // insert ... on duplicate key update with mysql.
-    long clusterNum = Long.valueOf(cluster.getId());
     Connection conn = dbConnectionPool.getConnection();
     try {
-      PreparedStatement checkStatement = conn.prepareStatement("SELECT id FROM clusters WHERE id=?");
-      checkStatement.setLong(1, clusterNum);
-      PreparedStatement writeStatement;
-      try {
-        ResultSet rs = checkStatement.executeQuery();
-        try {
-          if (rs.next()) {
-            // cluster exists already, perform an update.
-            writeStatement = conn.prepareStatement(
-              "UPDATE clusters SET cluster=?, owner_id=?, status=?, expire_time = ? WHERE id=?");
-            writeStatement.setBlob(1, new ByteArrayInputStream(codec.serialize(cluster, Cluster.class)));
-            writeStatement.setString(2, cluster.getOwnerId());
-            writeStatement.setString(3, cluster.getStatus().name());
-            writeStatement.setTimestamp(4, getTimestamp(cluster.getExpireTime()));
-            writeStatement.setLong(5, clusterNum);
-          } else {
-            // cluster does not exist, perform an insert.
-            writeStatement = conn.prepareStatement(
-              "INSERT INTO clusters (id, owner_id, NAME, create_time, expire_time, status, cluster) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?)");
-            writeStatement.setLong(1, clusterNum);
-            writeStatement.setString(2, cluster.getOwnerId());
-            writeStatement.setString(3, cluster.getName());
-            writeStatement.setTimestamp(4, getTimestamp(cluster.getCreateTime()));
-            writeStatement.setTimestamp(5, getTimestamp(cluster.getExpireTime()));
-            writeStatement.setString(6, cluster.getStatus().name());
-            writeStatement.setBlob(7, new ByteArrayInputStream(codec.serialize(cluster, Cluster.class)));
-          }
-        } finally {
-          rs.close();
-        }
-        // perform the update or insert
-        try {
-          writeStatement.executeUpdate();
-        } finally {
-          writeStatement.close();
-        }
-      } finally {
-        checkStatement.close();
-      }
+      ClusterSummary summary = ClusterSummary.fromCluster(cluster);
+      clusterUpsert.write(conn, Long.valueOf(cluster.getId()), cluster.getName(),
+                          getTimestamp(cluster.getCreateTime()), cluster.getOwnerId(), cluster.getStatus().name(),
+                          getTimestamp(cluster.getExpireTime()), blobSerde.serialize(cluster, Cluster.class),
+                          summary.getClusterTemplate(), summary.getNumNodes(), summary.getLatestJobId());
     } finally {
       conn.close();
     }
@@ -340,52 +448,47 @@ public class SQLClusterStore extends BaseClusterStore {
       return jobMap;
     }
 
-    Map<Long, JobId> clusterIdToJobId = Maps.newHashMap();
+    // looked up per cluster, so that every job matched is one of the given jobs and the job_num part of the primary
+    // key can be used.
+    Map<Long, List<JobId>> clusterJobIds = Maps.newHashMap();
     for (JobId jobId : jobIds) {
-      clusterIdToJobId.put(Long.valueOf(jobId.getClusterId()), jobId);
+      Long clusterId = Long.parseLong(jobId.getClusterId());
+      List<JobId> ids = clusterJobIds.get(clusterId);
+      if (ids == null) {
+        ids = Lists.newArrayList();
+        clusterJobIds.put(clusterId, ids);
+      }
+      ids.add(jobId);
     }
 
-    ClusterJob job;
     try {
       Connection conn = dbConnectionPool.getConnection();
       try {
-
-        int bufferSize = jobIds.size();
-
-        StringBuilder looperString = new StringBuilder(bufferSize * 3);
-        for (int i = 0; i < bufferSize; i++) {
-          looperString.append("?, ");
-        }
-        looperString.setLength(looperString.length() - 2);
-
-        String preparedStatementString =
-          "SELECT cluster_id, job FROM jobs WHERE job_num IN (" + looperString.toString() +
-            ") AND cluster_id IN (" + looperString.toString() + ")";
-
-        PreparedStatement statement = conn.prepareStatement(preparedStatementString);
-
-        // TODO: This method currently has a limit of 10k items. Fix this using a table join
-        int count = 1;
-        for (JobId jobId : jobIds) {
-          statement.setLong(count, jobId.getJobNum());
-          statement.setLong(bufferSize + count, Long.parseLong(jobId.getClusterId()));
-          count++;
-        }
-
-        try {
-          ResultSet rs = statement.executeQuery();
-          try {
-            while (rs.next()) {
-              long clusterId = rs.getLong(1);
-              Blob blob = rs.getBlob(2);
-              job = deserializeBlob(blob, ClusterJob.class);
-              jobMap.put(clusterIdToJobId.get(clusterId), job);
+        for (Map.Entry<Long, List<JobId>> entry : clusterJobIds.entrySet()) {
+          for (List<JobId> keys : Iterables.partition(entry.getValue(), MAX_LOOKUP_SIZE)) {
+            int lookupSize = getLookupSize(keys.size());
+            Map<Long, JobId> numToJobId = Maps.newHashMapWithExpectedSize(keys.size());
+            PreparedStatement statement = conn.prepareStatement(
+              "SELECT job_num, job FROM jobs WHERE cluster_id=? AND job_num IN (" + getPlaceholders(lookupSize) + ")");
+            try {
+              statement.setLong(1, entry.getKey());
+              for (int i = 0; i < lookupSize; i++) {
+                JobId jobId = keys.get(Math.min(i, keys.size() - 1));
+                numToJobId.put(jobId.getJobNum(), jobId);
+                statement.setLong(i + 2, jobId.getJobNum());
+              }
+              ResultSet rs = statement.executeQuery();
+              try {
+                while (rs.next()) {
+                  jobMap.put(numToJobId.get(rs.getLong(1)), deserializeBlob(rs.getBlob(2), ClusterJob.class));
+                }
+              } finally {
+                rs.close();
+              }
+            } finally {
+              statement.close();
             }
-          } finally {
-            rs.close();
           }
-        } finally {
-          statement.close();
         }
       } finally {
         conn.close();
@@ -400,48 +503,12 @@ public class SQLClusterStore extends BaseClusterStore {
   @Override
   public void writeClusterJob(ClusterJob clusterJob) throws TaskException {
     JobId jobId = JobId.fromString(clusterJob.getJobId());
-    long clusterId = Long.valueOf(jobId.getClusterId());
     try {
       Connection conn = dbConnectionPool.getConnection();
       try {
-        PreparedStatement checkStatement =
-          conn.prepareStatement("SELECT job_num FROM jobs WHERE job_num=? AND cluster_id=?");
-        checkStatement.setLong(1, jobId.getJobNum());
-        checkStatement.setLong(2, Long.valueOf(jobId.getClusterId()));
-        PreparedStatement writeStatement;
-        try {
-          ResultSet rs = checkStatement.executeQuery();
-          try {
-            if (rs.next()) {
-              // cluster exists already, perform an update.
-              writeStatement =
-                conn.prepareStatement("UPDATE jobs SET job=?, status=? WHERE job_num=? AND cluster_id=?");
-              writeStatement.setBlob(1, new ByteArrayInputStream(codec.serialize(clusterJob, ClusterJob.class)));
-              writeStatement.setString(2, clusterJob.getJobStatus().name());
-              writeStatement.setLong(3, jobId.getJobNum());
-              writeStatement.setLong(4, clusterId);
-            } else {
-              // cluster does not exist, perform an insert.
-              writeStatement = conn.prepareStatement(
-                "INSERT INTO jobs (job_num, cluster_id, status, create_time, job) VALUES (?, ?, ?, ?, ?)");
-              writeStatement.setLong(1, jobId.getJobNum());
-              writeStatement.setLong(2, clusterId);
-              writeStatement.setString(3, clusterJob.getJobStatus().name());
-              writeStatement.setTimestamp(4, getTimestamp(System.currentTimeMillis()));
-              writeStatement.setBlob(5, new ByteArrayInputStream(codec.serialize(clusterJob, ClusterJob.class)));
-            }
-          } finally {
-            rs.close();
-          }
-          // perform the update or insert
-          try {
-            writeStatement.executeUpdate();
-          } finally {
-            writeStatement.close();
-          }
-        } finally {
-          checkStatement.close();
-        }
+        jobUpsert.write(conn, jobId.getJobNum(), Long.valueOf(jobId.getClusterId()),
+                        getTimestamp(System.currentTimeMillis()), clusterJob.getJobStatus().name(),
+                        blobSerde.serialize(clusterJob, ClusterJob.class));
       } finally {
         conn.close();
       }
@@ -471,6 +538,38 @@ public class SQLClusterStore extends BaseClusterStore {
     }
   }
 
+  @Override
+  public TaskCounts getTaskCounts(JobId jobId) throws TaskException {
+    TaskCounts counts = null;
+    try {
+      Connection conn = dbConnectionPool.getConnection();
+      try {
+        PreparedStatement statement = conn.prepareStatement(
+          "SELECT tasks_in_progress, tasks_completed, tasks_failed FROM jobs WHERE job_num=? AND cluster_id=?");
+        statement.setLong(1, jobId.getJobNum());
+        statement.setLong(2, Long.valueOf(jobId.getClusterId()));
+        try {
+          ResultSet rs = statement.executeQuery();
+          try {
+            if (rs.next()) {
+              counts = new TaskCounts(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+            }
+          } finally {
+            rs.close();
+          }
+        } finally {
+          statement.close();
+        }
+      } finally {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      LOG.error("Exception getting task counts for job {}", jobId, e);
+      throw new TaskException("Exception getting task counts for job " + jobId, e);
+    }
+    return counts;
+  }
+
   @Override
   public ClusterTask getClusterTask(TaskId taskId) throws TaskException {
     ClusterTask task = null;
@@ -506,60 +605,97 @@ public class SQLClusterStore extends BaseClusterStore {
   }
 
   @Override
-  public void writeClusterTask(ClusterTask clusterTask) throws TaskException {
-    TaskId taskId = TaskId.fromString(clusterTask.getTaskId());
-    long clusterId = Long.valueOf(taskId.getClusterId());
+  public Map<TaskId, ClusterTask> getClusterTasks(Set<TaskId> taskIds) throws TaskException {
+    final Map<TaskId, ClusterTask> taskMap = Maps.newHashMap();
+
+    if (taskIds.isEmpty()) {
+      return taskMap;
+    }
+
+    // tasks are looked up one job at a time, so that they are matched on their whole primary key.
+    Map<String, List<TaskId>> jobTaskIds = Maps.newHashMap();
+    Map<String, JobId> jobIds = Maps.newHashMap();
+    for (TaskId taskId : taskIds) {
+      String jobKey = getJobKey(Long.parseLong(taskId.getClusterId()), taskId.getJobNum());
+      List<TaskId> ids = jobTaskIds.get(jobKey);
+      if (ids == null) {
+        ids = Lists.newArrayList();
+        jobTaskIds.put(jobKey, ids);
+        jobIds.put(jobKey, taskId.getJobId());
+      }
+      ids.add(taskId);
+    }
+
     try {
       Connection conn = dbConnectionPool.getConnection();
       try {
-        PreparedStatement checkStatement =
-          conn.prepareStatement("SELECT task_num FROM tasks WHERE task_num=? AND job_num=? AND cluster_id=?");
-        checkStatement.setLong(1, taskId.getTaskNum());
-        checkStatement.setLong(2, taskId.getJobNum());
-        checkStatement.setLong(3, clusterId);
-        PreparedStatement writeStatement;
-        try {
-          ResultSet rs = checkStatement.executeQuery();
-          try {
-            if (rs.next()) {
-              // task exists already, perform an update.
-              writeStatement = conn.prepareStatement(
-                "UPDATE tasks SET task=?, status=?, submit_time=?, status_time=?" +
-                  " WHERE task_num=? AND job_num=? AND cluster_id=?");
-              writeStatement.setBlob(1, new ByteArrayInputStream(codec.serialize(clusterTask, ClusterTask.class)));
-              writeStatement.setString(2, clusterTask.getStatus().name());
-              writeStatement.setTimestamp(3, getTimestamp(clusterTask.getSubmitTime()));
-              writeStatement.setTimestamp(4, getTimestamp(clusterTask.getStatusTime()));
-              writeStatement.setLong(5, taskId.getTaskNum());
-              writeStatement.setLong(6, taskId.getJobNum());
-              writeStatement.setLong(7, clusterId);
-            } else {
-              // task does not exist, perform an insert.
-              writeStatement = conn.prepareStatement(
-                "INSERT INTO tasks (task_num, job_num, cluster_id, status, submit_time, task)" +
-                  " VALUES (?, ?, ?, ?, ?, ?)");
-              writeStatement.setLong(1, taskId.getTaskNum());
-              writeStatement.setLong(2, taskId.getJobNum());
-              writeStatement.setLong(3, clusterId);
-              writeStatement.setString(4, clusterTask.getStatus().name());
-              writeStatement.setTimestamp(5, getTimestamp(clusterTask.getSubmitTime()));
-              writeStatement.setBlob(6, new ByteArrayInputStream(codec.serialize(clusterTask, ClusterTask.class)));
+        for (Map.Entry<String, List<TaskId>> entry : jobTaskIds.entrySet()) {
+          lookupJobTasks(conn, jobIds.get(entry.getKey()), entry.getValue(), "task", new TaskRowReader() {
+            @Override
+            public void read(TaskId taskId, ResultSet rs) throws SQLException {
+              taskMap.put(taskId, deserializeBlob(rs.getBlob(2), ClusterTask.class));
             }
-          } finally {
-            rs.close();
-          }
-          // perform the update or insert
-          try {
-            writeStatement.executeUpdate();
-          } finally {
-            writeStatement.close();
-          }
-        } finally {
-          checkStatement.close();
+          });
         }
       } finally {
         conn.close();
       }
+    } catch (SQLException e) {
+      LOG.error("Exception getting tasks for multiple jobs", e);
+      throw new TaskException("Exception getting cluster tasks for multiple jobs", e);
+    }
+    return taskMap;
+  }
+
+  @Override
+  public Map<TaskId, TaskStatus> getTaskStatuses(JobId jobId, Set<TaskId> taskIds) throws TaskException {
+    final Map<TaskId, TaskStatus> statusMap = Maps.newHashMap();
+
+    if (taskIds.isEmpty()) {
+      return statusMap;
+    }
+    for (TaskId taskId : taskIds) {
+      Preconditions.checkArgument(taskId.getJobId().getId().equals(jobId.getId()),
+                                  "task %s is not a part of job %s", taskId, jobId);
+    }
+
+    try {
+      Connection conn = dbConnectionPool.getConnection();
+      try {
+        lookupJobTasks(conn, jobId, taskIds, "status, status_time", new TaskRowReader() {
+          @Override
+          public void read(TaskId taskId, ResultSet rs) throws SQLException {
+            Timestamp statusTime = rs.getTimestamp(3);
+            statusMap.put(taskId, new TaskStatus(ClusterTask.Status.valueOf(rs.getString(2)),
+                                                 statusTime == null ? 0 : statusTime.getTime()));
+          }
+        });
+      } finally {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      LOG.error("Exception getting task statuses for job {}", jobId, e);
+      throw new TaskException("Exception getting task statuses for job " + jobId, e);
+    }
+    return statusMap;
+  }
+
+  @Override
+  public void writeClusterTask(ClusterTask clusterTask) throws TaskException {
+    try {
+      writeTasks(ImmutableList.of(clusterTask));
+    } catch (SQLException e) {
+      throw new TaskException(e);
+    }
+  }
+
+  @Override
+  public void writeClusterTasks(Collection<ClusterTask> clusterTasks) throws TaskException {
+    if (clusterTasks.isEmpty()) {
+      return;
+    }
+    try {
+      writeTasks(clusterTasks);
     } catch (SQLException e) {
       throw new TaskException(e);
     }
@@ -570,15 +706,41 @@ public class SQLClusterStore extends BaseClusterStore {
     try {
       Connection conn = dbConnectionPool.getConnection();
       try {
-        PreparedStatement statement =
-          conn.prepareStatement("DELETE FROM tasks WHERE task_num=? AND cluster_id=? AND job_num=?");
-        statement.setLong(1, taskId.getTaskNum());
-        statement.setLong(2, Long.valueOf(taskId.getClusterId()));
-        statement.setLong(3, taskId.getJobNum());
+        conn.setAutoCommit(false);
         try {
-          statement.executeUpdate();
+          JobId jobId = taskId.getJobId();
+          lockJob(conn, jobId);
+          final Map<TaskId, ClusterTask.Status> oldStatuses = Maps.newHashMap();
+          lookupJobTasks(conn, jobId, ImmutableList.of(taskId), "status", new TaskRowReader() {
+            @Override
+            public void read(TaskId id, ResultSet rs) throws SQLException {
+              oldStatuses.put(id, ClusterTask.Status.valueOf(rs.getString(2)));
+            }
+          });
+
+          PreparedStatement statement =
+            conn.prepareStatement("DELETE FROM tasks WHERE task_num=? AND cluster_id=? AND job_num=?");
+          statement.setLong(1, taskId.getTaskNum());
+          statement.setLong(2, Long.valueOf(taskId.getClusterId()));
+          statement.setLong(3, taskId.getJobNum());
+          try {
+            statement.executeUpdate();
+          } finally {
+            statement.close();
+          }
+
+          // only the in progress count describes the tasks as they are now. Completed and failed counts are counts of
+          // things that happened, which deleting the task does not undo, and they must only grow for the job context
+          // cache to see every change.
+          if (oldStatuses.get(taskId) == ClusterTask.Status.IN_PROGRESS) {
+            addTaskCounts(conn, jobId, -1, 0, 0);
+          }
+          conn.commit();
+        } catch (SQLException e) {
+          conn.rollback();
+          throw e;
         } finally {
-          statement.close();
+          conn.setAutoCommit(true);
         }
       } finally {
         conn.close();
@@ -616,46 +778,26 @@ public class SQLClusterStore extends BaseClusterStore {
 
   @Override
   public void writeNode(Node node) throws Exception {
-    // sticking with standard sql... this could be done in one step with replace, or with
-    // insert ... on duplicate key update with mysql.
     Connection conn = dbConnectionPool.getConnection();
     try {
-      PreparedStatement checkStatement = conn.prepareStatement("SELECT id FROM nodes WHERE id=?");
-      checkStatement.setString(1, node.getId());
-      PreparedStatement writeStatement;
-      try {
-        ResultSet rs = checkStatement.executeQuery();
-        try {
-          if (rs.next()) {
-            // node exists already, perform an update.
-            writeStatement = conn.prepareStatement("UPDATE nodes SET node=? WHERE id=?");
-            writeStatement.setBlob(1, new ByteArrayInputStream(codec.serialize(node, Node.class)));
-            writeStatement.setString(2, node.getId());
-          } else {
-            // node does not exist, perform an insert.
-            writeStatement = conn.prepareStatement(
-              "INSERT INTO nodes (id, cluster_id, node) VALUES (?, ?, ?)");
-            writeStatement.setString(1, node.getId());
-            writeStatement.setLong(2, Long.valueOf(node.getClusterId()));
-            writeStatement.setBlob(3, new ByteArrayInputStream(codec.serialize(node, Node.class)));
-          }
-        } finally {
-          rs.close();
-        }
-        // perform the update or insert
-        try {
-          writeStatement.executeUpdate();
-        } finally {
-          writeStatement.close();
-        }
-      } finally {
-        checkStatement.close();
-      }
+      nodeUpsert.write(conn, getNodeRow(node));
     } finally {
       conn.close();
     }
   }
 
+  @Override
+  public void writeNodes(Collection<Node> nodes) throws Exception {
+    if (nodes.isEmpty()) {
+      return;
+    }
+    List<Object[]> rows = Lists.newArrayListWithCapacity(nodes.size());
+    for (Node node : nodes) {
+      rows.add(getNodeRow(node));
+    }
+    writeBatch(nodeUpsert, rows);
+  }
+
   @Override
   public void deleteNode(String nodeId) throws Exception {
     Connection conn = dbConnectionPool.getConnection();
@@ -702,9 +844,30 @@ public class SQLClusterStore extends BaseClusterStore {
   @Override
   public Set<Node> getNodes(Set<String> nodeIds) throws Exception {
     Set<Node> nodes = Sets.newHashSet();
-    // TODO: Find a better way to pass an array of ids
-    for (String id : nodeIds) {
-      nodes.add(getNode(id));
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      for (List<String> keys : Iterables.partition(nodeIds, MAX_LOOKUP_SIZE)) {
+        int lookupSize = getLookupSize(keys.size());
+        PreparedStatement statement =
+          conn.prepareStatement("SELECT node FROM nodes WHERE id IN (" + getPlaceholders(lookupSize) + ")");
+        try {
+          for (int i = 0; i < lookupSize; i++) {
+            statement.setString(i + 1, keys.get(Math.min(i, keys.size() - 1)));
+          }
+          ResultSet rs = statement.executeQuery();
+          try {
+            while (rs.next()) {
+              nodes.add(deserializeBlob(rs.getBlob(1), Node.class));
+            }
+          } finally {
+            rs.close();
+          }
+        } finally {
+          statement.close();
+        }
+      }
+    } finally {
+      conn.close();
     }
     return nodes;
   }
@@ -769,15 +932,274 @@ public class SQLClusterStore extends BaseClusterStore {
     return clusters;
   }
 
+  private ClusterSummary getClusterSummary(ResultSet rs) throws SQLException {
+    Timestamp createTime = rs.getTimestamp(4);
+    Timestamp expireTime = rs.getTimestamp(5);
+    // ids are stored as numbers, so they are formatted the same way new cluster ids are.
+    return new ClusterSummary(format(rs.getLong(1)), rs.getString(2), rs.getString(3),
+                              createTime == null ? 0 : createTime.getTime(),
+                              expireTime == null ? 0 : expireTime.getTime(),
+                              rs.getString(6), rs.getInt(7), rs.getString(8), Cluster.Status.valueOf(rs.getString(9)));
+  }
+
+  // clusters written before the summary columns were added have them filled in from the cluster itself.
+  private void fillClusterSummaries() throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      List<ClusterSummary> summaries = Lists.newArrayList();
+      Statement select = conn.createStatement();
+      try {
+        ResultSet rs = select.executeQuery("SELECT cluster FROM clusters WHERE num_nodes IS NULL");
+        try {
+          while (rs.next()) {
+            summaries.add(ClusterSummary.fromCluster(deserializeBlob(rs.getBlob(1), Cluster.class)));
+          }
+        } finally {
+          rs.close();
+        }
+      } finally {
+        select.close();
+      }
+      if (summaries.isEmpty()) {
+        return;
+      }
+
+      LOG.info("Filling in summary columns for {} clusters.", summaries.size());
+      PreparedStatement update = conn.prepareStatement(
+        "UPDATE clusters SET template_name=?, num_nodes=?, latest_job_id=? WHERE id=?");
+      try {
+        for (ClusterSummary summary : summaries) {
+          update.setString(1, summary.getClusterTemplate());
+          update.setInt(2, summary.getNumNodes());
+          update.setString(3, summary.getLatestJobId());
+          update.setLong(4, Long.parseLong(summary.getId()));
+          update.addBatch();
+        }
+        update.executeBatch();
+      } finally {
+        update.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  // lookups are padded up to a power of two by repeating the last key, so that only a few distinct statements are
+  // prepared and kept in the statement cache.
+  private static int getLookupSize(int numKeys) {
+    int lookupSize = 1;
+    while (lookupSize < numKeys) {
+      lookupSize <<= 1;
+    }
+    return lookupSize;
+  }
+
+  private static String getPlaceholders(int num) {
+    StringBuilder placeholders = new StringBuilder(num * 3);
+    for (int i = 0; i < num; i++) {
+      placeholders.append(i == 0 ? "?" : ", ?");
+    }
+    return placeholders.toString();
+  }
+
+  private static String getJobKey(long clusterId, long jobNum) {
+    return clusterId + "-" + jobNum;
+  }
+
+  // looks up tasks of a single job by their task numbers, passing each row read to the reader. Rows have the task
+  // number followed by the given columns.
+  private void lookupJobTasks(Connection conn, JobId jobId, Collection<TaskId> taskIds, String columns,
+                              TaskRowReader reader) throws SQLException {
+    Map<Long, TaskId> taskNumToId = Maps.newHashMap();
+    for (TaskId taskId : taskIds) {
+      taskNumToId.put(taskId.getTaskNum(), taskId);
+    }
+
+    for (List<TaskId> keys : Iterables.partition(taskIds, MAX_LOOKUP_SIZE)) {
+      int lookupSize = getLookupSize(keys.size());
+      PreparedStatement statement = conn.prepareStatement(
+        "SELECT task_num, " + columns + " FROM tasks WHERE cluster_id=? AND job_num=? AND task_num IN (" +
+          getPlaceholders(lookupSize) + ")");
+      try {
+        statement.setLong(1, Long.parseLong(jobId.getClusterId()));
+        statement.setLong(2, jobId.getJobNum());
+        for (int i = 0; i < lookupSize; i++) {
+          statement.setLong(i + 3, keys.get(Math.min(i, keys.size() - 1)).getTaskNum());
+        }
+        ResultSet rs = statement.executeQuery();
+        try {
+          while (rs.next()) {
+            TaskId taskId = taskNumToId.get(rs.getLong(1));
+            if (taskId != null) {
+              reader.read(taskId, rs);
+            }
+          }
+        } finally {
+          rs.close();
+        }
+      } finally {
+        statement.close();
+      }
+    }
+  }
+
+  /**
+   * Reads a row of the tasks table that was looked up for a task.
+   */
+  private interface TaskRowReader {
+    void read(TaskId taskId, ResultSet rs) throws SQLException;
+  }
+
+  // blobs are read in the format they were written in, which may differ from the one new blobs are written in.
   private <T> T deserializeBlob(Blob blob, Class<T> clazz) throws SQLException {
-    Reader reader = new InputStreamReader(blob.getBinaryStream(), Charsets.UTF_8);
-    T object;
+    return blobSerde.deserialize(blob.getBytes(1, (int) blob.length()), clazz);
+  }
+
+  // writes all rows in a single transaction.
+  private void writeBatch(Upsert upsert, List<Object[]> rows) throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
     try {
-      object = codec.deserialize(reader, clazz);
+      conn.setAutoCommit(false);
+      try {
+        upsert.writeBatch(conn, rows);
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
     } finally {
-      Closeables.closeQuietly(reader);
+      conn.close();
     }
-    return object;
+  }
+
+  // writes tasks in a single transaction, along with the changes their new statuses make to the task counts of their
+  // jobs. The rows of the jobs are locked before the previous statuses are read, so that concurrent writes of tasks of
+  // the same job are done one after the other and never count the same status change twice.
+  private void writeTasks(Collection<ClusterTask> clusterTasks) throws SQLException {
+    // if the same task is given more than once, the last one is written.
+    Map<TaskId, ClusterTask> tasks = Maps.newLinkedHashMap();
+    Map<String, JobId> jobIds = Maps.newHashMap();
+    // sorted so that jobs are always locked in the same order, and writes of tasks of several jobs cannot deadlock
+    Map<String, List<TaskId>> jobTaskIds = Maps.newTreeMap();
+    for (ClusterTask clusterTask : clusterTasks) {
+      TaskId taskId = TaskId.fromString(clusterTask.getTaskId());
+      tasks.remove(taskId);
+      tasks.put(taskId, clusterTask);
+      String jobKey = getJobKey(Long.parseLong(taskId.getClusterId()), taskId.getJobNum());
+      List<TaskId> ids = jobTaskIds.get(jobKey);
+      if (ids == null) {
+        ids = Lists.newArrayList();
+        jobTaskIds.put(jobKey, ids);
+        jobIds.put(jobKey, taskId.getJobId());
+      }
+      ids.add(taskId);
+    }
+
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      conn.setAutoCommit(false);
+      try {
+        for (String jobKey : jobTaskIds.keySet()) {
+          lockJob(conn, jobIds.get(jobKey));
+        }
+        final Map<TaskId, ClusterTask.Status> oldStatuses = Maps.newHashMap();
+        for (Map.Entry<String, List<TaskId>> entry : jobTaskIds.entrySet()) {
+          lookupJobTasks(conn, jobIds.get(entry.getKey()), entry.getValue(), "status", new TaskRowReader() {
+            @Override
+            public void read(TaskId taskId, ResultSet rs) throws SQLException {
+              oldStatuses.put(taskId, ClusterTask.Status.valueOf(rs.getString(2)));
+            }
+          });
+        }
+
+        List<Object[]> rows = Lists.newArrayListWithCapacity(tasks.size());
+        for (ClusterTask clusterTask : tasks.values()) {
+          rows.add(getTaskRow(clusterTask));
+        }
+        if (rows.size() == 1) {
+          taskUpsert.write(conn, rows.get(0));
+        } else {
+          taskUpsert.writeBatch(conn, rows);
+        }
+
+        for (Map.Entry<String, List<TaskId>> entry : jobTaskIds.entrySet()) {
+          int inProgress = 0;
+          int completed = 0;
+          int failed = 0;
+          for (TaskId taskId : entry.getValue()) {
+            ClusterTask.Status oldStatus = oldStatuses.get(taskId);
+            ClusterTask.Status newStatus = tasks.get(taskId).getStatus();
+            if (oldStatus == newStatus) {
+              continue;
+            }
+            inProgress += (newStatus == ClusterTask.Status.IN_PROGRESS ? 1 : 0) -
+              (oldStatus == ClusterTask.Status.IN_PROGRESS ? 1 : 0);
+            completed += newStatus == ClusterTask.Status.COMPLETE ? 1 : 0;
+            failed += newStatus == ClusterTask.Status.FAILED ? 1 : 0;
+          }
+          if (inProgress != 0 || completed != 0 || failed != 0) {
+            addTaskCounts(conn, jobIds.get(entry.getKey()), inProgress, completed, failed);
+          }
+        }
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  // locks the row of a job until the end of the transaction. This is an update that changes nothing rather than a
+  // select for update, because an update holds its lock until commit on every supported database. It must come before
+  // anything else is read in the transaction, so that reads see everything committed by the previous lock holder.
+  private void lockJob(Connection conn, JobId jobId) throws SQLException {
+    PreparedStatement statement = conn.prepareStatement(
+      "UPDATE jobs SET tasks_in_progress=tasks_in_progress WHERE job_num=? AND cluster_id=?");
+    try {
+      statement.setLong(1, jobId.getJobNum());
+      statement.setLong(2, Long.parseLong(jobId.getClusterId()));
+      statement.executeUpdate();
+    } finally {
+      statement.close();
+    }
+  }
+
+  // adds to the task counts of a job. Counts are added to rather than set, so that concurrent writes of different
+  // tasks of the job are all counted.
+  private void addTaskCounts(Connection conn, JobId jobId, int inProgress, int completed,
+                             int failed) throws SQLException {
+    PreparedStatement statement = conn.prepareStatement(
+      "UPDATE jobs SET tasks_in_progress=tasks_in_progress+?, tasks_completed=tasks_completed+?," +
+        " tasks_failed=tasks_failed+? WHERE job_num=? AND cluster_id=?");
+    try {
+      statement.setInt(1, inProgress);
+      statement.setInt(2, completed);
+      statement.setInt(3, failed);
+      statement.setLong(4, jobId.getJobNum());
+      statement.setLong(5, Long.parseLong(jobId.getClusterId()));
+      statement.executeUpdate();
+    } finally {
+      statement.close();
+    }
+  }
+
+  private Object[] getTaskRow(ClusterTask clusterTask) {
+    TaskId taskId = TaskId.fromString(clusterTask.getTaskId());
+    return new Object[] {
+      taskId.getTaskNum(), taskId.getJobNum(), Long.valueOf(taskId.getClusterId()), clusterTask.getStatus().name(),
+      getTimestamp(clusterTask.getSubmitTime()), getTimestamp(clusterTask.getStatusTime()),
+      blobSerde.serialize(clusterTask, ClusterTask.class)
+    };
+  }
+
+  private Object[] getNodeRow(Node node) {
+    return new Object[] { node.getId(), Long.valueOf(node.getClusterId()), blobSerde.serialize(node, Node.class) };
   }
 
   // mysql will error if you give it a timestamp of 0...
@@ -16,11 +16,9 @@
 package com.continuuity.loom.store;
 
 import com.google.common.base.Function;
-import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.sql.Connection;
@@ -35,7 +33,28 @@ import java.util.List;
  * Implementation of {@link BaseEntityStore} using a sql database as the persistent store.
  */
 public class SQLEntityStore extends BaseEntityStore {
-  private static final Logger LOG  = LoggerFactory.getLogger(SQLEntityStore.class);
+  // statements to upgrade the derby tables to each version of the schema.
+  static final List<List<String>> SCHEMA = ImmutableList.<List<String>>of(
+    ImmutableList.of(
+      "CREATE TABLE providers ( name VARCHAR(255), provider BLOB )",
+      "CREATE TABLE hardwareTypes ( name VARCHAR(255), hardwareType BLOB )",
+      "CREATE TABLE imageTypes ( name VARCHAR(255), imageType BLOB )",
+      "CREATE TABLE services ( name VARCHAR(255), service BLOB )",
+      "CREATE TABLE clusterTemplates ( name VARCHAR(255), clusterTemplate BLOB )"
+    ),
+    ImmutableList.of(
+      "ALTER TABLE providers ALTER COLUMN name NOT NULL",
+      "ALTER TABLE providers ADD CONSTRAINT providers_pk PRIMARY KEY (name)",
+      "ALTER TABLE hardwareTypes ALTER COLUMN name NOT NULL",
+      "ALTER TABLE hardwareTypes ADD CONSTRAINT hardware_types_pk PRIMARY KEY (name)",
+      "ALTER TABLE imageTypes ALTER COLUMN name NOT NULL",
+      "ALTER TABLE imageTypes ADD CONSTRAINT image_types_pk PRIMARY KEY (name)",
+      "ALTER TABLE services ALTER COLUMN name NOT NULL",
+      "ALTER TABLE services ADD CONSTRAINT services_pk PRIMARY KEY (name)",
+      "ALTER TABLE clusterTemplates ALTER COLUMN name NOT NULL",
+      "ALTER TABLE clusterTemplates ADD CONSTRAINT cluster_templates_pk PRIMARY KEY (name)"
+    )
+  );
   private final DBConnectionPool dbConnectionPool;
 
   // for unit tests only.  Truncate is not supported in derby.
@@ -71,32 +90,7 @@ public class SQLEntityStore extends BaseEntityStore {
   }
 
   public void initDerbyDB() throws SQLException {
-    LOG.warn("Initializing Derby DB... Tables are not optimized for performance.");
-
-    createDerbyTable("CREATE TABLE providers ( name VARCHAR(255), provider BLOB )");
-    createDerbyTable("CREATE TABLE hardwareTypes ( name VARCHAR(255), hardwareType BLOB )");
-    createDerbyTable("CREATE TABLE imageTypes ( name VARCHAR(255), imageType BLOB )");
-    createDerbyTable("CREATE TABLE services ( name VARCHAR(255), service BLOB )");
-    createDerbyTable("CREATE TABLE clusterTemplates ( name VARCHAR(255), clusterTemplate BLOB )");
-  }
-
-  private void createDerbyTable(String createString) throws SQLException {
-    Connection conn = dbConnectionPool.getConnection();
-    try {
-      Statement statement = conn.createStatement();
-      try {
-        statement.executeUpdate(createString);
-      } catch (SQLException e) {
-        // code for the table already exists in derby.
-        if (!e.getSQLState().equals("X0Y32")) {
-          throw Throwables.propagate(e);
-        }
-      } finally {
-        statement.close();
-      }
-    } finally {
-      conn.close();
-    }
+    new SchemaMigrator(dbConnectionPool, "entities", SCHEMA).migrate();
   }
 
   @Override
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Upgrades the tables of a store to the latest version of their schema. Each version is a list of statements that
+ * are run in a single transaction together with the update of the stored version, so a failed upgrade leaves the
+ * tables at the previous version and is retried the next time the store starts. Versions are kept by schema name in
+ * the schema_versions table. Version 1 is the schema from before versioning was added, so its tables may already
+ * exist without a stored version.
+ * <p/>
+ * Tables that had no primary key may hold several rows with the same key, so duplicate rows are removed before a
+ * primary key is added to a table, keeping the row of each key that the table scan returns last.
+ */
+class SchemaMigrator {
+  private static final Logger LOG  = LoggerFactory.getLogger(SchemaMigrator.class);
+  private static final Upsert VERSION_UPSERT = new Upsert(
+    DBDialect.GENERIC, "schema_versions",
+    ImmutableList.of(new Upsert.Column("name", Types.VARCHAR)),
+    ImmutableList.<Upsert.Column>of(),
+    ImmutableList.of(new Upsert.Column("version", Types.BIGINT)));
+  // derby sql state for creating a table or index that already exists.
+  private static final String ALREADY_EXISTS_STATE = "X0Y32";
+  // derby sql states for reading from a table or schema that does not exist.
+  private static final Set<String> MISSING_STATES = ImmutableSet.of("42X05", "42Y07");
+  private static final Pattern ADD_PRIMARY_KEY =
+    Pattern.compile("ALTER TABLE (\\w+) ADD CONSTRAINT \\w+ PRIMARY KEY \\(([^)]+)\\)", Pattern.CASE_INSENSITIVE);
+
+  private final DBConnectionPool dbConnectionPool;
+  private final String schemaName;
+  private final List<List<String>> versions;
+
+  /**
+   * Create a migrator for a schema.
+   *
+   * @param dbConnectionPool Connection pool for the database holding the tables.
+   * @param schemaName Name of the schema, used to keep track of its version.
+   * @param versions Statements to run to upgrade to each version, starting with version 1.
+   */
+  SchemaMigrator(DBConnectionPool dbConnectionPool, String schemaName, List<List<String>> versions) {
+    this.dbConnectionPool = dbConnectionPool;
+    this.schemaName = schemaName;
+    this.versions = versions;
+  }
+
+  /**
+   * Upgrade the tables from their current version to the latest one. Does nothing if they are at the latest version.
+   *
+   * @throws SQLException if there was a problem upgrading the tables.
+   */
+  void migrate() throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      execute(conn, "CREATE TABLE schema_versions ( name VARCHAR(64) NOT NULL, version BIGINT, PRIMARY KEY (name) )",
+              true);
+      long currentVersion = getVersion(conn);
+      if (currentVersion > versions.size()) {
+        throw new IllegalStateException("Schema " + schemaName + " is at version " + currentVersion +
+                                          ", which is newer than the latest known version " + versions.size());
+      }
+      for (long version = currentVersion + 1; version <= versions.size(); version++) {
+        LOG.info("Upgrading {} schema to version {}.", schemaName, version);
+        conn.setAutoCommit(false);
+        try {
+          for (String sql : versions.get((int) version - 1)) {
+            Matcher addPrimaryKey = ADD_PRIMARY_KEY.matcher(sql);
+            if (addPrimaryKey.matches()) {
+              removeDuplicateKeys(conn, addPrimaryKey.group(1), addPrimaryKey.group(2));
+            }
+            execute(conn, sql, version == 1);
+          }
+          VERSION_UPSERT.write(conn, schemaName, version);
+          conn.commit();
+        } catch (SQLException e) {
+          LOG.error("Exception upgrading {} schema to version {}.", schemaName, version, e);
+          conn.rollback();
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
+        }
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  /**
+   * Get the version the tables are at.
+   *
+   * @return Version of the tables, or 0 if they have not been created.
+   * @throws SQLException if there was a problem getting the version.
+   */
+  long getVersion() throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      return getVersion(conn);
+    } catch (SQLException e) {
+      if (MISSING_STATES.contains(e.getSQLState())) {
+        return 0;
+      }
+      throw e;
+    } finally {
+      conn.close();
+    }
+  }
+
+  private long getVersion(Connection conn) throws SQLException {
+    PreparedStatement statement = conn.prepareStatement("SELECT version FROM schema_versions WHERE name=?");
+    try {
+      statement.setString(1, schemaName);
+      ResultSet rs = statement.executeQuery();
+      try {
+        return rs.next() ? rs.getLong(1) : 0;
+      } finally {
+        rs.close();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  // removes all but one row of every key that has more than one. Writes before keys were enforced updated every row of
+  // a key, so rows of a key only differ if they were inserted at the same time and never written again, in which case
+  // neither is more recent than the other.
+  private void removeDuplicateKeys(Connection conn, String table, String keyColumns) throws SQLException {
+    int numKeyColumns = keyColumns.split(",").length;
+    // key -> number of rows of the key left to remove
+    Map<List<Object>, Integer> duplicates = Maps.newHashMap();
+    Statement statement = conn.createStatement();
+    try {
+      ResultSet rs = statement.executeQuery("SELECT " + keyColumns + ", COUNT(*) FROM " + table + " GROUP BY " +
+                                              keyColumns + " HAVING COUNT(*) > 1");
+      try {
+        while (rs.next()) {
+          duplicates.put(getKey(rs, numKeyColumns), rs.getInt(numKeyColumns + 1) - 1);
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      statement.close();
+    }
+    if (duplicates.isEmpty()) {
+      return;
+    }
+
+    LOG.warn("Removing duplicate rows of {} keys from table {}.", duplicates.size(), table);
+    statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+    try {
+      ResultSet rs = statement.executeQuery("SELECT " + keyColumns + " FROM " + table + " FOR UPDATE");
+      try {
+        while (rs.next()) {
+          List<Object> key = getKey(rs, numKeyColumns);
+          Integer toRemove = duplicates.get(key);
+          if (toRemove != null && toRemove > 0) {
+            rs.deleteRow();
+            duplicates.put(key, toRemove - 1);
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static List<Object> getKey(ResultSet rs, int numKeyColumns) throws SQLException {
+    Object[] key = new Object[numKeyColumns];
+    for (int i = 0; i < numKeyColumns; i++) {
+      key[i] = rs.getObject(i + 1);
+    }
+    return Arrays.asList(key);
+  }
+
+  private void execute(Connection conn, String sql, boolean ignoreExisting) throws SQLException {
+    Statement statement = conn.createStatement();
+    try {
+      statement.executeUpdate(sql);
+    } catch (SQLException e) {
+      if (!ignoreExisting || !ALREADY_EXISTS_STATE.equals(e.getSQLState())) {
+        throw e;
+      }
+    } finally {
+      statement.close();
+    }
+  }
+}
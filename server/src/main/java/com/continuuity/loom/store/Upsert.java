@@ -0,0 +1,293 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes rows of a table by key, inserting rows that do not exist and updating the ones that do. Uses the native
+ * upsert statement of the {@link DBDialect} if it has one, which takes a single round trip. Otherwise falls back to an
+ * update, followed by an insert if the update did not change any rows. If another writer inserts the same row in
+ * between, the write fails on the primary key and is retried once as an update. In a transaction the failed insert is
+ * first rolled back to a savepoint, and a native upsert is not retried at all. Batch writes are not retried.
+ *
+ * Rows are given as arrays of values in column order: key columns, then insert only columns, then updatable columns.
+ * Insert only columns are written when a row is inserted and left alone when it is updated. Values are bound based on
+ * the type of their column: BIGINT as {@link Long}, INTEGER as {@link Integer}, VARCHAR as {@link String}, TIMESTAMP
+ * as {@link Timestamp}, and BLOB as byte arrays. Null values are written as SQL NULL.
+ */
+final class Upsert {
+  private final List<Column> columns;
+  private final String upsertStatement;
+  private final int[] upsertParams;
+  private final String updateStatement;
+  private final int[] updateParams;
+  private final String insertStatement;
+  private final int[] insertParams;
+  private final int numKeys;
+
+  /**
+   * Column of a table, with the {@link Types} used to bind its values.
+   */
+  static final class Column {
+    private final String name;
+    private final int type;
+
+    Column(String name, int type) {
+      this.name = name;
+      this.type = type;
+    }
+  }
+
+  Upsert(DBDialect dialect, String table, List<Column> keys, List<Column> insertOnly, List<Column> updatable) {
+    this.columns = ImmutableList.<Column>builder().addAll(keys).addAll(insertOnly).addAll(updatable).build();
+    this.numKeys = keys.size();
+
+    List<String> allNames = names(columns);
+    List<String> keyNames = names(keys);
+    List<String> updatableNames = names(updatable);
+    int[] keyParams = range(0, keys.size());
+    int[] updatableParams = range(keys.size() + insertOnly.size(), columns.size());
+    int[] allParams = range(0, columns.size());
+
+    this.insertStatement = "INSERT INTO " + table + " (" + Joiner.on(", ").join(allNames) + ") VALUES (" +
+      placeholders(columns.size()) + ")";
+    this.insertParams = allParams;
+    this.updateStatement = "UPDATE " + table + " SET " + Joiner.on("=?, ").join(updatableNames) + "=? WHERE " +
+      Joiner.on("=? AND ").join(keyNames) + "=?";
+    this.updateParams = Ints.concat(updatableParams, keyParams);
+
+    switch (dialect) {
+      case MYSQL:
+        List<String> mysqlUpdates = Lists.newArrayListWithCapacity(updatable.size());
+        for (String column : updatableNames) {
+          mysqlUpdates.add(column + "=VALUES(" + column + ")");
+        }
+        this.upsertStatement = insertStatement + " ON DUPLICATE KEY UPDATE " + Joiner.on(", ").join(mysqlUpdates);
+        this.upsertParams = allParams;
+        break;
+      case POSTGRESQL:
+        List<String> postgresUpdates = Lists.newArrayListWithCapacity(updatable.size());
+        for (String column : updatableNames) {
+          postgresUpdates.add(column + "=EXCLUDED." + column);
+        }
+        this.upsertStatement = insertStatement + " ON CONFLICT (" + Joiner.on(", ").join(keyNames) +
+          ") DO UPDATE SET " + Joiner.on(", ").join(postgresUpdates);
+        this.upsertParams = allParams;
+        break;
+      default:
+        this.upsertStatement = null;
+        this.upsertParams = null;
+    }
+  }
+
+  /**
+   * Insert or update a single row.
+   *
+   * @param conn Connection to write with.
+   * @param row Values of the row, in column order.
+   * @throws SQLException if there was a problem writing the row.
+   */
+  void write(Connection conn, Object... row) throws SQLException {
+    if (upsertStatement != null) {
+      try {
+        executeUpdate(conn, upsertStatement, upsertParams, row);
+      } catch (SQLException e) {
+        // in a transaction the failed statement may have aborted it, and taking a savepoint before every native
+        // upsert would cost more than the rare retry saves.
+        if (!isConstraintViolation(e) || !conn.getAutoCommit()) {
+          throw e;
+        }
+        // someone else inserted the row after the statement checked for it, the update waits for their insert to
+        // commit.
+        retryUpdate(conn, row, e);
+      }
+      return;
+    }
+    if (executeUpdate(conn, updateStatement, updateParams, row) == 0) {
+      // some databases abort the whole transaction when a statement in it fails, so the insert is rolled back to a
+      // savepoint before it is retried as an update.
+      Savepoint savepoint = conn.getAutoCommit() ? null : conn.setSavepoint();
+      try {
+        executeUpdate(conn, insertStatement, insertParams, row);
+      } catch (SQLException e) {
+        if (!isConstraintViolation(e)) {
+          throw e;
+        }
+        if (savepoint != null) {
+          conn.rollback(savepoint);
+        }
+        // someone else inserted the row after our update.
+        retryUpdate(conn, row, e);
+        return;
+      }
+      if (savepoint != null) {
+        conn.releaseSavepoint(savepoint);
+      }
+    }
+  }
+
+  private void retryUpdate(Connection conn, Object[] row, SQLException cause) throws SQLException {
+    if (executeUpdate(conn, updateStatement, updateParams, row) == 0) {
+      // the other insert was rolled back.
+      throw cause;
+    }
+  }
+
+  /**
+   * Insert or update a collection of rows using batches. If the same key is given more than once, the last row with
+   * that key is written. Turn off auto commit on the connection to write all rows in a single transaction.
+   *
+   * @param conn Connection to write with.
+   * @param rows Rows to write, with values in column order.
+   * @throws SQLException if there was a problem writing the rows.
+   */
+  void writeBatch(Connection conn, Collection<Object[]> rows) throws SQLException {
+    Map<List<Object>, Object[]> rowsByKey = Maps.newLinkedHashMap();
+    for (Object[] row : rows) {
+      List<Object> key = Arrays.asList(row).subList(0, numKeys);
+      rowsByKey.remove(key);
+      rowsByKey.put(key, row);
+    }
+    List<Object[]> uniqueRows = ImmutableList.copyOf(rowsByKey.values());
+    if (uniqueRows.isEmpty()) {
+      return;
+    }
+    if (upsertStatement != null) {
+      executeBatch(conn, upsertStatement, upsertParams, uniqueRows);
+      return;
+    }
+
+    int[] updateCounts = executeBatch(conn, updateStatement, updateParams, uniqueRows);
+    List<Object[]> newRows = Lists.newArrayList();
+    for (int i = 0; i < updateCounts.length; i++) {
+      if (updateCounts[i] == 0) {
+        newRows.add(uniqueRows.get(i));
+      } else if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+        // driver doesn't say whether the row was there, write it on its own.
+        write(conn, uniqueRows.get(i));
+      }
+    }
+    if (!newRows.isEmpty()) {
+      executeBatch(conn, insertStatement, insertParams, newRows);
+    }
+  }
+
+  // for unit tests only.
+  String getUpsertStatement() {
+    return upsertStatement;
+  }
+
+  private int executeUpdate(Connection conn, String sql, int[] params, Object[] row) throws SQLException {
+    PreparedStatement statement = conn.prepareStatement(sql);
+    try {
+      bind(statement, params, row);
+      return statement.executeUpdate();
+    } finally {
+      statement.close();
+    }
+  }
+
+  private int[] executeBatch(Connection conn, String sql, int[] params, List<Object[]> rows) throws SQLException {
+    PreparedStatement statement = conn.prepareStatement(sql);
+    try {
+      for (Object[] row : rows) {
+        bind(statement, params, row);
+        statement.addBatch();
+      }
+      return statement.executeBatch();
+    } finally {
+      statement.close();
+    }
+  }
+
+  private void bind(PreparedStatement statement, int[] params, Object[] row) throws SQLException {
+    for (int i = 0; i < params.length; i++) {
+      Column column = columns.get(params[i]);
+      Object value = row[params[i]];
+      int index = i + 1;
+      if (value == null) {
+        statement.setNull(index, column.type);
+        continue;
+      }
+      switch (column.type) {
+        case Types.BIGINT:
+          statement.setLong(index, (Long) value);
+          break;
+        case Types.INTEGER:
+          statement.setInt(index, (Integer) value);
+          break;
+        case Types.VARCHAR:
+          statement.setString(index, (String) value);
+          break;
+        case Types.TIMESTAMP:
+          statement.setTimestamp(index, (Timestamp) value);
+          break;
+        case Types.BLOB:
+          statement.setBytes(index, (byte[]) value);
+          break;
+        default:
+          statement.setObject(index, value, column.type);
+      }
+    }
+  }
+
+  // sql state class for integrity constraint violations, such as a duplicate primary key.
+  private static boolean isConstraintViolation(SQLException e) {
+    return e.getSQLState() != null && e.getSQLState().startsWith("23");
+  }
+
+  private static List<String> names(List<Column> columns) {
+    List<String> names = Lists.newArrayListWithCapacity(columns.size());
+    for (Column column : columns) {
+      names.add(column.name);
+    }
+    return names;
+  }
+
+  private static String placeholders(int num) {
+    StringBuilder placeholders = new StringBuilder(num * 3);
+    for (int i = 0; i < num; i++) {
+      placeholders.append("?, ");
+    }
+    placeholders.setLength(placeholders.length() - 2);
+    return placeholders.toString();
+  }
+
+  private static int[] range(int start, int end) {
+    int[] range = new int[end - start];
+    for (int i = 0; i < range.length; i++) {
+      range[i] = start + i;
+    }
+    return range;
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.common.queue.internal;
+
+import com.continuuity.loom.common.queue.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ */
+public class InMemoryElementsTrackingTest {
+  private static final int NUM_ELEMENTS = 5000;
+  private static final int NUM_CONSUMERS = 16;
+
+  @Test
+  public void testOrdering() throws Exception {
+    ElementsTracking tracking = new InMemoryElementsTracking();
+    // elements added within the same millisecond should still come out in the order they were added
+    for (int i = 0; i < 10; i++) {
+      tracking.addToQueue(new Element(String.valueOf(i), "data"));
+    }
+    Assert.assertEquals(10, tracking.getQueued().size());
+    Assert.assertEquals("0", tracking.getQueued().get(0).getElement().getId());
+
+    tracking.toHighestPriority("5");
+    Assert.assertEquals("5", tracking.startConsuming("consumer1").getId());
+    Assert.assertEquals("0", tracking.startConsuming("consumer1").getId());
+    Assert.assertEquals(8, tracking.getQueued().size());
+    Assert.assertEquals(2, tracking.getBeingConsumed().size());
+    Assert.assertEquals(10, tracking.size());
+
+    // elements being consumed cannot be promoted
+    tracking.toHighestPriority("0");
+    Assert.assertEquals(8, tracking.getQueued().size());
+    Assert.assertEquals("1", tracking.startConsuming("consumer1").getId());
+
+    // adding an element with the same id as an existing one replaces it
+    tracking.addToQueue(new Element("1", "new data"));
+    Assert.assertFalse(tracking.finishConsuming("1", "consumer1"));
+    Assert.assertEquals(10, tracking.size());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentConsumers() throws Exception {
+    final ElementsTracking tracking = new InMemoryElementsTracking();
+    for (int i = 0; i < NUM_ELEMENTS; i++) {
+      tracking.addToQueue(new Element(String.valueOf(i), String.valueOf(i)));
+    }
+
+    // element id -> consumer id, to check that no element is ever owned by more than one consumer
+    final ConcurrentMap<String, String> owners = new ConcurrentHashMap<String, String>();
+    final Set<String> finished = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final AtomicReference<String> error = new AtomicReference<String>();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+
+    Thread[] consumers = new Thread[NUM_CONSUMERS];
+    for (int i = 0; i < NUM_CONSUMERS; i++) {
+      final String consumerId = "consumer" + i;
+      consumers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          int count = 0;
+          Element element;
+          while ((element = tracking.startConsuming(consumerId)) != null) {
+            String id = element.getId();
+            String otherOwner = owners.putIfAbsent(id, consumerId);
+            if (otherOwner != null) {
+              error.set(id + " taken by " + consumerId + " while owned by " + otherOwner);
+              return;
+            }
+            if (!tracking.recordProgress(id, consumerId)) {
+              error.set(consumerId + " could not record progress on " + id);
+              return;
+            }
+            // another consumer must not be able to do anything with the element
+            if (tracking.finishConsuming(id, "other") || tracking.recordProgress(id, "other")
+              || tracking.stopConsumingAndAddBackToQueue(id, "other")) {
+              error.set("non owner was able to change " + id);
+              return;
+            }
+            owners.remove(id);
+            count++;
+            if (count % 7 == 0) {
+              if (!tracking.stopConsumingAndAddBackToQueue(id, consumerId)) {
+                error.set(consumerId + " could not add back " + id);
+                return;
+              }
+            } else {
+              if (!tracking.finishConsuming(id, consumerId)) {
+                error.set(consumerId + " could not finish " + id);
+                return;
+              }
+              if (!finished.add(id)) {
+                error.set(id + " finished more than once");
+                return;
+              }
+            }
+          }
+        }
+      };
+      consumers[i].start();
+    }
+    startLatch.countDown();
+    for (Thread consumer : consumers) {
+      consumer.join();
+    }
+
+    Assert.assertNull(error.get());
+    Assert.assertEquals(NUM_ELEMENTS, finished.size());
+    Assert.assertEquals(0, tracking.size());
+    Assert.assertTrue(tracking.getQueued().isEmpty());
+    Assert.assertTrue(tracking.getBeingConsumed().isEmpty());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentReschedulingAndPromotion() throws Exception {
+    final ElementsTracking tracking = new InMemoryElementsTracking();
+    for (int i = 0; i < NUM_ELEMENTS; i++) {
+      tracking.addToQueue(new Element(String.valueOf(i), String.valueOf(i)));
+    }
+
+    final Set<String> finished = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final AtomicInteger duplicateFinishes = new AtomicInteger(0);
+    final AtomicBoolean done = new AtomicBoolean(false);
+
+    // reschedules every other element being consumed, which steals it from its consumer
+    Thread rescheduler = new Thread() {
+      @Override
+      public void run() {
+        final AtomicInteger count = new AtomicInteger(0);
+        while (!done.get()) {
+          tracking.walkThruElementsBeingConsumed(new ElementsTracking.Walker() {
+            @Override
+            public boolean process(Element element, String consumerId, long lastProgressReportTs) {
+              return count.incrementAndGet() % 2 == 0;
+            }
+          });
+        }
+      }
+    };
+    Thread promoter = new Thread() {
+      @Override
+      public void run() {
+        int i = 0;
+        while (!done.get()) {
+          tracking.toHighestPriority(String.valueOf(i));
+          i = (i + 37) % NUM_ELEMENTS;
+        }
+      }
+    };
+
+    Thread[] consumers = new Thread[NUM_CONSUMERS];
+    for (int i = 0; i < NUM_CONSUMERS; i++) {
+      final String consumerId = "consumer" + i;
+      consumers[i] = new Thread() {
+        @Override
+        public void run() {
+          while (finished.size() < NUM_ELEMENTS) {
+            Element element = tracking.startConsuming(consumerId);
+            if (element == null) {
+              Thread.yield();
+              continue;
+            }
+            tracking.recordProgress(element.getId(), consumerId);
+            // fails if the element was rescheduled in the meantime, in which case another consumer will finish it
+            if (tracking.finishConsuming(element.getId(), consumerId) && !finished.add(element.getId())) {
+              duplicateFinishes.incrementAndGet();
+            }
+          }
+        }
+      };
+    }
+
+    rescheduler.start();
+    promoter.start();
+    for (Thread consumer : consumers) {
+      consumer.start();
+    }
+    for (Thread consumer : consumers) {
+      consumer.join();
+    }
+    done.set(true);
+    rescheduler.join();
+    promoter.join();
+
+    Assert.assertEquals(0, duplicateFinishes.get());
+    Assert.assertEquals(NUM_ELEMENTS, finished.size());
+    Assert.assertEquals(0, tracking.size());
+    Assert.assertTrue(tracking.getQueued().isEmpty());
+    Assert.assertTrue(tracking.getBeingConsumed().isEmpty());
+  }
+}
@@ -15,7 +15,11 @@
  */
 package com.continuuity.loom.common.queue.internal;
 
+import com.continuuity.loom.common.queue.Element;
+import com.continuuity.loom.common.queue.TrackingQueue;
 import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
 
 /**
  *
@@ -35,6 +39,23 @@ public class TimeoutTrackingQueueInMemoryTest extends TimeoutTrackingQueueTestBa
     return 200;
   }
 
+  @Test
+  public void testFinishedCountsAreBounded() throws Exception {
+    TimeoutTrackingQueue queue = getQueue(10000, 10000);
+    for (int i = 0; i < TimeoutTrackingQueue.MAX_FINISHED_COUNTS * 2; i++) {
+      String consumerId = "consumer" + i;
+      queue.add(new Element(String.valueOf(i), "data"));
+      Element taken = queue.take(consumerId);
+      Assert.assertEquals(TrackingQueue.PossessionState.POSSESSES,
+                          queue.recordProgress(consumerId, taken.getId(),
+                                               TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY, null));
+    }
+    Assert.assertTrue(queue.getFinishedCounts().size() <= TimeoutTrackingQueue.MAX_FINISHED_COUNTS);
+    // the most recent consumer is kept
+    String lastConsumerId = "consumer" + (TimeoutTrackingQueue.MAX_FINISHED_COUNTS * 2 - 1);
+    Assert.assertEquals(1L, (long) queue.getFinishedCounts().get(lastConsumerId));
+  }
+
   @After
   public void after() {
     if (queue != null) {
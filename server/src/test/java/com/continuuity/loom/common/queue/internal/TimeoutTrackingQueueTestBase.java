@@ -18,14 +18,18 @@ package com.continuuity.loom.common.queue.internal;
 import com.continuuity.loom.common.queue.Element;
 import com.continuuity.loom.common.queue.QueuedElement;
 import com.continuuity.loom.common.queue.TrackingQueue;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.twill.common.Cancellable;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -103,6 +107,7 @@ public abstract class TimeoutTrackingQueueTestBase {
                         queue.recordProgress("worker1", taken1.getId(),
                                              TrackingQueue.ConsumingStatus.FINISHED_SUCCESSFULLY, "result-55"));
     Assert.assertEquals("result-55", workResult1.get());
+    Assert.assertEquals(ImmutableMap.of("worker1", 1L), queue.getFinishedCounts());
     Assert.assertEquals(TrackingQueue.PossessionState.NOT_POSSESSES,
                         queue.recordProgress("worker1", taken1.getId(),
                                              TrackingQueue.ConsumingStatus.IN_PROGRESS, null));
@@ -173,6 +178,32 @@ public abstract class TimeoutTrackingQueueTestBase {
     Assert.assertNull(queue.take("worker6"));
   }
 
+  @Test(timeout = 20000)
+  public void testListener() throws Exception {
+    TimeoutTrackingQueue queue = getQueue(getRescheduleInterval(), getRescheduleInterval());
+    final Semaphore notified = new Semaphore(0);
+    Cancellable cancellable = queue.addListener(new Runnable() {
+      @Override
+      public void run() {
+        notified.release();
+      }
+    });
+
+    queue.add(new Element("work1", "data1"));
+    Assert.assertTrue(notified.tryAcquire(10, TimeUnit.SECONDS));
+
+    // putting a failed element back in the queue notifies too
+    Element taken = queue.take("worker1");
+    notified.drainPermits();
+    queue.recordProgress("worker1", taken.getId(), TrackingQueue.ConsumingStatus.FAILED, null);
+    Assert.assertTrue(notified.tryAcquire(10, TimeUnit.SECONDS));
+
+    cancellable.cancel();
+    notified.drainPermits();
+    queue.add(new Element("work2", "data2"));
+    Assert.assertFalse(notified.tryAcquire(getRescheduleInterval(), TimeUnit.MILLISECONDS));
+  }
+
   @Test(timeout = 20000)
   public void testConcurrentAccess() throws Exception {
     final TimeoutTrackingQueue queue = getQueue(300, 100);
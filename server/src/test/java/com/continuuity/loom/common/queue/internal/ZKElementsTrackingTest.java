@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.common.queue.internal;
+
+import com.continuuity.loom.common.queue.Element;
+import com.continuuity.loom.common.queue.QueuedElement;
+import com.google.common.util.concurrent.Futures;
+import com.google.gson.Gson;
+import org.apache.twill.internal.zookeeper.InMemoryZKServer;
+import org.apache.twill.zookeeper.ZKClientService;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+public class ZKElementsTrackingTest {
+  private static final String QUEUE_PATH = "/tracking-queue";
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+  private InMemoryZKServer zkServer;
+  private ZKClientService zkClient;
+
+  @Before
+  public void before() throws IOException {
+    zkServer = InMemoryZKServer.builder().setDataDir(tmpFolder.newFolder()).setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    zkClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    zkClient.startAndWait();
+  }
+
+  @After
+  public void after() {
+    zkClient.stopAndWait();
+    zkServer.stopAndWait();
+  }
+
+  @Test(timeout = 60000)
+  public void testListenerSeesElementsAddedByOtherInstances() throws Exception {
+    ElementsTracking consumer = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    final CountDownLatch notified = new CountDownLatch(1);
+    consumer.watchQueued(new Runnable() {
+      @Override
+      public void run() {
+        notified.countDown();
+      }
+    });
+
+    // added through another instance, as if by another server
+    new ZKElementsTracking(zkClient, QUEUE_PATH).addToQueue(new Element("work1", "data1"));
+    Assert.assertTrue(notified.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals("work1", consumer.startConsuming("consumer").getId());
+  }
+
+  @Test(timeout = 60000)
+  public void testConsumersInDifferentInstances() throws Exception {
+    final int numElements = 200;
+    ElementsTracking producer = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    for (int i = 0; i < numElements; i++) {
+      producer.addToQueue(new Element(String.valueOf(i), String.valueOf(i)));
+    }
+
+    final Set<String> finished = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final AtomicInteger duplicates = new AtomicInteger(0);
+    Thread[] consumers = new Thread[6];
+    for (int i = 0; i < consumers.length; i++) {
+      // every consumer has its own instance, as if they were running in different servers
+      final ElementsTracking tracking = new ZKElementsTracking(zkClient, QUEUE_PATH);
+      final String consumerId = "consumer" + i;
+      consumers[i] = new Thread() {
+        @Override
+        public void run() {
+          int count = 0;
+          Element element;
+          while ((element = tracking.startConsuming(consumerId)) != null) {
+            count++;
+            if (count % 5 == 0) {
+              tracking.stopConsumingAndAddBackToQueue(element.getId(), consumerId);
+            } else if (tracking.finishConsuming(element.getId(), consumerId) && !finished.add(element.getId())) {
+              duplicates.incrementAndGet();
+            }
+          }
+        }
+      };
+    }
+    for (Thread consumer : consumers) {
+      consumer.start();
+    }
+    for (Thread consumer : consumers) {
+      consumer.join();
+    }
+
+    Assert.assertEquals(0, duplicates.get());
+    Assert.assertEquals(numElements, finished.size());
+    Assert.assertEquals(0, producer.size());
+    Assert.assertTrue(producer.getQueued().isEmpty());
+    // all pending nodes should have been cleaned up
+    Assert.assertTrue(Futures.getUnchecked(zkClient.getChildren(QUEUE_PATH + "/queue/pending")).getChildren()
+                        .isEmpty());
+  }
+
+  @Test
+  public void testSamePriorityKeepsOrder() throws Exception {
+    ElementsTracking tracking = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    // added fast enough for many of them to get the same priority
+    for (int i = 0; i < 50; i++) {
+      tracking.addToQueue(new Element("elem" + i, "data"));
+    }
+    int i = 0;
+    for (QueuedElement queued : tracking.getQueued()) {
+      Assert.assertEquals("elem" + i++, queued.getElement().getId());
+    }
+    for (i = 0; i < 50; i++) {
+      Assert.assertEquals("elem" + i, tracking.startConsuming("consumer").getId());
+    }
+  }
+
+  @Test
+  public void testStalePendingNodesAreSkipped() throws Exception {
+    ElementsTracking tracking = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    tracking.addToQueue(new Element("work1", "data1"));
+    Thread.sleep(1);
+    tracking.addToQueue(new Element("work2", "data2"));
+    Thread.sleep(1);
+    // re-adding an element leaves its old pending node behind
+    tracking.addToQueue(new Element("work1", "data1-again"));
+    tracking.toHighestPriority("work2");
+
+    Assert.assertEquals(2, tracking.size());
+    Assert.assertEquals(2, tracking.getQueued().size());
+
+    Element taken = tracking.startConsuming("consumer1");
+    Assert.assertEquals("work2", taken.getId());
+    taken = tracking.startConsuming("consumer1");
+    Assert.assertEquals("work1", taken.getId());
+    Assert.assertEquals("data1-again", taken.getValue());
+    Assert.assertNull(tracking.startConsuming("consumer1"));
+    Assert.assertTrue(Futures.getUnchecked(zkClient.getChildren(QUEUE_PATH + "/queue/pending")).getChildren()
+                        .isEmpty());
+  }
+
+  @Test
+  public void testRescheduleBeingConsumed() throws Exception {
+    ElementsTracking tracking = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    for (int i = 0; i < 10; i++) {
+      tracking.addToQueue(new Element(String.valueOf(i), "data"));
+    }
+    for (int i = 0; i < 10; i++) {
+      tracking.startConsuming(i % 2 == 0 ? "consumer1" : "consumer2");
+    }
+    Assert.assertEquals(10, tracking.getBeingConsumed().size());
+
+    tracking.walkThruElementsBeingConsumed(new ElementsTracking.Walker() {
+      @Override
+      public boolean process(Element element, String consumerId, long lastProgressReportTs) {
+        return "consumer1".equals(consumerId);
+      }
+    });
+
+    Assert.assertEquals(5, tracking.getQueued().size());
+    Assert.assertEquals(5, tracking.getBeingConsumed().size());
+    for (QueuedElement beingConsumed : tracking.getBeingConsumed()) {
+      Assert.assertEquals("consumer2", beingConsumed.getConsumerId());
+    }
+    for (int i = 0; i < 5; i++) {
+      Assert.assertNotNull(tracking.startConsuming("consumer3"));
+    }
+    Assert.assertNull(tracking.startConsuming("consumer3"));
+  }
+
+  @Test
+  public void testMissingPendingNodesAreRestored() throws Exception {
+    ElementsTracking tracking = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    tracking.addToQueue(new Element("work1", "data1"));
+    tracking.addToQueue(new Element("work2", "data2"));
+    // as if the process died between writing the element and creating its pending node
+    String pendingPath = QUEUE_PATH + "/queue/pending";
+    for (String pendingNode : Futures.getUnchecked(zkClient.getChildren(pendingPath)).getChildren()) {
+      Futures.getUnchecked(zkClient.delete(pendingPath + "/" + pendingNode));
+    }
+    Assert.assertEquals(2, tracking.getQueued().size());
+    Assert.assertNull(tracking.startConsuming("consumer1"));
+
+    tracking.walkThruElementsBeingConsumed(new ElementsTracking.Walker() {
+      @Override
+      public boolean process(Element element, String consumerId, long lastProgressReportTs) {
+        return false;
+      }
+    });
+
+    Assert.assertEquals("work1", tracking.startConsuming("consumer1").getId());
+    Assert.assertEquals("work2", tracking.startConsuming("consumer1").getId());
+    Assert.assertNull(tracking.startConsuming("consumer1"));
+  }
+
+  @Test
+  public void testMigrateFromMap() throws Exception {
+    Gson gson = new Gson();
+    String mapPath = QUEUE_PATH + "/queue/map/entries/";
+    ZKElementsTracking.Entry queued = new ZKElementsTracking.Entry(new Element("work1", "data1"), 10L);
+    ZKElementsTracking.Entry consumed =
+      new ZKElementsTracking.Entry(new Element("work2", "data2"), 20L, System.currentTimeMillis(), "consumer1");
+    Futures.getUnchecked(zkClient.create(mapPath + "work1", gson.toJson(queued).getBytes(),
+                                         CreateMode.PERSISTENT, true));
+    Futures.getUnchecked(zkClient.create(mapPath + "work2", gson.toJson(consumed).getBytes(),
+                                         CreateMode.PERSISTENT, true));
+
+    ElementsTracking tracking = new ZKElementsTracking(zkClient, QUEUE_PATH);
+    Assert.assertEquals(2, tracking.size());
+    Assert.assertEquals("work2", tracking.getBeingConsumed().get(0).getElement().getId());
+    Assert.assertTrue(tracking.finishConsuming("work2", "consumer1"));
+    Assert.assertEquals("work1", tracking.startConsuming("consumer2").getId());
+    Assert.assertTrue(Futures.getUnchecked(zkClient.getChildren(QUEUE_PATH + "/queue/map/entries")).getChildren()
+                        .isEmpty());
+  }
+}
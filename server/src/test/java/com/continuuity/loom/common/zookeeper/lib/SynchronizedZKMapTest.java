@@ -16,8 +16,11 @@
 package com.continuuity.loom.common.zookeeper.lib;
 
 import com.continuuity.loom.common.zookeeper.BaseZKTest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import org.apache.twill.internal.zookeeper.InMemoryZKServer;
 import org.apache.twill.zookeeper.ZKClientService;
+import org.apache.twill.zookeeper.ZKClients;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -27,10 +30,14 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
@@ -100,21 +107,144 @@ public class SynchronizedZKMapTest extends BaseZKTest {
     Assert.assertEquals(0, map2.size());
   }
 
+  @Test(timeout = 10000)
+  public void testPutAll() throws ExecutionException, InterruptedException {
+    final String path = "/foo/map";
+
+    SynchronizedZKMap<String> map1 = new SynchronizedZKMap<String>(zkClient, path, Serializers.stringSerializer());
+    SynchronizedZKMap<String> map2 = new SynchronizedZKMap<String>(zkClient, path, Serializers.stringSerializer());
+    map1.put("key1", "value1");
+    map1.putAll(ImmutableMap.<String, String>of());
+
+    Map<String, String> batch = Maps.newHashMap();
+    for (int i = 0; i < 50; i++) {
+      batch.put("key" + i, "value" + i + "_m");
+    }
+    map2.putAll(batch);
+    Assert.assertEquals(50, map2.size());
+    Assert.assertEquals(batch, Maps.newHashMap(map2));
+    waitForEntries(map1, batch);
+    Assert.assertEquals("value1_m", map1.get("key1"));
+
+    // put on top of a batch
+    map1.put("key1", "value1");
+    Assert.assertEquals("value1", map1.get("key1"));
+    batch.put("key1", "value1");
+    waitForEntries(map2, batch);
+    Assert.assertEquals(50, map2.size());
+  }
+
+  @Test(timeout = 30000)
+  public void testReadsWithConcurrentWriterInOtherProcess() throws Exception {
+    final String path = "/foo/map";
+    final int keysCount = 20;
+    final int writesCount = 200;
+
+    // separate zk session, as another process would have
+    ZKClientService writerZKClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    writerZKClient.startAndWait();
+    try {
+      final SynchronizedZKMap<String> writerMap =
+        new SynchronizedZKMap<String>(writerZKClient, path, Serializers.stringSerializer());
+      final SynchronizedZKMap<String> readerMap =
+        new SynchronizedZKMap<String>(zkClient, path, Serializers.stringSerializer());
+
+      final AtomicBoolean writing = new AtomicBoolean(true);
+      final AtomicReference<String> badRead = new AtomicReference<String>();
+      Thread[] readers = new Thread[2];
+      for (int i = 0; i < readers.length; i++) {
+        readers[i] = new Thread() {
+          @Override
+          public void run() {
+            Random random = new Random();
+            while (writing.get()) {
+              int keyNum = random.nextInt(keysCount);
+              String value = readerMap.get("key" + keyNum);
+              // a read may be behind the writer, but only ever returns a value that was written for the key
+              if (value != null && Integer.parseInt(value.substring("value".length())) % keysCount != keyNum) {
+                badRead.compareAndSet(null, "key" + keyNum + "=" + value);
+              }
+            }
+          }
+        };
+        readers[i].start();
+      }
+
+      Map<String, String> expected = Maps.newHashMap();
+      for (int i = 0; i < writesCount; i++) {
+        String key = "key" + (i % keysCount);
+        String value = "value" + i;
+        writerMap.put(key, value);
+        expected.put(key, value);
+      }
+      writing.set(false);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+
+      Assert.assertNull(badRead.get());
+      waitForEntries(readerMap, expected);
+    } finally {
+      writerZKClient.stopAndWait();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testReadsDoNotTakeLockOrGoToZK() throws Exception {
+    final String path = "/foo/map";
+    ZKClientService mapZKClient = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+    mapZKClient.startAndWait();
+    final SynchronizedZKMap<String> map =
+      new SynchronizedZKMap<String>(mapZKClient, path, Serializers.stringSerializer());
+    Map<String, String> expected = ImmutableMap.of("key1", "value1", "key2", "value2");
+    map.putAll(expected);
+
+    // the map's zookeeper lock is held by another instance, its local lock by this thread, and its zk client is gone
+    ZKInterProcessReentrantLock zkLock =
+      new ZKInterProcessReentrantLock(ZKClients.namespace(zkClient, path), "/lock");
+    zkLock.acquire();
+    try {
+      synchronized (map) {
+        mapZKClient.stopAndWait();
+        final AtomicReference<Map<String, String>> read = new AtomicReference<Map<String, String>>();
+        Thread reader = new Thread() {
+          @Override
+          public void run() {
+            Map<String, String> entries = Maps.newHashMap();
+            for (String key : map.keySet()) {
+              entries.put(key, map.get(key));
+            }
+            if (map.size() == entries.size() && map.containsKey("key1") && !map.containsKey("key3")) {
+              read.set(entries);
+            }
+          }
+        };
+        reader.start();
+        reader.join(10000);
+        Assert.assertFalse("reads blocked", reader.isAlive());
+        Assert.assertEquals(expected, read.get());
+      }
+    } finally {
+      zkLock.release();
+    }
+  }
+
   @Test (timeout = 30000)
   public void testConcurrent() throws Exception {
     int workersCount = 6;
+    AtomicInteger producersRunning = new AtomicInteger(workersCount);
     Producer[] producers = new Producer[workersCount];
     Thread[] producerThreads = new Thread[workersCount];
     for (int i = 0; i < workersCount; i++) {
       SynchronizedZKMap<String> map = new SynchronizedZKMap<String>(zkClient, "/map", Serializers.stringSerializer());
-      producers[i] = new Producer(map);
+      producers[i] = new Producer(map, producersRunning);
       producerThreads[i] = new Thread(producers[i]);
     }
     Consumer[] consumers = new Consumer[workersCount];
     Thread[] consumerThreads = new Thread[workersCount];
     for (int i = 0; i < workersCount; i++) {
       SynchronizedZKMap<String> map = new SynchronizedZKMap<String>(zkClient, "/map", Serializers.stringSerializer());
-      consumers[i] = new Consumer(map);
+      consumers[i] = new Consumer(map, producersRunning);
       consumerThreads[i] = new Thread(consumers[i]);
     }
 
@@ -136,12 +266,21 @@ public class SynchronizedZKMapTest extends BaseZKTest {
     Assert.assertEquals(totalProduced, totalConsumed);
   }
 
+  private static void waitForEntries(Map<String, String> map, Map<String, String> expected)
+    throws InterruptedException {
+    while (!expected.equals(Maps.newHashMap(map))) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
   private static class Producer implements Runnable {
     private final Map<String, String> dest;
+    private final AtomicInteger producersRunning;
     private int produced = 0;
 
-    private Producer(Map<String, String> dest) {
+    private Producer(Map<String, String> dest, AtomicInteger producersRunning) {
       this.dest = dest;
+      this.producersRunning = producersRunning;
     }
 
     @Override
@@ -150,15 +289,18 @@ public class SynchronizedZKMapTest extends BaseZKTest {
         dest.put(UUID.randomUUID().toString(), "foo");
         produced++;
       }
+      producersRunning.decrementAndGet();
     }
   }
 
   private static class Consumer implements Runnable {
     private final Map<String, String> src;
+    private final AtomicInteger producersRunning;
     private int consumed = 0;
 
-    private Consumer(Map<String, String> src) {
+    private Consumer(Map<String, String> src, AtomicInteger producersRunning) {
       this.src = src;
+      this.producersRunning = producersRunning;
     }
 
     @Override
@@ -168,7 +310,10 @@ public class SynchronizedZKMapTest extends BaseZKTest {
       while (retriesLeft > 0) {
         Set<String> vals = src.keySet();
         if (vals.size() == 0) {
-          retriesLeft--;
+          // reads are served from memory, so only start giving up once nothing more will be produced
+          if (producersRunning.get() == 0) {
+            retriesLeft--;
+          }
           try {
             TimeUnit.MILLISECONDS.sleep(1);
           } catch (InterruptedException e) {
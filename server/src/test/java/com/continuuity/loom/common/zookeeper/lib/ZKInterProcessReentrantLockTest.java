@@ -28,10 +28,14 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ZKInterProcessReentrantLockTest extends BaseZKTest {
 
@@ -123,6 +127,121 @@ public class ZKInterProcessReentrantLockTest extends BaseZKTest {
     lock.release();
   }
 
+  @Test(timeout = 10000)
+  public void testReadWriteLock() throws Exception {
+    final String path = "/foo/rwlock";
+    ExecutorService executorService = Executors.newCachedThreadPool();
+
+    ZKInterProcessReadWriteLock reader1 = new ZKInterProcessReadWriteLock(zkClient, path);
+    ZKInterProcessReadWriteLock reader2 = new ZKInterProcessReadWriteLock(zkClient, path);
+    // readers do not block each other
+    reader1.readLock().acquire();
+    reader2.readLock().acquire();
+
+    final AtomicInteger writes = new AtomicInteger();
+    final AtomicBoolean writerReleasing = new AtomicBoolean();
+    Future<?> writer = executorService.submit(new NonSafeRunnable() {
+      @Override
+      public void notSafeRun() throws Exception {
+        ZKInterProcessReadWriteLock lock = new ZKInterProcessReadWriteLock(zkClient, path);
+        lock.writeLock().acquire();
+        writes.incrementAndGet();
+        TimeUnit.MILLISECONDS.sleep(200);
+        // set before releasing, since others can get the lock before release returns.
+        writerReleasing.set(true);
+        lock.writeLock().release();
+      }
+    });
+
+    // writer waits for all readers
+    TimeUnit.MILLISECONDS.sleep(200);
+    Assert.assertEquals(0, writes.get());
+    reader1.readLock().release();
+    TimeUnit.MILLISECONDS.sleep(100);
+    Assert.assertEquals(0, writes.get());
+    reader2.readLock().release();
+    waitForValue(writes, 1);
+
+    // a reader asking after the writer waits for it
+    ZKInterProcessReadWriteLock reader3 = new ZKInterProcessReadWriteLock(zkClient, path);
+    reader3.readLock().acquire();
+    Assert.assertTrue(writerReleasing.get());
+    reader3.readLock().release();
+
+    // write lock is exclusive with the plain lock on the same path
+    ZKInterProcessReentrantLock exclusive = new ZKInterProcessReentrantLock(zkClient, path);
+    exclusive.acquire();
+    writer = executorService.submit(new NonSafeRunnable() {
+      @Override
+      public void notSafeRun() throws Exception {
+        ZKInterProcessReadWriteLock lock = new ZKInterProcessReadWriteLock(zkClient, path);
+        lock.writeLock().acquire();
+        writes.incrementAndGet();
+        lock.writeLock().release();
+      }
+    });
+    TimeUnit.MILLISECONDS.sleep(200);
+    Assert.assertEquals(1, writes.get());
+    exclusive.release();
+    writer.get();
+    Assert.assertEquals(2, writes.get());
+    executorService.shutdown();
+  }
+
+  @Test(timeout = 10000)
+  public void testLease() throws Exception {
+    final String path = "/foo/leasedlock";
+    ExecutorService executorService = Executors.newCachedThreadPool();
+
+    ZKInterProcessReentrantLock lock = new ZKInterProcessReentrantLock(zkClient, path, TimeUnit.MINUTES.toMillis(1));
+    lock.acquire();
+    List<String> nodes = zkClient.getChildren(path).get().getChildren();
+    Assert.assertEquals(1, nodes.size());
+    // released lock keeps its node and reuses it when acquired again
+    lock.release();
+    Assert.assertEquals(nodes, zkClient.getChildren(path).get().getChildren());
+    lock.acquire();
+    Assert.assertEquals(nodes, zkClient.getChildren(path).get().getChildren());
+
+    // a contender gets the lock once it is released, even though it is leased
+    final AtomicInteger acquired = new AtomicInteger();
+    Future<?> contender = executorService.submit(new NonSafeRunnable() {
+      @Override
+      public void notSafeRun() throws Exception {
+        ZKInterProcessReentrantLock lock = new ZKInterProcessReentrantLock(zkClient, path);
+        lock.acquire();
+        acquired.incrementAndGet();
+        lock.release();
+      }
+    });
+    TimeUnit.MILLISECONDS.sleep(200);
+    Assert.assertEquals(0, acquired.get());
+    lock.release();
+    contender.get();
+    Assert.assertEquals(1, acquired.get());
+
+    // a released lock gives its node up when a contender shows up
+    lock.acquire();
+    lock.release();
+    Assert.assertEquals(1, zkClient.getChildren(path).get().getChildren().size());
+    ZKInterProcessReentrantLock other = new ZKInterProcessReentrantLock(zkClient, path);
+    other.acquire();
+    other.release();
+    // and does not reuse it anymore
+    lock.acquire();
+    Assert.assertFalse(nodes.equals(zkClient.getChildren(path).get().getChildren()));
+    lock.release();
+    lock.endLease();
+    Assert.assertTrue(zkClient.getChildren(path).get().getChildren().isEmpty());
+    executorService.shutdown();
+  }
+
+  private static void waitForValue(AtomicInteger value, int expected) throws InterruptedException {
+    while (value.get() != expected) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
   private static abstract class NonSafeRunnable implements Runnable {
     @Override
     public void run() {
@@ -757,6 +757,88 @@ public class LoomClusterHandlerTest extends LoomServiceTestBase {
     clusterStore.deleteCluster(cluster2);
   }
 
+  @Test
+  public void testGetClustersPaged() throws Exception {
+    List<String> expectedIds = writeClusters(7);
+
+    List<String> ids = Lists.newArrayList();
+    String resource = "/v1/loom/clusters?limit=3";
+    while (resource != null) {
+      HttpResponse response = doGet(resource, ADMIN_HEADERS);
+      assertResponseStatus(response, HttpResponseStatus.OK);
+      List<Map<String, String>> clusterInfos = GSON.fromJson(EntityUtils.toString(response.getEntity()),
+                                                             new TypeToken<List<Map<String, String>>>() {}.getType());
+      Assert.assertTrue(clusterInfos.size() <= 3);
+      for (Map<String, String> clusterInfo : clusterInfos) {
+        ids.add(clusterInfo.get("id"));
+      }
+      Header cursor = response.getFirstHeader(LoomClusterHandler.NEXT_CURSOR_HEADER);
+      resource = cursor == null ? null : "/v1/loom/clusters?limit=3&after=" + cursor.getValue();
+    }
+    Assert.assertEquals(expectedIds, ids);
+  }
+
+  @Test
+  public void testGetClustersFiltered() throws Exception {
+    List<String> expectedIds = writeClusters(6);
+
+    // even clusters are active and use the reactor template, odd ones are pending.
+    HttpResponse response = doGet("/v1/loom/clusters?status=active&template=" + reactorTemplate.getName(),
+                                  ADMIN_HEADERS);
+    assertResponseStatus(response, HttpResponseStatus.OK);
+    List<Map<String, String>> clusterInfos = GSON.fromJson(EntityUtils.toString(response.getEntity()),
+                                                           new TypeToken<List<Map<String, String>>>() {}.getType());
+    Assert.assertEquals(3, clusterInfos.size());
+    for (Map<String, String> clusterInfo : clusterInfos) {
+      Assert.assertEquals("ACTIVE", clusterInfo.get("status"));
+      Assert.assertEquals(reactorTemplate.getName(), clusterInfo.get("clusterTemplate"));
+    }
+
+    response = doGet("/v1/loom/clusters?status=active,pending", ADMIN_HEADERS);
+    clusterInfos = GSON.fromJson(EntityUtils.toString(response.getEntity()),
+                                 new TypeToken<List<Map<String, String>>>() {}.getType());
+    Assert.assertEquals(expectedIds.size(), clusterInfos.size());
+
+    // other users don't see the clusters, even with filters.
+    response = doGet("/v1/loom/clusters?status=active", USER2_HEADERS);
+    clusterInfos = GSON.fromJson(EntityUtils.toString(response.getEntity()),
+                                 new TypeToken<List<Map<String, String>>>() {}.getType());
+    Assert.assertTrue(clusterInfos.isEmpty());
+  }
+
+  @Test
+  public void testGetClustersStreamed() throws Exception {
+    // enough clusters to take several chunks.
+    List<String> expectedIds = writeClusters(200);
+
+    HttpResponse response = doGet("/v1/loom/clusters?stream=true", USER1_HEADERS);
+    assertResponseStatus(response, HttpResponseStatus.OK);
+    List<Map<String, String>> clusterInfos = GSON.fromJson(EntityUtils.toString(response.getEntity()),
+                                                           new TypeToken<List<Map<String, String>>>() {}.getType());
+    List<String> ids = Lists.newArrayList();
+    for (Map<String, String> clusterInfo : clusterInfos) {
+      ids.add(clusterInfo.get("id"));
+    }
+    Assert.assertEquals(expectedIds, ids);
+
+    response = doGet("/v1/loom/clusters?stream=true&limit=5&status=pending", USER1_HEADERS);
+    clusterInfos = GSON.fromJson(EntityUtils.toString(response.getEntity()),
+                                 new TypeToken<List<Map<String, String>>>() {}.getType());
+    Assert.assertEquals(5, clusterInfos.size());
+    Assert.assertEquals(expectedIds.get(0), clusterInfos.get(0).get("id"));
+
+    response = doGet("/v1/loom/clusters?stream=true&status=terminated", USER1_HEADERS);
+    Assert.assertEquals("[]", EntityUtils.toString(response.getEntity()));
+  }
+
+  @Test
+  public void testGetClustersWithBadParams() throws Exception {
+    assertResponseStatus(doGet("/v1/loom/clusters?limit=abc", USER1_HEADERS), HttpResponseStatus.BAD_REQUEST);
+    assertResponseStatus(doGet("/v1/loom/clusters?limit=-1", USER1_HEADERS), HttpResponseStatus.BAD_REQUEST);
+    assertResponseStatus(doGet("/v1/loom/clusters?status=running", USER1_HEADERS), HttpResponseStatus.BAD_REQUEST);
+    assertResponseStatus(doGet("/v1/loom/clusters?after=123", USER1_HEADERS), HttpResponseStatus.BAD_REQUEST);
+  }
+
   @Test
   public void testGetNonexistantClusterReturns404() throws Exception {
     assertResponseStatus(doGet("/v1/loom/clusters/567", USER1_HEADERS), HttpResponseStatus.NOT_FOUND);
@@ -1325,4 +1407,22 @@ public class LoomClusterHandlerTest extends LoomServiceTestBase {
       SOLVER_PLAN + ",\n" +
       SAMPLE_PLAN +
       "\n]";
+
+  // writes clusters owned by user1 and returns their ids, most recently created first.
+  private List<String> writeClusters(int numClusters) throws Exception {
+    List<String> ids = Lists.newArrayList();
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < numClusters; i++) {
+      Cluster cluster = new Cluster(clusterStore.getNewClusterId(), USER1, "cluster" + i, now + i, "cluster", null,
+                                    i % 2 == 0 ? reactorTemplate : smallTemplate, ImmutableSet.of("node" + i),
+                                    ImmutableSet.of("s1"));
+      // odd clusters are left pending.
+      if (i % 2 == 0) {
+        cluster.setStatus(Cluster.Status.ACTIVE);
+      }
+      clusterStore.writeCluster(cluster);
+      ids.add(0, cluster.getId());
+    }
+    return ids;
+  }
 }
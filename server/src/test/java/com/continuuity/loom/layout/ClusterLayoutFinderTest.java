@@ -25,13 +25,22 @@ import com.continuuity.loom.admin.ServiceConstraint;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.JsonObject;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  *
@@ -125,6 +134,131 @@ public class ClusterLayoutFinderTest extends BaseSolverTest {
     Assert.assertNull(finder.findValidNodeCounts());
   }
 
+  @Test(expected = SolverTimeoutException.class)
+  public void testGivesUpAfterDeadline() {
+    // a and b each need 5 nodes of their own but there are only 9 machines. Pruning only looks at one service at a
+    // time, so every way of placing machines on the unconstrained node layouts is tried before giving up.
+    Set<String> services = Sets.newHashSet("a", "b");
+    List<NodeLayout> nodePreferences = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      services.add("c" + i);
+      nodePreferences.add(new NodeLayout("medium", "centos6", ImmutableSet.of("c" + i)));
+    }
+    nodePreferences.add(new NodeLayout("medium", "centos6", ImmutableSet.of("a")));
+    nodePreferences.add(new NodeLayout("medium", "centos6", ImmutableSet.of("b")));
+    ClusterTemplate template = new ClusterTemplate(
+      "conflicting", "template with conflicting constraints",
+      new ClusterDefaults(services, "joyent", null, null, new JsonObject()),
+      new Compatibilities(null, null, services),
+      new Constraints(
+        ImmutableMap.<String, ServiceConstraint>of("a", new ServiceConstraint(null, null, 5, 5, 1, null),
+                                                   "b", new ServiceConstraint(null, null, 5, 5, 1, null)),
+        new LayoutConstraint(ImmutableSet.<Set<String>>of(), ImmutableSet.<Set<String>>of())
+      ),
+      Administration.EMPTY_ADMINISTRATION
+    );
+
+    Assert.assertNull(new ClusterLayoutFinder(nodePreferences, template, services, 9).findValidNodeCounts());
+    new ClusterLayoutFinder(nodePreferences, template, services, 9, 0).findValidNodeCounts();
+  }
+
+  @Test
+  public void testParallelSearchKeepsLayoutFoundBeforeDeadline() throws Exception {
+    SolverTimeoutException timeout = new SolverTimeoutException("timed out");
+    int[] found = new int[] { 1, 2 };
+
+    // an earlier subtask ran out of time, but a later one found a layout
+    List<ListenableFuture<int[]>> futures = ImmutableList.of(
+      Futures.<int[]>immediateFailedFuture(timeout),
+      Futures.<int[]>immediateFuture(null),
+      Futures.immediateFuture(found),
+      Futures.immediateFuture(new int[] { 0, 3 }));
+    Assert.assertSame(found, ClusterLayoutFinder.getFirstFound(futures));
+
+    // no subtask found a layout
+    Assert.assertNull(ClusterLayoutFinder.getFirstFound(ImmutableList.of(Futures.<int[]>immediateFuture(null))));
+    futures = ImmutableList.of(Futures.<int[]>immediateFuture(null), Futures.<int[]>immediateFailedFuture(timeout));
+    try {
+      ClusterLayoutFinder.getFirstFound(futures);
+      Assert.fail("expected a timeout since no subtask found a layout");
+    } catch (SolverTimeoutException e) {
+      Assert.assertSame(timeout, e);
+    }
+  }
+
+  @Test
+  public void testSearchMatchesEnumeration() {
+    Set<String> services = ImmutableSet.of("svc1", "svc2", "svc3", "svc4", "svc5");
+    Random random = new Random(0);
+    for (int trial = 0; trial < 500; trial++) {
+      ClusterTemplate template = createRandomTemplate(services, random, 6);
+      List<NodeLayout> nodePreferences = createRandomNodePreferences(services, random);
+      int numMachines = 1 + random.nextInt(12);
+
+      int[] expected = new ClusterLayoutFinder(nodePreferences, template, services, numMachines)
+        .findValidNodeCountsByEnumeration();
+      int[] actual = new ClusterLayoutFinder(nodePreferences, template, services, numMachines)
+        .findValidNodeCounts();
+      Assert.assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testParallelSearchMatchesSearch() {
+    Set<String> services = ImmutableSet.of("svc1", "svc2", "svc3", "svc4", "svc5");
+    Random random = new Random(0);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      for (int trial = 0; trial < 500; trial++) {
+        ClusterTemplate template = createRandomTemplate(services, random, 30);
+        List<NodeLayout> nodePreferences = createRandomNodePreferences(services, random);
+        int numMachines = 1 + random.nextInt(40);
+
+        int[] expected = new ClusterLayoutFinder(nodePreferences, template, services, numMachines)
+          .findValidNodeCounts();
+        int[] actual = new ClusterLayoutFinder(nodePreferences, template, services, numMachines)
+          .findValidNodeCounts(executor, 1 + random.nextInt(16));
+        Assert.assertArrayEquals(expected, actual);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ClusterTemplate createRandomTemplate(Set<String> services, Random random, int maxRange) {
+    Map<String, ServiceConstraint> constraints = Maps.newHashMap();
+    for (String service : services) {
+      if (random.nextBoolean()) {
+        int min = random.nextInt(3);
+        int max = min + random.nextInt(maxRange);
+        constraints.put(service, new ServiceConstraint(null, null, min, max, 1, null));
+      }
+    }
+    return new ClusterTemplate(
+      "random", "randomly constrained template",
+      new ClusterDefaults(services, "joyent", null, null, new JsonObject()),
+      new Compatibilities(null, null, services),
+      new Constraints(constraints, new LayoutConstraint(ImmutableSet.<Set<String>>of(),
+                                                        ImmutableSet.<Set<String>>of())),
+      Administration.EMPTY_ADMINISTRATION
+    );
+  }
+
+  private List<NodeLayout> createRandomNodePreferences(Set<String> services, Random random) {
+    List<NodeLayout> nodePreferences = Lists.newArrayList();
+    int numLayouts = 1 + random.nextInt(6);
+    for (int i = 0; i < numLayouts; i++) {
+      Set<String> layoutServices = Sets.newHashSet();
+      for (String service : services) {
+        if (random.nextInt(3) == 0) {
+          layoutServices.add(service);
+        }
+      }
+      nodePreferences.add(new NodeLayout("medium", "centos6", layoutServices));
+    }
+    return nodePreferences;
+  }
+
   private void assertClusterLayout(List<NodeLayout> nodeLayouts, ClusterTemplate template,
                                    int[] nodeCounts, int numMachines, boolean expected) {
     ClusterLayoutFinder clusterLayoutFinder =
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.Administration;
+import com.continuuity.loom.admin.ClusterDefaults;
+import com.continuuity.loom.admin.ClusterTemplate;
+import com.continuuity.loom.admin.Compatibilities;
+import com.continuuity.loom.admin.Constraints;
+import com.continuuity.loom.admin.LayoutConstraint;
+import com.continuuity.loom.admin.ServiceConstraint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ *
+ */
+public class ConstraintLayoutSolverEngineTest extends BaseSolverTest {
+  private static final LayoutSolverEngine ENGINE = new ConstraintLayoutSolverEngine();
+  private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  @Test
+  public void testGetClusterNodes() {
+    List<NodeLayout> nodePreferences = ImmutableList.of(
+      new NodeLayout("large-mem", "centos6", ImmutableSet.of("namenode", "resourcemanager", "hbasemaster")),
+      new NodeLayout("large-cpu", "centos6", ImmutableSet.of("datanode", "nodemanager", "regionserver")),
+      new NodeLayout("medium", "centos6", ImmutableSet.of("reactor", "zookeeper")),
+      new NodeLayout("medium", "centos6", ImmutableSet.of("zookeeper")),
+      new NodeLayout("large", "centos6", ImmutableSet.of("reactor"))
+    );
+    Set<String> services = ImmutableSet.of("namenode", "resourcemanager", "hbasemaster",
+                                           "datanode", "nodemanager", "regionserver", "reactor", "zookeeper");
+
+    Assert.assertArrayEquals(new int[]{1, 3, 1, 0, 0},
+                             ENGINE.findValidNodeCounts(nodePreferences, reactorTemplate, services, 5, NO_DEADLINE));
+    Assert.assertArrayEquals(new int[]{1, 8, 1, 0, 0},
+                             ENGINE.findValidNodeCounts(nodePreferences, reactorTemplate, services, 10, NO_DEADLINE));
+    Assert.assertArrayEquals(new int[]{1, 50, 3, 0, 0},
+                             ENGINE.findValidNodeCounts(nodePreferences, reactorTemplate, services, 54, NO_DEADLINE));
+    // placing as many of each node layout as possible in order of preference only accounts for 56 machines, but
+    // there is still a valid layout with fewer reactor and zookeeper nodes.
+    Assert.assertArrayEquals(new int[]{1, 50, 4, 1, 1},
+                             ENGINE.findValidNodeCounts(nodePreferences, reactorTemplate, services, 57, NO_DEADLINE));
+    // at most 1 namenode, 50 datanodes, 5 zookeepers and 5 reactors.
+    Assert.assertNull(ENGINE.findValidNodeCounts(nodePreferences, reactorTemplate, services, 62, NO_DEADLINE));
+  }
+
+  @Test
+  public void testLargeCluster() {
+    Set<String> services = ImmutableSet.of("master", "worker", "zookeeper");
+    ClusterTemplate template = new ClusterTemplate(
+      "large", "large cluster template",
+      new ClusterDefaults(services, "joyent", null, null, new JsonObject()),
+      new Compatibilities(null, null, services),
+      new Constraints(
+        ImmutableMap.<String, ServiceConstraint>of(
+          "master", new ServiceConstraint(null, null, 1, 1, 1, null),
+          "zookeeper", new ServiceConstraint(null, null, 3, 3, 1, null)),
+        new LayoutConstraint(ImmutableSet.<Set<String>>of(), ImmutableSet.<Set<String>>of())
+      ),
+      Administration.EMPTY_ADMINISTRATION
+    );
+    List<NodeLayout> nodePreferences = ImmutableList.of(
+      new NodeLayout("large", "centos6", ImmutableSet.of("master", "worker", "zookeeper")),
+      new NodeLayout("large", "centos6", ImmutableSet.of("worker", "zookeeper")),
+      new NodeLayout("large", "centos6", ImmutableSet.of("master", "worker")),
+      new NodeLayout("large", "centos6", ImmutableSet.of("worker"))
+    );
+    Assert.assertArrayEquals(new int[]{1, 2, 0, 997},
+                             ENGINE.findValidNodeCounts(nodePreferences, template, services, 1000, NO_DEADLINE));
+  }
+
+  @Test
+  public void testMatchesSearchEngine() {
+    List<String> services = ImmutableList.of("svc1", "svc2", "svc3", "svc4", "svc5");
+    LayoutSolverEngine searchEngine = new SearchLayoutSolverEngine(Integer.MAX_VALUE, 1);
+    Random random = new Random(0);
+    for (int trial = 0; trial < 500; trial++) {
+      Map<String, ServiceConstraint> constraints = Maps.newHashMap();
+      for (String service : services) {
+        if (random.nextBoolean()) {
+          int min = random.nextInt(3);
+          int max = min + random.nextInt(6);
+          constraints.put(service, new ServiceConstraint(null, null, min, max, 1, null));
+        }
+      }
+      ClusterTemplate template = new ClusterTemplate(
+        "random", "randomly constrained template",
+        new ClusterDefaults(ImmutableSet.copyOf(services), "joyent", null, null, new JsonObject()),
+        new Compatibilities(null, null, ImmutableSet.copyOf(services)),
+        new Constraints(constraints, new LayoutConstraint(ImmutableSet.<Set<String>>of(),
+                                                          ImmutableSet.<Set<String>>of())),
+        Administration.EMPTY_ADMINISTRATION
+      );
+
+      List<NodeLayout> nodePreferences = Lists.newArrayList();
+      int numLayouts = 1 + random.nextInt(6);
+      for (int i = 0; i < numLayouts; i++) {
+        Set<String> layoutServices = Sets.newHashSet();
+        for (String service : services) {
+          if (random.nextInt(3) == 0) {
+            layoutServices.add(service);
+          }
+        }
+        nodePreferences.add(new NodeLayout("medium", "centos6", layoutServices));
+      }
+      int numMachines = 1 + random.nextInt(12);
+
+      int[] expected = searchEngine.findValidNodeCounts(nodePreferences, template, ImmutableSet.copyOf(services),
+                                                        numMachines, NO_DEADLINE);
+      int[] actual = ENGINE.findValidNodeCounts(nodePreferences, template, ImmutableSet.copyOf(services),
+                                                numMachines, NO_DEADLINE);
+      if (expected != null) {
+        Assert.assertArrayEquals(expected, actual);
+      } else if (actual != null) {
+        // the search engine gives up early if placing as many nodes as possible in order of preference does not
+        // account for all machines, so it can miss some valid layouts.
+        ClusterLayoutFinder finder =
+          new ClusterLayoutFinder(nodePreferences, template, ImmutableSet.copyOf(services), numMachines);
+        finder.setNodeCount(actual);
+        Assert.assertEquals(numMachines, finder.getTotalCount());
+        Assert.assertTrue(finder.isValidCluster());
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.layout;
+
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.management.LoomStats;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ */
+public class NodeLayoutCacheTest extends BaseSolverTest {
+  private static final Set<String> hardwareTypes = ImmutableSet.of("small", "medium", "large-mem", "large-cpu");
+  private static final Set<String> imageTypes = ImmutableSet.of("centos6", "ubuntu12");
+
+  @Test
+  public void testHitsAndMisses() {
+    LoomStats stats = new LoomStats();
+    NodeLayoutCache cache = new NodeLayoutCache(10, stats);
+    Set<String> services = reactorTemplate.getClusterDefaults().getServices();
+
+    List<NodeLayout> expected = new NodeLayoutGenerator(reactorTemplate, services, hardwareTypes, imageTypes)
+      .generateNodeLayoutPreferences();
+    List<NodeLayout> first = cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes, imageTypes);
+    Assert.assertEquals(expected, first);
+    Assert.assertEquals(0, stats.getNodeLayoutCacheHits());
+    Assert.assertEquals(1, stats.getNodeLayoutCacheMisses());
+
+    // equal sets in a different order should hit
+    List<NodeLayout> second = cache.getNodeLayoutPreferences(
+      reactorTemplate, ImmutableSet.copyOf(Lists.reverse(Lists.newArrayList(services))),
+      ImmutableSet.of("large-cpu", "large-mem", "medium", "small"), ImmutableSet.of("ubuntu12", "centos6"));
+    Assert.assertTrue(first == second);
+    Assert.assertEquals(1, stats.getNodeLayoutCacheHits());
+    Assert.assertEquals(1, stats.getNodeLayoutCacheMisses());
+
+    // different hardware types should miss
+    Set<String> fewerHardwareTypes = ImmutableSet.of("medium", "large-mem", "large-cpu");
+    List<NodeLayout> third = cache.getNodeLayoutPreferences(reactorTemplate, services, fewerHardwareTypes, imageTypes);
+    expected = new NodeLayoutGenerator(reactorTemplate, services, fewerHardwareTypes, imageTypes)
+      .generateNodeLayoutPreferences();
+    Assert.assertEquals(expected, third);
+    Assert.assertEquals(1, stats.getNodeLayoutCacheHits());
+    Assert.assertEquals(2, stats.getNodeLayoutCacheMisses());
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    LoomStats stats = new LoomStats();
+    NodeLayoutCache cache = new NodeLayoutCache(2, stats);
+    Set<String> services = reactorTemplate.getClusterDefaults().getServices();
+    Set<String> hardwareTypes1 = ImmutableSet.of("medium", "large-mem");
+    Set<String> hardwareTypes2 = ImmutableSet.of("medium", "large-cpu", "large-mem");
+    Set<String> hardwareTypes3 = ImmutableSet.of("small", "medium", "large-mem");
+
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes1, imageTypes);
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes2, imageTypes);
+    // use the first entry so that the second is the least recently used one
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes1, imageTypes);
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes3, imageTypes);
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, stats.getNodeLayoutCacheHits());
+    Assert.assertEquals(3, stats.getNodeLayoutCacheMisses());
+
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes1, imageTypes);
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes3, imageTypes);
+    Assert.assertEquals(3, stats.getNodeLayoutCacheHits());
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes2, imageTypes);
+    Assert.assertEquals(4, stats.getNodeLayoutCacheMisses());
+  }
+
+  @Test
+  public void testZeroSizeDisablesCache() {
+    LoomStats stats = new LoomStats();
+    NodeLayoutCache cache = new NodeLayoutCache(0, stats);
+    Set<String> services = reactorTemplate.getClusterDefaults().getServices();
+
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes, imageTypes);
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes, imageTypes);
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, stats.getNodeLayoutCacheHits());
+    Assert.assertEquals(2, stats.getNodeLayoutCacheMisses());
+  }
+
+  @Test
+  public void testEntityStoreWritesInvalidate() throws Exception {
+    NodeLayoutCache cache = injector.getInstance(NodeLayoutCache.class);
+    Set<String> services = reactorTemplate.getClusterDefaults().getServices();
+    Set<String> otherServices = ImmutableSet.of("namenode", "datanode");
+    Set<String> otherHardwareTypes = ImmutableSet.of("medium", "large-mem");
+
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes, imageTypes);
+    cache.getNodeLayoutPreferences(reactorTemplate, otherServices, otherHardwareTypes, imageTypes);
+    Assert.assertEquals(2, cache.size());
+
+    // only the first entry uses the small hardware type
+    entityStore.deleteHardwareType("unused");
+    Assert.assertEquals(2, cache.size());
+    entityStore.writeHardwareType(entityStore.getHardwareType("small"));
+    Assert.assertEquals(1, cache.size());
+
+    // only the second entry is left, and it does not use the reactor service
+    entityStore.writeService(new Service(
+      "reactor", "", ImmutableSet.<String>of("zookeeper", "regionserver", "nodemanager"), Collections.EMPTY_MAP));
+    Assert.assertEquals(1, cache.size());
+    entityStore.writeImageType(entityStore.getImageType("centos6"));
+    Assert.assertEquals(0, cache.size());
+
+    cache.getNodeLayoutPreferences(reactorTemplate, services, hardwareTypes, imageTypes);
+    cache.getNodeLayoutPreferences(reactorTemplate, otherServices, otherHardwareTypes, imageTypes);
+    Assert.assertEquals(2, cache.size());
+    entityStore.writeClusterTemplate(reactorTemplate);
+    Assert.assertEquals(0, cache.size());
+  }
+}
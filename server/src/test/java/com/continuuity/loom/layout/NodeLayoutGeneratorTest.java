@@ -40,34 +40,41 @@ public class NodeLayoutGeneratorTest extends BaseSolverTest {
 
   @Test
   public void testIsValidServiceSet() {
-    LayoutConstraint layoutConstraint = reactorTemplate.getConstraints().getLayoutConstraint();
-    Set<String> services =
-      ImmutableSet.of("namenode", "datanode", "regionserver", "nodemanager", "hbasemaster", "reactor", "zookeeper");
-    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("datanode", "regionserver", "nodemanager"), layoutConstraint, services));
-    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("namenode", "resourcemanager", "hbasemaster"), layoutConstraint, services));
-    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("reactor", "zookeeper"), layoutConstraint, services));
-    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("reactor"), layoutConstraint, services));
-    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("zookeeper"), layoutConstraint, services));
-
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("datanode"), layoutConstraint, services));
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("datanode", "nodemanager"), layoutConstraint, services));
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("namenode"), layoutConstraint, services));
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("namenode", "resourcemanager"), layoutConstraint, services));
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("namenode", "datanode"), layoutConstraint, services));
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("reactor", "datanode"), layoutConstraint, services));
-    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(
-      ImmutableSet.of("zookeeper", "datanode"), layoutConstraint, services));
+    Set<String> services = ImmutableSet.of("datanode", "regionserver", "nodemanager", "namenode",
+                                           "resourcemanager", "hbasemaster", "reactor", "zookeeper");
+    NodeLayoutGenerator nodeLayoutGenerator =
+      new NodeLayoutGenerator(reactorTemplate, services, ImmutableSet.<String>of(), ImmutableSet.<String>of());
+    Set<Set<String>> validServiceSets = nodeLayoutGenerator.findValidServiceSets(services);
+
+    Assert.assertTrue(validServiceSets.contains(ImmutableSet.of("datanode", "regionserver", "nodemanager")));
+    Assert.assertTrue(validServiceSets.contains(ImmutableSet.of("namenode", "resourcemanager", "hbasemaster")));
+    Assert.assertTrue(validServiceSets.contains(ImmutableSet.of("reactor", "zookeeper")));
+    Assert.assertTrue(validServiceSets.contains(ImmutableSet.of("reactor")));
+    Assert.assertTrue(validServiceSets.contains(ImmutableSet.of("zookeeper")));
+
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("datanode")));
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("datanode", "nodemanager")));
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("namenode")));
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("namenode", "resourcemanager")));
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("namenode", "datanode")));
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("reactor", "datanode")));
+    Assert.assertFalse(validServiceSets.contains(ImmutableSet.of("zookeeper", "datanode")));
+  }
+
+  @Test
+  public void testIsValidServiceSetMask() {
+    // services 0 and 1 can't coexist, services 1, 2 and 3 must coexist.
+    long[] cantCoexist = new long[] { 0x3 };
+    long[] mustCoexist = new long[] { 0xe };
+    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(0x1, cantCoexist, mustCoexist));
+    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(0xe, cantCoexist, mustCoexist));
+    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(0x10, cantCoexist, mustCoexist));
+    Assert.assertTrue(NodeLayoutGenerator.isValidServiceSet(0x1e, cantCoexist, mustCoexist));
+
+    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(0x3, cantCoexist, mustCoexist));
+    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(0xf, cantCoexist, mustCoexist));
+    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(0x2, cantCoexist, mustCoexist));
+    Assert.assertFalse(NodeLayoutGenerator.isValidServiceSet(0x15, cantCoexist, mustCoexist));
   }
 
   @Test
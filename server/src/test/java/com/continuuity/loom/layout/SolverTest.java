@@ -16,18 +16,22 @@
 package com.continuuity.loom.layout;
 
 import com.continuuity.loom.Entities;
+import com.continuuity.loom.admin.Administration;
 import com.continuuity.loom.admin.ClusterDefaults;
 import com.continuuity.loom.admin.ClusterTemplate;
 import com.continuuity.loom.admin.Compatibilities;
 import com.continuuity.loom.admin.Constraints;
+import com.continuuity.loom.admin.LayoutConstraint;
 import com.continuuity.loom.admin.ProvisionerAction;
 import com.continuuity.loom.admin.Service;
 import com.continuuity.loom.admin.ServiceAction;
+import com.continuuity.loom.admin.ServiceConstraint;
 import com.continuuity.loom.cluster.Cluster;
 import com.continuuity.loom.cluster.Node;
 import com.continuuity.loom.codec.json.JsonSerde;
 import com.google.common.base.Function;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -41,6 +45,7 @@ import org.junit.Test;
 
 import javax.annotation.Nullable;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -215,7 +220,7 @@ public class SolverTest extends BaseSolverTest {
       serviceMap.put(service, new Service(service, "", Collections.EMPTY_SET, Collections.EMPTY_MAP));
     }
 
-    Map<String, Node> nodes = Solver.solveConstraints("1", template, "name", 3,
+    Map<String, Node> nodes = solver.solveConstraints("1", template, "name", 3,
                                                       hwTypeMap, imgTypeMap, services, serviceMap);
     Multiset<Set<String>> serviceSetCounts = HashMultiset.create();
     for (Map.Entry<String, Node> entry : nodes.entrySet()) {
@@ -253,7 +258,7 @@ public class SolverTest extends BaseSolverTest {
       serviceMap.put(serviceName, new Service(serviceName, "", ImmutableSet.<String>of(),
                                               ImmutableMap.<ProvisionerAction, ServiceAction>of()));
     }
-    Map<String, Node> nodes = Solver.solveConstraints("1", reactorTemplate2, "name", 200,
+    Map<String, Node> nodes = solver.solveConstraints("1", reactorTemplate2, "name", 200,
                                                       hwmap, imgmap, services, serviceMap);
     Multiset<Set<String>> serviceSetCounts = HashMultiset.create();
     for (Map.Entry<String, Node> entry : nodes.entrySet()) {
@@ -280,6 +285,62 @@ public class SolverTest extends BaseSolverTest {
                       "hadoop-yarn-resourcemanager")));
   }
 
+  @Test
+  public void testFindInfeasibility() {
+    Set<String> services = ImmutableSet.of("namenode", "resourcemanager", "hbasemaster",
+                                           "datanode", "nodemanager", "regionserver", "reactor", "zookeeper");
+    List<NodeLayout> nodePreferences = ImmutableList.of(
+      new NodeLayout("large-mem", "centos6", ImmutableSet.of("namenode", "resourcemanager", "hbasemaster")),
+      new NodeLayout("large-cpu", "centos6", ImmutableSet.of("datanode", "nodemanager", "regionserver")),
+      new NodeLayout("medium", "centos6", ImmutableSet.of("reactor", "zookeeper"))
+    );
+    Assert.assertNull(Solver.findInfeasibility(nodePreferences, reactorTemplate, services, 5));
+
+    // namenode, datanode, and zookeeper must each be on at least 1 node
+    Assert.assertNotNull(Solver.findInfeasibility(nodePreferences, reactorTemplate, services, 0));
+    // reactor and zookeeper are not on any layout
+    Assert.assertNotNull(Solver.findInfeasibility(nodePreferences.subList(0, 2), reactorTemplate, services, 5));
+    // namenode can be on at most 1 node, datanode at most 50, and reactor at most 5
+    Assert.assertNull(Solver.findInfeasibility(nodePreferences, reactorTemplate, services, 56));
+    Assert.assertNotNull(Solver.findInfeasibility(nodePreferences, reactorTemplate, services, 57));
+    Assert.assertNotNull(
+      Solver.findInfeasibility(ImmutableList.<NodeLayout>of(), reactorTemplate, services, 5));
+  }
+
+  @Test
+  public void testEnginesFindLayoutWhenMaxFillFallsShort() {
+    // as many nodes of the first layout as possible uses up the max counts of both services, leaving 2 machines
+    // that no layout can take. Only leaving out the first layout places all 4 machines.
+    Set<String> services = ImmutableSet.of("s1", "s2");
+    ClusterTemplate template = new ClusterTemplate(
+      "split", "template whose first layout uses up both services",
+      new ClusterDefaults(services, "joyent", null, null, new JsonObject()),
+      new Compatibilities(null, null, services),
+      new Constraints(
+        ImmutableMap.<String, ServiceConstraint>of(
+          "s1", new ServiceConstraint(null, null, 0, 2, 1, null),
+          "s2", new ServiceConstraint(null, null, 0, 2, 1, null)),
+        new LayoutConstraint(ImmutableSet.<Set<String>>of(), ImmutableSet.<Set<String>>of())
+      ),
+      Administration.EMPTY_ADMINISTRATION
+    );
+    List<NodeLayout> nodePreferences = ImmutableList.of(
+      new NodeLayout("small", "centos6", ImmutableSet.of("s1", "s2")),
+      new NodeLayout("small", "centos6", ImmutableSet.of("s1")),
+      new NodeLayout("small", "centos6", ImmutableSet.of("s2"))
+    );
+
+    List<LayoutSolverEngine> engines = ImmutableList.of(
+      new SearchLayoutSolverEngine(Integer.MAX_VALUE, 1),
+      new SearchLayoutSolverEngine(1, 2),
+      new ConstraintLayoutSolverEngine());
+    for (LayoutSolverEngine engine : engines) {
+      Assert.assertArrayEquals(new int[] { 0, 2, 2 },
+                               engine.findValidNodeCounts(nodePreferences, template, services, 4, Long.MAX_VALUE));
+      Assert.assertNull(engine.findValidNodeCounts(nodePreferences, template, services, 5, Long.MAX_VALUE));
+    }
+  }
+
   @BeforeClass
   public static void setup() throws Exception {
     solver = injector.getInstance(Solver.class);
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+public class CoalescingRunnerTest {
+  private ExecutorService executor;
+
+  @Before
+  public void before() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void after() {
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 20000)
+  public void testWakeupsWhileRunningAreCoalesced() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Semaphore finished = new Semaphore(0);
+    final AtomicInteger runs = new AtomicInteger(0);
+    CoalescingRunner runner = new CoalescingRunner(new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finished.release();
+      }
+    }, executor);
+
+    runner.wakeup();
+    started.await();
+    for (int i = 0; i < 10; i++) {
+      runner.wakeup();
+    }
+    release.countDown();
+
+    // one run for the first wakeup, and a single one for all wakeups while it was running
+    Assert.assertTrue(finished.tryAcquire(2, 10, TimeUnit.SECONDS));
+    Assert.assertFalse(finished.tryAcquire(200, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(2, runs.get());
+
+    // runs again when woken up after going idle
+    runner.wakeup();
+    Assert.assertTrue(finished.tryAcquire(10, TimeUnit.SECONDS));
+    Assert.assertEquals(3, runs.get());
+  }
+
+  @Test(timeout = 20000)
+  public void testNeverRunsConcurrently() throws Exception {
+    final AtomicInteger running = new AtomicInteger(0);
+    final AtomicInteger overlaps = new AtomicInteger(0);
+    final AtomicInteger runs = new AtomicInteger(0);
+    final CoalescingRunner runner = new CoalescingRunner(new Runnable() {
+      @Override
+      public void run() {
+        if (running.incrementAndGet() > 1) {
+          overlaps.incrementAndGet();
+        }
+        runs.incrementAndGet();
+        running.decrementAndGet();
+      }
+    }, executor);
+
+    Thread[] wakers = new Thread[4];
+    for (int i = 0; i < wakers.length; i++) {
+      wakers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            runner.wakeup();
+          }
+        }
+      };
+      wakers[i].start();
+    }
+    for (Thread waker : wakers) {
+      waker.join();
+    }
+
+    // the last wakeup is always followed by a run
+    int runsAfterWakeups = runs.get();
+    runner.wakeup();
+    while (runs.get() == runsAfterWakeups) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assert.assertEquals(0, overlaps.get());
+  }
+
+  @Test
+  public void testExceptionDoesNotStopRunner() throws Exception {
+    final Semaphore runs = new Semaphore(0);
+    CoalescingRunner runner = new CoalescingRunner(new Runnable() {
+      @Override
+      public void run() {
+        runs.release();
+        throw new RuntimeException("expected");
+      }
+    }, executor);
+
+    runner.wakeup();
+    Assert.assertTrue(runs.tryAcquire(10, TimeUnit.SECONDS));
+    // the runner goes idle after the exception, so it can run again
+    TimeUnit.MILLISECONDS.sleep(100);
+    runner.wakeup();
+    Assert.assertTrue(runs.tryAcquire(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler;
+
+import com.continuuity.loom.BaseTest;
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.codec.json.JsonSerde;
+import com.continuuity.loom.common.queue.Element;
+import com.continuuity.loom.common.queue.TrackingQueue;
+import com.continuuity.loom.common.queue.internal.TimeoutTrackingQueue;
+import com.continuuity.loom.management.LoomStats;
+import com.continuuity.loom.scheduler.task.ClusterJob;
+import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobContextCache;
+import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskId;
+import com.continuuity.loom.scheduler.task.TaskService;
+import com.continuuity.loom.store.ClusterStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonObject;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import org.apache.twill.zookeeper.ZKClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+public class JobSchedulerTest extends BaseTest {
+  private static final int NUM_CLUSTERS = 6;
+  private static TimeoutTrackingQueue jobQueue;
+  private static TrackingQueue provisionQueue;
+
+  @BeforeClass
+  public static void start() {
+    jobQueue = injector.getInstance(Key.get(TimeoutTrackingQueue.class, Names.named("internal.job.queue")));
+    jobQueue.start();
+    provisionQueue = injector.getInstance(Key.get(TrackingQueue.class, Names.named("nodeprovisioner.queue")));
+  }
+
+  @After
+  public void cleanup() {
+    jobQueue.removeAll();
+  }
+
+  @Test(timeout = 60000)
+  public void testWorkersScheduleClustersConcurrently() throws Exception {
+    for (int i = 0; i < NUM_CLUSTERS; i++) {
+      String clusterId = String.valueOf(i + 1);
+      Cluster cluster = new Cluster(clusterId, "user", "cluster" + clusterId, System.currentTimeMillis(), "", null,
+                                    null, ImmutableSet.<String>of(), ImmutableSet.<String>of());
+      clusterStore.writeCluster(cluster);
+
+      JobId jobId = new JobId(clusterId, 1);
+      ClusterTask task = new ClusterTask(ProvisionerAction.CREATE, new TaskId(jobId, 1), "node" + clusterId,
+                                         "service", ClusterAction.CLUSTER_CREATE, new JsonObject());
+      task.setStatus(ClusterTask.Status.COMPLETE);
+      clusterStore.writeClusterTask(task);
+      ClusterJob job = new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE);
+      job.addStage(ImmutableSet.of(task.getTaskId()));
+      clusterStore.writeClusterJob(job);
+
+      // the same job queued twice must not be scheduled by two workers at once
+      jobQueue.add(new Element(jobId.getId()));
+      jobQueue.add(new Element(jobId.getId() + "-again", jobId.getId()));
+    }
+
+    SchedulingTracker tracker = new SchedulingTracker(clusterStore);
+    ClusterStore trackingStore = (ClusterStore) Proxy.newProxyInstance(
+      ClusterStore.class.getClassLoader(), new Class<?>[] { ClusterStore.class }, tracker);
+    LoomStats loomStats = new LoomStats();
+    JobScheduler jobScheduler = new JobScheduler(trackingStore, provisionQueue, new JsonSerde(), jobQueue,
+                                                 injector.getInstance(ZKClient.class),
+                                                 new TaskService(trackingStore, new Actions(), loomStats),
+                                                 injector.getInstance(JobContextCache.class), 3, loomStats, 4);
+    jobScheduler.run();
+
+    Assert.assertEquals(0, jobQueue.size());
+    Assert.assertEquals(0, tracker.sameClusterOverlaps.get());
+    Assert.assertTrue(tracker.maxScheduling.get() > 1);
+    for (int i = 0; i < NUM_CLUSTERS; i++) {
+      String clusterId = String.valueOf(i + 1);
+      Assert.assertEquals(ClusterJob.Status.COMPLETE,
+                          clusterStore.getClusterJob(new JobId(clusterId, 1)).getJobStatus());
+      Assert.assertEquals(Cluster.Status.ACTIVE, clusterStore.getCluster(clusterId).getStatus());
+    }
+
+    // every job was finished by one of the workers
+    long finished = 0;
+    for (Map.Entry<String, Long> entry : jobQueue.getFinishedCounts().entrySet()) {
+      Assert.assertTrue(entry.getKey().startsWith("jobscheduler-"));
+      finished += entry.getValue();
+    }
+    Assert.assertEquals(2 * NUM_CLUSTERS, finished);
+  }
+
+  @Test
+  public void testStageOnlyExaminedWhenNoTasksInProgress() throws Exception {
+    String clusterId = String.valueOf(NUM_CLUSTERS + 1);
+    Cluster cluster = new Cluster(clusterId, "user", "cluster" + clusterId, System.currentTimeMillis(), "", null,
+                                  null, ImmutableSet.<String>of(), ImmutableSet.<String>of());
+    clusterStore.writeCluster(cluster);
+
+    JobId jobId = new JobId(clusterId, 1);
+    ClusterTask task1 = new ClusterTask(ProvisionerAction.CREATE, new TaskId(jobId, 1), "node1", "service",
+                                        ClusterAction.CLUSTER_CREATE, new JsonObject());
+    ClusterTask task2 = new ClusterTask(ProvisionerAction.CREATE, new TaskId(jobId, 2), "node2", "service",
+                                        ClusterAction.CLUSTER_CREATE, new JsonObject());
+    ClusterJob job = new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE);
+    job.addStage(ImmutableSet.of(task1.getTaskId(), task2.getTaskId()));
+    clusterStore.writeClusterJob(job);
+    task1.setStatus(ClusterTask.Status.IN_PROGRESS);
+    task2.setStatus(ClusterTask.Status.IN_PROGRESS);
+    clusterStore.writeClusterTasks(ImmutableList.of(task1, task2));
+
+    final AtomicInteger examined = new AtomicInteger(0);
+    ClusterStore countingStore = (ClusterStore) Proxy.newProxyInstance(
+      ClusterStore.class.getClassLoader(), new Class<?>[] { ClusterStore.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("getTaskStatuses")) {
+            examined.incrementAndGet();
+          }
+          try {
+            return method.invoke(clusterStore, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+    LoomStats loomStats = new LoomStats();
+    JobScheduler jobScheduler = new JobScheduler(countingStore, provisionQueue, new JsonSerde(), jobQueue,
+                                                 injector.getInstance(ZKClient.class),
+                                                 new TaskService(countingStore, new Actions(), loomStats),
+                                                 injector.getInstance(JobContextCache.class), 3, loomStats, 1);
+
+    // the first time the job is taken its stage is examined
+    jobQueue.add(new Element(jobId.getId(), jobId.getId()));
+    jobScheduler.run();
+    Assert.assertEquals(1, examined.get());
+
+    // a task finishing while another one is still in progress does not need the stage to be examined
+    task1.setStatus(ClusterTask.Status.COMPLETE);
+    clusterStore.writeClusterTask(task1);
+    jobQueue.add(new Element(jobId.getId(), jobId.getId()));
+    jobQueue.add(new Element(jobId.getId(), jobId.getId()));
+    Assert.assertEquals(1, jobQueue.size());
+    jobScheduler.run();
+    Assert.assertEquals(1, examined.get());
+    Assert.assertEquals(ClusterJob.Status.NOT_SUBMITTED, clusterStore.getClusterJob(jobId).getJobStatus());
+
+    // once the last task of the stage finished, it is examined again and the job completes
+    task2.setStatus(ClusterTask.Status.COMPLETE);
+    clusterStore.writeClusterTask(task2);
+    jobQueue.add(new Element(jobId.getId(), jobId.getId()));
+    jobScheduler.run();
+    Assert.assertEquals(2, examined.get());
+    Assert.assertEquals(ClusterJob.Status.COMPLETE, clusterStore.getClusterJob(jobId).getJobStatus());
+    Assert.assertEquals(0, jobQueue.size());
+  }
+
+  /**
+   * Tracks which clusters are being scheduled, from reading the job to writing it back. Reading a job is slowed down
+   * so that workers overlap.
+   */
+  private static final class SchedulingTracker implements InvocationHandler {
+    private final ClusterStore delegate;
+    private final ConcurrentMap<String, AtomicInteger> scheduling = Maps.newConcurrentMap();
+    private final AtomicInteger numScheduling = new AtomicInteger(0);
+    private final AtomicInteger maxScheduling = new AtomicInteger(0);
+    private final AtomicInteger sameClusterOverlaps = new AtomicInteger(0);
+
+    private SchedulingTracker(ClusterStore delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("getClusterJob")) {
+        String clusterId = ((JobId) args[0]).getClusterId();
+        scheduling.putIfAbsent(clusterId, new AtomicInteger(0));
+        if (scheduling.get(clusterId).incrementAndGet() > 1) {
+          sameClusterOverlaps.incrementAndGet();
+        }
+        int current = numScheduling.incrementAndGet();
+        while (true) {
+          int max = maxScheduling.get();
+          if (current <= max || maxScheduling.compareAndSet(max, current)) {
+            break;
+          }
+        }
+        Thread.sleep(100);
+      }
+      try {
+        return method.invoke(delegate, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      } finally {
+        if (method.getName().equals("writeClusterJob")) {
+          numScheduling.decrementAndGet();
+          scheduling.get(((ClusterJob) args[0]).getClusterId()).decrementAndGet();
+        }
+      }
+    }
+  }
+}
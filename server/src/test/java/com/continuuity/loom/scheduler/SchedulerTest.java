@@ -26,8 +26,10 @@ import com.continuuity.loom.common.queue.TrackingQueue;
 import com.continuuity.loom.common.queue.internal.TimeoutTrackingQueue;
 import com.continuuity.loom.http.LoomService;
 import com.continuuity.loom.management.LoomStats;
+import com.continuuity.loom.management.StageDispatchStats;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobContextCache;
 import com.continuuity.loom.scheduler.task.JobId;
 import com.continuuity.loom.scheduler.task.TaskId;
 import com.continuuity.loom.scheduler.task.TaskService;
@@ -178,7 +180,7 @@ public class SchedulerTest extends BaseTest {
     JobScheduler jobScheduler = new JobScheduler(clusterStore, provisionQueue, new JsonSerde(),
                                                  jobQueue, zkClient,
                                                  new TaskService(clusterStore, new Actions(), loomStats),
-                                                 3, loomStats);
+                                                 injector.getInstance(JobContextCache.class), 3, loomStats, 1);
     jobScheduler.run();
     Assert.assertEquals(0, jobQueue.size());
 
@@ -205,7 +207,8 @@ public class SchedulerTest extends BaseTest {
     taskJson = TestHelper.takeTask(getLoomUrl(), "consumer1");
     System.out.println("Got task " + taskJson);
 
-    Assert.assertEquals(2, jobQueue.size());
+    // both finished tasks queued the same job, which is only in the queue once.
+    Assert.assertEquals(1, jobQueue.size());
 
     jobScheduler.run();
     jobScheduler.run();
@@ -223,6 +226,11 @@ public class SchedulerTest extends BaseTest {
       jobScheduler.run();
       jobScheduler.run();
     }
+
+    // stages after the first one were dispatched once the previous stage completed
+    StageDispatchStats dispatchStats = loomStats.getStageDispatchStats();
+    Assert.assertTrue(dispatchStats.getUnder10Ms() + dispatchStats.getUnder100Ms() + dispatchStats.getUnder1Sec() +
+                        dispatchStats.getUnder10Sec() + dispatchStats.getOver10Sec() > 0);
   }
 
   private String getLoomUrl() {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.scheduler.task;
+
+import com.continuuity.loom.BaseTest;
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.admin.ServiceAction;
+import com.continuuity.loom.cluster.Node;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test JobContextCache.
+ */
+public class JobContextCacheTest extends BaseTest {
+  private static final Service NAMENODE =
+    new Service("namenode", "hadoop namenode", ImmutableSet.<String>of(),
+                ImmutableMap.<ProvisionerAction, ServiceAction>of());
+  private static final Service DATANODE =
+    new Service("datanode", "hadoop datanode", ImmutableSet.<String>of(),
+                ImmutableMap.<ProvisionerAction, ServiceAction>of());
+
+  @Test
+  public void testContext() throws Exception {
+    clusterStore.writeNodes(ImmutableSet.of(
+      new Node("node1", "1", ImmutableSet.of(NAMENODE, DATANODE),
+               ImmutableMap.of("hostname", "node1.loom.continuuity.net", "nodenum", "2")),
+      new Node("node2", "1", ImmutableSet.of(DATANODE),
+               ImmutableMap.of("hostname", "node2.loom.continuuity.net", "nodenum", "1"))));
+
+    JobContext context = new JobContextCache(10, clusterStore).getJobContext(new JobId("1", 1), null);
+    Assert.assertEquals(2, context.getNodes().size());
+    Assert.assertEquals("node1", context.getNode("node1").getId());
+    Assert.assertNull(context.getNode("node3"));
+    Assert.assertNull(context.getNode(null));
+    Assert.assertEquals("node2.loom.continuuity.net",
+                        context.getNodeList().getAsJsonObject("node2").get("hostname").getAsString());
+    Assert.assertEquals(1, context.getServiceNodes().getNodes("namenode").size());
+    Assert.assertEquals("node2", context.getServiceNodes().getNodesByNodeNum("datanode").get(0).getId());
+    Assert.assertTrue(context.getServiceNodes().getNodes("zookeeper").isEmpty());
+  }
+
+  @Test
+  public void testReloadedWhenTasksFinished() throws Exception {
+    JobId jobId = new JobId("1", 1);
+    clusterStore.writeNode(new Node("node1", "1", ImmutableSet.of(NAMENODE),
+                                    ImmutableMap.of("hostname", "node1.loom.continuuity.net")));
+    JobContextCache cache = new JobContextCache(10, clusterStore);
+
+    JobContext context = cache.getJobContext(jobId, new TaskCounts(2, 0, 0));
+    Assert.assertEquals(1, cache.size());
+    // starting tasks does not change nodes
+    Assert.assertSame(context, cache.getJobContext(jobId, new TaskCounts(3, 0, 0)));
+
+    // once a task finished, the nodes are read again
+    clusterStore.writeNode(new Node("node2", "1", ImmutableSet.of(NAMENODE),
+                                    ImmutableMap.of("hostname", "node2.loom.continuuity.net")));
+    context = cache.getJobContext(jobId, new TaskCounts(2, 1, 0));
+    Assert.assertEquals(2, context.getNodes().size());
+    Assert.assertSame(context, cache.getJobContext(jobId, new TaskCounts(2, 1, 0)));
+    Assert.assertNotSame(context, cache.getJobContext(jobId, new TaskCounts(1, 1, 1)));
+
+    // contexts are not cached if the task counts are not known
+    Assert.assertNotSame(cache.getJobContext(jobId, null), cache.getJobContext(jobId, null));
+  }
+
+  @Test
+  public void testInvalidateJob() throws Exception {
+    JobId jobId1 = new JobId("1", 1);
+    JobId jobId2 = new JobId("2", 1);
+    clusterStore.writeNode(new Node("node1", "1", ImmutableSet.of(NAMENODE),
+                                    ImmutableMap.of("hostname", "node1.loom.continuuity.net")));
+    clusterStore.writeNode(new Node("node2", "2", ImmutableSet.of(NAMENODE),
+                                    ImmutableMap.of("hostname", "node2.loom.continuuity.net")));
+    JobContextCache cache = new JobContextCache(10, clusterStore);
+    TaskCounts counts = new TaskCounts(1, 0, 0);
+
+    JobContext context1 = cache.getJobContext(jobId1, counts);
+    JobContext context2 = cache.getJobContext(jobId2, counts);
+    Assert.assertEquals(2, cache.size());
+
+    cache.invalidateJob(jobId1.getId());
+    Assert.assertEquals(1, cache.size());
+    Assert.assertNotSame(context1, cache.getJobContext(jobId1, counts));
+    Assert.assertSame(context2, cache.getJobContext(jobId2, counts));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    TaskCounts counts = new TaskCounts(1, 0, 0);
+    JobContextCache cache = new JobContextCache(2, clusterStore);
+    JobContext context1 = cache.getJobContext(new JobId("1", 1), counts);
+    cache.getJobContext(new JobId("2", 1), counts);
+    // job 1 was used more recently than job 2, so job 2 is evicted
+    Assert.assertSame(context1, cache.getJobContext(new JobId("1", 1), counts));
+    cache.getJobContext(new JobId("3", 1), counts);
+    Assert.assertEquals(2, cache.size());
+    Assert.assertSame(context1, cache.getJobContext(new JobId("1", 1), counts));
+
+    // a cache of size 0 caches nothing
+    cache = new JobContextCache(0, clusterStore);
+    cache.getJobContext(new JobId("1", 1), counts);
+    Assert.assertEquals(0, cache.size());
+  }
+}
@@ -19,7 +19,9 @@ import com.continuuity.loom.conf.Configuration;
 import com.continuuity.loom.conf.Constants;
 import com.google.common.base.Throwables;
 import org.apache.twill.internal.zookeeper.InMemoryZKServer;
+import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClientService;
+import org.apache.twill.zookeeper.ZKClients;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -30,6 +32,9 @@ import org.junit.rules.TemporaryFolder;
 import java.io.IOException;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
@@ -109,4 +114,47 @@ public class BaseClusterStoreTest {
     Assert.assertEquals(expected, actual);
   }
 
+  @Test
+  public void testIdBlocksAcrossStores() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(Constants.JDBC_DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
+    conf.set(Constants.JDBC_CONNECTION_STRING, "jdbc:derby:memory:loom;create=true");
+    DBConnectionPool dbConnectionPool = new DBConnectionPool(conf);
+    // stores with their own counters, as if they were in different servers sharing zookeeper
+    ZKClient blocksZKClient = ZKClients.namespace(zkClient, "/blocks");
+    SQLClusterStore[] stores = new SQLClusterStore[2];
+    for (int i = 0; i < stores.length; i++) {
+      stores[i] = new SQLClusterStore(blocksZKClient, dbConnectionPool, 3, 10);
+      stores[i].setIdBlockSize(7);
+      stores[i].initialize();
+    }
+
+    final int idsPerThread = 100;
+    final int numThreads = 10;
+    final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    final CountDownLatch latch = new CountDownLatch(numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      final SQLClusterStore store = stores[i % stores.length];
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < idsPerThread; j++) {
+            ids.add(Long.valueOf(store.getNewClusterId()));
+          }
+          latch.countDown();
+        }
+      });
+    }
+    latch.await();
+    executor.shutdown();
+
+    // no id was given twice, and all of them are in the partition of the id space
+    Assert.assertEquals(numThreads * idsPerThread, ids.size());
+    for (long id : ids) {
+      Assert.assertTrue(id >= 3);
+      Assert.assertEquals(3, id % 10);
+    }
+  }
+
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.Entities;
+import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.admin.Service;
+import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.Node;
+import com.continuuity.loom.codec.json.JsonSerde;
+import com.continuuity.loom.scheduler.ClusterAction;
+import com.continuuity.loom.scheduler.task.ClusterJob;
+import com.continuuity.loom.scheduler.task.ClusterTask;
+import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskId;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ *
+ */
+public class BlobSerdeTest {
+  private static final Cluster CLUSTER = new Cluster(
+    "00000001", "user", "example-hdfs", 1234567890L, "hdfs cluster",
+    Entities.ProviderExample.RACKSPACE,
+    Entities.ClusterTemplateExample.HDFS,
+    ImmutableSet.of("node1", "node2"),
+    ImmutableSet.of("namenode", "datanode")
+  );
+  private static final Node NODE = new Node(
+    "node1", "00000001",
+    ImmutableSet.<Service>of(Entities.ServiceExample.NAMENODE, Entities.ServiceExample.DATANODE),
+    ImmutableMap.of("ipaddress", "10.0.0.1", "hostname", "node1.example.com", "flavor", "4"));
+
+  @Test
+  public void testRoundTrips() {
+    ClusterTask task = new ClusterTask(ProvisionerAction.CONFIGURE, new TaskId(new JobId("00000001", 2), 3),
+                                       "node1", "namenode", ClusterAction.CLUSTER_CREATE, getConfig());
+    ClusterJob job = new ClusterJob(new JobId("00000001", 2), ClusterAction.CLUSTER_CREATE);
+    job.addStage(ImmutableSet.of("00000001-2-1", "00000001-2-2"));
+    job.addStage(ImmutableSet.of("00000001-2-3"));
+    job.setTaskStatus("00000001-2-1", ClusterTask.Status.COMPLETE);
+    job.setJobStatus(ClusterJob.Status.RUNNING);
+    for (BlobSerde.Format format : BlobSerde.Format.values()) {
+      BlobSerde serde = new BlobSerde(format);
+      Assert.assertEquals(CLUSTER, serde.deserialize(serde.serialize(CLUSTER, Cluster.class), Cluster.class));
+      Assert.assertEquals(NODE, serde.deserialize(serde.serialize(NODE, Node.class), Node.class));
+      Assert.assertEquals(job, serde.deserialize(serde.serialize(job, ClusterJob.class), ClusterJob.class));
+      Assert.assertEquals(task, serde.deserialize(serde.serialize(task, ClusterTask.class), ClusterTask.class));
+      Assert.assertEquals(format, BlobSerde.getFormat(serde.serialize(CLUSTER, Cluster.class)));
+    }
+  }
+
+  @Test
+  public void testJsonPrimitivesRoundTrip() {
+    JsonObject config = getConfig();
+    for (BlobSerde.Format format : BlobSerde.Format.values()) {
+      BlobSerde serde = new BlobSerde(format);
+      JsonObject decoded = serde.deserialize(serde.serialize(config, JsonObject.class), JsonObject.class);
+      Assert.assertEquals(config, decoded);
+      Assert.assertEquals(Long.MIN_VALUE, decoded.get("min").getAsLong());
+      Assert.assertEquals(0.25, decoded.get("ratio").getAsDouble(), 0);
+      Assert.assertEquals(new BigInteger("123456789012345678901234567890"), decoded.get("big").getAsBigInteger());
+      Assert.assertEquals(new BigDecimal("3.14159265358979323846"), decoded.get("pi").getAsBigDecimal());
+      Assert.assertEquals("caf\u00e9 \u6771\u4eac", decoded.get("unicode").getAsString());
+    }
+  }
+
+  @Test
+  public void testReadAsOtherTypes() {
+    JsonObject tree = new JsonSerde().getGson().toJsonTree(CLUSTER, Cluster.class).getAsJsonObject();
+    for (BlobSerde.Format format : BlobSerde.Format.values()) {
+      BlobSerde serde = new BlobSerde(format);
+      byte[] bytes = serde.serialize(CLUSTER, Cluster.class);
+      Assert.assertEquals(tree, serde.deserialize(bytes, JsonObject.class));
+      // fields that are not in the class are skipped.
+      NamedObject named = serde.deserialize(bytes, NamedObject.class);
+      Assert.assertEquals(CLUSTER.getId(), named.id);
+      Assert.assertEquals(CLUSTER.getName(), named.name);
+    }
+  }
+
+  @Test
+  public void testAnyFormatIsRead() {
+    for (BlobSerde.Format writeFormat : BlobSerde.Format.values()) {
+      byte[] bytes = new BlobSerde(writeFormat).serialize(CLUSTER, Cluster.class);
+      for (BlobSerde.Format readFormat : BlobSerde.Format.values()) {
+        Assert.assertEquals(CLUSTER, new BlobSerde(readFormat).deserialize(bytes, Cluster.class));
+      }
+    }
+  }
+
+  @Test
+  public void testLegacyJsonIsRead() {
+    // blobs written before the binary formats existed are plain json.
+    byte[] json = new JsonSerde().serialize(CLUSTER, Cluster.class);
+    Assert.assertEquals(BlobSerde.Format.JSON, BlobSerde.getFormat(json));
+    Assert.assertEquals(CLUSTER, new BlobSerde(BlobSerde.Format.BINARY).deserialize(json, Cluster.class));
+    Assert.assertEquals(CLUSTER, new BlobSerde(BlobSerde.Format.BINARY_DEFLATE).deserialize(json, Cluster.class));
+  }
+
+  @Test
+  public void testBinaryIsSmallerThanJson() {
+    int json = new BlobSerde(BlobSerde.Format.JSON).serialize(CLUSTER, Cluster.class).length;
+    int binary = new BlobSerde(BlobSerde.Format.BINARY).serialize(CLUSTER, Cluster.class).length;
+    int deflated = new BlobSerde(BlobSerde.Format.BINARY_DEFLATE).serialize(CLUSTER, Cluster.class).length;
+    Assert.assertTrue(binary < json);
+    Assert.assertTrue(deflated < binary);
+  }
+
+  @Test
+  public void testUnknownVersionFails() {
+    for (BlobSerde.Format format : ImmutableSet.of(BlobSerde.Format.BINARY, BlobSerde.Format.BINARY_DEFLATE)) {
+      BlobSerde serde = new BlobSerde(format);
+      byte[] bytes = serde.serialize(CLUSTER, Cluster.class);
+      bytes[1] = 2;
+      try {
+        serde.deserialize(bytes, Cluster.class);
+        Assert.fail();
+      } catch (JsonParseException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testTruncatedBlobFails() {
+    for (BlobSerde.Format format : ImmutableSet.of(BlobSerde.Format.BINARY, BlobSerde.Format.BINARY_DEFLATE)) {
+      BlobSerde serde = new BlobSerde(format);
+      byte[] bytes = serde.serialize(CLUSTER, Cluster.class);
+      try {
+        serde.deserialize(Arrays.copyOf(bytes, bytes.length - 5), Cluster.class);
+        Assert.fail();
+      } catch (JsonParseException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testFormatNames() {
+    for (BlobSerde.Format format : BlobSerde.Format.values()) {
+      Assert.assertEquals(format, BlobSerde.Format.fromName(format.toString()));
+    }
+    try {
+      BlobSerde.Format.fromName("lz4");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static final class NamedObject {
+    private String id;
+    private String name;
+  }
+
+  private static JsonObject getConfig() {
+    JsonObject config = new JsonObject();
+    config.addProperty("port", 8080);
+    config.addProperty("min", Long.MIN_VALUE);
+    config.addProperty("ratio", 0.25);
+    config.addProperty("big", new BigInteger("123456789012345678901234567890"));
+    config.addProperty("pi", new BigDecimal("3.14159265358979323846"));
+    config.addProperty("enabled", true);
+    config.addProperty("unicode", "caf\u00e9 \u6771\u4eac");
+    JsonArray hosts = new JsonArray();
+    hosts.add(new JsonPrimitive("node1.example.com"));
+    hosts.add(JsonNull.INSTANCE);
+    config.add("hosts", hosts);
+    JsonObject nested = new JsonObject();
+    nested.addProperty("port", 50070);
+    config.add("namenode", nested);
+    return config;
+  }
+}
@@ -17,7 +17,9 @@ package com.continuuity.loom.store;
 
 import com.continuuity.loom.Entities;
 import com.continuuity.loom.admin.ProvisionerAction;
+import com.continuuity.loom.admin.Service;
 import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.cluster.Node;
 import com.continuuity.loom.codec.json.JsonSerde;
 import com.continuuity.loom.scheduler.ClusterAction;
@@ -25,16 +27,28 @@ import com.continuuity.loom.scheduler.SchedulerTest;
 import com.continuuity.loom.scheduler.task.ClusterJob;
 import com.continuuity.loom.scheduler.task.ClusterTask;
 import com.continuuity.loom.scheduler.task.JobId;
+import com.continuuity.loom.scheduler.task.TaskCounts;
 import com.continuuity.loom.scheduler.task.TaskException;
 import com.continuuity.loom.scheduler.task.TaskId;
+import com.continuuity.loom.scheduler.task.TaskStatus;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -111,6 +125,50 @@ public abstract class ClusterStoreTest {
     Assert.assertNull(store.getClusterJob(id));
   }
 
+  @Test
+  public void testGetClusterJobs() throws TaskException {
+    // jobs 1-1 and 2-2 should not pull in 1-2 or 2-1 even though their cluster ids and job numbers are requested.
+    JobId jobId11 = new JobId("1", 1);
+    JobId jobId12 = new JobId("1", 2);
+    JobId jobId21 = new JobId("2", 1);
+    JobId jobId22 = new JobId("2", 2);
+    for (JobId jobId : ImmutableList.of(jobId11, jobId12, jobId21, jobId22)) {
+      store.writeClusterJob(new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE));
+    }
+
+    Map<JobId, ClusterJob> jobs = store.getClusterJobs(ImmutableSet.of(jobId11, jobId22, new JobId("3", 1)));
+    Assert.assertEquals(ImmutableSet.of(jobId11, jobId22), jobs.keySet());
+    Assert.assertEquals(jobId11.getId(), jobs.get(jobId11).getJobId());
+    Assert.assertEquals(jobId22.getId(), jobs.get(jobId22).getJobId());
+
+    Assert.assertTrue(store.getClusterJobs(ImmutableSet.<JobId>of()).isEmpty());
+
+    for (JobId jobId : ImmutableList.of(jobId11, jobId12, jobId21, jobId22)) {
+      store.deleteClusterJob(jobId);
+    }
+  }
+
+  @Test
+  public void testGetManyClusterJobs() throws TaskException {
+    // more jobs than fit in a single lookup.
+    Set<JobId> jobIds = Sets.newHashSet();
+    for (int i = 1; i <= 600; i++) {
+      JobId jobId = new JobId(String.valueOf(i), i % 3);
+      jobIds.add(jobId);
+      store.writeClusterJob(new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE));
+    }
+
+    Map<JobId, ClusterJob> jobs = store.getClusterJobs(jobIds);
+    Assert.assertEquals(jobIds, jobs.keySet());
+    for (Map.Entry<JobId, ClusterJob> entry : jobs.entrySet()) {
+      Assert.assertEquals(entry.getKey().getId(), entry.getValue().getJobId());
+    }
+
+    for (JobId jobId : jobIds) {
+      store.deleteClusterJob(jobId);
+    }
+  }
+
   @Test
   public void testGetStoreDeleteTask() throws TaskException {
     TaskId id = new TaskId(new JobId("1", 1), 1);
@@ -127,6 +185,229 @@ public abstract class ClusterStoreTest {
     Assert.assertNull(store.getClusterTask(id));
   }
 
+  @Test
+  public void testWriteClusterTasks() throws TaskException {
+    JobId jobId1 = new JobId("1", 1);
+    JobId jobId2 = new JobId("2", 1);
+    ClusterTask existing = new ClusterTask(ProvisionerAction.CONFIGURE, new TaskId(jobId1, 1),
+                                           "node1", "service", ClusterAction.CLUSTER_CREATE, new JsonObject());
+    store.writeClusterTask(existing);
+
+    List<ClusterTask> tasks = Lists.newArrayList();
+    tasks.add(existing);
+    for (int i = 2; i <= 5; i++) {
+      tasks.add(new ClusterTask(ProvisionerAction.INSTALL, new TaskId(jobId1, i),
+                                "node" + i, "service", ClusterAction.CLUSTER_CREATE, new JsonObject()));
+      tasks.add(new ClusterTask(ProvisionerAction.INSTALL, new TaskId(jobId2, i),
+                                "node" + i, "service", ClusterAction.CLUSTER_CREATE, new JsonObject()));
+    }
+    existing.setStatus(ClusterTask.Status.IN_PROGRESS);
+
+    // mix of updates and inserts across jobs
+    store.writeClusterTasks(tasks);
+    for (ClusterTask task : tasks) {
+      Assert.assertEquals(task, store.getClusterTask(TaskId.fromString(task.getTaskId())));
+    }
+    Assert.assertEquals(ClusterTask.Status.IN_PROGRESS,
+                        store.getClusterTask(TaskId.fromString(existing.getTaskId())).getStatus());
+
+    // all updates
+    for (ClusterTask task : tasks) {
+      task.setStatus(ClusterTask.Status.COMPLETE);
+    }
+    store.writeClusterTasks(tasks);
+    for (ClusterTask task : tasks) {
+      Assert.assertEquals(ClusterTask.Status.COMPLETE,
+                          store.getClusterTask(TaskId.fromString(task.getTaskId())).getStatus());
+    }
+
+    store.writeClusterTasks(ImmutableList.<ClusterTask>of());
+  }
+
+  @Test
+  public void testGetClusterTasks() throws TaskException {
+    // task 1 of job 1-1 should not pull in task 1 of job 1-2 even though its task number is requested.
+    TaskId taskId111 = new TaskId(new JobId("1", 1), 1);
+    TaskId taskId112 = new TaskId(new JobId("1", 1), 2);
+    TaskId taskId121 = new TaskId(new JobId("1", 2), 1);
+    TaskId taskId211 = new TaskId(new JobId("2", 1), 1);
+    for (TaskId taskId : ImmutableList.of(taskId111, taskId112, taskId121, taskId211)) {
+      store.writeClusterTask(new ClusterTask(ProvisionerAction.CONFIGURE, taskId, "node1", "service",
+                                             ClusterAction.CLUSTER_CREATE, new JsonObject()));
+    }
+
+    TaskId missing = new TaskId(new JobId("1", 1), 3);
+    Map<TaskId, ClusterTask> tasks = store.getClusterTasks(ImmutableSet.of(taskId111, taskId211, missing));
+    Assert.assertEquals(ImmutableSet.of(taskId111, taskId211), tasks.keySet());
+    Assert.assertEquals(store.getClusterTask(taskId111), tasks.get(taskId111));
+    Assert.assertEquals(store.getClusterTask(taskId211), tasks.get(taskId211));
+
+    Assert.assertTrue(store.getClusterTasks(ImmutableSet.<TaskId>of()).isEmpty());
+  }
+
+  @Test
+  public void testGetManyClusterTasks() throws TaskException {
+    // more tasks of a job than fit in a single lookup.
+    Set<TaskId> taskIds = Sets.newHashSet();
+    List<ClusterTask> tasks = Lists.newArrayList();
+    for (int i = 1; i <= 600; i++) {
+      TaskId taskId = new TaskId(new JobId(String.valueOf(i % 2 + 1), 1), i);
+      taskIds.add(taskId);
+      tasks.add(new ClusterTask(ProvisionerAction.INSTALL, taskId, "node" + i, "service",
+                                ClusterAction.CLUSTER_CREATE, new JsonObject()));
+    }
+    store.writeClusterTasks(tasks);
+
+    Map<TaskId, ClusterTask> taskMap = store.getClusterTasks(taskIds);
+    Assert.assertEquals(taskIds, taskMap.keySet());
+    for (Map.Entry<TaskId, ClusterTask> entry : taskMap.entrySet()) {
+      Assert.assertEquals(entry.getKey().getId(), entry.getValue().getTaskId());
+    }
+  }
+
+  @Test
+  public void testGetTaskStatuses() throws TaskException {
+    JobId jobId = new JobId("1", 1);
+    TaskId completeId = new TaskId(jobId, 1);
+    TaskId inProgressId = new TaskId(jobId, 2);
+    TaskId notSubmittedId = new TaskId(jobId, 3);
+    List<ClusterTask> tasks = Lists.newArrayList();
+    for (TaskId taskId : ImmutableList.of(completeId, inProgressId, notSubmittedId)) {
+      tasks.add(new ClusterTask(ProvisionerAction.INSTALL, taskId, "node1", "service",
+                                ClusterAction.CLUSTER_CREATE, new JsonObject()));
+    }
+    tasks.get(0).setStatus(ClusterTask.Status.COMPLETE);
+    tasks.get(0).setStatusTime(1000);
+    tasks.get(1).setStatus(ClusterTask.Status.IN_PROGRESS);
+    tasks.get(1).setStatusTime(2000);
+    // same task number in another job
+    tasks.add(new ClusterTask(ProvisionerAction.INSTALL, new TaskId(new JobId("1", 2), 3), "node1", "service",
+                              ClusterAction.CLUSTER_CREATE, new JsonObject()));
+    tasks.get(3).setStatus(ClusterTask.Status.FAILED);
+    store.writeClusterTasks(tasks);
+
+    TaskId missing = new TaskId(jobId, 4);
+    Map<TaskId, TaskStatus> statuses =
+      store.getTaskStatuses(jobId, ImmutableSet.of(completeId, inProgressId, notSubmittedId, missing));
+    Assert.assertEquals(ImmutableMap.of(completeId, new TaskStatus(ClusterTask.Status.COMPLETE, 1000),
+                                        inProgressId, new TaskStatus(ClusterTask.Status.IN_PROGRESS, 2000),
+                                        notSubmittedId, new TaskStatus(ClusterTask.Status.NOT_SUBMITTED, 0)),
+                        statuses);
+
+    Assert.assertTrue(store.getTaskStatuses(jobId, ImmutableSet.<TaskId>of()).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetTaskStatusesOfOtherJobFails() throws TaskException {
+    store.getTaskStatuses(new JobId("1", 1), ImmutableSet.of(new TaskId(new JobId("1", 2), 1)));
+  }
+
+  @Test
+  public void testTaskCounts() throws TaskException {
+    JobId jobId = new JobId("3", 1);
+    Assert.assertNull(store.getTaskCounts(jobId));
+    store.writeClusterJob(new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE));
+    Assert.assertEquals(new TaskCounts(0, 0, 0), store.getTaskCounts(jobId));
+
+    List<ClusterTask> tasks = Lists.newArrayList();
+    for (int i = 1; i <= 3; i++) {
+      tasks.add(new ClusterTask(ProvisionerAction.INSTALL, new TaskId(jobId, i), "node" + i, "service",
+                                ClusterAction.CLUSTER_CREATE, new JsonObject()));
+    }
+    store.writeClusterTasks(tasks);
+    Assert.assertEquals(new TaskCounts(0, 0, 0), store.getTaskCounts(jobId));
+
+    for (ClusterTask task : tasks) {
+      task.setStatus(ClusterTask.Status.IN_PROGRESS);
+    }
+    store.writeClusterTasks(tasks);
+    Assert.assertEquals(new TaskCounts(3, 0, 0), store.getTaskCounts(jobId));
+    // writing a task without changing its status does not count it again
+    store.writeClusterTask(tasks.get(0));
+    Assert.assertEquals(new TaskCounts(3, 0, 0), store.getTaskCounts(jobId));
+
+    tasks.get(0).setStatus(ClusterTask.Status.COMPLETE);
+    store.writeClusterTask(tasks.get(0));
+    tasks.get(1).setStatus(ClusterTask.Status.FAILED);
+    store.writeClusterTask(tasks.get(1));
+    Assert.assertEquals(new TaskCounts(1, 1, 1), store.getTaskCounts(jobId));
+
+    // retried task fails again
+    tasks.get(1).setStatus(ClusterTask.Status.IN_PROGRESS);
+    store.writeClusterTask(tasks.get(1));
+    tasks.get(1).setStatus(ClusterTask.Status.FAILED);
+    store.writeClusterTask(tasks.get(1));
+    tasks.get(2).setStatus(ClusterTask.Status.DROPPED);
+    store.writeClusterTask(tasks.get(2));
+    Assert.assertEquals(new TaskCounts(0, 1, 2), store.getTaskCounts(jobId));
+
+    // writing the job does not change its task counts
+    store.writeClusterJob(store.getClusterJob(jobId));
+    Assert.assertEquals(new TaskCounts(0, 1, 2), store.getTaskCounts(jobId));
+  }
+
+  @Test
+  public void testDeleteTaskUpdatesTaskCounts() throws TaskException {
+    JobId jobId = new JobId("5", 1);
+    store.writeClusterJob(new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE));
+    List<ClusterTask> tasks = Lists.newArrayList();
+    for (int i = 1; i <= 2; i++) {
+      ClusterTask task = new ClusterTask(ProvisionerAction.INSTALL, new TaskId(jobId, i), "node" + i, "service",
+                                         ClusterAction.CLUSTER_CREATE, new JsonObject());
+      task.setStatus(ClusterTask.Status.IN_PROGRESS);
+      tasks.add(task);
+    }
+    store.writeClusterTasks(tasks);
+    tasks.get(1).setStatus(ClusterTask.Status.COMPLETE);
+    store.writeClusterTask(tasks.get(1));
+    Assert.assertEquals(new TaskCounts(1, 1, 0), store.getTaskCounts(jobId));
+
+    // a deleted task is no longer in progress, but what already happened to tasks is still counted
+    store.deleteClusterTask(new TaskId(jobId, 1));
+    Assert.assertEquals(new TaskCounts(0, 1, 0), store.getTaskCounts(jobId));
+    store.deleteClusterTask(new TaskId(jobId, 2));
+    Assert.assertEquals(new TaskCounts(0, 1, 0), store.getTaskCounts(jobId));
+    // deleting a task that is not there changes nothing
+    store.deleteClusterTask(new TaskId(jobId, 1));
+    Assert.assertEquals(new TaskCounts(0, 1, 0), store.getTaskCounts(jobId));
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentTaskWritesCountedOnce() throws Exception {
+    JobId jobId = new JobId("4", 1);
+    store.writeClusterJob(new ClusterJob(jobId, ClusterAction.CLUSTER_CREATE));
+    final ClusterTask task = new ClusterTask(ProvisionerAction.INSTALL, new TaskId(jobId, 1), "node1", "service",
+                                             ClusterAction.CLUSTER_CREATE, new JsonObject());
+    task.setStatus(ClusterTask.Status.IN_PROGRESS);
+    store.writeClusterTask(task);
+    task.setStatus(ClusterTask.Status.COMPLETE);
+
+    // the same status change written by several threads at once is counted once
+    int numThreads = 8;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (int i = 0; i < numThreads; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            startLatch.await();
+            store.writeClusterTask(task);
+            return null;
+          }
+        }));
+      }
+      startLatch.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(new TaskCounts(0, 1, 0), store.getTaskCounts(jobId));
+  }
+
   @Test
   public void testGetAllClusters() throws Exception {
     Assert.assertEquals(0, store.getAllClusters().size());
@@ -159,6 +440,109 @@ public abstract class ClusterStoreTest {
     Assert.assertEquals(cluster1, clusters.get(1));
   }
 
+  @Test
+  public void testGetAllClusterSummaries() throws Exception {
+    Assert.assertEquals(0, store.getAllClusterSummaries().size());
+
+    Cluster cluster1 = new Cluster(
+      store.getNewClusterId(), "user1", "example-hdfs", System.currentTimeMillis(), "hdfs cluster",
+      Entities.ProviderExample.RACKSPACE,
+      Entities.ClusterTemplateExample.HDFS,
+      ImmutableSet.of("node1", "node2"),
+      ImmutableSet.of("s1", "s2")
+    );
+    cluster1.addJob("1-1");
+    cluster1.setExpireTime(System.currentTimeMillis() + 100000);
+    Cluster cluster2 = new Cluster(
+      store.getNewClusterId(), "user2", "example-hdfs2", System.currentTimeMillis() + 1, "hdfs cluster",
+      Entities.ProviderExample.RACKSPACE,
+      null,
+      ImmutableSet.of("node3"),
+      ImmutableSet.of("s1", "s4")
+    );
+    store.writeCluster(cluster1);
+    store.writeCluster(cluster2);
+
+    Assert.assertEquals(ImmutableList.of(ClusterSummary.fromCluster(cluster2), ClusterSummary.fromCluster(cluster1)),
+                        store.getAllClusterSummaries());
+    Assert.assertEquals(ImmutableList.of(ClusterSummary.fromCluster(cluster1)), store.getAllClusterSummaries("user1"));
+
+    // summaries follow updates to the cluster.
+    cluster1.addJob("1-2");
+    cluster1.setNodes(ImmutableSet.of("node1"));
+    cluster1.setStatus(Cluster.Status.ACTIVE);
+    store.writeCluster(cluster1);
+    ClusterSummary summary = store.getAllClusterSummaries("user1").get(0);
+    Assert.assertEquals(ClusterSummary.fromCluster(cluster1), summary);
+    Assert.assertEquals("1-2", summary.getLatestJobId());
+    Assert.assertEquals(1, summary.getNumNodes());
+    Assert.assertEquals(Entities.ClusterTemplateExample.HDFS.getName(), summary.getClusterTemplate());
+  }
+
+  @Test
+  public void testGetClusterSummaryPages() throws Exception {
+    // clusters created at the same time are ordered by descending id.
+    long now = System.currentTimeMillis();
+    List<ClusterSummary> expected = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      Cluster cluster = new Cluster(
+        store.getNewClusterId(), "user" + (i % 2), "cluster" + i, now + i / 2, "cluster", null,
+        i % 3 == 0 ? Entities.ClusterTemplateExample.HDFS : Entities.ClusterTemplateExample.REACTOR,
+        ImmutableSet.of("node" + i), ImmutableSet.of("s1")
+      );
+      cluster.setStatus(i % 2 == 0 ? Cluster.Status.ACTIVE : Cluster.Status.PENDING);
+      store.writeCluster(cluster);
+      expected.add(0, ClusterSummary.fromCluster(cluster));
+    }
+    Assert.assertEquals(expected, store.getClusterSummaries(ClusterFilter.ALL, null, 0));
+
+    // walk through the pages
+    List<ClusterSummary> pages = Lists.newArrayList();
+    ClusterCursor cursor = null;
+    List<ClusterSummary> page;
+    do {
+      page = store.getClusterSummaries(ClusterFilter.ALL, cursor, 3);
+      Assert.assertTrue(page.size() <= 3);
+      pages.addAll(page);
+      if (!page.isEmpty()) {
+        cursor = ClusterCursor.fromString(ClusterCursor.after(page.get(page.size() - 1)).toString());
+      }
+    } while (page.size() == 3);
+    Assert.assertEquals(expected, pages);
+
+    // filters
+    ClusterFilter filter = new ClusterFilter("user0", ImmutableSet.of(Cluster.Status.ACTIVE),
+                                             Entities.ClusterTemplateExample.HDFS.getName());
+    List<ClusterSummary> filtered = store.getClusterSummaries(filter, null, 0);
+    Assert.assertEquals(2, filtered.size());
+    for (ClusterSummary summary : filtered) {
+      Assert.assertEquals("user0", summary.getOwnerId());
+      Assert.assertEquals(Cluster.Status.ACTIVE, summary.getStatus());
+      Assert.assertEquals(Entities.ClusterTemplateExample.HDFS.getName(), summary.getClusterTemplate());
+    }
+    filter = new ClusterFilter(null, ImmutableSet.of(Cluster.Status.ACTIVE, Cluster.Status.PENDING), null);
+    Assert.assertEquals(expected, store.getClusterSummaries(filter, null, 0));
+    filter = new ClusterFilter(null, ImmutableSet.of(Cluster.Status.TERMINATED), null);
+    Assert.assertTrue(store.getClusterSummaries(filter, null, 0).isEmpty());
+
+    // scanning stops when the consumer fails
+    final List<ClusterSummary> scanned = Lists.newArrayList();
+    try {
+      store.scanClusterSummaries(ClusterFilter.ALL, null, 0, new ClusterSummaryConsumer() {
+        @Override
+        public void consume(ClusterSummary summary) throws Exception {
+          scanned.add(summary);
+          if (scanned.size() == 2) {
+            throw new IllegalStateException("stop");
+          }
+        }
+      });
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(expected.subList(0, 2), scanned);
+    }
+  }
+
   @Test
   public void testGetStoreDeleteNode() throws Exception {
     Node node = GSON.fromJson(SchedulerTest.NODE1, Node.class);
@@ -174,6 +558,28 @@ public abstract class ClusterStoreTest {
     Assert.assertNull(store.getNode(node.getId()));
   }
 
+  @Test
+  public void testWriteNodes() throws Exception {
+    Node node1 = GSON.fromJson(SchedulerTest.NODE1, Node.class);
+    Node node2 = GSON.fromJson(SchedulerTest.NODE2, Node.class);
+    store.writeNode(node1);
+
+    // mix of updates and inserts
+    node1.addAction(new Node.Action("1-1-1", "service", "INSTALL"));
+    store.writeNodes(ImmutableList.of(node1, node2));
+    Assert.assertEquals(node1.getActions().size(), store.getNode(node1.getId()).getActions().size());
+    Assert.assertEquals(node2, store.getNode(node2.getId()));
+
+    // all updates
+    node1.addAction(new Node.Action("1-1-2", "service", "CONFIGURE"));
+    node2.addAction(new Node.Action("1-1-3", "service", "INSTALL"));
+    store.writeNodes(ImmutableList.of(node1, node2));
+    Assert.assertEquals(node1.getActions().size(), store.getNode(node1.getId()).getActions().size());
+    Assert.assertEquals(node2.getActions().size(), store.getNode(node2.getId()).getActions().size());
+
+    store.writeNodes(ImmutableList.<Node>of());
+  }
+
   @Test
   public void testGetClusterNodes() throws Exception {
     Cluster cluster = new JsonSerde().getGson().fromJson(SchedulerTest.TEST_CLUSTER, Cluster.class);
@@ -209,6 +615,11 @@ public abstract class ClusterStoreTest {
     Set<Node> nodes =  store.getNodes(ImmutableSet.of(node1.getId(), node2.getId()));
     Assert.assertEquals(ImmutableSet.of(node1, node2), nodes);
 
+    // missing nodes are left out.
+    nodes = store.getNodes(ImmutableSet.of(node1.getId(), "missing"));
+    Assert.assertEquals(ImmutableSet.of(node1), nodes);
+    Assert.assertTrue(store.getNodes(ImmutableSet.<String>of()).isEmpty());
+
     store.deleteNode(node1.getId());
     Assert.assertNull(store.getNode(node1.getId()));
 
@@ -216,6 +627,25 @@ public abstract class ClusterStoreTest {
     Assert.assertNull(store.getNode(node1.getId()));
   }
 
+  @Test
+  public void testGetManyNodes() throws Exception {
+    // more nodes than fit in a single lookup.
+    Set<Node> nodes = Sets.newHashSet();
+    Set<String> nodeIds = Sets.newHashSet();
+    for (int i = 0; i < 600; i++) {
+      Node node = new Node("node" + i, "1", ImmutableSet.<Service>of(), ImmutableMap.<String, String>of());
+      nodes.add(node);
+      nodeIds.add(node.getId());
+    }
+    store.writeNodes(nodes);
+
+    Assert.assertEquals(nodes, store.getNodes(nodeIds));
+
+    for (String nodeId : nodeIds) {
+      store.deleteNode(nodeId);
+    }
+  }
+
   @Test
   public void testGetRunningTasks() throws Exception {
     ClusterTask task1 = new ClusterTask(ProvisionerAction.CREATE, TaskId.fromString("1-1-1"), "node1", "service",
@@ -15,20 +15,31 @@
  */
 package com.continuuity.loom.store;
 
+import com.continuuity.loom.Entities;
+import com.continuuity.loom.cluster.Cluster;
+import com.continuuity.loom.cluster.ClusterSummary;
 import com.continuuity.loom.conf.Configuration;
 import com.continuuity.loom.conf.Constants;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.apache.twill.internal.zookeeper.InMemoryZKServer;
 import org.apache.twill.zookeeper.ZKClientService;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  *
@@ -39,6 +50,7 @@ public class SQLClusterStoreTest extends ClusterStoreTest {
   private static InMemoryZKServer zkServer;
   private static ZKClientService zkClient;
   private static SQLClusterStore clusterStore;
+  private static DBConnectionPool dbConnectionPool;
 
   @BeforeClass
   public static void beforeClass() throws SQLException, ClassNotFoundException, IOException {
@@ -51,7 +63,7 @@ public class SQLClusterStoreTest extends ClusterStoreTest {
     Configuration sqlConf = new Configuration();
     sqlConf.set(Constants.JDBC_DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
     sqlConf.set(Constants.JDBC_CONNECTION_STRING, "jdbc:derby:memory:loom;create=true");
-    DBConnectionPool dbConnectionPool = new DBConnectionPool(sqlConf);
+    dbConnectionPool = new DBConnectionPool(sqlConf);
     clusterStore = new SQLClusterStore(zkClient, dbConnectionPool, 1, 1);
     clusterStore.initialize();
     clusterStore.initDerbyDB();
@@ -64,6 +76,76 @@ public class SQLClusterStoreTest extends ClusterStoreTest {
     clusterStore.clearData();
   }
 
+  @Test
+  public void testSummariesFilledForOldClusters() throws Exception {
+    Cluster cluster = new Cluster(
+      store.getNewClusterId(), "user", "example-hdfs", System.currentTimeMillis(), "hdfs cluster",
+      Entities.ProviderExample.RACKSPACE,
+      Entities.ClusterTemplateExample.HDFS,
+      ImmutableSet.of("node1", "node2"),
+      ImmutableSet.of("s1", "s2")
+    );
+    cluster.addJob(cluster.getId() + "-1");
+    store.writeCluster(cluster);
+
+    // clusters written before the summary columns existed have nulls in them.
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        statement.executeUpdate("UPDATE clusters SET template_name=NULL, num_nodes=NULL, latest_job_id=NULL");
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+
+    new SQLClusterStore(zkClient, dbConnectionPool, 1, 1);
+    Assert.assertEquals(ImmutableList.of(ClusterSummary.fromCluster(cluster)), store.getAllClusterSummaries());
+  }
+
+  @Test
+  public void testBlobsRewrittenInConfiguredFormat() throws Exception {
+    Cluster cluster = new Cluster(
+      store.getNewClusterId(), "user", "example-hdfs", System.currentTimeMillis(), "hdfs cluster",
+      Entities.ProviderExample.RACKSPACE,
+      Entities.ClusterTemplateExample.HDFS,
+      ImmutableSet.of("node1", "node2"),
+      ImmutableSet.of("s1", "s2")
+    );
+    // blobs are json unless a binary format is configured.
+    store.writeCluster(cluster);
+    Assert.assertEquals(BlobSerde.Format.JSON, getClusterBlobFormat(cluster.getId()));
+
+    SQLClusterStore binaryStore = new SQLClusterStore(zkClient, dbConnectionPool, 1, 1, BlobSerde.Format.BINARY);
+    Assert.assertEquals(cluster, binaryStore.getCluster(cluster.getId()));
+    binaryStore.writeCluster(cluster);
+    Assert.assertEquals(BlobSerde.Format.BINARY, getClusterBlobFormat(cluster.getId()));
+    Assert.assertEquals(cluster, store.getCluster(cluster.getId()));
+  }
+
+  private BlobSerde.Format getClusterBlobFormat(String clusterId) throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      PreparedStatement statement = conn.prepareStatement("SELECT cluster FROM clusters WHERE id=?");
+      try {
+        statement.setLong(1, Long.parseLong(clusterId));
+        ResultSet rs = statement.executeQuery();
+        try {
+          Assert.assertTrue(rs.next());
+          return BlobSerde.getFormat(rs.getBytes(1));
+        } finally {
+          rs.close();
+        }
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
   @AfterClass
   public static void afterClass() {
     zkClient.stopAndWait();
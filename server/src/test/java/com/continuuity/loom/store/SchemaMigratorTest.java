@@ -0,0 +1,304 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.conf.Configuration;
+import com.continuuity.loom.conf.Constants;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ */
+public class SchemaMigratorTest {
+  private static final List<List<String>> VERSIONS = ImmutableList.<List<String>>of(
+    ImmutableList.of("CREATE TABLE items ( id BIGINT, status VARCHAR(32) )"),
+    ImmutableList.of(
+      "ALTER TABLE items ALTER COLUMN id NOT NULL",
+      "ALTER TABLE items ADD CONSTRAINT items_pk PRIMARY KEY (id)",
+      "CREATE INDEX items_status_index ON items (status)"
+    )
+  );
+  private static int dbNum = 0;
+  private String dbName;
+  private DBConnectionPool dbConnectionPool;
+
+  @Before
+  public void before() throws Exception {
+    // every test gets its own database so that it starts without any tables.
+    dbName = "schema" + dbNum++;
+    Configuration sqlConf = new Configuration();
+    sqlConf.set(Constants.JDBC_DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
+    sqlConf.set(Constants.JDBC_CONNECTION_STRING, "jdbc:derby:memory:" + dbName + ";create=true");
+    dbConnectionPool = new DBConnectionPool(sqlConf);
+  }
+
+  @After
+  public void after() {
+    try {
+      DriverManager.getConnection("jdbc:derby:memory:" + dbName + ";drop=true");
+    } catch (SQLException e) {
+      // this is normal when a drop happens
+      if (!e.getSQLState().equals("08006") ) {
+        Throwables.propagate(e);
+      }
+    }
+  }
+
+  @Test
+  public void testMigrateNewDatabase() throws SQLException {
+    SchemaMigrator migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS);
+    Assert.assertEquals(0, migrator.getVersion());
+    migrator.migrate();
+    Assert.assertEquals(2, migrator.getVersion());
+    Assert.assertEquals(ImmutableSet.of("ITEMS_STATUS_INDEX"), getNamedIndexes("ITEMS"));
+    assertKeyEnforced();
+  }
+
+  @Test
+  public void testMigrateUnversionedDatabase() throws SQLException {
+    execute("CREATE TABLE items ( id BIGINT, status VARCHAR(32) )");
+    execute("INSERT INTO items VALUES (1, 'ACTIVE')");
+
+    SchemaMigrator migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS);
+    migrator.migrate();
+    Assert.assertEquals(2, migrator.getVersion());
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM items WHERE id=1 AND status='ACTIVE'"));
+    assertKeyEnforced();
+  }
+
+  @Test
+  public void testMigrateRemovesDuplicateKeys() throws SQLException {
+    execute("CREATE TABLE items ( id BIGINT, status VARCHAR(32) )");
+    execute("INSERT INTO items VALUES (1, 'PENDING')");
+    execute("INSERT INTO items VALUES (2, 'ACTIVE')");
+    execute("INSERT INTO items VALUES (1, 'PENDING')");
+    execute("INSERT INTO items VALUES (1, 'ACTIVE')");
+
+    SchemaMigrator migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS);
+    migrator.migrate();
+    Assert.assertEquals(2, migrator.getVersion());
+    Assert.assertEquals(2, count("SELECT COUNT(*) FROM items"));
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM items WHERE id=1 AND status='ACTIVE'"));
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM items WHERE id=2 AND status='ACTIVE'"));
+    assertKeyEnforced();
+  }
+
+  @Test
+  public void testMigrateIsIdempotent() throws SQLException {
+    new SchemaMigrator(dbConnectionPool, "items", VERSIONS).migrate();
+    execute("INSERT INTO items VALUES (1, 'ACTIVE')");
+    SchemaMigrator migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS);
+    migrator.migrate();
+    migrator.migrate();
+    Assert.assertEquals(2, migrator.getVersion());
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM items"));
+  }
+
+  @Test
+  public void testMigrateOneVersionAtATime() throws SQLException {
+    SchemaMigrator migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS.subList(0, 1));
+    migrator.migrate();
+    Assert.assertEquals(1, migrator.getVersion());
+    execute("INSERT INTO items VALUES (1, 'ACTIVE')");
+
+    migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS);
+    migrator.migrate();
+    Assert.assertEquals(2, migrator.getVersion());
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM items"));
+    assertKeyEnforced();
+  }
+
+  @Test
+  public void testFailedVersionIsRolledBack() throws SQLException {
+    List<List<String>> versions = ImmutableList.<List<String>>of(
+      VERSIONS.get(0),
+      ImmutableList.of(
+        "CREATE INDEX items_status_index ON items (status)",
+        "ALTER TABLE missing ADD CONSTRAINT missing_pk PRIMARY KEY (id)"
+      )
+    );
+    SchemaMigrator migrator = new SchemaMigrator(dbConnectionPool, "items", versions);
+    try {
+      migrator.migrate();
+      Assert.fail();
+    } catch (SQLException e) {
+      // expected
+    }
+    Assert.assertEquals(1, migrator.getVersion());
+    Assert.assertTrue(getNamedIndexes("ITEMS").isEmpty());
+
+    // the next run picks up from the last version that succeeded.
+    migrator = new SchemaMigrator(dbConnectionPool, "items", VERSIONS);
+    migrator.migrate();
+    Assert.assertEquals(2, migrator.getVersion());
+    Assert.assertEquals(ImmutableSet.of("ITEMS_STATUS_INDEX"), getNamedIndexes("ITEMS"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNewerVersionFails() throws SQLException {
+    new SchemaMigrator(dbConnectionPool, "items", VERSIONS).migrate();
+    new SchemaMigrator(dbConnectionPool, "items", VERSIONS.subList(0, 1)).migrate();
+  }
+
+  @Test
+  public void testSchemasAreVersionedSeparately() throws SQLException {
+    new SchemaMigrator(dbConnectionPool, "items", VERSIONS.subList(0, 1)).migrate();
+    List<List<String>> otherVersions =
+      ImmutableList.<List<String>>of(ImmutableList.of("CREATE TABLE others ( id BIGINT )"));
+    SchemaMigrator other = new SchemaMigrator(dbConnectionPool, "others", otherVersions);
+    other.migrate();
+    Assert.assertEquals(1, other.getVersion());
+    Assert.assertEquals(1, new SchemaMigrator(dbConnectionPool, "items", VERSIONS).getVersion());
+  }
+
+  @Test
+  public void testUpgradeClusterStoreTables() throws SQLException {
+    // tables as they were created before the schema was versioned.
+    for (String sql : SQLClusterStore.SCHEMA.get(0)) {
+      execute(sql);
+    }
+    execute("INSERT INTO clusters (id, owner_id, status) VALUES (1, 'user1', 'ACTIVE')");
+    execute("INSERT INTO tasks (cluster_id, job_num, task_num, status) VALUES (1, 1, 1, 'COMPLETE')");
+    execute("INSERT INTO tasks (cluster_id, job_num, task_num, status) VALUES (1, 1, 1, 'COMPLETE')");
+    execute("INSERT INTO tasks (cluster_id, job_num, task_num, status) VALUES (1, 2, 1, 'COMPLETE')");
+
+    new SchemaMigrator(dbConnectionPool, "clusters", SQLClusterStore.SCHEMA).migrate();
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM clusters"));
+    Assert.assertEquals(2, count("SELECT COUNT(*) FROM tasks"));
+    Assert.assertEquals(ImmutableSet.of("CLUSTERS_OWNER_INDEX", "CLUSTERS_CREATE_TIME_INDEX", "CLUSTERS_STATUS_INDEX"),
+                        getNamedIndexes("CLUSTERS"));
+    Assert.assertEquals(ImmutableSet.of("TASKS_STATUS_INDEX"), getNamedIndexes("TASKS"));
+    Assert.assertEquals(ImmutableSet.of("NODES_CLUSTER_INDEX"), getNamedIndexes("NODES"));
+    Assert.assertEquals(ImmutableSet.of("CLUSTER_ID", "JOB_NUM", "TASK_NUM"), getPrimaryKey("TASKS"));
+    Assert.assertEquals(ImmutableSet.of("CLUSTER_ID", "JOB_NUM"), getPrimaryKey("JOBS"));
+    Assert.assertEquals(ImmutableSet.of("ID"), getPrimaryKey("CLUSTERS"));
+    Assert.assertEquals(ImmutableSet.of("ID"), getPrimaryKey("NODES"));
+  }
+
+  @Test
+  public void testUpgradeEntityStoreTables() throws SQLException {
+    for (String sql : SQLEntityStore.SCHEMA.get(0)) {
+      execute(sql);
+    }
+    execute("INSERT INTO services (name) VALUES ('hadoop')");
+    execute("INSERT INTO services (name) VALUES ('hadoop')");
+
+    new SchemaMigrator(dbConnectionPool, "entities", SQLEntityStore.SCHEMA).migrate();
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM services"));
+    for (String table : ImmutableList.of("PROVIDERS", "HARDWARETYPES", "IMAGETYPES", "SERVICES", "CLUSTERTEMPLATES")) {
+      Assert.assertEquals(ImmutableSet.of("NAME"), getPrimaryKey(table));
+    }
+  }
+
+  private void assertKeyEnforced() throws SQLException {
+    execute("INSERT INTO items VALUES (2, 'ACTIVE')");
+    try {
+      execute("INSERT INTO items VALUES (2, 'INACTIVE')");
+      Assert.fail();
+    } catch (SQLException e) {
+      Assert.assertTrue(e.getSQLState().startsWith("23"));
+    }
+  }
+
+  // indexes that were created by name, leaving out the ones derby creates for constraints.
+  private Set<String> getNamedIndexes(String table) throws SQLException {
+    Set<String> indexes = Sets.newHashSet();
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      ResultSet rs = conn.getMetaData().getIndexInfo(null, null, table, false, false);
+      try {
+        while (rs.next()) {
+          String name = rs.getString("INDEX_NAME");
+          if (name != null && !name.startsWith("SQL")) {
+            indexes.add(name);
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      conn.close();
+    }
+    return indexes;
+  }
+
+  private Set<String> getPrimaryKey(String table) throws SQLException {
+    Set<String> columns = Sets.newHashSet();
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      ResultSet rs = conn.getMetaData().getPrimaryKeys(null, null, table);
+      try {
+        while (rs.next()) {
+          columns.add(rs.getString("COLUMN_NAME"));
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      conn.close();
+    }
+    return columns;
+  }
+
+  private long count(String sql) throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        ResultSet rs = statement.executeQuery(sql);
+        try {
+          rs.next();
+          return rs.getLong(1);
+        } finally {
+          rs.close();
+        }
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  private void execute(String sql) throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        statement.executeUpdate(sql);
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2012-2014, Continuuity, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.continuuity.loom.store;
+
+import com.continuuity.loom.conf.Configuration;
+import com.continuuity.loom.conf.Constants;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ */
+public class UpsertTest {
+  private static final List<Upsert.Column> KEYS =
+    ImmutableList.of(new Upsert.Column("id", Types.BIGINT), new Upsert.Column("name", Types.VARCHAR));
+  private static final List<Upsert.Column> INSERT_ONLY =
+    ImmutableList.of(new Upsert.Column("create_time", Types.TIMESTAMP));
+  private static final List<Upsert.Column> UPDATABLE =
+    ImmutableList.of(new Upsert.Column("status", Types.VARCHAR), new Upsert.Column("data", Types.BLOB));
+  private static DBConnectionPool dbConnectionPool;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    Configuration sqlConf = new Configuration();
+    sqlConf.set(Constants.JDBC_DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
+    sqlConf.set(Constants.JDBC_CONNECTION_STRING, "jdbc:derby:memory:upsert;create=true");
+    dbConnectionPool = new DBConnectionPool(sqlConf);
+    execute("CREATE TABLE items ( id BIGINT NOT NULL, name VARCHAR(64) NOT NULL, create_time TIMESTAMP," +
+              " status VARCHAR(32), data BLOB, PRIMARY KEY (id, name) )");
+  }
+
+  @Before
+  public void before() throws SQLException {
+    execute("DELETE FROM items");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    try {
+      DriverManager.getConnection("jdbc:derby:memory:upsert;drop=true");
+    } catch (SQLException e) {
+      // this is normal when a drop happens
+      if (!e.getSQLState().equals("08006") ) {
+        Throwables.propagate(e);
+      }
+    }
+  }
+
+  @Test
+  public void testDetectDialect() throws SQLException {
+    Assert.assertEquals(DBDialect.GENERIC, dbConnectionPool.getDialect());
+  }
+
+  @Test
+  public void testInsertThenUpdate() throws SQLException {
+    Upsert upsert = new Upsert(DBDialect.GENERIC, "items", KEYS, INSERT_ONLY, UPDATABLE);
+
+    write(upsert, 1L, "a", new Timestamp(1000), "PENDING", bytes("first"));
+    write(upsert, 1L, "b", new Timestamp(2000), "PENDING", bytes("other"));
+    Assert.assertEquals("1 a 1000 PENDING first", getRow(1, "a"));
+
+    // insert only columns should not change on update.
+    write(upsert, 1L, "a", new Timestamp(3000), "COMPLETE", bytes("second"));
+    Assert.assertEquals("1 a 1000 COMPLETE second", getRow(1, "a"));
+    Assert.assertEquals("1 b 2000 PENDING other", getRow(1, "b"));
+    Assert.assertEquals(2, countRows());
+  }
+
+  @Test
+  public void testNullValues() throws SQLException {
+    Upsert upsert = new Upsert(DBDialect.GENERIC, "items", KEYS, INSERT_ONLY, UPDATABLE);
+
+    write(upsert, 1L, "a", null, null, null);
+    Assert.assertEquals("1 a null null null", getRow(1, "a"));
+    write(upsert, 1L, "a", new Timestamp(1000), "PENDING", bytes("data"));
+    Assert.assertEquals("1 a null PENDING data", getRow(1, "a"));
+    write(upsert, 1L, "a", null, null, null);
+    Assert.assertEquals("1 a null null null", getRow(1, "a"));
+  }
+
+  @Test
+  public void testWriteBatch() throws SQLException {
+    Upsert upsert = new Upsert(DBDialect.GENERIC, "items", KEYS, INSERT_ONLY, UPDATABLE);
+    write(upsert, 1L, "a", new Timestamp(1000), "PENDING", bytes("first"));
+
+    List<Object[]> rows = Lists.newArrayList();
+    for (long i = 1; i <= 10; i++) {
+      rows.add(new Object[] { i, "a", new Timestamp(2000), "PENDING", bytes("batch" + i) });
+    }
+    // the last row with the same key wins.
+    rows.add(new Object[] { 2L, "a", new Timestamp(3000), "COMPLETE", bytes("last") });
+
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      conn.setAutoCommit(false);
+      upsert.writeBatch(conn, rows);
+      conn.commit();
+      conn.setAutoCommit(true);
+      upsert.writeBatch(conn, ImmutableList.<Object[]>of());
+    } finally {
+      conn.close();
+    }
+
+    Assert.assertEquals(10, countRows());
+    Assert.assertEquals("1 a 1000 PENDING batch1", getRow(1, "a"));
+    Assert.assertEquals("2 a 3000 COMPLETE last", getRow(2, "a"));
+    for (long i = 3; i <= 10; i++) {
+      Assert.assertEquals(i + " a 2000 PENDING batch" + i, getRow(i, "a"));
+    }
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    final Upsert upsert = new Upsert(DBDialect.GENERIC, "items", KEYS, INSERT_ONLY, UPDATABLE);
+    final int numThreads = 8;
+    final int numKeys = 50;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < numThreads; i++) {
+      final String status = "thread" + i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            for (long key = 0; key < numKeys; key++) {
+              write(upsert, key, "a", new Timestamp(1000), status, bytes(status));
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    Assert.assertEquals(numKeys, countRows());
+  }
+
+  @Test
+  public void testConcurrentWritesInTransactions() throws Exception {
+    final Upsert upsert = new Upsert(DBDialect.GENERIC, "items", KEYS, INSERT_ONLY, UPDATABLE);
+    final int numThreads = 8;
+    final int numKeys = 50;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < numThreads; i++) {
+      final String status = "thread" + i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            Connection conn = dbConnectionPool.getConnection();
+            try {
+              conn.setAutoCommit(false);
+              for (long key = 0; key < numKeys; key++) {
+                // a row only this thread writes, which must survive a retried write later in the transaction
+                upsert.write(conn, key, status, new Timestamp(1000), status, bytes(status));
+                upsert.write(conn, key, "a", new Timestamp(1000), status, bytes(status));
+                conn.commit();
+              }
+            } finally {
+              conn.setAutoCommit(true);
+              conn.close();
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    Assert.assertEquals(numKeys * (numThreads + 1), countRows());
+  }
+
+  @Test
+  public void testStatements() {
+    Assert.assertNull(new Upsert(DBDialect.GENERIC, "items", KEYS, INSERT_ONLY, UPDATABLE).getUpsertStatement());
+    Assert.assertEquals(
+      "INSERT INTO items (id, name, create_time, status, data) VALUES (?, ?, ?, ?, ?)" +
+        " ON DUPLICATE KEY UPDATE status=VALUES(status), data=VALUES(data)",
+      new Upsert(DBDialect.MYSQL, "items", KEYS, INSERT_ONLY, UPDATABLE).getUpsertStatement());
+    Assert.assertEquals(
+      "INSERT INTO items (id, name, create_time, status, data) VALUES (?, ?, ?, ?, ?)" +
+        " ON CONFLICT (id, name) DO UPDATE SET status=EXCLUDED.status, data=EXCLUDED.data",
+      new Upsert(DBDialect.POSTGRESQL, "items", KEYS, INSERT_ONLY, UPDATABLE).getUpsertStatement());
+  }
+
+  private static void write(Upsert upsert, Object... row) throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      upsert.write(conn, row);
+    } finally {
+      conn.close();
+    }
+  }
+
+  private static byte[] bytes(String str) {
+    return str.getBytes(Charsets.UTF_8);
+  }
+
+  // returns the row as a space separated string, or null if it does not exist.
+  private static String getRow(long id, String name) throws SQLException {
+    Map<String, String> rows = Maps.newHashMap();
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        ResultSet rs = statement.executeQuery("SELECT id, name, create_time, status, data FROM items");
+        try {
+          while (rs.next()) {
+            Timestamp createTime = rs.getTimestamp(3);
+            byte[] data = rs.getBytes(5);
+            String key = rs.getLong(1) + " " + rs.getString(2);
+            rows.put(key, key + " " + (createTime == null ? null : createTime.getTime()) + " " + rs.getString(4) +
+              " " + (data == null ? null : new String(data, Charsets.UTF_8)));
+          }
+        } finally {
+          rs.close();
+        }
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+    return rows.get(id + " " + name);
+  }
+
+  private static int countRows() throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM items");
+        try {
+          rs.next();
+          return rs.getInt(1);
+        } finally {
+          rs.close();
+        }
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  private static void execute(String sql) throws SQLException {
+    Connection conn = dbConnectionPool.getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        statement.execute(sql);
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+}